@@ -0,0 +1,70 @@
+package com.ben.es0.benchmark;
+
+import com.ben.es0.domain.Account;
+import com.ben.es0.domain.events.AccountCreatedEvent;
+import com.ben.es0.domain.events.AccountEvent;
+import com.ben.es0.domain.events.MoneyDepositedEvent;
+import com.ben.es0.domain.events.MoneyWithdrawnEvent;
+import com.ben.es0.eventstore.EventSerializer;
+import com.ben.es0.eventstore.codec.BinaryEventCodec;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Replaying a history into an Account, without any I/O. The *Stored benchmarks start from the encoded payloads
+// as the event store reads them: decoding into event objects first, or folding the payloads straight into the account.
+// Allocation per replay: add -prof gc, e.g. -Djmh.args="AccountRehydration -f 1 -wi 2 -i 3 -prof gc"
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class AccountRehydrationBenchmark {
+
+    @Param({"10", "1000", "100000"})
+    public int events;
+
+    private final EventSerializer serializer = new EventSerializer("binary");
+    private List<AccountEvent> history;
+    private byte[][] payloads;
+
+    @Setup
+    public void createHistory() {
+        history = new ArrayList<>(events);
+        history.add(new AccountCreatedEvent("a1", 1_000));
+        for (int i = 1; i < events; i++) {
+            history.add(i % 3 == 0 ? new MoneyWithdrawnEvent("a1", 1) : new MoneyDepositedEvent("a1", 2));
+        }
+        payloads = history.stream().map(serializer::serialize).toArray(byte[][]::new);
+    }
+
+    @Benchmark
+    public Account rehydrate() {
+        return new Account("a1", history);
+    }
+
+    @Benchmark
+    public Account rehydrateStoredDecoding() {
+        Account account = new Account("a1", List.of());
+        for (byte[] payload : payloads) {
+            account.apply(serializer.deserialize("a1", BinaryEventCodec.ID, payload));
+        }
+        return account;
+    }
+
+    @Benchmark
+    public Account rehydrateStoredFolding() {
+        Account account = new Account("a1", List.of());
+        for (byte[] payload : payloads) {
+            serializer.fold("a1", BinaryEventCodec.ID, payload, account::apply);
+        }
+        return account;
+    }
+}
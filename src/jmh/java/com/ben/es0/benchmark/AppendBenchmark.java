@@ -0,0 +1,78 @@
+package com.ben.es0.benchmark;
+
+import com.ben.es0.domain.events.AccountCreatedEvent;
+import com.ben.es0.domain.events.AccountEvent;
+import com.ben.es0.domain.events.MoneyDepositedEvent;
+import com.ben.es0.eventstore.EventStore;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Append throughput of the configured EventStore against H2, four writer threads.
+// single: every thread appends to its own aggregate with a strict expected version.
+// contended: all threads deposit to one shared aggregate at the next free version.
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Threads(4)
+public class AppendBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Store {
+        @Param({"false", "true"})
+        public String groupCommit;
+
+        ConfigurableApplicationContext context;
+        EventStore eventStore;
+        final AtomicInteger aggregates = new AtomicInteger();
+
+        @Setup
+        public void start() {
+            context = BenchmarkContext.start(Map.of("es0.eventstore.group-commit.enabled", groupCommit));
+            eventStore = context.getBean(EventStore.class);
+            eventStore.save("shared", List.of(new AccountCreatedEvent("shared", 0)), 0);
+        }
+
+        @TearDown
+        public void stop() {
+            context.close();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Writer {
+        String aggregateId;
+        int version;
+        List<AccountEvent> deposit;
+
+        @Setup
+        public void create(Store store) {
+            aggregateId = "writer-" + store.aggregates.incrementAndGet();
+            store.eventStore.save(aggregateId, List.of(new AccountCreatedEvent(aggregateId, 0)), 0);
+            version = 1;
+            deposit = List.of(new MoneyDepositedEvent(aggregateId, 1));
+        }
+    }
+
+    @Benchmark
+    public void single(Store store, Writer writer) {
+        store.eventStore.save(writer.aggregateId, writer.deposit, writer.version++);
+    }
+
+    @Benchmark
+    public int contended(Store store) {
+        return store.eventStore.saveAtNextVersion("shared", List.of(new MoneyDepositedEvent("shared", 1)));
+    }
+}
@@ -0,0 +1,35 @@
+package com.ben.es0.benchmark;
+
+import com.ben.es0.Es0Application;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+// 給需要 Spring 與 H2 的基準測試用：每個 trial 啟動一個沒有 web 伺服器、使用獨立記憶體資料庫的應用程式內容。
+// 非同步投影與命令派送都關掉，量到的只有被測的那段程式。
+final class BenchmarkContext {
+
+    private BenchmarkContext() {
+    }
+
+    static ConfigurableApplicationContext start(Map<String, Object> overrides) {
+        Map<String, Object> properties = new HashMap<>();
+        properties.put("spring.datasource.url", "jdbc:h2:mem:bench-" + UUID.randomUUID() + ";DB_CLOSE_DELAY=-1;LOCK_TIMEOUT=10000");
+        properties.put("spring.jpa.show-sql", "false");
+        properties.put("logging.level.root", "WARN");
+        properties.put("es0.projection.enabled", "false");
+        properties.put("es0.commands.dispatcher.enabled", "false");
+        properties.putAll(overrides);
+
+        SpringApplication application = new SpringApplication(Es0Application.class);
+        application.setWebApplicationType(WebApplicationType.NONE);
+        // As command line arguments, so they win over application.properties
+        return application.run(properties.entrySet().stream()
+                .map(e -> "--" + e.getKey() + "=" + e.getValue())
+                .toArray(String[]::new));
+    }
+}
@@ -0,0 +1,56 @@
+package com.ben.es0.benchmark;
+
+import com.ben.es0.domain.events.AccountCreatedEvent;
+import com.ben.es0.domain.events.AccountEvent;
+import com.ben.es0.domain.events.MoneyDepositedEvent;
+import com.ben.es0.domain.events.MoneyWithdrawnEvent;
+import com.ben.es0.eventstore.EventSerializer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+// Encoding and decoding one event the way JpaEventStore does, per event type and codec
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class EventSerializationBenchmark {
+
+    @Param({"binary", "json"})
+    public String codec;
+
+    @Param({"AccountCreated", "MoneyDeposited", "MoneyWithdrawn"})
+    public String eventType;
+
+    private EventSerializer serializer;
+    private AccountEvent event;
+    private byte[] payload;
+
+    @Setup
+    public void setUp() {
+        serializer = new EventSerializer(codec);
+        event = switch (eventType) {
+            case "AccountCreated" -> new AccountCreatedEvent("account-1", 100);
+            case "MoneyDeposited" -> new MoneyDepositedEvent("account-1", 25.5);
+            case "MoneyWithdrawn" -> new MoneyWithdrawnEvent("account-1", 12.25);
+            default -> throw new IllegalArgumentException(eventType);
+        };
+        payload = serializer.serialize(event);
+    }
+
+    @Benchmark
+    public byte[] serialize() {
+        return serializer.serialize(event);
+    }
+
+    @Benchmark
+    public AccountEvent deserialize() {
+        return serializer.deserialize("account-1", serializer.codecId(), payload);
+    }
+}
@@ -0,0 +1,65 @@
+package com.ben.es0.benchmark;
+
+import com.ben.es0.query.AccountQueryService;
+import com.ben.es0.query.AccountReadModel;
+import com.ben.es0.query.AccountReadModelRepository;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+// Balance lookups of GET /accounts/{id}: through the query service (read model cache) and straight from H2
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ReadModelLookupBenchmark {
+
+    private static final int ACCOUNTS = 10_000;
+
+    private ConfigurableApplicationContext context;
+    private AccountQueryService queryService;
+    private AccountReadModelRepository repository;
+
+    @Setup
+    public void start() {
+        context = BenchmarkContext.start(Map.of());
+        queryService = context.getBean(AccountQueryService.class);
+        repository = context.getBean(AccountReadModelRepository.class);
+        List<AccountReadModel> models = new ArrayList<>(ACCOUNTS);
+        for (int i = 0; i < ACCOUNTS; i++) {
+            models.add(new AccountReadModel("account-" + i, i, 1));
+        }
+        repository.saveAll(models);
+    }
+
+    @TearDown
+    public void stop() {
+        context.close();
+    }
+
+    @Benchmark
+    public Optional<AccountReadModel> queryService() {
+        return queryService.getAccountState(randomAccount());
+    }
+
+    @Benchmark
+    public Optional<AccountReadModel> repository() {
+        return repository.findById(randomAccount());
+    }
+
+    private static String randomAccount() {
+        return "account-" + ThreadLocalRandom.current().nextInt(ACCOUNTS);
+    }
+}
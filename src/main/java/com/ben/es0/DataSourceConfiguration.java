@@ -0,0 +1,59 @@
+package com.ben.es0;
+
+import com.zaxxer.hikari.HikariDataSource;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+
+import javax.sql.DataSource;
+import java.time.Duration;
+
+// CQRS 的讀寫分離：命令端 (事件追加、投影、快照) 與查詢端各用一個連線池，各自設定大小，
+// 大量的餘額查詢或事件歷史掃描最多用滿查詢池，不會搶走追加事件需要的連線。
+// 應用程式只看到一個 DataSource：唯讀交易 (@Transactional(readOnly = true)、Spring Data 的查詢方法) 從查詢池拿連線，
+// 其餘的從命令池。LazyConnectionDataSourceProxy 等到第一個 SQL 才真正取得連線，那時已經知道交易是不是唯讀。
+// 查詢池可以指向唯讀副本 (es0.datasource.query.url)；兩個池分別以 hikaricp.connections{pool=command|query} 公開飽和度指標。
+@Configuration
+public class DataSourceConfiguration {
+
+    // spring.datasource.* and spring.datasource.hikari.* keep configuring the primary database
+    @Bean
+    @ConfigurationProperties("spring.datasource.hikari")
+    public HikariDataSource commandDataSource(DataSourceProperties properties) {
+        HikariDataSource dataSource = properties.initializeDataSourceBuilder().type(HikariDataSource.class).build();
+        dataSource.setPoolName("command");
+        return dataSource;
+    }
+
+    @Bean
+    public HikariDataSource queryDataSource(@Value("${es0.datasource.query.url:${spring.datasource.url}}") String url,
+                                            @Value("${es0.datasource.query.username:${spring.datasource.username:}}") String username,
+                                            @Value("${es0.datasource.query.password:${spring.datasource.password:}}") String password,
+                                            @Value("${es0.datasource.query.pool-size:10}") int poolSize,
+                                            @Value("${es0.datasource.query.connection-timeout:5s}") Duration connectionTimeout) {
+        HikariDataSource dataSource = new HikariDataSource();
+        dataSource.setJdbcUrl(url);
+        dataSource.setUsername(username);
+        dataSource.setPassword(password);
+        dataSource.setMaximumPoolSize(poolSize);
+        dataSource.setConnectionTimeout(connectionTimeout.toMillis());
+        dataSource.setReadOnly(true);
+        dataSource.setPoolName("query");
+        return dataSource;
+    }
+
+    // The DataSource behind JPA and every JdbcTemplate: routes each transaction by its read-only flag
+    @Bean
+    @Primary
+    public DataSource dataSource(@Qualifier("commandDataSource") DataSource commandDataSource,
+                                 @Qualifier("queryDataSource") DataSource queryDataSource) {
+        LazyConnectionDataSourceProxy dataSource = new LazyConnectionDataSourceProxy(commandDataSource);
+        dataSource.setReadOnlyDataSource(queryDataSource);
+        return dataSource;
+    }
+}
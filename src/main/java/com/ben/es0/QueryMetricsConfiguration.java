@@ -0,0 +1,21 @@
+package com.ben.es0;
+
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import jakarta.persistence.EntityManagerFactory;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.stat.HibernateQueryMetrics;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+// Spring Boot 只綁定 Hibernate 的彙總統計；這裡另外綁定每條查詢的統計，
+// 以 hibernate.query{query=...} 公開各 HQL/SQL 的執行次數與執行時間 (需要 hibernate.generate_statistics=true)。
+// 注意：必須 unwrap 成 SessionFactoryImplementor，unwrap(SessionFactory) 拿到的是 Spring 的代理，HibernateQueryMetrics 會靜默略過。
+@Configuration
+public class QueryMetricsConfiguration {
+
+    @Bean
+    public MeterBinder hibernateQueryMetrics(EntityManagerFactory entityManagerFactory) {
+        return new HibernateQueryMetrics(entityManagerFactory.unwrap(SessionFactoryImplementor.class), "entityManagerFactory", Tags.empty());
+    }
+}
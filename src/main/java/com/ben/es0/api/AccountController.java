@@ -1,17 +1,36 @@
 package com.ben.es0.api;
 
+import com.ben.es0.command.BatchCommand;
 import com.ben.es0.command.CreateAccountCommand;
 import com.ben.es0.command.DepositCommand;
 import com.ben.es0.command.WithdrawCommand;
 import com.ben.es0.commandhandling.AccountCommandHandler;
+import com.ben.es0.commandhandling.AccountNotFoundException;
+import com.ben.es0.commandhandling.BatchCommandHandler;
+import com.ben.es0.commandhandling.BatchCommandResult;
+import com.ben.es0.commandhandling.CommandDispatcher;
+import com.ben.es0.commandhandling.CommandRejectedException;
+import com.ben.es0.domain.InsufficientFundsException;
 import com.ben.es0.domain.events.AccountEvent;
+import com.ben.es0.eventstore.ConcurrencyException;
 import com.ben.es0.query.AccountQueryService;
 import com.ben.es0.query.AccountReadModel;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.util.UriUtils;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
 
@@ -19,22 +38,45 @@ import java.util.Optional;
 @RequestMapping("/accounts")
 public class AccountController {
 
+    private static final int MAX_EVENTS_PAGE_SIZE = 1000;
+    private static final int MAX_ACCOUNTS_PAGE_SIZE = 1000;
+    // Version of the account after a command, pass it as minVersion to GET /accounts/{id} to read your own write
+    static final String ACCOUNT_VERSION_HEADER = "X-Account-Version";
+
+    private static final String NDJSON = "application/x-ndjson";
+
     private final AccountCommandHandler commandHandler;
+    private final BatchCommandHandler batchCommandHandler;
+    private final CommandDispatcher commandDispatcher;
     private final AccountQueryService queryService;
+    private final ObjectMapper objectMapper;
+    private final int maxBatchSize;
 
     @Autowired
-    public AccountController(AccountCommandHandler commandHandler, AccountQueryService queryService) {
+    public AccountController(AccountCommandHandler commandHandler, BatchCommandHandler batchCommandHandler,
+                             CommandDispatcher commandDispatcher, AccountQueryService queryService, ObjectMapper objectMapper,
+                             @Value("${es0.commands.batch.max-size:100000}") int maxBatchSize) {
         this.commandHandler = commandHandler;
+        this.batchCommandHandler = batchCommandHandler;
+        this.commandDispatcher = commandDispatcher;
         this.queryService = queryService;
+        this.objectMapper = objectMapper;
+        this.maxBatchSize = maxBatchSize;
     }
 
     @PostMapping
     public ResponseEntity<String> createAccount(@RequestBody CreateAccountCommand command) {
         try {
-            commandHandler.handle(command);
-            return ResponseEntity.status(HttpStatus.CREATED).body("Account created successfully: " + command.getAccountId());
+            // Commands of one account run one after the other on its dispatcher stripe
+            int version = commandDispatcher.dispatch(command.getAccountId(), () -> commandHandler.handle(command));
+            return ResponseEntity.status(HttpStatus.CREATED).header(ACCOUNT_VERSION_HEADER, String.valueOf(version)).body("Account created successfully: " + command.getAccountId());
         } catch (IllegalArgumentException e) {
             return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(e.getMessage());
+        } catch (CommandRejectedException e) {
+            return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS).header(HttpHeaders.RETRY_AFTER, "1").body(e.getMessage());
+        } catch (ConcurrencyException e) {
+            // Another request created the same account at the same time
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(e.getMessage());
         } catch (Exception e) {
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body("Error creating account: " + e.getMessage());
         }
@@ -46,12 +88,16 @@ public class AccountController {
             return ResponseEntity.status(HttpStatus.BAD_REQUEST).body("Account ID in path and body do not match.");
         }
         try {
-            commandHandler.handle(command);
-            return ResponseEntity.ok("Deposit successful for account: " + accountId);
+            // Commands of one account run one after the other on its dispatcher stripe
+            int version = commandDispatcher.dispatch(command.getAccountId(), () -> commandHandler.handle(command));
+            return ResponseEntity.ok().header(ACCOUNT_VERSION_HEADER, String.valueOf(version)).body("Deposit successful for account: " + accountId);
+        } catch (AccountNotFoundException e) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(e.getMessage());
         } catch (IllegalArgumentException e) {
-            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(e.getMessage()); // Account not found
-        } catch (RuntimeException e) {
-            // Catch concurrency conflict or other errors
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(e.getMessage()); // Not positive or finer than a cent
+        } catch (CommandRejectedException e) {
+            return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS).header(HttpHeaders.RETRY_AFTER, "1").body(e.getMessage());
+        } catch (ConcurrencyException e) {
             return ResponseEntity.status(HttpStatus.CONFLICT).body(e.getMessage());
         } catch (Exception e) {
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body("Error during deposit: " + e.getMessage());
@@ -64,23 +110,84 @@ public class AccountController {
             return ResponseEntity.status(HttpStatus.BAD_REQUEST).body("Account ID in path and body do not match.");
         }
         try {
-            commandHandler.handle(command);
-            return ResponseEntity.ok("Withdrawal successful for account: " + accountId);
+            // Commands of one account run one after the other on its dispatcher stripe
+            int version = commandDispatcher.dispatch(command.getAccountId(), () -> commandHandler.handle(command));
+            return ResponseEntity.ok().header(ACCOUNT_VERSION_HEADER, String.valueOf(version)).body("Withdrawal successful for account: " + accountId);
+        } catch (AccountNotFoundException e) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(e.getMessage());
         } catch (IllegalArgumentException e) {
-            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(e.getMessage()); // Account not found
-        } catch (IllegalStateException e) {
-            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(e.getMessage()); // Insufficient funds
-        } catch (RuntimeException e) {
-            // Catch concurrency conflict or other errors
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(e.getMessage()); // Not positive or finer than a cent
+        } catch (InsufficientFundsException e) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(e.getMessage());
+        } catch (CommandRejectedException e) {
+            return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS).header(HttpHeaders.RETRY_AFTER, "1").body(e.getMessage());
+        } catch (ConcurrencyException e) {
             return ResponseEntity.status(HttpStatus.CONFLICT).body(e.getMessage());
         } catch (Exception e) {
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body("Error during withdrawal: " + e.getMessage());
         }
     }
 
+    // Body is either a JSON array of commands or NDJSON (one command per line).
+    // Always answers 200 with one result per command, in request order.
+    @PostMapping(value = "/commands:batch", consumes = {MediaType.APPLICATION_JSON_VALUE, NDJSON})
+    public ResponseEntity<?> batchCommands(InputStream body) {
+        List<BatchCommand> commands = new ArrayList<>();
+        // A root level array is unwrapped, otherwise the values are read one after the other
+        try (MappingIterator<BatchCommand> it = objectMapper.readerFor(BatchCommand.class).readValues(body)) {
+            while (it.hasNext()) {
+                if (commands.size() == maxBatchSize) {
+                    return ResponseEntity.status(HttpStatus.PAYLOAD_TOO_LARGE)
+                            .body("A batch may contain at most " + maxBatchSize + " commands.");
+                }
+                commands.add(it.next());
+            }
+        } catch (IOException | RuntimeException e) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body("Malformed batch: " + e.getMessage());
+        }
+        List<BatchCommandResult> results = batchCommandHandler.handle(commands);
+        return ResponseEntity.ok(results);
+    }
+
+    // Account listing from the read model, by id (orderBy=accountId) or highest balance first (orderBy=balance).
+    // Keyset pagination: the Link header carries the last row of this page as the start of the next one.
+    @GetMapping
+    public ResponseEntity<?> listAccounts(@RequestParam(defaultValue = "accountId") String orderBy,
+                                          @RequestParam(defaultValue = "") String after,
+                                          @RequestParam(required = false) Double afterBalance,
+                                          @RequestParam(defaultValue = "100") int limit) {
+        if (limit < 1 || limit > MAX_ACCOUNTS_PAGE_SIZE) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body("limit must be between 1 and " + MAX_ACCOUNTS_PAGE_SIZE);
+        }
+        boolean byBalance;
+        switch (orderBy) {
+            case "accountId" -> byBalance = false;
+            case "balance" -> byBalance = true;
+            default -> {
+                return ResponseEntity.status(HttpStatus.BAD_REQUEST).body("orderBy must be accountId or balance");
+            }
+        }
+        if (byBalance && !after.isEmpty() && afterBalance == null) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body("Pass afterBalance together with after.");
+        }
+
+        List<AccountReadModel> page = byBalance
+                ? queryService.listAccountsByBalance(afterBalance, after, limit)
+                : queryService.listAccounts(after, limit);
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok();
+        if (page.size() == limit) {
+            AccountReadModel last = page.get(page.size() - 1);
+            String next = "/accounts?" + (byBalance ? "orderBy=balance&afterBalance=" + last.getBalance() + "&" : "")
+                    + "after=" + UriUtils.encode(last.getAccountId(), StandardCharsets.UTF_8) + "&limit=" + limit;
+            response.header(HttpHeaders.LINK, "<" + next + ">; rel=\"next\"");
+        }
+        return response.body(page);
+    }
+
     @GetMapping("/{accountId}")
-    public ResponseEntity<?> getAccountState(@PathVariable String accountId) {
-        Optional<AccountReadModel> accountState = queryService.getAccountState(accountId);
+    public ResponseEntity<?> getAccountState(@PathVariable String accountId,
+                                             @RequestParam(defaultValue = "0") int minVersion) {
+        Optional<AccountReadModel> accountState = queryService.getAccountState(accountId, minVersion);
         if (accountState.isPresent()) {
             return ResponseEntity.ok(accountState.get());
         } else {
@@ -88,13 +195,48 @@ public class AccountController {
         }
     }
 
+    // Historical state for audits, either as of a moment (ISO-8601, e.g. 2024-01-31T23:59:59Z) or of a version
+    @GetMapping("/{accountId}/as-of")
+    public ResponseEntity<?> getAccountStateAsOf(@PathVariable String accountId,
+                                                 @RequestParam(required = false) Instant timestamp,
+                                                 @RequestParam(required = false) Integer version) {
+        if ((timestamp == null) == (version == null)) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body("Pass either timestamp or version.");
+        }
+        if (version != null && version < 1) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body("version must be >= 1");
+        }
+        Optional<AccountReadModel> state = timestamp != null
+                ? queryService.getAccountStateAsOf(accountId, timestamp)
+                : queryService.getAccountStateAtVersion(accountId, version);
+        if (state.isPresent()) {
+            return ResponseEntity.ok(state.get());
+        }
+        return ResponseEntity.status(HttpStatus.NOT_FOUND).body(timestamp != null
+                ? "Account " + accountId + " did not exist at " + timestamp
+                : "Account " + accountId + " has no version " + version);
+    }
+
+    // Keyset pagination over the aggregate version: each page is one index range scan,
+    // and the Link header points at the next page while there may be more events
     @GetMapping("/{accountId}/events")
-    public ResponseEntity<?> getAccountEvents(@PathVariable String accountId) {
-        List<AccountEvent> events = queryService.getEventsForAccount(accountId);
-        if (!events.isEmpty()) {
-            return ResponseEntity.ok(events);
-        } else {
+    public ResponseEntity<?> getAccountEvents(@PathVariable String accountId,
+                                              @RequestParam(defaultValue = "1") int fromVersion,
+                                              @RequestParam(defaultValue = "100") int limit) {
+        if (fromVersion < 1 || limit < 1 || limit > MAX_EVENTS_PAGE_SIZE) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST)
+                    .body("fromVersion must be >= 1 and limit between 1 and " + MAX_EVENTS_PAGE_SIZE);
+        }
+        List<AccountEvent> events = queryService.getEventsForAccount(accountId, fromVersion, limit);
+        if (events.isEmpty() && fromVersion == 1) {
             return ResponseEntity.status(HttpStatus.NOT_FOUND).body("No events found for account: " + accountId);
         }
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok();
+        if (events.size() == limit) {
+            String next = "/accounts/" + UriUtils.encodePathSegment(accountId, StandardCharsets.UTF_8)
+                    + "/events?fromVersion=" + (fromVersion + limit) + "&limit=" + limit;
+            response.header(HttpHeaders.LINK, "<" + next + ">; rel=\"next\"");
+        }
+        return response.body(events);
     }
 }
@@ -0,0 +1,78 @@
+package com.ben.es0.api;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// 限制同時處理中的 /accounts 請求數。用平台執行緒時 Tomcat 執行緒池本身就是上限，
+// 改用虛擬執行緒後請求數不再受限，全部湧向有界的資料庫連線池只會在 Hikari 裡排隊逾時；
+// 這裡讓多出來的請求短暫等待許可，等不到就直接回 503，而不是佔著連線池的等待佇列。
+// 預設關閉 (平台執行緒的行為不變)，virtual-threads profile 會開啟 es0.web.concurrency-limit.enabled。
+@Component
+@ConditionalOnProperty(name = "es0.web.concurrency-limit.enabled", havingValue = "true")
+public class ConcurrencyLimitFilter extends OncePerRequestFilter implements MeterBinder {
+
+    private final Semaphore permits;
+    private final long acquireTimeoutNanos;
+    private final AtomicLong rejected = new AtomicLong();
+
+    public ConcurrencyLimitFilter(@Value("${es0.web.concurrency-limit.max-concurrent:64}") int maxConcurrent,
+                                  @Value("${es0.web.concurrency-limit.acquire-timeout:1s}") Duration acquireTimeout) {
+        this.permits = new Semaphore(maxConcurrent, true);
+        this.acquireTimeoutNanos = acquireTimeout.toNanos();
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        return !request.getRequestURI().startsWith("/accounts");
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        boolean acquired;
+        try {
+            acquired = permits.tryAcquire(acquireTimeoutNanos, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            acquired = false;
+        }
+        if (!acquired) {
+            rejected.incrementAndGet();
+            response.setStatus(HttpStatus.SERVICE_UNAVAILABLE.value());
+            response.setHeader(HttpHeaders.RETRY_AFTER, "1");
+            response.getWriter().write("Server is busy, please retry later.");
+            return;
+        }
+        try {
+            chain.doFilter(request, response);
+        } finally {
+            permits.release();
+        }
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("es0.web.concurrency-limit.waiting", permits, Semaphore::getQueueLength)
+                .description("Requests waiting for a permit").register(registry);
+        FunctionCounter.builder("es0.web.concurrency-limit.rejected", rejected, AtomicLong::get)
+                .register(registry);
+    }
+}
@@ -0,0 +1,27 @@
+package com.ben.es0.api;
+
+import com.ben.es0.commandhandling.AccountContention;
+import com.ben.es0.commandhandling.ContentionTracker;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+// GET /actuator/contention?limit=20 lists the accounts with the most version conflicts
+@Component
+@Endpoint(id = "contention")
+public class ContentionEndpoint {
+
+    private final ContentionTracker contentionTracker;
+
+    public ContentionEndpoint(ContentionTracker contentionTracker) {
+        this.contentionTracker = contentionTracker;
+    }
+
+    @ReadOperation
+    public List<AccountContention> contention(@Nullable Integer limit) {
+        return contentionTracker.top(limit == null ? 20 : limit);
+    }
+}
@@ -0,0 +1,85 @@
+package com.ben.es0.api;
+
+import com.ben.es0.feed.EventFeed;
+import com.ben.es0.feed.FeedBatch;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+
+@RestController
+@ConditionalOnProperty(name = "es0.feed.enabled", havingValue = "true", matchIfMissing = true)
+@RequestMapping("/feed")
+public class FeedController {
+
+    private final EventFeed eventFeed;
+    private final Duration maxWait;
+
+    @Autowired
+    public FeedController(EventFeed eventFeed, @Value("${es0.feed.max-wait:30s}") Duration maxWait) {
+        this.eventFeed = eventFeed;
+        this.maxWait = maxWait;
+    }
+
+    // Events of all accounts after the given global position, in position order.
+    // With waitMs > 0 the request is held until new events arrive or the wait is over (long poll).
+    // Pass the returned lastPosition as after in the next request. Positions increase but may have gaps (rolled back
+    // appends), so a missing position does not mean a missed event.
+    @GetMapping(produces = MediaType.APPLICATION_JSON_VALUE)
+    public DeferredResult<ResponseEntity<?>> readFeed(@RequestParam(defaultValue = "0") long after,
+                                                      @RequestParam(required = false) Integer limit,
+                                                      @RequestParam(defaultValue = "0") long waitMs) {
+        Integer batchSize = eventFeed.batchSize(limit);
+        if (after < 0 || batchSize == null || waitMs < 0) {
+            DeferredResult<ResponseEntity<?>> invalid = new DeferredResult<>();
+            invalid.setResult(ResponseEntity.status(HttpStatus.BAD_REQUEST)
+                    .body("after and waitMs must be >= 0 and limit between 1 and " + eventFeed.maxBatchSize()));
+            return invalid;
+        }
+        Duration wait = Duration.ofMillis(Math.min(waitMs, maxWait.toMillis()));
+
+        // The feed completes on its own after wait, the async timeout is only a safety net
+        DeferredResult<ResponseEntity<?>> response = new DeferredResult<>(wait.toMillis() + 5000,
+                () -> ResponseEntity.ok(FeedBatch.empty(after)));
+        CompletableFuture<FeedBatch> batch = eventFeed.poll(after, batchSize, wait);
+        batch.whenComplete((result, error) -> {
+            if (error != null) {
+                response.setResult(ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                        .body("Error reading the event feed: " + error.getMessage()));
+            } else {
+                response.setResult(ResponseEntity.ok(result));
+            }
+        });
+        // Client gone or async timeout: stop listening for appends
+        response.onCompletion(() -> batch.cancel(false));
+        return response;
+    }
+
+    // Server-Sent Events: the backlog after the position, then every new event as it is appended.
+    // Event ids are global positions, so a reconnecting EventSource resumes from Last-Event-ID.
+    @GetMapping(path = "/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter streamFeed(@RequestParam(required = false) Long after,
+                                 @RequestHeader(name = "Last-Event-ID", required = false) Long lastEventId,
+                                 @RequestParam(required = false) Integer limit) {
+        long from = lastEventId != null ? lastEventId : after != null ? after : 0;
+        Integer batchSize = eventFeed.batchSize(limit);
+        if (from < 0 || batchSize == null) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                    "after must be >= 0 and limit between 1 and " + eventFeed.maxBatchSize());
+        }
+        SseEmitter emitter = eventFeed.subscribe(from, batchSize);
+        if (emitter == null) {
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Too many feed subscribers, retry later");
+        }
+        return emitter;
+    }
+}
@@ -0,0 +1,33 @@
+package com.ben.es0.api;
+
+import com.ben.es0.projection.AccountReadModelRebuilder;
+import com.ben.es0.projection.RebuildStatus;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Profile;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+@RestController
+@Profile("!sharded")
+@RequestMapping("/projections")
+public class ProjectionController {
+
+    private final AccountReadModelRebuilder rebuilder;
+
+    @Autowired
+    public ProjectionController(AccountReadModelRebuilder rebuilder) {
+        this.rebuilder = rebuilder;
+    }
+
+    // Starts a full rebuild in the background; poll the GET endpoint for progress
+    @PostMapping("/account-read-model/rebuild")
+    public ResponseEntity<RebuildStatus> rebuildAccountReadModel() {
+        return ResponseEntity.status(HttpStatus.ACCEPTED).body(rebuilder.start());
+    }
+
+    @GetMapping("/account-read-model/rebuild")
+    public ResponseEntity<RebuildStatus> rebuildStatus() {
+        return ResponseEntity.ok(rebuilder.status());
+    }
+}
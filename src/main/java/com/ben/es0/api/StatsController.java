@@ -0,0 +1,49 @@
+package com.ben.es0.api;
+
+import com.ben.es0.query.AccountQueryService;
+import com.ben.es0.query.AccountStatistics;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.temporal.ChronoUnit;
+
+// 儀表板用的彙總數字，讀的是 AccountSummaryProjector 增量維護的彙總列，不掃讀取模型。
+// 彙總由 ProjectionEngine 更新，投影關閉時 (例如 sharded profile) 不提供這些端點。
+@RestController
+@ConditionalOnProperty(name = "es0.projection.enabled", havingValue = "true", matchIfMissing = true)
+@RequestMapping("/stats")
+public class StatsController {
+
+    private static final int MAX_DAYS = 366;
+
+    private final AccountQueryService queryService;
+
+    @Autowired
+    public StatsController(AccountQueryService queryService) {
+        this.queryService = queryService;
+    }
+
+    @GetMapping("/accounts")
+    public ResponseEntity<AccountStatistics> accountStatistics() {
+        return ResponseEntity.ok(queryService.getStatistics());
+    }
+
+    // Per-day figures (UTC dates, inclusive), today when no range is given
+    @GetMapping("/accounts/daily")
+    public ResponseEntity<?> dailyAccountStatistics(@RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
+                                                    @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate to) {
+        LocalDate end = to != null ? to : LocalDate.now(ZoneOffset.UTC);
+        LocalDate start = from != null ? from : end;
+        if (start.isAfter(end) || ChronoUnit.DAYS.between(start, end) >= MAX_DAYS) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST)
+                    .body("from must not be after to, and the range at most " + MAX_DAYS + " days");
+        }
+        return ResponseEntity.ok(queryService.getDailyStatistics(start, end));
+    }
+}
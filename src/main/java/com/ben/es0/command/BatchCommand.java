@@ -0,0 +1,13 @@
+package com.ben.es0.command;
+
+import lombok.Data;
+
+// 批次端點中的一筆命令，type 為 DEPOSIT 或 WITHDRAW
+@Data
+public class BatchCommand {
+    public enum Type { DEPOSIT, WITHDRAW }
+
+    private Type type;
+    private String accountId;
+    private double amount;
+}
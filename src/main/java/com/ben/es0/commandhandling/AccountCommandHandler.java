@@ -6,49 +6,65 @@ import com.ben.es0.command.WithdrawCommand;
 import com.ben.es0.domain.Account;
 import com.ben.es0.domain.events.AccountCreatedEvent;
 import com.ben.es0.domain.events.AccountEvent;
+import com.ben.es0.eventstore.AccountLoader;
+import com.ben.es0.eventstore.ConcurrencyException;
 import com.ben.es0.eventstore.EventStore;
-import com.ben.es0.query.AccountReadModel;
-import com.ben.es0.query.AccountReadModelRepository;
-import jakarta.transaction.Transactional;
+import io.micrometer.observation.Observation;
+import io.micrometer.observation.ObservationRegistry;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
 import java.util.Collections;
 import java.util.List;
-import java.util.Optional;
+import java.util.function.Supplier;
 
 @Service
 public class AccountCommandHandler {
-    // 在實際的 CQRS+Event Sourcing 系統中，Command Handler 通常只負責載入聚合、處理命令、儲存事件。
-    // 更新 Read Model 的邏輯會由單獨的 Event Handler/Projector 服務來完成，它會訂閱事件流並異步處理。這裡為了簡化範例，將其放在同一個事務中。
+    // Command Handler 只負責載入聚合、處理命令、儲存事件。
+    // 更新 Read Model 的邏輯由 ProjectionEngine 依全域位置追蹤事件儲存、非同步完成 (見 projection 套件)。
+    // 每個命令是一個 es0.command observation (計時器，有 tracer 時也是 span，見 CommandMetrics)，載入與追加事件各是一個子 observation
+    // es0.command.phase，所以可以看出慢的命令時間花在哪一段。
 
     private final EventStore eventStore;
-    private final AccountReadModelRepository readModelRepository; // Inject read model repository
+    private final AccountLoader accountLoader; // Loads the aggregate from its newest snapshot
+    private final RetryPolicy retryPolicy;
+    private final ContentionTracker contentionTracker;
+    private final CommandMetrics commandMetrics;
+    private final ObservationRegistry observationRegistry;
 
     @Autowired
-    public AccountCommandHandler(EventStore eventStore, AccountReadModelRepository readModelRepository) {
+    public AccountCommandHandler(EventStore eventStore, AccountLoader accountLoader,
+                                 RetryPolicy retryPolicy, ContentionTracker contentionTracker,
+                                 CommandMetrics commandMetrics, ObservationRegistry observationRegistry) {
         this.eventStore = eventStore;
-        this.readModelRepository = readModelRepository;
+        this.accountLoader = accountLoader;
+        this.retryPolicy = retryPolicy;
+        this.contentionTracker = contentionTracker;
+        this.commandMetrics = commandMetrics;
+        this.observationRegistry = observationRegistry;
     }
 
-    @Transactional // Ensure atomicity of saving events and updating read model (in this simplified setup)
-    public void handle(CreateAccountCommand command) {
-        // Check if account already exists (optional, depends on domain rules)
-        List<AccountEvent> existingEvents = eventStore.getEventsForAggregate(command.getAccountId());
-        if (!existingEvents.isEmpty()) {
-            throw new IllegalArgumentException("Account with ID " + command.getAccountId() + " already exists.");
-        }
-
-        // Create the initial event
-        AccountCreatedEvent event = new AccountCreatedEvent(command.getAccountId(), command.getInitialBalance());
-
-        // Save the event (expected version 0 for new aggregate)
-        eventStore.save(command.getAccountId(), Collections.singletonList(event), 0);
-
-        // --- Update Read Model (Simplified Projector Logic) ---
-        // In a real system, this might be async and listen to the event stream
-        AccountReadModel readModel = new AccountReadModel(command.getAccountId(), command.getInitialBalance(), 1); // Version is 1 after creation
-        readModelRepository.save(readModel);
+    // 這裡的方法刻意不包在單一交易中：載入與追加事件各自有自己的交易，
+    // 所以等待 group commit 寫入時不會一直佔用資料庫連線。
+    // Each handle method returns the version of the account after the command, which callers can pass
+    // back as minVersion to read their own write from the asynchronously updated read model
+    public int handle(CreateAccountCommand command) {
+        return commandMetrics.observe("create", () -> {
+            // Create the initial event
+            AccountCreatedEvent event = new AccountCreatedEvent(command.getAccountId(), command.getInitialBalance());
+
+            // Save the event (expected version 0 for new aggregate)
+            // The unique version index doubles as the "already exists" check
+            try {
+                phase("append", () -> {
+                    eventStore.save(command.getAccountId(), Collections.singletonList(event), 0);
+                    return null;
+                });
+            } catch (ConcurrencyException e) {
+                throw new IllegalArgumentException("Account with ID " + command.getAccountId() + " already exists.");
+            }
+            return 1;
+        });
     }
 
     /**
@@ -58,61 +74,74 @@ public class AccountCommandHandler {
      * - 聚合處理命令後會**產生**一個或多個新的事件。
      * - 將這些新事件**儲存**到事件儲存中（通常會進行並發檢查）。
      */
-    @Transactional
-    public void handle(DepositCommand command) {
-        // Load aggregate from event store
-        List<AccountEvent> history = eventStore.getEventsForAggregate(command.getAccountId());
-        if (history.isEmpty()) {
-            throw new IllegalArgumentException("Account with ID " + command.getAccountId() + " not found.");
-        }
-        Account account = new Account(command.getAccountId(), history);
-
-        // Handle the command on the aggregate to get the resulting event
-        AccountEvent newEvent = account.handle(command.getAmount()); // Account::handle(double) returns MoneyDepositedEvent
-
-        // Save the new event (use current aggregate version as expected version)
-        eventStore.save(command.getAccountId(), Collections.singletonList(newEvent), account.getVersion());
-
-        // --- Update Read Model (Simplified Projector Logic) ---
-        // In a real system, this might be async
-        Optional<AccountReadModel> optionalReadModel = readModelRepository.findById(command.getAccountId());
-        if (optionalReadModel.isPresent()) {
-            AccountReadModel readModel = optionalReadModel.get();
-            readModel.setBalance(readModel.getBalance() + command.getAmount());
-            readModel.setVersion(account.getVersion() + 1); // Update version
-            readModelRepository.save(readModel);
-        } else {
-            // This case should ideally not happen if creation was successful
-            System.err.println("Warning: Read model not found for account " + command.getAccountId() + " during deposit.");
-        }
+    public int handle(DepositCommand command) {
+        return commandMetrics.observe("deposit", () -> {
+            // Load aggregate from its newest snapshot plus the events after it
+            Account account = load(command.getAccountId());
+
+            // Handle the command on the aggregate to get the resulting event
+            AccountEvent newEvent = account.handle(command.getAmount()); // Account::handle(double) returns MoneyDepositedEvent
+
+            // Deposits commute and can never make a later command invalid, so they skip the expected
+            // version check and take the next free version. Hot accounts no longer answer 409 to them.
+            List<AccountEvent> newEvents = Collections.singletonList(newEvent);
+            int version = phase("append", () -> eventStore.saveAtNextVersion(account.getAccountId(), newEvents));
+            accountLoader.onEventsAppendedAt(account, newEvents, version);
+            return version;
+        });
     }
 
-    @Transactional
-    public void handle(WithdrawCommand command) {
-        // Load aggregate from event store
-        List<AccountEvent> history = eventStore.getEventsForAggregate(command.getAccountId());
-        if (history.isEmpty()) {
-            throw new IllegalArgumentException("Account with ID " + command.getAccountId() + " not found.");
-        }
-        Account account = new Account(command.getAccountId(), history);
-
-        // Handle the command on the aggregate to get the resulting event
-        // This will throw InsufficientFundsException if balance is too low
-        AccountEvent newEvent = account.handleWithdraw(command.getAmount()); // Account::handleWithdraw(double) returns MoneyWithdrawnEvent
+    public int handle(WithdrawCommand command) {
+        return commandMetrics.observe("withdraw", () -> {
+            // Load aggregate from its newest snapshot plus the events after it
+            Account account = load(command.getAccountId());
+
+            // On a conflict the aggregate catches up with the events it missed and the command is decided again,
+            // so a withdrawal is only rejected if it is really no longer covered by the balance
+            for (int attempt = 1; ; attempt++) {
+                // Handle the command on the aggregate to get the resulting event
+                // This will throw InsufficientFundsException if balance is too low
+                AccountEvent newEvent = account.handleWithdraw(command.getAmount()); // Account::handleWithdraw(double) returns MoneyWithdrawnEvent
+
+                // Save the new event (use current aggregate version as expected version)
+                List<AccountEvent> newEvents = Collections.singletonList(newEvent);
+                try {
+                    phase("append", () -> {
+                        eventStore.save(account.getAccountId(), newEvents, account.getVersion());
+                        return null;
+                    });
+                    accountLoader.onEventsAppended(account, newEvents);
+                    return account.getVersion();
+                } catch (ConcurrencyException e) {
+                    if (attempt >= retryPolicy.getMaxAttempts()) {
+                        contentionTracker.recordGiveUp(account.getAccountId());
+                        // The cached copy can no longer be trusted
+                        accountLoader.onAppendFailed(account.getAccountId());
+                        throw e;
+                    }
+                    contentionTracker.recordRetry(account.getAccountId());
+                    // On a dispatcher stripe nothing in this process competes for the account, so there is nobody to
+                    // back off from; sleeping would only stall every other account on the stripe. Catch up right away.
+                    if (!CommandDispatcher.onStripe()) {
+                        retryPolicy.backoff(attempt);
+                    }
+                    phase("catch-up", () -> {
+                        accountLoader.catchUp(account);
+                        return null;
+                    });
+                }
+            }
+        });
+    }
 
-        // Save the new event (use current aggregate version as expected version)
-        eventStore.save(command.getAccountId(), Collections.singletonList(newEvent), account.getVersion());
+    private Account load(String accountId) {
+        return phase("load", () -> accountLoader.load(accountId))
+                .orElseThrow(() -> new AccountNotFoundException(accountId));
+    }
 
-        // --- Update Read Model (Simplified Projector Logic) ---
-        // In a real system, this might be async
-        Optional<AccountReadModel> optionalReadModel = readModelRepository.findById(command.getAccountId());
-        if (optionalReadModel.isPresent()) {
-            AccountReadModel readModel = optionalReadModel.get();
-            readModel.setBalance(readModel.getBalance() - command.getAmount());
-            readModel.setVersion(account.getVersion() + 1); // Update version
-            readModelRepository.save(readModel);
-        } else {
-            System.err.println("Warning: Read model not found for account " + command.getAccountId() + " during withdrawal.");
-        }
+    private <T> T phase(String phaseName, Supplier<T> body) {
+        return Observation.createNotStarted("es0.command.phase", observationRegistry)
+                .lowCardinalityKeyValue("phase", phaseName)
+                .observe(body);
     }
-}
\ No newline at end of file
+}
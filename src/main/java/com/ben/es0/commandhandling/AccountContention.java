@@ -0,0 +1,16 @@
+package com.ben.es0.commandhandling;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.time.Instant;
+
+// 單一帳戶的版本衝突統計
+@Getter
+@AllArgsConstructor
+public class AccountContention {
+    private final String accountId;
+    private final long retries;  // Conflicts that were retried
+    private final long giveUps;  // Commands that still conflicted after the last attempt
+    private final Instant lastConflictAt;
+}
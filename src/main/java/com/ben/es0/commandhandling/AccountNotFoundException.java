@@ -0,0 +1,9 @@
+package com.ben.es0.commandhandling;
+
+// 命令指定的帳戶不存在 (HTTP 404)；與金額格式錯誤等無效命令 (IllegalArgumentException，HTTP 400) 分開
+public class AccountNotFoundException extends RuntimeException {
+
+    public AccountNotFoundException(String accountId) {
+        super("Account with ID " + accountId + " not found.");
+    }
+}
@@ -0,0 +1,279 @@
+package com.ben.es0.commandhandling;
+
+import com.ben.es0.command.BatchCommand;
+import com.ben.es0.domain.Account;
+import com.ben.es0.domain.InsufficientFundsException;
+import com.ben.es0.domain.events.AccountEvent;
+import com.ben.es0.eventstore.AccountLoader;
+import com.ben.es0.eventstore.AppendRequest;
+import com.ben.es0.eventstore.ConcurrencyException;
+import com.ben.es0.eventstore.EventStore;
+import io.micrometer.observation.Observation;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+// 批次處理存款/提款命令：依帳戶分組，每個帳戶只載入一次，依原順序套用它的命令。
+// 帳戶的命令在 CommandDispatcher 上該帳戶的 stripe 執行，和單筆命令一樣依序處理、彼此不會衝突；
+// 同一個 stripe 的帳戶是同一個工作，產生的事件合併成一次 saveAll 寫入，不同 stripe 平行處理。
+// 衝突只可能來自這個程序以外的寫入者：存款直接接在最新版本之後，含提款的帳戶追上後重新判斷，和單筆命令相同。
+// 每筆命令各自回報結果並記錄 es0.command 指標，單筆失敗不影響其他命令。
+@Service
+public class BatchCommandHandler {
+
+    private final EventStore eventStore;
+    private final AccountLoader accountLoader;
+    private final CommandDispatcher commandDispatcher;
+    private final RetryPolicy retryPolicy;
+    private final ContentionTracker contentionTracker;
+    private final CommandMetrics commandMetrics;
+    private final int writeBatchSize;
+
+    @Autowired
+    public BatchCommandHandler(EventStore eventStore, AccountLoader accountLoader, CommandDispatcher commandDispatcher,
+                               RetryPolicy retryPolicy, ContentionTracker contentionTracker, CommandMetrics commandMetrics,
+                               @Value("${es0.commands.batch.write-size:1000}") int writeBatchSize) {
+        this.eventStore = eventStore;
+        this.accountLoader = accountLoader;
+        this.commandDispatcher = commandDispatcher;
+        this.retryPolicy = retryPolicy;
+        this.contentionTracker = contentionTracker;
+        this.commandMetrics = commandMetrics;
+        this.writeBatchSize = writeBatchSize;
+    }
+
+    public List<BatchCommandResult> handle(List<BatchCommand> commands) {
+        BatchCommandResult[] results = new BatchCommandResult[commands.size()];
+
+        // Indexes of the commands per account, in request order
+        Map<String, List<Integer>> byAccount = new LinkedHashMap<>();
+        for (int i = 0; i < commands.size(); i++) {
+            BatchCommand command = commands.get(i);
+            if (command.getType() == null || command.getAccountId() == null) {
+                results[i] = BatchCommandResult.failed(i, command.getAccountId(), BatchCommandResult.Status.INVALID,
+                        "type and accountId are required");
+                continue;
+            }
+            byAccount.computeIfAbsent(command.getAccountId(), id -> new ArrayList<>()).add(i);
+        }
+
+        // Accounts sharing a stripe are handled by one task on it, so their events are still written together
+        Map<Integer, List<AccountCommands>> byStripe = new LinkedHashMap<>();
+        byAccount.forEach((accountId, indexes) -> byStripe
+                .computeIfAbsent(commandDispatcher.stripeOf(accountId), stripe -> new ArrayList<>())
+                .add(new AccountCommands(accountId, indexes)));
+
+        List<CompletableFuture<Void>> tasks = new ArrayList<>();
+        for (List<AccountCommands> accounts : byStripe.values()) {
+            try {
+                tasks.add(commandDispatcher.submit(accounts.get(0).accountId, () -> {
+                    process(accounts, commands, results);
+                    return null;
+                }));
+            } catch (CommandRejectedException e) {
+                for (AccountCommands account : accounts) {
+                    for (int index : account.indexes) {
+                        results[index] = BatchCommandResult.failed(index, account.accountId, BatchCommandResult.Status.REJECTED, e.getMessage());
+                    }
+                }
+            }
+        }
+        try {
+            CompletableFuture.allOf(tasks.toArray(new CompletableFuture<?>[0])).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+        return Arrays.asList(results);
+    }
+
+    // Runs on the accounts' stripe, nothing else in this process changes them meanwhile
+    private void process(List<AccountCommands> accounts, List<BatchCommand> commands, BatchCommandResult[] results) {
+        try {
+            List<PendingAccount> pending = new ArrayList<>();
+            int pendingEvents = 0;
+            for (AccountCommands account : accounts) {
+                account.startObservations(commands);
+                Account loaded = accountLoader.load(account.accountId).orElse(null);
+                if (loaded == null) {
+                    for (int index : account.indexes) {
+                        results[index] = BatchCommandResult.failed(index, account.accountId, BatchCommandResult.Status.NOT_FOUND,
+                                "Account with ID " + account.accountId + " not found.");
+                    }
+                    account.stopObservations(results);
+                    continue;
+                }
+                PendingAccount decided = decide(loaded, account, commands, results);
+                if (decided.events.isEmpty()) {
+                    account.stopObservations(results);
+                    continue;
+                }
+                pending.add(decided);
+                pendingEvents += decided.events.size();
+                if (pendingEvents >= writeBatchSize) {
+                    write(pending, commands, results);
+                    pending.clear();
+                    pendingEvents = 0;
+                }
+            }
+            if (!pending.isEmpty()) {
+                write(pending, commands, results);
+            }
+        } finally {
+            // Commands left without a result when the store failed are recorded as errors
+            accounts.forEach(account -> account.stopObservations(results));
+        }
+    }
+
+    // Runs all commands of one account against a single copy of the loaded state, each one sees the effect of the previous
+    private PendingAccount decide(Account loaded, AccountCommands account, List<BatchCommand> commands, BatchCommandResult[] results) {
+        Account working = new Account(account.accountId, loaded.getBalanceMinor(), loaded.getVersion(), List.of());
+        PendingAccount pending = new PendingAccount(loaded, account);
+        for (int index : account.indexes) {
+            BatchCommand command = commands.get(index);
+            try {
+                AccountEvent event = command.getType() == BatchCommand.Type.DEPOSIT
+                        ? working.handle(command.getAmount())
+                        : working.handleWithdraw(command.getAmount());
+                working.apply(event);
+                pending.events.add(event);
+                pending.indexes.add(index);
+                pending.depositsOnly &= command.getType() == BatchCommand.Type.DEPOSIT;
+                results[index] = null; // Decided again after a conflict
+            } catch (InsufficientFundsException e) {
+                results[index] = BatchCommandResult.failed(index, account.accountId, BatchCommandResult.Status.INSUFFICIENT_FUNDS, e.getMessage());
+            } catch (IllegalArgumentException e) {
+                results[index] = BatchCommandResult.failed(index, account.accountId, BatchCommandResult.Status.INVALID, e.getMessage());
+            }
+        }
+        return pending;
+    }
+
+    private void write(List<PendingAccount> pending, List<BatchCommand> commands, BatchCommandResult[] results) {
+        try {
+            eventStore.saveAll(pending.stream().map(PendingAccount::toAppendRequest).toList());
+            pending.forEach(account -> succeeded(account, results));
+        } catch (ConcurrencyException e) {
+            // Another process wrote to some account; retry one account at a time so only that one is looked at again
+            for (PendingAccount account : pending) {
+                writeAlone(account, commands, results);
+            }
+        } finally {
+            pending.forEach(account -> account.commands.stopObservations(results));
+        }
+    }
+
+    // The same conflict handling as a single command: deposits take the next free version, withdrawals are decided
+    // again against the events that were missed, up to the retry policy's attempts
+    private void writeAlone(PendingAccount account, List<BatchCommand> commands, BatchCommandResult[] results) {
+        String accountId = account.loaded.getAccountId();
+        if (account.depositsOnly) {
+            int version = eventStore.saveAtNextVersion(accountId, account.events);
+            accountLoader.onEventsAppendedAt(account.loaded, account.events, version);
+            int resultingVersion = version - account.events.size();
+            for (int index : account.indexes) {
+                results[index] = BatchCommandResult.ok(index, accountId, ++resultingVersion);
+            }
+            return;
+        }
+        for (int attempt = 1; ; attempt++) {
+            try {
+                eventStore.save(accountId, account.events, account.loaded.getVersion());
+                succeeded(account, results);
+                return;
+            } catch (ConcurrencyException conflict) {
+                if (attempt >= retryPolicy.getMaxAttempts()) {
+                    contentionTracker.recordGiveUp(accountId);
+                    // The cached copy can no longer be trusted
+                    accountLoader.onAppendFailed(accountId);
+                    for (int index : account.indexes) {
+                        results[index] = BatchCommandResult.failed(index, accountId, BatchCommandResult.Status.CONFLICT, conflict.getMessage());
+                    }
+                    return;
+                }
+                contentionTracker.recordRetry(accountId);
+                if (!CommandDispatcher.onStripe()) {
+                    retryPolicy.backoff(attempt);
+                }
+                accountLoader.catchUp(account.loaded);
+                account = decide(account.loaded, account.commands, commands, results);
+                if (account.events.isEmpty()) {
+                    return; // None of the withdrawals is covered any more
+                }
+            }
+        }
+    }
+
+    private void succeeded(PendingAccount account, BatchCommandResult[] results) {
+        int version = account.loaded.getVersion();
+        for (int index : account.indexes) {
+            results[index] = BatchCommandResult.ok(index, account.loaded.getAccountId(), ++version);
+        }
+        accountLoader.onEventsAppended(account.loaded, account.events);
+    }
+
+    private static String outcomeOf(BatchCommandResult result) {
+        if (result == null) {
+            return CommandMetrics.ERROR;
+        }
+        return switch (result.getStatus()) {
+            case OK -> CommandMetrics.OK;
+            case INSUFFICIENT_FUNDS -> CommandMetrics.INSUFFICIENT_FUNDS;
+            case CONFLICT -> CommandMetrics.CONFLICT;
+            case NOT_FOUND, INVALID, REJECTED -> CommandMetrics.REJECTED;
+        };
+    }
+
+    // The commands of one account in request order, with their es0.command observations while they are in flight
+    private final class AccountCommands {
+        private final String accountId;
+        private final List<Integer> indexes;
+        private final List<Observation> observations = new ArrayList<>();
+
+        private AccountCommands(String accountId, List<Integer> indexes) {
+            this.accountId = accountId;
+            this.indexes = indexes;
+        }
+
+        private void startObservations(List<BatchCommand> commands) {
+            for (int index : indexes) {
+                observations.add(commandMetrics.start(commands.get(index).getType() == BatchCommand.Type.DEPOSIT ? "deposit" : "withdraw"));
+            }
+        }
+
+        // Once the results are final; later calls do nothing
+        private void stopObservations(BatchCommandResult[] results) {
+            for (int i = 0; i < observations.size(); i++) {
+                commandMetrics.stop(observations.get(i), outcomeOf(results[indexes.get(i)]));
+            }
+            observations.clear();
+        }
+    }
+
+    private static final class PendingAccount {
+        private final Account loaded; // State the events were decided against, their expected version
+        private final AccountCommands commands;
+        private final List<AccountEvent> events = new ArrayList<>();
+        private final List<Integer> indexes = new ArrayList<>();
+        private boolean depositsOnly = true;
+
+        private PendingAccount(Account loaded, AccountCommands commands) {
+            this.loaded = loaded;
+            this.commands = commands;
+        }
+
+        private AppendRequest toAppendRequest() {
+            return new AppendRequest(loaded.getAccountId(), events, loaded.getVersion());
+        }
+    }
+}
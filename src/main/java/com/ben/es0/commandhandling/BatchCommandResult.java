@@ -0,0 +1,27 @@
+package com.ben.es0.commandhandling;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+// 批次中單筆命令的結果，index 對應請求中的位置
+@Getter
+@AllArgsConstructor
+public class BatchCommandResult {
+
+    // REJECTED: the account's dispatcher queue was full, nothing was applied; send the command again later
+    public enum Status { OK, INSUFFICIENT_FUNDS, NOT_FOUND, CONFLICT, INVALID, REJECTED }
+
+    private final int index;
+    private final String accountId;
+    private final Status status;
+    private final Integer version; // Account version after the command, only set when OK
+    private final String message;
+
+    static BatchCommandResult ok(int index, String accountId, int version) {
+        return new BatchCommandResult(index, accountId, Status.OK, version, null);
+    }
+
+    static BatchCommandResult failed(int index, String accountId, Status status, String message) {
+        return new BatchCommandResult(index, accountId, status, null, message);
+    }
+}
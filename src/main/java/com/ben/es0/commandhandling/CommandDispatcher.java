@@ -0,0 +1,182 @@
+package com.ben.es0.commandhandling;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.observation.Observation;
+import io.micrometer.observation.ObservationRegistry;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.VirtualThreadTaskExecutor;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+// 單一寫入者的命令派送器：accountId 雜湊到固定數量的 stripe，每個 stripe 一個有界佇列和一個工作執行緒。
+// 同一個帳戶的命令因此依序執行，彼此不會再發生版本衝突，快取中的 Account 也一直是最新的；
+// 不同帳戶則分散在各個 stripe 上平行處理。佇列滿時直接拒絕 (CommandRejectedException)，不讓請求執行緒無限堆積。
+// 呼叫端的 Observation 會帶到工作執行緒上，命令的 observation 因此接在 HTTP 請求底下；
+// 開啟虛擬執行緒 (spring.threads.virtual.enabled) 時工作執行緒也是虛擬執行緒，等待資料庫時不佔用平台執行緒，
+// 等待結果的請求執行緒 (虛擬) 也一樣。工作執行緒上不能睡眠等待，否則同一個 stripe 上的所有帳戶都會被擋住。
+// es0.commands.dispatcher.enabled=false 時命令直接在呼叫者的執行緒上執行。
+@Component
+public class CommandDispatcher implements MeterBinder {
+
+    private static final ThreadLocal<Boolean> ON_STRIPE = new ThreadLocal<>();
+
+    private final boolean enabled;
+    private final ObservationRegistry observationRegistry;
+    private final List<Stripe> stripes = new ArrayList<>();
+    private final AtomicLong rejected = new AtomicLong();
+    private volatile boolean running = true;
+
+    public CommandDispatcher(@Value("${es0.commands.dispatcher.enabled:true}") boolean enabled,
+                             @Value("${es0.commands.dispatcher.stripes:0}") int stripeCount,
+                             @Value("${es0.commands.dispatcher.queue-capacity:1000}") int queueCapacity,
+                             @Value("${spring.threads.virtual.enabled:false}") boolean virtualThreads,
+                             ObservationRegistry observationRegistry) {
+        this.enabled = enabled;
+        this.observationRegistry = observationRegistry;
+        if (!enabled) {
+            return;
+        }
+        int count = stripeCount > 0 ? stripeCount : Runtime.getRuntime().availableProcessors() * 2;
+        ThreadFactory threadFactory = virtualThreads
+                ? new VirtualThreadTaskExecutor("command-stripe-").getVirtualThreadFactory()
+                : runnable -> new Thread(runnable);
+        for (int i = 0; i < count; i++) {
+            Stripe stripe = new Stripe(i, queueCapacity, threadFactory);
+            stripes.add(stripe);
+            stripe.worker.start();
+        }
+    }
+
+    // Commands of accounts with the same stripe run one after the other on the same worker
+    public int stripeOf(String accountId) {
+        return enabled ? Math.floorMod(Objects.hashCode(accountId), stripes.size()) : 0;
+    }
+
+    // True on a stripe's worker: the command runs alone for its account and must not wait around
+    public static boolean onStripe() {
+        return ON_STRIPE.get() != null;
+    }
+
+    // Runs the command on the stripe of the account and waits for it; exceptions of the command are rethrown as is
+    public <T> T dispatch(String accountId, Supplier<T> command) {
+        if (!enabled) {
+            return command.get();
+        }
+        try {
+            return submit(accountId, command).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+    // Queues the command on the stripe of the account without waiting for it, so a caller can hand over commands
+    // of many accounts at once. Throws CommandRejectedException right away if the stripe's queue is full.
+    public <T> CompletableFuture<T> submit(String accountId, Supplier<T> command) {
+        if (!enabled) {
+            try {
+                return CompletableFuture.completedFuture(command.get());
+            } catch (RuntimeException e) {
+                return CompletableFuture.failedFuture(e);
+            }
+        }
+        Task<T> task = new Task<>(command, observationRegistry.getCurrentObservation());
+        Stripe stripe = stripes.get(stripeOf(accountId));
+        if (!running || !stripe.queue.offer(task)) {
+            rejected.incrementAndGet();
+            throw new CommandRejectedException("Too many pending commands, please retry later.");
+        }
+        return task.future;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        for (Stripe stripe : stripes) {
+            Gauge.builder("es0.commands.dispatcher.queue.depth", stripe.queue, BlockingQueue::size)
+                    .tag("stripe", String.valueOf(stripe.index))
+                    .description("Commands waiting for the stripe's worker")
+                    .register(registry);
+        }
+        FunctionCounter.builder("es0.commands.dispatcher.rejected", rejected, AtomicLong::get)
+                .register(registry);
+    }
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        running = false;
+        for (Stripe stripe : stripes) {
+            stripe.worker.interrupt();
+        }
+        for (Stripe stripe : stripes) {
+            stripe.worker.join(TimeUnit.SECONDS.toMillis(5));
+            Task<?> task;
+            while ((task = stripe.queue.poll()) != null) {
+                task.future.completeExceptionally(new CommandRejectedException("Dispatcher is shutting down"));
+            }
+        }
+    }
+
+    private void drain(Stripe stripe) {
+        ON_STRIPE.set(Boolean.TRUE);
+        while (running) {
+            Task<?> task;
+            try {
+                task = stripe.queue.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            task.run();
+        }
+    }
+
+    private final class Stripe {
+        private final int index;
+        private final BlockingQueue<Task<?>> queue;
+        private final Thread worker;
+
+        private Stripe(int index, int queueCapacity, ThreadFactory threadFactory) {
+            this.index = index;
+            this.queue = new ArrayBlockingQueue<>(queueCapacity);
+            this.worker = threadFactory.newThread(() -> drain(this));
+            this.worker.setName("command-stripe-" + index);
+            this.worker.setDaemon(true);
+        }
+    }
+
+    private static final class Task<T> {
+        private final Supplier<T> command;
+        private final Observation parent; // The caller's current observation, if any
+        private final CompletableFuture<T> future = new CompletableFuture<>();
+
+        private Task(Supplier<T> command, Observation parent) {
+            this.command = command;
+            this.parent = parent;
+        }
+
+        private void run() {
+            try (Observation.Scope scope = parent != null ? parent.openScope() : null) {
+                future.complete(command.get());
+            } catch (Throwable e) {
+                future.completeExceptionally(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package com.ben.es0.commandhandling;
+
+import com.ben.es0.domain.InsufficientFundsException;
+import com.ben.es0.eventstore.ConcurrencyException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.observation.Observation;
+import io.micrometer.observation.ObservationRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.function.Supplier;
+
+// 命令的計量：每個命令一個 es0.command observation (計時器，有 tracer 時也是 span)，標記命令種類與結果 (outcome)，
+// 餘額不足的提款另外計數。單筆命令 (AccountCommandHandler) 與批次中的命令 (BatchCommandHandler) 記在同一組指標下。
+@Component
+public class CommandMetrics {
+
+    static final String OK = "ok";
+    static final String INSUFFICIENT_FUNDS = "insufficient-funds";
+    static final String CONFLICT = "conflict";
+    static final String REJECTED = "rejected"; // Not found, already exists or an invalid amount
+    static final String ERROR = "error";
+
+    private final ObservationRegistry observationRegistry;
+    private final Counter insufficientFunds;
+
+    @Autowired
+    public CommandMetrics(ObservationRegistry observationRegistry, MeterRegistry meterRegistry) {
+        this.observationRegistry = observationRegistry;
+        this.insufficientFunds = Counter.builder("es0.commands.insufficient-funds")
+                .description("Withdrawals rejected because the balance did not cover them")
+                .register(meterRegistry);
+    }
+
+    // Times one command run by the caller, tagged with how it ended; the body runs in the observation's scope
+    <T> T observe(String commandName, Supplier<T> body) {
+        Observation observation = start(commandName);
+        String outcome = ERROR;
+        try (Observation.Scope scope = observation.openScope()) {
+            T result = body.get();
+            outcome = OK;
+            return result;
+        } catch (InsufficientFundsException e) {
+            outcome = INSUFFICIENT_FUNDS;
+            throw e;
+        } catch (ConcurrencyException e) {
+            outcome = CONFLICT;
+            throw e;
+        } catch (AccountNotFoundException | IllegalArgumentException e) {
+            outcome = REJECTED;
+            throw e;
+        } finally {
+            stop(observation, outcome);
+        }
+    }
+
+    // For commands whose outcome is only known later, e.g. the commands of a batch; end with stop()
+    Observation start(String commandName) {
+        return Observation.createNotStarted("es0.command", observationRegistry)
+                .lowCardinalityKeyValue("command", commandName)
+                .start();
+    }
+
+    void stop(Observation observation, String outcome) {
+        if (INSUFFICIENT_FUNDS.equals(outcome)) {
+            insufficientFunds.increment();
+        }
+        observation.lowCardinalityKeyValue("outcome", outcome).stop();
+    }
+}
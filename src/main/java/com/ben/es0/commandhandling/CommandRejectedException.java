@@ -0,0 +1,9 @@
+package com.ben.es0.commandhandling;
+
+// 命令派送佇列已滿時拋出，呼叫端應稍後重試 (HTTP 429)
+public class CommandRejectedException extends RuntimeException {
+
+    public CommandRejectedException(String message) {
+        super(message);
+    }
+}
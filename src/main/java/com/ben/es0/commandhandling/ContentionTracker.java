@@ -0,0 +1,78 @@
+package com.ben.es0.commandhandling;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+// 記錄命令處理遇到的版本衝突：總數透過 Micrometer 公開，各帳戶的統計只保留最近衝突過的 maxTracked 個帳戶 (LRU)，
+// 由 actuator 的 contention 端點列出衝突最多的帳戶。
+@Component
+public class ContentionTracker implements MeterBinder {
+
+    private final int maxTracked;
+    private final AtomicLong retries = new AtomicLong();
+    private final AtomicLong giveUps = new AtomicLong();
+
+    private final LinkedHashMap<String, Counts> accounts = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Counts> eldest) {
+            return size() > ContentionTracker.this.maxTracked;
+        }
+    };
+
+    public ContentionTracker(@Value("${es0.commands.contention.max-tracked:10000}") int maxTracked) {
+        this.maxTracked = maxTracked;
+    }
+
+    public void recordRetry(String accountId) {
+        retries.incrementAndGet();
+        synchronized (accounts) {
+            Counts counts = accounts.computeIfAbsent(accountId, id -> new Counts());
+            counts.retries++;
+            counts.lastConflictAt = Instant.now();
+        }
+    }
+
+    public void recordGiveUp(String accountId) {
+        giveUps.incrementAndGet();
+        synchronized (accounts) {
+            Counts counts = accounts.computeIfAbsent(accountId, id -> new Counts());
+            counts.giveUps++;
+            counts.lastConflictAt = Instant.now();
+        }
+    }
+
+    // Most contended accounts first
+    public List<AccountContention> top(int limit) {
+        synchronized (accounts) {
+            return accounts.entrySet().stream()
+                    .map(e -> new AccountContention(e.getKey(), e.getValue().retries, e.getValue().giveUps, e.getValue().lastConflictAt))
+                    .sorted(Comparator.comparingLong((AccountContention c) -> c.getRetries() + c.getGiveUps()).reversed())
+                    .limit(limit)
+                    .toList();
+        }
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("es0.commands.conflicts", retries, AtomicLong::get)
+                .tag("outcome", "retried").register(registry);
+        FunctionCounter.builder("es0.commands.conflicts", giveUps, AtomicLong::get)
+                .tag("outcome", "gave-up").register(registry);
+    }
+
+    private static final class Counts {
+        private long retries;
+        private long giveUps;
+        private Instant lastConflictAt;
+    }
+}
@@ -0,0 +1,49 @@
+package com.ben.es0.commandhandling;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+// 版本衝突時的重試策略：最多 maxAttempts 次，每次等待指數成長、加上完全隨機抖動 (full jitter) 的時間，
+// 避免同時衝突的請求又在同一時間重試而再次衝突。
+// 命令在 CommandDispatcher 的 stripe 上執行時只重試、不等待 (同一帳戶的命令已經依序執行，等待只會擋住整個 stripe)。
+@Component
+public class RetryPolicy {
+
+    private final int maxAttempts;
+    private final long baseBackoffNanos;
+    private final long maxBackoffNanos;
+
+    public RetryPolicy(@Value("${es0.commands.retry.max-attempts:5}") int maxAttempts,
+                       @Value("${es0.commands.retry.base-backoff:2ms}") Duration baseBackoff,
+                       @Value("${es0.commands.retry.max-backoff:100ms}") Duration maxBackoff) {
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.baseBackoffNanos = baseBackoff.toNanos();
+        this.maxBackoffNanos = maxBackoff.toNanos();
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    // Waits before the given retry (1 = first retry). Random in [0, min(max, base * 2^(retry-1))].
+    public void backoff(int retry) {
+        long ceiling = ceilingNanos(retry);
+        if (ceiling <= 0) {
+            return;
+        }
+        try {
+            TimeUnit.NANOSECONDS.sleep(ThreadLocalRandom.current().nextLong(ceiling + 1));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Longest wait before the given retry
+    long ceilingNanos(int retry) {
+        return Math.min(maxBackoffNanos, baseBackoffNanos << Math.min(retry - 1, 20));
+    }
+}
@@ -5,12 +5,13 @@ import com.ben.es0.domain.events.AccountEvent;
 import com.ben.es0.domain.events.MoneyDepositedEvent;
 import com.ben.es0.domain.events.MoneyWithdrawnEvent;
 
-import java.util.ArrayList;
 import java.util.List;
 
+// 餘額以最小貨幣單位的 long 保存 (見 Money)。事件依 type id 分派，重播有兩個入口：
+// apply(AccountEvent) 給剛產生或已解碼的事件，apply(typeId, amount) 讓事件儲存直接把儲存的欄位折疊進來，不建立事件物件。
 public class Account {
     private String accountId;
-    private double balance;
+    private long balance; // In minor units, see Money
     private int version; // Track version for concurrency (simplified)
 
     // Constructor to create a new account (from command)
@@ -32,37 +33,59 @@ public class Account {
         history.forEach(this::apply);
     }
 
+    // Constructor to reconstruct state from a snapshot plus the events recorded after it
+    public Account(String accountId, long snapshotBalanceMinor, int snapshotVersion, List<AccountEvent> eventsSinceSnapshot) {
+        this.accountId = accountId;
+        this.balance = snapshotBalanceMinor;
+        this.version = snapshotVersion;
+        eventsSinceSnapshot.forEach(this::apply);
+    }
+
     // apply 方法負責根據事件改變聚合的內部狀態。重建聚合時，只呼叫 apply 方法。
-    // Apply events to change state
-    private void apply(AccountEvent event) {
-        if (event instanceof AccountCreatedEvent) {
-            apply((AccountCreatedEvent) event);
-        } else if (event instanceof MoneyDepositedEvent) {
-            apply((MoneyDepositedEvent) event);
-        } else if (event instanceof MoneyWithdrawnEvent) {
-            apply((MoneyWithdrawnEvent) event);
+    // Apply events to change state (also used to catch up with events that were just saved)
+    public void apply(AccountEvent event) {
+        switch (event.typeId()) {
+            case AccountCreatedEvent.TYPE_ID -> {
+                this.accountId = event.getAccountId();
+                created(((AccountCreatedEvent) event).getInitialBalance());
+            }
+            case MoneyDepositedEvent.TYPE_ID -> deposited(((MoneyDepositedEvent) event).getAmount());
+            case MoneyWithdrawnEvent.TYPE_ID -> withdrawn(((MoneyWithdrawnEvent) event).getAmount());
+            default -> throw new IllegalArgumentException("Unknown event type id " + event.typeId());
         }
         this.version++; // Increment version after applying each event
     }
 
-    private void apply(AccountCreatedEvent event) {
-        this.accountId = event.getAccountId();
-        this.balance = event.getInitialBalance();
+    // Replay of a stored event without materializing it: the event store hands over its type id and amount.
+    // The aggregate id is already known, it was used to look the events up.
+    public void apply(byte typeId, double amount) {
+        switch (typeId) {
+            case AccountCreatedEvent.TYPE_ID -> created(amount);
+            case MoneyDepositedEvent.TYPE_ID -> deposited(amount);
+            case MoneyWithdrawnEvent.TYPE_ID -> withdrawn(amount);
+            default -> throw new IllegalArgumentException("Unknown event type id " + typeId);
+        }
+        this.version++;
+    }
+
+    private void created(double initialBalance) {
+        this.balance = Money.toMinor(initialBalance);
     }
 
-    private void apply(MoneyDepositedEvent event) {
-        this.balance += event.getAmount();
+    private void deposited(double amount) {
+        this.balance += Money.toMinor(amount);
     }
 
-    private void apply(MoneyWithdrawnEvent event) {
-        if (this.balance < event.getAmount()) {
+    private void withdrawn(double amount) {
+        long minor = Money.toMinor(amount);
+        if (this.balance < minor) {
             // This validation should ideally happen *before* generating the event
             // In a real system, command handling would check this.
             // For simplicity here, we handle it during apply, but it's less ideal.
             System.err.println("Warning: Attempted to withdraw more than balance. This event should not have been generated.");
             // Or throw an exception, but applying events shouldn't usually fail
         } else {
-            this.balance -= event.getAmount();
+            this.balance -= minor;
         }
     }
 
@@ -73,6 +96,7 @@ public class Account {
         if (amount <= 0) {
             throw new IllegalArgumentException("Deposit amount must be positive");
         }
+        Money.toMinorExact(amount);
         return new MoneyDepositedEvent(this.accountId, amount);
     }
 
@@ -80,8 +104,8 @@ public class Account {
         if (amount <= 0) {
             throw new IllegalArgumentException("Withdraw amount must be positive");
         }
-        if (this.balance < amount) {
-            throw new IllegalStateException("Insufficient funds"); // Validate before generating event
+        if (this.balance < Money.toMinorExact(amount)) {
+            throw new InsufficientFundsException("Insufficient funds"); // Validate before generating event
         }
         return new MoneyWithdrawnEvent(this.accountId, amount);
     }
@@ -93,10 +117,14 @@ public class Account {
     }
 
     public double getBalance() {
+        return Money.toMajor(balance);
+    }
+
+    public long getBalanceMinor() {
         return balance;
     }
 
     public int getVersion() {
         return version;
     }
-}
+}
\ No newline at end of file
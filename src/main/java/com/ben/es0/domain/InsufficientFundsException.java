@@ -0,0 +1,9 @@
+package com.ben.es0.domain;
+
+// 提款金額超過目前餘額時由 Account 拋出，這是業務規則的拒絕，不是程式錯誤 (HTTP 400)
+public class InsufficientFundsException extends RuntimeException {
+
+    public InsufficientFundsException(String message) {
+        super(message);
+    }
+}
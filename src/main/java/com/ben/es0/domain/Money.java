@@ -0,0 +1,28 @@
+package com.ben.es0.domain;
+
+// 金額的定點表示：聚合內部以最小貨幣單位 (分) 的 long 保存餘額，長歷史累加不會有 double 的誤差。
+// 事件、命令與 API 仍以 double 表示金額，只在進出聚合時換算一次。
+public final class Money {
+
+    public static final int MINOR_UNITS = 100;
+
+    private Money() {
+    }
+
+    public static long toMinor(double amount) {
+        return Math.round(amount * MINOR_UNITS);
+    }
+
+    public static double toMajor(long minor) {
+        return (double) minor / MINOR_UNITS;
+    }
+
+    // For amounts coming in with a command: anything finer than a minor unit would be silently rounded away
+    public static long toMinorExact(double amount) {
+        long minor = toMinor(amount);
+        if (Math.abs(amount * MINOR_UNITS - minor) > 1e-6) {
+            throw new IllegalArgumentException("Amount cannot have more than 2 decimal places");
+        }
+        return minor;
+    }
+}
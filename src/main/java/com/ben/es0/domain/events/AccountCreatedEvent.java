@@ -1,6 +1,10 @@
 package com.ben.es0.domain.events;
 
+import java.time.Instant;
+
 public class AccountCreatedEvent extends AccountEvent {
+    public static final byte TYPE_ID = 1;
+
     private double initialBalance;
 
     // For Jackson deserialization
@@ -11,7 +15,17 @@ public class AccountCreatedEvent extends AccountEvent {
         this.initialBalance = initialBalance;
     }
 
+    public AccountCreatedEvent(String accountId, double initialBalance, Instant timestamp) {
+        super(accountId, timestamp);
+        this.initialBalance = initialBalance;
+    }
+
     public double getInitialBalance() {
         return initialBalance;
     }
+
+    @Override
+    public byte typeId() {
+        return TYPE_ID;
+    }
 }
\ No newline at end of file
@@ -14,6 +14,12 @@ public abstract class AccountEvent {
         this.timestamp = Instant.now();
     }
 
+    // For codecs that restore an event with its original timestamp
+    protected AccountEvent(String accountId, Instant timestamp) {
+        this.accountId = accountId;
+        this.timestamp = timestamp;
+    }
+
     public String getAccountId() {
         return accountId;
     }
@@ -22,5 +28,8 @@ public abstract class AccountEvent {
         return timestamp;
     }
 
+    // Stable small id of the event type, stored with binary payloads; see EventTypes
+    public abstract byte typeId();
+
     // Getters for specific event data will be in subclasses
 }
\ No newline at end of file
@@ -1,6 +1,10 @@
 package com.ben.es0.domain.events;
 
+import java.time.Instant;
+
 public class MoneyWithdrawnEvent extends AccountEvent {
+    public static final byte TYPE_ID = 3;
+
     private double amount;
 
     // For Jackson deserialization
@@ -11,7 +15,17 @@ public class MoneyWithdrawnEvent extends AccountEvent {
         this.amount = amount;
     }
 
+    public MoneyWithdrawnEvent(String accountId, double amount, Instant timestamp) {
+        super(accountId, timestamp);
+        this.amount = amount;
+    }
+
     public double getAmount() {
         return amount;
     }
+
+    @Override
+    public byte typeId() {
+        return TYPE_ID;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,145 @@
+package com.ben.es0.eventstore;
+
+import com.ben.es0.domain.Account;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+
+// 已重建 Account 的記憶體快取。快取內容以 Account.version 標記新舊，
+// 命中時只需向事件儲存讀取比該版本更新的事件即可補齊狀態。
+// 以筆數上限 (LRU) 與閒置時間兩種方式淘汰，並透過 Micrometer 公開命中/未命中/淘汰計數。
+@Component
+public class AccountCache implements MeterBinder {
+
+    private final int maxSize;
+    private final long idleTimeoutNanos;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    // Access-ordered, so iteration starts at the least recently used entry
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    public AccountCache(@Value("${es0.account-cache.max-size:10000}") int maxSize,
+                        @Value("${es0.account-cache.idle-timeout:10m}") Duration idleTimeout) {
+        this.maxSize = maxSize;
+        this.idleTimeoutNanos = idleTimeout.toNanos();
+    }
+
+    // Returns a private copy, callers are free to apply new events to it
+    public Optional<Account> get(String accountId) {
+        long now = System.nanoTime();
+        synchronized (entries) {
+            Entry entry = entries.get(accountId);
+            if (entry != null && now - entry.lastAccess > idleTimeoutNanos) {
+                entries.remove(accountId);
+                evictions.incrementAndGet();
+                entry = null;
+            }
+            if (entry == null) {
+                misses.incrementAndGet();
+                return Optional.empty();
+            }
+            hits.incrementAndGet();
+            entry.lastAccess = now;
+            return Optional.of(copyOf(entry.account));
+        }
+    }
+
+    // Keeps whichever copy is newer, so a slow writer can never move the cache backwards
+    public void put(Account account) {
+        if (maxSize <= 0) {
+            return;
+        }
+        long now = System.nanoTime();
+        Account copy = copyOf(account);
+        synchronized (entries) {
+            Entry existing = entries.get(account.getAccountId());
+            if (existing != null && existing.account.getVersion() > copy.getVersion()) {
+                return;
+            }
+            entries.put(account.getAccountId(), new Entry(copy, now));
+            evictIdleAndOverflow(now);
+        }
+    }
+
+    public void invalidate(String accountId) {
+        synchronized (entries) {
+            entries.remove(accountId);
+        }
+    }
+
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("es0.account.cache.requests", hits, AtomicLong::get)
+                .tag("result", "hit").register(registry);
+        FunctionCounter.builder("es0.account.cache.requests", misses, AtomicLong::get)
+                .tag("result", "miss").register(registry);
+        FunctionCounter.builder("es0.account.cache.evictions", evictions, AtomicLong::get)
+                .register(registry);
+        Gauge.builder("es0.account.cache.size", this, AccountCache::size)
+                .register(registry);
+    }
+
+    // Must hold the lock. Entries are in access order, so idle ones sit at the head.
+    private void evictIdleAndOverflow(long now) {
+        Iterator<Entry> it = entries.values().iterator();
+        while (it.hasNext()) {
+            Entry eldest = it.next();
+            if (entries.size() <= maxSize && now - eldest.lastAccess <= idleTimeoutNanos) {
+                break;
+            }
+            it.remove();
+            evictions.incrementAndGet();
+        }
+    }
+
+    private static Account copyOf(Account account) {
+        return new Account(account.getAccountId(), account.getBalanceMinor(), account.getVersion(), Collections.emptyList());
+    }
+
+    private static final class Entry {
+        private final Account account;
+        private long lastAccess;
+
+        private Entry(Account account, long lastAccess) {
+            this.account = account;
+            this.lastAccess = lastAccess;
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package com.ben.es0.eventstore;
+
+import com.ben.es0.domain.Account;
+import com.ben.es0.domain.events.AccountEvent;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.transaction.Transactional;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+// 從快取或最新的快照載入 Account，只重播其版本之後的事件，讓載入成本不隨歷史長度增長
+@Component
+public class AccountLoader {
+
+    private final EventStore eventStore;
+    private final SnapshotStore snapshotStore;
+    private final SnapshotPolicy snapshotPolicy;
+    private final AccountCache accountCache;
+    private final MeterRegistry meterRegistry;
+
+    @Autowired
+    public AccountLoader(EventStore eventStore, SnapshotStore snapshotStore, SnapshotPolicy snapshotPolicy,
+                         AccountCache accountCache, MeterRegistry meterRegistry) {
+        this.eventStore = eventStore;
+        this.snapshotStore = snapshotStore;
+        this.snapshotPolicy = snapshotPolicy;
+        this.accountCache = accountCache;
+        this.meterRegistry = meterRegistry;
+    }
+
+    @Transactional
+    public Optional<Account> load(String accountId) {
+        long start = System.nanoTime();
+        // Cache hit: the cached version tells us exactly which events are missing
+        Optional<Account> cached = accountCache.get(accountId);
+        if (cached.isPresent()) {
+            Account account = cached.get();
+            int cachedVersion = account.getVersion();
+            replay(account, cachedVersion);
+            if (account.getVersion() != cachedVersion) {
+                accountCache.put(account);
+            }
+            recordRehydration("cache", account.getVersion() - cachedVersion, start);
+            return cached;
+        }
+
+        Optional<AccountSnapshot> snapshot = snapshotStore.findLatest(accountId);
+        Account account = snapshot
+                .map(s -> new Account(accountId, s.getBalanceMinor(), s.getVersion(), List.of()))
+                .orElseGet(() -> new Account(accountId, List.of()));
+        int startVersion = account.getVersion();
+        replay(account, startVersion);
+        recordRehydration(snapshot.isPresent() ? "snapshot" : "events", account.getVersion() - startVersion, start);
+        if (account.getVersion() == 0) {
+            return Optional.empty();
+        }
+        accountCache.put(account);
+        return Optional.of(account);
+    }
+
+    // State of the account right after the given version: the nearest snapshot at or before it plus the
+    // events up to the version, at most one snapshot interval. Empty when the account has no such version.
+    // Historical states bypass the cache, it only holds current ones.
+    @Transactional
+    public Optional<Account> loadAt(String accountId, int version) {
+        long start = System.nanoTime();
+        Optional<AccountSnapshot> snapshot = snapshotStore.findLatestAtOrBefore(accountId, version);
+        Account account = snapshot
+                .map(s -> new Account(accountId, s.getBalanceMinor(), s.getVersion(), List.of()))
+                .orElseGet(() -> new Account(accountId, List.of()));
+        int startVersion = account.getVersion();
+        if (version > startVersion) {
+            // Versions are consecutive, so the limit stops the read exactly at the version
+            eventStore.getEventsForAggregate(accountId, startVersion, version - startVersion).forEach(account::apply);
+        }
+        recordRehydration("history", account.getVersion() - startVersion, start);
+        return version > 0 && account.getVersion() == version ? Optional.of(account) : Optional.empty();
+    }
+
+    // Brings an already loaded aggregate up to date, e.g. after a concurrency conflict: only the
+    // events after its version are read
+    @Transactional
+    public void catchUp(Account account) {
+        replay(account, account.getVersion());
+    }
+
+    // Rehydration time per starting point, tagged with a coarse bucket of the number of events replayed
+    private void recordRehydration(String source, int replayed, long startNanos) {
+        Timer.builder("es0.account.rehydration")
+                .tag("source", source)
+                .tag("replayed", replayedBucket(replayed))
+                .register(meterRegistry)
+                .record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+        DistributionSummary.builder("es0.account.replayed.events")
+                .tag("source", source)
+                .baseUnit("events")
+                .register(meterRegistry)
+                .record(replayed);
+    }
+
+    private static String replayedBucket(int replayed) {
+        if (replayed == 0) {
+            return "0";
+        }
+        if (replayed <= 10) {
+            return "1-10";
+        }
+        if (replayed <= 100) {
+            return "11-100";
+        }
+        if (replayed <= 1000) {
+            return "101-1000";
+        }
+        return ">1000";
+    }
+
+    // Stored events are folded into the aggregate one by one: the history is never held in memory as a whole,
+    // and no event objects are built for it
+    private void replay(Account account, int afterVersion) {
+        eventStore.foldEventsForAggregate(account.getAccountId(), afterVersion, account::apply);
+    }
+
+    // Call after the events were saved: brings the aggregate up to date and snapshots it when the policy says so
+    public void onEventsAppended(Account account, List<AccountEvent> appended) {
+        int versionBefore = account.getVersion();
+        appended.forEach(account::apply);
+
+        if (snapshotPolicy.shouldSnapshot(versionBefore, account.getVersion())) {
+            snapshotStore.save(new AccountSnapshot(account.getAccountId(), account.getVersion(), account.getBalanceMinor(), Instant.now()));
+        }
+
+        // Only publish the new state to the cache once it is really committed
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    accountCache.put(account);
+                }
+            });
+        } else {
+            accountCache.put(account);
+        }
+    }
+
+    // Like onEventsAppended, for events saved at a version chosen by the store (saveAtNextVersion).
+    // If other writers got in between, the aggregate is not brought up to date here: the cache keeps
+    // its older version and the next load replays what is missing.
+    @Transactional // load() below streams events, which needs a transaction around it
+    public void onEventsAppendedAt(Account account, List<AccountEvent> appended, int resultingVersion) {
+        if (account.getVersion() + appended.size() == resultingVersion) {
+            onEventsAppended(account, appended);
+            return;
+        }
+        if (snapshotPolicy.shouldSnapshot(resultingVersion - appended.size(), resultingVersion)) {
+            load(account.getAccountId()).ifPresent(current -> snapshotStore.save(
+                    new AccountSnapshot(current.getAccountId(), current.getVersion(), current.getBalanceMinor(), Instant.now())));
+        }
+    }
+
+    // Call when an append failed, e.g. on a concurrency conflict, so the next load starts from the store
+    public void onAppendFailed(String accountId) {
+        accountCache.invalidate(accountId);
+    }
+}
@@ -0,0 +1,30 @@
+package com.ben.es0.eventstore;
+
+import jakarta.persistence.*;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.Instant;
+
+// 聚合快照：記錄某個版本時 Account 的完整狀態，重建時只需從快照之後的事件開始重播
+@Entity
+@Table(uniqueConstraints = @UniqueConstraint(name = "uk_snapshot_aggregate_version", columnNames = {"aggregateId", "version"}))
+@Data
+@NoArgsConstructor
+public class AccountSnapshot {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    private String aggregateId;
+    private int version; // Version of the aggregate this snapshot was taken at
+    private long balanceMinor; // Balance in minor units, exactly as the aggregate holds it
+    private Instant takenAt;
+
+    public AccountSnapshot(String aggregateId, int version, long balanceMinor, Instant takenAt) {
+        this.aggregateId = aggregateId;
+        this.version = version;
+        this.balanceMinor = balanceMinor;
+        this.takenAt = takenAt;
+    }
+}
@@ -0,0 +1,35 @@
+package com.ben.es0.eventstore;
+
+import com.ben.es0.domain.events.AccountEvent;
+
+import java.util.List;
+
+// 一次追加請求：某個聚合在 expectedVersion 之後要寫入的事件
+public class AppendRequest {
+    private final String aggregateId;
+    private final List<AccountEvent> events;
+    private final int expectedVersion;
+
+    public AppendRequest(String aggregateId, List<AccountEvent> events, int expectedVersion) {
+        this.aggregateId = aggregateId;
+        this.events = events;
+        this.expectedVersion = expectedVersion;
+    }
+
+    public String getAggregateId() {
+        return aggregateId;
+    }
+
+    public List<AccountEvent> getEvents() {
+        return events;
+    }
+
+    public int getExpectedVersion() {
+        return expectedVersion;
+    }
+
+    // Version of the aggregate once these events are stored
+    public int getResultingVersion() {
+        return expectedVersion + events.size();
+    }
+}
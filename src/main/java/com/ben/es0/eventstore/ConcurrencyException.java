@@ -0,0 +1,30 @@
+package com.ben.es0.eventstore;
+
+// 樂觀並發檢查失敗：另一個寫入者已經先寫入了相同版本的事件
+public class ConcurrencyException extends RuntimeException {
+
+    private final String aggregateId;
+    private final int expectedVersion;
+
+    public ConcurrencyException(String aggregateId, int expectedVersion, Throwable cause) {
+        super("Concurrency conflict: Expected version " + expectedVersion + " of aggregate " + aggregateId
+                + ", but it has already been changed", cause);
+        this.aggregateId = aggregateId;
+        this.expectedVersion = expectedVersion;
+    }
+
+    // Conflict somewhere in a multi-aggregate append; the offending aggregate is not known
+    public ConcurrencyException(String message, Throwable cause) {
+        super(message, cause);
+        this.aggregateId = null;
+        this.expectedVersion = -1;
+    }
+
+    public String getAggregateId() {
+        return aggregateId;
+    }
+
+    public int getExpectedVersion() {
+        return expectedVersion;
+    }
+}
@@ -0,0 +1,70 @@
+package com.ben.es0.eventstore;
+
+import com.ben.es0.eventstore.bus.EventRingBuffer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongConsumer;
+
+// 新事件可讀取 (交易已提交) 時由事件儲存發出通知：事件本身放進 EventRingBuffer 給 EventBus 的訂閱者，
+// 最新位置則通知事件 feed 的長輪詢與 SSE 訂閱者立刻醒來，不必反覆查詢資料庫。
+// 只通知同一個程序內的訂閱者，其他執行個體寫入的事件仍要靠逾時後重新讀取。
+@Component
+public class EventAppendNotifier {
+
+    private final EventRingBuffer ringBuffer;
+    private final Set<LongConsumer> listeners = ConcurrentHashMap.newKeySet();
+
+    @Autowired
+    public EventAppendNotifier(EventRingBuffer ringBuffer) {
+        this.ringBuffer = ringBuffer;
+    }
+
+    // The listener gets a global position up to which events can be read now. It runs on the appending
+    // thread right after the commit, so it must only hand the work off and never block.
+    public void addListener(LongConsumer listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(LongConsumer listener) {
+        listeners.remove(listener);
+    }
+
+    // The committed events of one append, in position order, for stores that commit in position order
+    public void appended(List<EventEnvelope> events) {
+        if (events.isEmpty()) {
+            return;
+        }
+        appended(events, events.get(events.size() - 1).getGlobalPosition());
+    }
+
+    // The committed events of one append (possibly none, after a rollback) and the position up to which
+    // events are readable now, for stores whose appends commit out of position order
+    public void appended(List<EventEnvelope> events, long readableUpTo) {
+        if (!events.isEmpty()) {
+            ringBuffer.publish(events);
+        }
+        notifyListeners(readableUpTo);
+    }
+
+    // An append that took count positions from first on and rolled back: they stay empty for good, which the bus
+    // subscribers learn right away, and readers may move on up to readableUpTo
+    public void rolledBack(long first, int count, long readableUpTo) {
+        ringBuffer.publishGap(first, count);
+        notifyListeners(readableUpTo);
+    }
+
+    private void notifyListeners(long readableUpTo) {
+        for (LongConsumer listener : listeners) {
+            try {
+                listener.accept(readableUpTo);
+            } catch (RuntimeException e) {
+                // The append is already committed, a broken subscriber must not fail it
+                System.err.println("Event append listener failed: " + e.getMessage());
+            }
+        }
+    }
+}
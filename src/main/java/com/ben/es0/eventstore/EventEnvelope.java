@@ -0,0 +1,34 @@
+package com.ben.es0.eventstore;
+
+import com.ben.es0.domain.events.AccountEvent;
+
+// 事件加上它在事件儲存中的位置資訊：全域位置 (所有聚合共用、遞增) 與聚合版本
+public class EventEnvelope {
+    private final long globalPosition;
+    private final String aggregateId;
+    private final int version;
+    private final AccountEvent event;
+
+    public EventEnvelope(long globalPosition, String aggregateId, int version, AccountEvent event) {
+        this.globalPosition = globalPosition;
+        this.aggregateId = aggregateId;
+        this.version = version;
+        this.event = event;
+    }
+
+    public long getGlobalPosition() {
+        return globalPosition;
+    }
+
+    public String getAggregateId() {
+        return aggregateId;
+    }
+
+    public int getVersion() {
+        return version;
+    }
+
+    public AccountEvent getEvent() {
+        return event;
+    }
+}
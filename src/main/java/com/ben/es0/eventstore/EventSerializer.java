@@ -0,0 +1,117 @@
+package com.ben.es0.eventstore;
+
+import com.ben.es0.domain.events.AccountEvent;
+import com.ben.es0.eventstore.codec.BinaryEventCodec;
+import com.ben.es0.eventstore.codec.EventCodec;
+import com.ben.es0.eventstore.codec.EventFold;
+import com.ben.es0.eventstore.codec.EventTypes;
+import com.ben.es0.eventstore.codec.JsonEventCodec;
+import io.micrometer.core.instrument.FunctionTimer;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+// 事件與儲存格式之間的轉換，供各個 EventStore 實作共用。
+// 新事件以 es0.eventstore.codec 指定的 codec 寫入 (預設 binary)；讀取時依儲存的 codec id 選擇 codec，
+// 沒有 codec id 的舊資料 (類別名稱 + JSON 字串) 仍然可以讀取。
+// 編碼/解碼的次數與累計時間以 es0.eventstore.serialization 計時器公開；
+// 二進位解碼只要十幾奈秒，所以只累加 LongAdder，不為每個事件建立 Timer 樣本。
+@Component
+public class EventSerializer implements MeterBinder {
+
+    private final JsonEventCodec jsonCodec = new JsonEventCodec();
+    private final BinaryEventCodec binaryCodec = new BinaryEventCodec();
+    private final EventCodec writeCodec;
+
+    private final LongAdder serializeCount = new LongAdder();
+    private final LongAdder serializeNanos = new LongAdder();
+    private final LongAdder deserializeCount = new LongAdder();
+    private final LongAdder deserializeNanos = new LongAdder();
+
+    public EventSerializer() {
+        this("binary");
+    }
+
+    @Autowired
+    public EventSerializer(@Value("${es0.eventstore.codec:binary}") String codecName) {
+        this.writeCodec = switch (codecName.toLowerCase()) {
+            case "binary" -> binaryCodec;
+            case "json" -> jsonCodec;
+            default -> throw new IllegalArgumentException("Unknown event codec " + codecName);
+        };
+    }
+
+    // Id of the codec new events are written with
+    public byte codecId() {
+        return writeCodec.id();
+    }
+
+    public byte[] serialize(AccountEvent event) {
+        long start = System.nanoTime();
+        byte[] payload = writeCodec.encode(event);
+        serializeNanos.add(System.nanoTime() - start);
+        serializeCount.increment();
+        return payload;
+    }
+
+    public AccountEvent deserialize(String aggregateId, byte codecId, byte[] payload) {
+        long start = System.nanoTime();
+        AccountEvent event = codecFor(codecId).decode(aggregateId, payload);
+        deserializeNanos.add(System.nanoTime() - start);
+        deserializeCount.increment();
+        return event;
+    }
+
+    public AccountEvent deserialize(StoredEvent storedEvent) {
+        if (storedEvent.getCodec() == null) {
+            long start = System.nanoTime();
+            AccountEvent event = jsonCodec.decodeLegacy(storedEvent.getEventType(), storedEvent.getEventData());
+            deserializeNanos.add(System.nanoTime() - start);
+            deserializeCount.increment();
+            return event;
+        }
+        return deserialize(storedEvent.getAggregateId(), storedEvent.getCodec(), storedEvent.getPayload());
+    }
+
+    // Replay without building the event where the codec allows it; counted like a deserialization
+    public void fold(String aggregateId, byte codecId, byte[] payload, EventFold fold) {
+        long start = System.nanoTime();
+        codecFor(codecId).fold(aggregateId, payload, fold);
+        deserializeNanos.add(System.nanoTime() - start);
+        deserializeCount.increment();
+    }
+
+    // Legacy rows (no codec id) only exist as JSON text, they are decoded and then folded
+    public void foldLegacy(String eventType, String eventData, EventFold fold) {
+        long start = System.nanoTime();
+        AccountEvent event = jsonCodec.decodeLegacy(eventType, eventData);
+        deserializeNanos.add(System.nanoTime() - start);
+        deserializeCount.increment();
+        fold.apply(event.typeId(), EventTypes.amountOf(event));
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionTimer.builder("es0.eventstore.serialization", this,
+                        s -> s.serializeCount.sum(), s -> s.serializeNanos.sum(), TimeUnit.NANOSECONDS)
+                .tag("operation", "serialize").register(registry);
+        FunctionTimer.builder("es0.eventstore.serialization", this,
+                        s -> s.deserializeCount.sum(), s -> s.deserializeNanos.sum(), TimeUnit.NANOSECONDS)
+                .tag("operation", "deserialize").register(registry);
+    }
+
+    private EventCodec codecFor(byte codecId) {
+        if (codecId == BinaryEventCodec.ID) {
+            return binaryCodec;
+        }
+        if (codecId == JsonEventCodec.ID) {
+            return jsonCodec;
+        }
+        throw new IllegalArgumentException("Unknown event codec id " + codecId);
+    }
+}
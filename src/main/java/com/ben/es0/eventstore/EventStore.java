@@ -1,18 +1,71 @@
 package com.ben.es0.eventstore;
 
 import com.ben.es0.domain.events.AccountEvent;
+import com.ben.es0.eventstore.codec.EventFold;
+import com.ben.es0.eventstore.codec.EventTypes;
 import jakarta.transaction.Transactional;
 
+import java.time.Instant;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Stream;
 
 public interface EventStore {
     // save events
     void save(String aggregateId, List<AccountEvent> events, int expectedVersion);
 
+    // Save events after whatever the aggregate has now, without an expected version check.
+    // Only for events that commute (deposits): they can never be invalidated by a concurrent append.
+    // Returns the version of the aggregate after these events.
+    int saveAtNextVersion(String aggregateId, List<AccountEvent> events);
+
+    // Save the events of several aggregates atomically, in one transaction
+    void saveAll(List<AppendRequest> appends);
+
+    // Save events, the future completes once they are durable.
+    // Implementations that group commits override this; by default it simply saves synchronously.
+    default CompletableFuture<Void> saveAsync(String aggregateId, List<AccountEvent> events, int expectedVersion) {
+        try {
+            save(aggregateId, events, expectedVersion);
+            return CompletableFuture.completedFuture(null);
+        } catch (RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
     // Load events for an aggregate
     List<AccountEvent> getEventsForAggregate(String aggregateId);
 
+    // Load only the events recorded after the given version (e.g. the version of a snapshot)
+    List<AccountEvent> getEventsForAggregate(String aggregateId, int afterVersion);
+
+    // Load at most limit events after the given version, for paging through long histories
+    List<AccountEvent> getEventsForAggregate(String aggregateId, int afterVersion, int limit);
+
+    // Stream the events after the given version without materializing them.
+    // Must be consumed inside a transaction and closed (try-with-resources).
+    Stream<AccountEvent> streamEventsForAggregate(String aggregateId, int afterVersion);
+
+    // Replay the events after the given version into fold, in version order. Stores that can hand over the
+    // stored fields directly override this so no event objects are built; by default the stream is folded.
+    // Must be called inside a transaction.
+    default void foldEventsForAggregate(String aggregateId, int afterVersion, EventFold fold) {
+        try (Stream<AccountEvent> events = streamEventsForAggregate(aggregateId, afterVersion)) {
+            events.forEach(event -> fold.apply(event.typeId(), EventTypes.amountOf(event)));
+        }
+    }
+
+    // Version of the aggregate after its last event recorded at or before the timestamp, 0 when there is none
+    int versionAt(String aggregateId, Instant timestamp);
+
+    // Read the events of all aggregates after the given global position, in position order. Only events up to
+    // headPosition are returned, so a later read never finds a position below one already returned.
+    List<EventEnvelope> readAll(long afterPosition, int limit);
+
+    // Global position up to which every append has committed or rolled back, 0 when the store is empty
+    long headPosition();
+
     // Get the last event to check version
     Optional<AccountEvent> getLastEventForAggregate(String aggregateId);
 
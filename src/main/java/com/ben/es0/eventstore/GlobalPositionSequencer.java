@@ -0,0 +1,46 @@
+package com.ben.es0.eventstore;
+
+import java.util.TreeSet;
+
+// 全域位置 (global position) 的分配與提交水位。追加事件時在記憶體中取得一段連續位置，不碰資料庫、不持有任何鎖到提交，
+// 所以不同聚合的追加可以並行提交，提交順序不一定是位置順序。
+// 水位是「之前的位置全都已經提交或回滾」的最高位置：讀取端 (readAll、feed、投影) 只讀到水位為止，
+// 晚提交的較小位置因此不會被跳過。回滾的追加會留下空洞，讀取端依位置遞增讀取即可，不能假設位置連續。
+// 位置只在這個程序內分配，所以同一個資料庫只能有一個寫入的執行個體。
+final class GlobalPositionSequencer {
+
+    private long next;
+    // First position of every reservation whose transaction has not completed yet
+    private final TreeSet<Long> inFlight = new TreeSet<>();
+    private volatile long watermark;
+
+    GlobalPositionSequencer(long lastPosition) {
+        this.next = lastPosition + 1;
+        this.watermark = lastPosition;
+    }
+
+    // The first of count consecutive positions; release(first) must follow once the transaction completed
+    synchronized long reserve(int count) {
+        long first = next;
+        next += count;
+        inFlight.add(first);
+        return first;
+    }
+
+    // Continues after a position taken by someone else
+    synchronized void skipPast(long position) {
+        next = Math.max(next, position + 1);
+    }
+
+    // Marks the reservation as committed or rolled back and returns the new watermark
+    synchronized long release(long first) {
+        inFlight.remove(first);
+        watermark = inFlight.isEmpty() ? next - 1 : inFlight.first() - 1;
+        return watermark;
+    }
+
+    // Every position up to here is either committed or will never be
+    long watermark() {
+        return watermark;
+    }
+}
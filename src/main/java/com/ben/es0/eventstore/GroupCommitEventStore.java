@@ -0,0 +1,253 @@
+package com.ben.es0.eventstore;
+
+import com.ben.es0.domain.events.AccountEvent;
+import com.ben.es0.eventstore.codec.EventFold;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Primary;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+// Group commit：多個請求執行緒的追加先排入佇列，由單一寫入執行緒合併成一個交易批次寫入，
+// 交易提交 (事件已持久化) 之後才完成各呼叫者的 future。
+// 以 es0.eventstore.group-commit.enabled=true 啟用，讀取一律直接交給 JpaEventStore。
+// 關閉時不再接受新的追加，已排入佇列的追加仍會寫完 (最多等 5 秒)，之後還沒寫入的才以例外結束。
+@Component
+@Primary
+@Profile("!segment-log & !sharded")
+@ConditionalOnProperty(name = "es0.eventstore.group-commit.enabled", havingValue = "true")
+public class GroupCommitEventStore implements EventStore {
+
+    private static final long SHUTDOWN_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(5);
+
+    private final EventStore delegate;
+    private final int maxBatchSize;
+    private final long flushLatencyNanos;
+    private final BlockingQueue<PendingAppend> queue;
+    private final Thread writer;
+    private volatile boolean running = true;
+
+    @Autowired
+    public GroupCommitEventStore(JpaEventStore delegate,
+                                 @Value("${es0.eventstore.group-commit.max-batch-size:256}") int maxBatchSize,
+                                 @Value("${es0.eventstore.group-commit.flush-latency:2ms}") Duration flushLatency,
+                                 @Value("${es0.eventstore.group-commit.queue-capacity:10000}") int queueCapacity) {
+        this((EventStore) delegate, maxBatchSize, flushLatency, queueCapacity);
+    }
+
+    // Any store whose saveAll is one transaction will do as the delegate
+    public GroupCommitEventStore(EventStore delegate, int maxBatchSize, Duration flushLatency, int queueCapacity) {
+        this.delegate = delegate;
+        this.maxBatchSize = maxBatchSize;
+        this.flushLatencyNanos = flushLatency.toNanos();
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.writer = new Thread(this::writeLoop, "event-store-group-commit");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    @Override
+    public void save(String aggregateId, List<AccountEvent> events, int expectedVersion) {
+        try {
+            saveAsync(aggregateId, events, expectedVersion).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+    @Override
+    public CompletableFuture<Void> saveAsync(String aggregateId, List<AccountEvent> events, int expectedVersion) {
+        if (!running) {
+            return CompletableFuture.failedFuture(shuttingDown());
+        }
+        PendingAppend pending = new PendingAppend(new AppendRequest(aggregateId, events, expectedVersion));
+        try {
+            // Blocks when the writer falls behind, which pushes back on the request threads
+            queue.put(pending);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return CompletableFuture.failedFuture(e);
+        }
+        // Raced with shutdown and the writer is already gone
+        if (!running && !writer.isAlive() && queue.remove(pending)) {
+            pending.future.completeExceptionally(shuttingDown());
+        }
+        return pending.future;
+    }
+
+    // Only waits behind appends to the same aggregate, so it goes straight to the store instead of the queue
+    @Override
+    public int saveAtNextVersion(String aggregateId, List<AccountEvent> events) {
+        return delegate.saveAtNextVersion(aggregateId, events);
+    }
+
+    // Already a single batched transaction, no need to go through the queue
+    @Override
+    public void saveAll(List<AppendRequest> appends) {
+        delegate.saveAll(appends);
+    }
+
+    @Override
+    public List<AccountEvent> getEventsForAggregate(String aggregateId) {
+        return delegate.getEventsForAggregate(aggregateId);
+    }
+
+    @Override
+    public List<AccountEvent> getEventsForAggregate(String aggregateId, int afterVersion) {
+        return delegate.getEventsForAggregate(aggregateId, afterVersion);
+    }
+
+    @Override
+    public List<AccountEvent> getEventsForAggregate(String aggregateId, int afterVersion, int limit) {
+        return delegate.getEventsForAggregate(aggregateId, afterVersion, limit);
+    }
+
+    @Override
+    public Stream<AccountEvent> streamEventsForAggregate(String aggregateId, int afterVersion) {
+        return delegate.streamEventsForAggregate(aggregateId, afterVersion);
+    }
+
+    @Override
+    public void foldEventsForAggregate(String aggregateId, int afterVersion, EventFold fold) {
+        delegate.foldEventsForAggregate(aggregateId, afterVersion, fold);
+    }
+
+    @Override
+    public int versionAt(String aggregateId, Instant timestamp) {
+        return delegate.versionAt(aggregateId, timestamp);
+    }
+
+    @Override
+    public List<EventEnvelope> readAll(long afterPosition, int limit) {
+        return delegate.readAll(afterPosition, limit);
+    }
+
+    @Override
+    public long headPosition() {
+        return delegate.headPosition();
+    }
+
+    @Override
+    public Optional<AccountEvent> getLastEventForAggregate(String aggregateId) {
+        return delegate.getLastEventForAggregate(aggregateId);
+    }
+
+    @Override
+    public Optional<StoredEvent> getLastStoredEventForAggregate(String aggregateId) {
+        return delegate.getLastStoredEventForAggregate(aggregateId);
+    }
+
+    // Stops taking appends and lets the writer commit the ones already queued
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        running = false;
+        writer.join(SHUTDOWN_TIMEOUT_MILLIS);
+        if (writer.isAlive()) {
+            writer.interrupt();
+            writer.join(SHUTDOWN_TIMEOUT_MILLIS);
+        }
+        PendingAppend pending;
+        while ((pending = queue.poll()) != null) {
+            pending.future.completeExceptionally(shuttingDown());
+        }
+    }
+
+    private void writeLoop() {
+        List<PendingAppend> batch = new ArrayList<>(maxBatchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                // Wakes up now and then to notice a shutdown while the queue is empty
+                PendingAppend first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                // Wait at most flushLatency for more appends to join this batch
+                long deadline = System.nanoTime() + flushLatencyNanos;
+                while (batch.size() < maxBatchSize) {
+                    PendingAppend next = queue.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+                commit(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                batch.forEach(p -> p.future.completeExceptionally(shuttingDown()));
+                return;
+            } catch (RuntimeException e) {
+                batch.forEach(p -> p.future.completeExceptionally(e));
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void commit(List<PendingAppend> batch) {
+        // Appends in the same batch that claim overlapping versions of one aggregate can't both win.
+        // Reject the later ones up front, so they don't make the whole batch fail on the unique index.
+        Map<String, Integer> claimedUpTo = new HashMap<>();
+        List<PendingAppend> accepted = new ArrayList<>(batch.size());
+        for (PendingAppend pending : batch) {
+            AppendRequest append = pending.request;
+            Integer claimed = claimedUpTo.get(append.getAggregateId());
+            if (claimed != null && append.getExpectedVersion() < claimed) {
+                pending.future.completeExceptionally(new ConcurrencyException(append.getAggregateId(), append.getExpectedVersion(), null));
+                continue;
+            }
+            claimedUpTo.put(append.getAggregateId(), append.getResultingVersion());
+            accepted.add(pending);
+        }
+        if (accepted.isEmpty()) {
+            return;
+        }
+
+        try {
+            delegate.saveAll(accepted.stream().map(p -> p.request).toList());
+            accepted.forEach(p -> p.future.complete(null));
+        } catch (ConcurrencyException e) {
+            // Someone outside this batch won a race; fall back to one transaction per append to find out who
+            for (PendingAppend pending : accepted) {
+                try {
+                    delegate.save(pending.request.getAggregateId(), pending.request.getEvents(), pending.request.getExpectedVersion());
+                    pending.future.complete(null);
+                } catch (RuntimeException single) {
+                    pending.future.completeExceptionally(single);
+                }
+            }
+        }
+    }
+
+    private static IllegalStateException shuttingDown() {
+        return new IllegalStateException("Event store is shutting down");
+    }
+
+    private static final class PendingAppend {
+        private final AppendRequest request;
+        private final CompletableFuture<Void> future = new CompletableFuture<>();
+
+        private PendingAppend(AppendRequest request) {
+            this.request = request;
+        }
+    }
+}
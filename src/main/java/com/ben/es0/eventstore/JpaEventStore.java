@@ -1,70 +1,169 @@
 package com.ben.es0.eventstore;
 
 import com.ben.es0.domain.events.AccountEvent;
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.jsontype.BasicPolymorphicTypeValidator;
-import com.fasterxml.jackson.databind.jsontype.PolymorphicTypeValidator;
-import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.ben.es0.eventstore.archive.EventArchive;
+import com.ben.es0.eventstore.codec.EventFold;
+import com.ben.es0.eventstore.codec.EventTypes;
+import jakarta.annotation.PostConstruct;
 import jakarta.persistence.EntityManager;
+import jakarta.persistence.LockModeType;
 import jakarta.persistence.PersistenceContext;
+import jakarta.persistence.PersistenceException;
 import jakarta.transaction.Transactional;
+import org.hibernate.exception.ConstraintViolationException;
+import org.hibernate.jpa.HibernateHints;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
 import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
-import java.io.IOException;
+import javax.sql.DataSource;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Optional;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Function;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 @Component
+@Profile("!segment-log & !sharded")
 public class JpaEventStore implements EventStore {
 
     @PersistenceContext
     private EntityManager entityManager;
 
-    private final ObjectMapper objectMapper;
+    private final EventSerializer eventSerializer;
+    private final EventAppendNotifier appendNotifier;
+    private final EventArchive eventArchive;
+    private final int fetchSize;
+    private final JdbcTemplate jdbcTemplate;
+    private GlobalPositionSequencer positions;
+    // Set when an append found its positions taken; the next one moves past what is in the table
+    private volatile boolean positionsTaken;
 
-    public JpaEventStore() {
-        this.objectMapper = new ObjectMapper();
-        // Configure ObjectMapper to handle polymorphism (deserialize correct event type)
-        PolymorphicTypeValidator ptv = BasicPolymorphicTypeValidator.builder()
-                .allowIfSubType("com.example.eventsourcing.domain.events") // Allow specific package
-                .build();
-        objectMapper.activateDefaultTyping(ptv, ObjectMapper.DefaultTyping.NON_FINAL);
-        objectMapper.registerModule(new JavaTimeModule()); // Support Java 8 Date/Time
+    @Autowired
+    public JpaEventStore(EventSerializer eventSerializer, EventAppendNotifier appendNotifier, EventArchive eventArchive,
+                         DataSource dataSource, @Value("${es0.eventstore.fetch-size:500}") int fetchSize) {
+        this.eventSerializer = eventSerializer;
+        this.appendNotifier = appendNotifier;
+        this.eventArchive = eventArchive;
+        this.fetchSize = fetchSize;
+        // Joins the JPA transaction's connection, so it sees everything flushed in it
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+        this.jdbcTemplate.setFetchSize(fetchSize);
+    }
+
+    // Positions continue after the newest stored event; it is never archived, the archive check is for safety
+    @PostConstruct
+    void initPositions() {
+        Long last = jdbcTemplate.queryForObject("SELECT MAX(global_position) FROM stored_event", Long.class);
+        positions = new GlobalPositionSequencer(Math.max(last == null ? 0 : last, eventArchive.maxArchivedPosition()));
     }
 
     @Override
     @Transactional
     public void save(String aggregateId, List<AccountEvent> events, int expectedVersion) {
-        // Basic concurrency check (optimistic concurrency)
-        // In a real system, you'd likely use a version column and check/increment it atomically
-        // or use database-specific locking/versioning features.
-        // This simple example fetches the last event's version.
-        Optional<StoredEvent> lastEvent = getLastStoredEventForAggregate(aggregateId);
-        int currentVersion = lastEvent.map(StoredEvent::getVersion).orElse(0);
-
-        if (currentVersion != expectedVersion) {
-            throw new RuntimeException("Concurrency conflict: Expected version " + expectedVersion + ", but found " + currentVersion);
+        List<EventEnvelope> appended = new ArrayList<>(events.size());
+        long position = reservePositions(events.size(), appended);
+        persist(aggregateId, events, expectedVersion, position, appended);
+
+        // Send all inserts as one JDBC batch now, so a conflict surfaces here and not at commit time
+        flush(e -> new ConcurrencyException(aggregateId, expectedVersion, e));
+    }
+
+    @Override
+    @Transactional
+    public int saveAtNextVersion(String aggregateId, List<AccountEvent> events) {
+        // Locking the aggregate's newest row (it always stays in the hot table) queues concurrent appends at
+        // the next version of this aggregate only; the version read after getting the lock is the committed one
+        entityManager.createQuery(
+                        "SELECT se.id FROM StoredEvent se WHERE se.aggregateId = :aggregateId ORDER BY se.version DESC", Long.class)
+                .setParameter("aggregateId", aggregateId)
+                .setMaxResults(1)
+                .setLockMode(LockModeType.PESSIMISTIC_WRITE)
+                .getResultList();
+        Integer current = entityManager.createQuery(
+                        "SELECT MAX(se.version) FROM StoredEvent se WHERE se.aggregateId = :aggregateId", Integer.class)
+                .setParameter("aggregateId", aggregateId)
+                .getSingleResult();
+        int expectedVersion = current == null ? 0 : current;
+        List<EventEnvelope> appended = new ArrayList<>(events.size());
+        long position = reservePositions(events.size(), appended);
+        persist(aggregateId, events, expectedVersion, position, appended);
+        // Only an append with an explicit expected version, or the very first one, can get in between
+        flush(e -> new ConcurrencyException(aggregateId, expectedVersion, e));
+        return expectedVersion + events.size();
+    }
+
+    @Override
+    @Transactional
+    public void saveAll(List<AppendRequest> appends) {
+        int count = appends.stream().mapToInt(a -> a.getEvents().size()).sum();
+        List<EventEnvelope> appended = new ArrayList<>(count);
+        long position = reservePositions(count, appended);
+        for (AppendRequest append : appends) {
+            position = persist(append.getAggregateId(), append.getEvents(), append.getExpectedVersion(), position, appended);
         }
 
-        int nextVersion = currentVersion + 1;
-        for (AccountEvent event : events) {
-            try {
-                String eventData = objectMapper.writeValueAsString(event);
-                StoredEvent storedEvent = new StoredEvent(
-                        aggregateId,
-                        event.getTimestamp(),
-                        event.getClass().getName(),
-                        eventData,
-                        nextVersion++ // Increment version for each new event saved
-                );
-                entityManager.persist(storedEvent);
-            } catch (JsonProcessingException e) {
-                throw new RuntimeException("Error serializing event", e);
+        flush(e -> new ConcurrencyException("Concurrency conflict in a batch of " + appends.size() + " appends", e));
+    }
+
+    // Returns the first of count consecutive global positions, taken in memory without a round trip or lock.
+    // When the transaction completes the reservation is released, which may move the watermark readers stop at,
+    // and on commit the appended events (filled in by the caller) go to the bus and feed subscribers.
+    // When the append joins an outer transaction that is the outer commit; a rollback sends no events, only the
+    // positions it leaves empty.
+    private long reservePositions(int count, List<EventEnvelope> appended) {
+        if (positionsTaken) {
+            Long last = jdbcTemplate.queryForObject("SELECT MAX(global_position) FROM stored_event", Long.class);
+            positions.skipPast(last == null ? 0 : last);
+            positionsTaken = false;
+        }
+        long first = positions.reserve(count);
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCompletion(int status) {
+                long readableUpTo = positions.release(first);
+                if (status == STATUS_ROLLED_BACK) {
+                    appendNotifier.rolledBack(first, count, readableUpTo);
+                } else {
+                    // With an unknown outcome the bus waits for the positions and falls back to the store
+                    appendNotifier.appended(status == STATUS_COMMITTED ? appended : List.of(), readableUpTo);
+                }
             }
+        });
+        return first;
+    }
+
+    // Adds the envelopes of the new rows to appended and returns the next free global position
+    private long persist(String aggregateId, List<AccountEvent> events, int expectedVersion, long position,
+                         List<EventEnvelope> appended) {
+        // Optimistic concurrency without a read round trip: the new rows simply claim the versions
+        // after expectedVersion and the unique (aggregateId, version) index rejects them if another
+        // writer got there first. expectedVersion must come from a loaded aggregate (never ahead of the store).
+        int nextVersion = expectedVersion + 1;
+        for (AccountEvent event : events) {
+            StoredEvent storedEvent = new StoredEvent(
+                    position++,
+                    aggregateId,
+                    event.getTimestamp(),
+                    eventSerializer.codecId(),
+                    eventSerializer.serialize(event),
+                    nextVersion++ // Increment version for each new event saved
+            );
+            entityManager.persist(storedEvent);
+            appended.add(new EventEnvelope(storedEvent.getGlobalPosition(), aggregateId, storedEvent.getVersion(), event));
         }
+        return position;
     }
 
     @Override
@@ -75,9 +174,157 @@ public class JpaEventStore implements EventStore {
                 .setParameter("aggregateId", aggregateId)
                 .getResultList();
 
-        return storedEvents.stream()
-                .map(this::deserializeEvent)
+        return withArchived(aggregateId, 0, storedEvents, Integer.MAX_VALUE);
+    }
+
+    @Override
+    @Transactional
+    public List<AccountEvent> getEventsForAggregate(String aggregateId, int afterVersion) {
+        List<StoredEvent> storedEvents = entityManager.createQuery(
+                        "SELECT se FROM StoredEvent se WHERE se.aggregateId = :aggregateId AND se.version > :afterVersion ORDER BY se.version ASC", StoredEvent.class)
+                .setParameter("aggregateId", aggregateId)
+                .setParameter("afterVersion", afterVersion)
+                .getResultList();
+
+        return withArchived(aggregateId, afterVersion, storedEvents, Integer.MAX_VALUE);
+    }
+
+    @Override
+    @Transactional
+    public List<AccountEvent> getEventsForAggregate(String aggregateId, int afterVersion, int limit) {
+        // Keyset pagination on the (aggregateId, version) index, no OFFSET scan
+        List<StoredEvent> storedEvents = entityManager.createQuery(
+                        "SELECT se FROM StoredEvent se WHERE se.aggregateId = :aggregateId AND se.version > :afterVersion ORDER BY se.version ASC", StoredEvent.class)
+                .setParameter("aggregateId", aggregateId)
+                .setParameter("afterVersion", afterVersion)
+                .setMaxResults(limit)
+                .getResultList();
+
+        return withArchived(aggregateId, afterVersion, storedEvents, limit);
+    }
+
+    @Override
+    @Transactional
+    public Stream<AccountEvent> streamEventsForAggregate(String aggregateId, int afterVersion) {
+        // Rows are fetched fetchSize at a time and detached right after decoding,
+        // so neither the JDBC driver nor the persistence context holds the whole history
+        Stream<StoredEvent> rows = entityManager.createQuery(
+                        "SELECT se FROM StoredEvent se WHERE se.aggregateId = :aggregateId AND se.version > :afterVersion ORDER BY se.version ASC", StoredEvent.class)
+                .setParameter("aggregateId", aggregateId)
+                .setParameter("afterVersion", afterVersion)
+                .setHint(HibernateHints.HINT_FETCH_SIZE, fetchSize)
+                .setHint(HibernateHints.HINT_READ_ONLY, true)
+                .getResultStream();
+
+        // Peek at the first hot row: only when it does not continue right after afterVersion
+        // were older events moved to the archive
+        Iterator<StoredEvent> iterator = rows.iterator();
+        StoredEvent first = iterator.hasNext() ? iterator.next() : null;
+        int firstHotVersion = first == null ? Integer.MAX_VALUE : first.getVersion();
+        Stream<AccountEvent> archived = archivedBefore(aggregateId, afterVersion, firstHotVersion);
+        Stream<StoredEvent> hot = Stream.concat(first == null ? Stream.empty() : Stream.of(first),
+                StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED), false));
+        return Stream.concat(archived, hot.map(storedEvent -> {
+                    entityManager.detach(storedEvent);
+                    return deserializeEvent(storedEvent);
+                }))
+                .onClose(rows::close);
+    }
+
+    @Override
+    @Transactional
+    public void foldEventsForAggregate(String aggregateId, int afterVersion, EventFold fold) {
+        // Plain JDBC rows instead of StoredEvent entities: no entity, persistence context entry, Instant or
+        // event object per row, the codec reads the type id and amount straight from the payload
+        int[] nextVersion = {afterVersion + 1};
+        jdbcTemplate.query(
+                "SELECT version, codec, payload, event_type, event_data FROM stored_event "
+                        + "WHERE aggregate_id = ? AND version > ? ORDER BY version",
+                (RowCallbackHandler) rs -> {
+                    int version = rs.getInt(1);
+                    if (version != nextVersion[0]) {
+                        // Only the first row can leave a gap, when older events were moved to the archive
+                        archivedBefore(aggregateId, nextVersion[0] - 1, version)
+                                .forEach(event -> fold.apply(event.typeId(), EventTypes.amountOf(event)));
+                    }
+                    nextVersion[0] = version + 1;
+                    byte codec = rs.getByte(2);
+                    if (rs.wasNull()) {
+                        eventSerializer.foldLegacy(rs.getString(4), rs.getString(5), fold);
+                    } else {
+                        eventSerializer.fold(aggregateId, codec, rs.getBytes(3), fold);
+                    }
+                },
+                aggregateId, afterVersion);
+    }
+
+    @Override
+    @Transactional
+    public int versionAt(String aggregateId, Instant timestamp) {
+        // One seek on the (aggregateId, timestamp DESC, version DESC) index, no scan of the history.
+        // The ORDER BY spells out all index columns, otherwise H2 sorts every match instead of reading the first entry.
+        List<Integer> versions = entityManager.createQuery(
+                        "SELECT se.version FROM StoredEvent se WHERE se.aggregateId = :aggregateId AND se.timestamp <= :timestamp ORDER BY se.aggregateId, se.timestamp DESC, se.version DESC", Integer.class)
+                .setParameter("aggregateId", aggregateId)
+                .setParameter("timestamp", timestamp)
+                .setMaxResults(1)
+                .getResultList();
+        if (versions.isEmpty()) {
+            // The newest event is never archived, so the archive only matters when no hot event is old enough
+            return eventArchive.isEmpty() ? 0 : eventArchive.versionAt(aggregateId, timestamp);
+        }
+        return versions.get(0);
+    }
+
+    @Override
+    @Transactional
+    public List<EventEnvelope> readAll(long afterPosition, int limit) {
+        // Nothing past the watermark: a smaller position still in flight would otherwise be skipped for good
+        long watermark = positions.watermark();
+        List<StoredEvent> storedEvents = entityManager.createQuery(
+                        "SELECT se FROM StoredEvent se WHERE se.globalPosition > :afterPosition AND se.globalPosition <= :watermark "
+                                + "ORDER BY se.globalPosition ASC", StoredEvent.class)
+                .setParameter("afterPosition", afterPosition)
+                .setParameter("watermark", watermark)
+                .setMaxResults(limit)
+                .setHint(HibernateHints.HINT_READ_ONLY, true)
+                .getResultList();
+
+        List<EventEnvelope> hot = storedEvents.stream()
+                .map(se -> new EventEnvelope(se.getGlobalPosition(), se.getAggregateId(), se.getVersion(), deserializeEvent(se)))
                 .collect(Collectors.toList());
+        // Checked after the hot read: a segment is visible in the archive before its rows leave the table
+        if (eventArchive.maxArchivedPosition() <= afterPosition) {
+            return hot;
+        }
+        long upToPosition = hot.size() == limit ? hot.get(hot.size() - 1).getGlobalPosition() : watermark;
+        List<EventEnvelope> archived = eventArchive.readAll(afterPosition, upToPosition, limit);
+        return mergeByPosition(archived, hot, limit);
+    }
+
+    // Both lists are in position order; an event caught in both tiers while being archived is taken once
+    private static List<EventEnvelope> mergeByPosition(List<EventEnvelope> archived, List<EventEnvelope> hot, int limit) {
+        List<EventEnvelope> merged = new ArrayList<>(Math.min(limit, archived.size() + hot.size()));
+        int a = 0;
+        int h = 0;
+        while (merged.size() < limit && (a < archived.size() || h < hot.size())) {
+            EventEnvelope next;
+            if (h == hot.size() || (a < archived.size() && archived.get(a).getGlobalPosition() < hot.get(h).getGlobalPosition())) {
+                next = archived.get(a++);
+            } else {
+                next = hot.get(h++);
+                if (a < archived.size() && archived.get(a).getGlobalPosition() == next.getGlobalPosition()) {
+                    a++;
+                }
+            }
+            merged.add(next);
+        }
+        return merged;
+    }
+
+    @Override
+    public long headPosition() {
+        return positions.watermark();
     }
 
     @Override
@@ -103,12 +350,66 @@ public class JpaEventStore implements EventStore {
     }
 
 
-    private AccountEvent deserializeEvent(StoredEvent storedEvent) {
+    private void flush(Function<PersistenceException, ConcurrencyException> conflict) {
         try {
-            Class<?> eventClass = Class.forName(storedEvent.getEventType());
-            return (AccountEvent) objectMapper.readValue(storedEvent.getEventData(), eventClass);
-        } catch (IOException | ClassNotFoundException e) {
-            throw new RuntimeException("Error deserializing event", e);
+            entityManager.flush();
+        } catch (PersistenceException e) {
+            String constraint = violatedConstraint(e);
+            if (constraint != null && constraint.contains(StoredEvent.GLOBAL_POSITION_CONSTRAINT)) {
+                // Positions are assigned in this process, so someone else is appending to the same table
+                positionsTaken = true;
+                throw new IllegalStateException("Global positions are already taken: only one process may append to this event store", e);
+            }
+            if (constraint != null && (constraint.isEmpty() || constraint.contains(StoredEvent.AGGREGATE_VERSION_CONSTRAINT))) {
+                throw conflict.apply(e);
+            }
+            throw e;
+        }
+    }
+
+    // Lower-cased name of the violated unique constraint, empty when the driver doesn't say, null for other errors
+    private static String violatedConstraint(PersistenceException e) {
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            if (t instanceof ConstraintViolationException violation) {
+                return violation.getConstraintName() == null ? "" : violation.getConstraintName().toLowerCase();
+            }
         }
+        return null;
+    }
+
+    // Hot rows of an aggregate normally continue right after afterVersion; only when older events were moved
+    // to the archive is there a gap in front of them, and only then is the archive read
+    private List<AccountEvent> withArchived(String aggregateId, int afterVersion, List<StoredEvent> hot, int limit) {
+        int firstHotVersion = hot.isEmpty() ? Integer.MAX_VALUE : hot.get(0).getVersion();
+        List<AccountEvent> events = new ArrayList<>();
+        if (hasArchivedBefore(afterVersion, firstHotVersion)) {
+            // A page that the archive fills on its own never decompresses the blocks behind it
+            for (EventEnvelope envelope : eventArchive.read(aggregateId, afterVersion, firstHotVersion - 1, limit)) {
+                events.add(envelope.getEvent());
+            }
+        }
+        for (StoredEvent storedEvent : hot) {
+            if (events.size() >= limit) {
+                break;
+            }
+            events.add(deserializeEvent(storedEvent));
+        }
+        return events;
+    }
+
+    // Lazy: archive blocks are only decompressed as far as the caller reads
+    private Stream<AccountEvent> archivedBefore(String aggregateId, int afterVersion, int firstHotVersion) {
+        if (!hasArchivedBefore(afterVersion, firstHotVersion)) {
+            return Stream.empty();
+        }
+        return eventArchive.stream(aggregateId, afterVersion, firstHotVersion - 1).map(EventEnvelope::getEvent);
+    }
+
+    private boolean hasArchivedBefore(int afterVersion, int firstHotVersion) {
+        return firstHotVersion != afterVersion + 1 && !eventArchive.isEmpty();
+    }
+
+    private AccountEvent deserializeEvent(StoredEvent storedEvent) {
+        return eventSerializer.deserialize(storedEvent);
     }
 }
\ No newline at end of file
@@ -0,0 +1,49 @@
+package com.ben.es0.eventstore;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import jakarta.transaction.Transactional;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.Optional;
+
+@Component
+public class JpaSnapshotStore implements SnapshotStore {
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    @Override
+    @Transactional
+    public void save(AccountSnapshot snapshot) {
+        entityManager.persist(snapshot);
+    }
+
+    @Override
+    @Transactional
+    public Optional<AccountSnapshot> findLatest(String aggregateId) {
+        // Served by the (aggregateId, version) unique index, so the cost does not grow with the number of snapshots
+        List<AccountSnapshot> snapshots = entityManager.createQuery(
+                        "SELECT s FROM AccountSnapshot s WHERE s.aggregateId = :aggregateId ORDER BY s.version DESC", AccountSnapshot.class)
+                .setParameter("aggregateId", aggregateId)
+                .setMaxResults(1)
+                .getResultList();
+
+        return snapshots.stream().findFirst();
+    }
+
+    @Override
+    @Transactional
+    public Optional<AccountSnapshot> findLatestAtOrBefore(String aggregateId, int version) {
+        // Same index, seeking backwards from the version
+        List<AccountSnapshot> snapshots = entityManager.createQuery(
+                        "SELECT s FROM AccountSnapshot s WHERE s.aggregateId = :aggregateId AND s.version <= :version ORDER BY s.version DESC", AccountSnapshot.class)
+                .setParameter("aggregateId", aggregateId)
+                .setParameter("version", version)
+                .setMaxResults(1)
+                .getResultList();
+
+        return snapshots.stream().findFirst();
+    }
+}
@@ -0,0 +1,23 @@
+package com.ben.es0.eventstore;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+// 快照策略：每累積 N 個事件建立一次快照 (es0.snapshot.every，設為 0 表示停用)
+@Component
+public class SnapshotPolicy {
+
+    private final int every;
+
+    public SnapshotPolicy(@Value("${es0.snapshot.every:100}") int every) {
+        this.every = every;
+    }
+
+    // True when moving from fromVersion to toVersion crosses a multiple of N
+    public boolean shouldSnapshot(int fromVersion, int toVersion) {
+        if (every <= 0) {
+            return false;
+        }
+        return toVersion / every > fromVersion / every;
+    }
+}
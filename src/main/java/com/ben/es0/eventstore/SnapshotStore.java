@@ -0,0 +1,14 @@
+package com.ben.es0.eventstore;
+
+import java.util.Optional;
+
+public interface SnapshotStore {
+    // save a snapshot of an aggregate
+    void save(AccountSnapshot snapshot);
+
+    // Load the newest snapshot of an aggregate
+    Optional<AccountSnapshot> findLatest(String aggregateId);
+
+    // Load the newest snapshot taken at or before the given version, for point-in-time reads
+    Optional<AccountSnapshot> findLatestAtOrBefore(String aggregateId, int version);
+}
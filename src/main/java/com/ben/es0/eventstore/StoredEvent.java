@@ -7,18 +7,36 @@ import lombok.NoArgsConstructor;
 import java.time.Instant;
 
 @Entity
+@Table(uniqueConstraints = {
+        @UniqueConstraint(name = StoredEvent.AGGREGATE_VERSION_CONSTRAINT, columnNames = {"aggregateId", "version"}),
+        @UniqueConstraint(name = StoredEvent.GLOBAL_POSITION_CONSTRAINT, columnNames = "globalPosition")
+}, indexes = {
+        // Point-in-time queries seek the last event of an aggregate at or before a timestamp;
+        // descending, so the newest match is the first index entry. version breaks ties and makes it index-only
+        @Index(name = "idx_stored_event_aggregate_timestamp", columnList = "aggregateId, timestamp DESC, version DESC")
+})
 @Data
 @NoArgsConstructor
 public class StoredEvent {
+    // The unique (aggregateId, version) index is what enforces optimistic concurrency on append
+    public static final String AGGREGATE_VERSION_CONSTRAINT = "uk_stored_event_aggregate_version";
+    public static final String GLOBAL_POSITION_CONSTRAINT = "uk_stored_event_global_position";
+
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    // Pooled sequence instead of IDENTITY, otherwise Hibernate cannot batch the inserts
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "stored_event_seq")
+    @SequenceGenerator(name = "stored_event_seq", sequenceName = "stored_event_seq", allocationSize = 50)
     private Long id;
 
+    private Long globalPosition; // Position across all aggregates, increasing; a rolled-back append leaves a gap
     private String aggregateId;
     private Instant timestamp;
-    private String eventType; // Store the class name of the event
+    private Byte codec; // Id of the EventCodec the payload was written with, null for legacy rows
+    @Column(length = 1024)
+    private byte[] payload; // Encoded event, small enough to stay inline instead of a Lob
+    private String eventType; // Legacy rows: the class name of the event
     @Lob // Use Lob for larger text data
-    private String eventData; // Store event data as JSON string
+    private String eventData; // Legacy rows: event data as JSON string
     private int version; // Version of the aggregate after this event
 
     public StoredEvent(String aggregateId, Instant timestamp, String eventType, String eventData, int version) {
@@ -28,4 +46,13 @@ public class StoredEvent {
         this.eventData = eventData;
         this.version = version;
     }
+
+    public StoredEvent(long globalPosition, String aggregateId, Instant timestamp, byte codec, byte[] payload, int version) {
+        this.globalPosition = globalPosition;
+        this.aggregateId = aggregateId;
+        this.timestamp = timestamp;
+        this.codec = codec;
+        this.payload = payload;
+        this.version = version;
+    }
 }
@@ -0,0 +1,31 @@
+package com.ben.es0.eventstore.archive;
+
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.Instant;
+
+// 一個已寫入磁碟的封存 segment 檔案，以及它涵蓋的全域位置範圍 (給 readAll 找檔案用)
+@Entity
+@Data
+@NoArgsConstructor
+public class ArchiveSegment {
+    @Id
+    private String fileName;
+    private long minPosition;
+    private long maxPosition;
+    private int eventCount;
+    private int blockCount;
+    private Instant createdAt;
+
+    public ArchiveSegment(String fileName, long minPosition, long maxPosition, int eventCount, int blockCount, Instant createdAt) {
+        this.fileName = fileName;
+        this.minPosition = minPosition;
+        this.maxPosition = maxPosition;
+        this.eventCount = eventCount;
+        this.blockCount = blockCount;
+        this.createdAt = createdAt;
+    }
+}
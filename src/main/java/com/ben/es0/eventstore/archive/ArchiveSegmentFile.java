@@ -0,0 +1,193 @@
+package com.ben.es0.eventstore.archive;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+// 封存 segment 檔案格式：依 (聚合 id, 版本) 排序的事件切成約 blockSize 位元組的區塊，每個區塊各自以 Deflate 壓縮，
+// 讀取一個聚合只需要解壓它所在的那幾個區塊。檔尾是區塊索引 [位移, 壓縮後長度, 原始長度, CRC32]，
+// 最後 12 個位元組是 [索引位移][MAGIC]。檔案寫完、fsync 之後就不再修改。
+final class ArchiveSegmentFile {
+
+    private static final int MAGIC = 0x45534131; // "ESA1"
+    private static final int TRAILER_SIZE = 12;
+
+    private ArchiveSegmentFile() {
+    }
+
+    // Writes the records, which must be sorted by aggregate id and version, and returns the block of each record
+    static int[] write(Path path, List<Record> records, int blockSize) throws IOException {
+        int[] blockOf = new int[records.size()];
+        List<long[]> index = new ArrayList<>();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            ByteArrayOutputStream raw = new ByteArrayOutputStream(blockSize + 1024);
+            DataOutputStream out = new DataOutputStream(raw);
+            long offset = 0;
+            for (int i = 0; i < records.size(); i++) {
+                records.get(i).writeTo(out);
+                blockOf[i] = index.size();
+                if (raw.size() >= blockSize || i == records.size() - 1) {
+                    byte[] compressed = deflate(raw.toByteArray());
+                    CRC32 crc = new CRC32();
+                    crc.update(compressed);
+                    index.add(new long[]{offset, compressed.length, raw.size(), crc.getValue()});
+                    offset += writeFully(channel, ByteBuffer.wrap(compressed));
+                    raw.reset();
+                }
+            }
+            ByteBuffer tail = ByteBuffer.allocate(4 + index.size() * 24 + TRAILER_SIZE);
+            tail.putInt(index.size());
+            for (long[] block : index) {
+                tail.putLong(block[0]).putInt((int) block[1]).putInt((int) block[2]).putLong(block[3]);
+            }
+            tail.putLong(offset).putInt(MAGIC).flip();
+            writeFully(channel, tail);
+            channel.force(true);
+        }
+        return blockOf;
+    }
+
+    // The block index from the end of the file: per block [offset, compressed length, raw length, crc]
+    static long[][] readIndex(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            ByteBuffer trailer = readAt(channel, size - TRAILER_SIZE, TRAILER_SIZE);
+            long indexOffset = trailer.getLong();
+            if (trailer.getInt() != MAGIC) {
+                throw new IOException("Not an archive segment: " + path);
+            }
+            ByteBuffer buffer = readAt(channel, indexOffset, (int) (size - TRAILER_SIZE - indexOffset));
+            long[][] index = new long[buffer.getInt()][];
+            for (int i = 0; i < index.length; i++) {
+                index[i] = new long[]{buffer.getLong(), buffer.getInt(), buffer.getInt(), buffer.getLong()};
+            }
+            return index;
+        }
+    }
+
+    // Decompresses blocks first..last (inclusive) and returns their records in file order
+    static List<Record> readBlocks(Path path, long[][] index, int first, int last) throws IOException {
+        List<Record> records = new ArrayList<>();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            for (int i = first; i <= last; i++) {
+                long[] block = index[i];
+                byte[] compressed = readAt(channel, block[0], (int) block[1]).array();
+                CRC32 crc = new CRC32();
+                crc.update(compressed);
+                if (crc.getValue() != block[3]) {
+                    throw new IOException("Corrupt block " + i + " in archive segment " + path);
+                }
+                DataInputStream in = new DataInputStream(new ByteArrayInputStream(inflate(compressed, (int) block[2])));
+                while (in.available() > 0) {
+                    records.add(Record.readFrom(in));
+                }
+            }
+        }
+        return records;
+    }
+
+    private static byte[] deflate(byte[] raw) {
+        Deflater deflater = new Deflater();
+        try {
+            deflater.setInput(raw);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(raw.length / 2 + 64);
+            byte[] chunk = new byte[8192];
+            while (!deflater.finished()) {
+                out.write(chunk, 0, deflater.deflate(chunk));
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static byte[] inflate(byte[] compressed, int rawLength) throws IOException {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(compressed);
+            byte[] raw = new byte[rawLength];
+            int read = 0;
+            while (read < rawLength && !inflater.finished()) {
+                read += inflater.inflate(raw, read, rawLength - read);
+            }
+            return raw;
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt compressed block", e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private static ByteBuffer readAt(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of archive segment");
+            }
+        }
+        return buffer.flip();
+    }
+
+    private static int writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        int length = buffer.remaining();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        return length;
+    }
+
+    // One archived event, still encoded with the codec it was written with
+    static final class Record {
+        final long position;
+        final String aggregateId;
+        final int version;
+        final Instant timestamp;
+        final byte codec;
+        final byte[] payload;
+
+        Record(long position, String aggregateId, int version, Instant timestamp, byte codec, byte[] payload) {
+            this.position = position;
+            this.aggregateId = aggregateId;
+            this.version = version;
+            this.timestamp = timestamp;
+            this.codec = codec;
+            this.payload = payload;
+        }
+
+        void writeTo(DataOutputStream out) throws IOException {
+            out.writeLong(position);
+            out.writeUTF(aggregateId);
+            out.writeInt(version);
+            out.writeLong(timestamp.getEpochSecond());
+            out.writeInt(timestamp.getNano());
+            out.writeByte(codec);
+            out.writeInt(payload.length);
+            out.write(payload);
+        }
+
+        static Record readFrom(DataInputStream in) throws IOException {
+            long position = in.readLong();
+            String aggregateId = in.readUTF();
+            int version = in.readInt();
+            Instant timestamp = Instant.ofEpochSecond(in.readLong(), in.readInt());
+            byte codec = in.readByte();
+            byte[] payload = new byte[in.readInt()];
+            in.readFully(payload);
+            return new Record(position, aggregateId, version, timestamp, codec, payload);
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package com.ben.es0.eventstore.archive;
+
+import jakarta.persistence.*;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.Instant;
+
+// 某個聚合被封存的一段連續版本，在哪個 segment 的哪幾個區塊。
+// 和刪除熱資料表中這些事件在同一個交易中寫入，所以每個事件任何時候都至少在其中一層找得到。
+@Entity
+@Table(indexes = @Index(name = "idx_archived_range_aggregate_version", columnList = "aggregateId, toVersion"))
+@Data
+@NoArgsConstructor
+public class ArchivedEventRange {
+    @Id
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "archived_event_range_seq")
+    @SequenceGenerator(name = "archived_event_range_seq", sequenceName = "archived_event_range_seq", allocationSize = 50)
+    private Long id;
+
+    private String aggregateId;
+    private int fromVersion;
+    private int toVersion;
+    private Instant firstTimestamp; // Timestamp of the event at fromVersion, for point-in-time lookups
+    private String segmentFileName;
+    private int firstBlock;
+    private int lastBlock;
+
+    public ArchivedEventRange(String aggregateId, int fromVersion, int toVersion, Instant firstTimestamp,
+                              String segmentFileName, int firstBlock, int lastBlock) {
+        this.aggregateId = aggregateId;
+        this.fromVersion = fromVersion;
+        this.toVersion = toVersion;
+        this.firstTimestamp = firstTimestamp;
+        this.segmentFileName = segmentFileName;
+        this.firstBlock = firstBlock;
+        this.lastBlock = lastBlock;
+    }
+}
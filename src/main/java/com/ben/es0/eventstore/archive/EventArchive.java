@@ -0,0 +1,259 @@
+package com.ben.es0.eventstore.archive;
+
+import com.ben.es0.eventstore.EventEnvelope;
+import com.ben.es0.eventstore.EventSerializer;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import jakarta.annotation.PostConstruct;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import jakarta.transaction.Transactional;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+// 冷資料層：EventArchiver 從 stored_event 搬出來的舊事件，存在本機磁碟上壓縮、分區塊索引的 segment 檔案。
+// 每個聚合被封存的版本範圍記在 ArchivedEventRange，讀一個聚合只解壓它所在的區塊；
+// 依全域位置讀取 (readAll) 則找出位置範圍重疊的 segment。JpaEventStore 只在熱資料表缺了前段版本時才來這裡找，
+// 沒有封存過的聚合完全不受影響。
+@Component
+@Profile("!segment-log & !sharded")
+public class EventArchive implements MeterBinder {
+
+    // Segments decoded for position reads; a rebuild walks one segment in many readAll chunks
+    private static final int DECODED_SEGMENTS_CACHED = 2;
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    private final Path directory;
+    private final EventSerializer eventSerializer;
+
+    private final Map<String, Segment> segments = new ConcurrentHashMap<>();
+    private volatile long maxArchivedPosition;
+    private final AtomicLong blockReads = new AtomicLong();
+
+    private final Map<String, ArchiveSegmentFile.Record[]> decoded = new LinkedHashMap<>(4, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, ArchiveSegmentFile.Record[]> eldest) {
+            return size() > DECODED_SEGMENTS_CACHED;
+        }
+    };
+
+    @Autowired
+    public EventArchive(@Value("${es0.archive.directory:data/event-archive}") String directory, EventSerializer eventSerializer) {
+        this.directory = Paths.get(directory);
+        this.eventSerializer = eventSerializer;
+    }
+
+    @PostConstruct
+    void open() throws IOException {
+        for (ArchiveSegment segment : entityManager.createQuery("SELECT s FROM ArchiveSegment s", ArchiveSegment.class).getResultList()) {
+            register(segment.getFileName(), segment.getMinPosition(), segment.getMaxPosition());
+        }
+        if (!Files.isDirectory(directory)) {
+            return;
+        }
+        try (Stream<Path> files = Files.list(directory)) {
+            files.filter(file -> !segments.containsKey(file.getFileName().toString()))
+                    .forEach(file -> System.err.println("Archive file " + file + " is not referenced by the database, ignored"));
+        }
+    }
+
+    Path directory() {
+        return directory;
+    }
+
+    public boolean isEmpty() {
+        return segments.isEmpty();
+    }
+
+    // Highest global position in the archive; readAll after it never needs to look here
+    public long maxArchivedPosition() {
+        return maxArchivedPosition;
+    }
+
+    // Makes a written segment readable by position. Done before the hot rows are deleted, so a reader that
+    // no longer sees them there finds them here.
+    void register(String fileName, long minPosition, long maxPosition) throws IOException {
+        Path path = directory.resolve(fileName);
+        segments.put(fileName, new Segment(path, minPosition, maxPosition, ArchiveSegmentFile.readIndex(path)));
+        synchronized (this) {
+            maxArchivedPosition = Math.max(maxArchivedPosition, maxPosition);
+        }
+    }
+
+    // Undoes register after the archiving transaction failed
+    void unregister(String fileName) {
+        segments.remove(fileName);
+        synchronized (this) {
+            maxArchivedPosition = segments.values().stream().mapToLong(s -> s.maxPosition).max().orElse(0);
+        }
+    }
+
+    // At most limit archived events of the aggregate with afterVersion < version <= upToVersion, in version order.
+    // Blocks are decompressed one at a time and reading stops at the limit.
+    @Transactional
+    public List<EventEnvelope> read(String aggregateId, int afterVersion, int upToVersion, int limit) {
+        return stream(aggregateId, afterVersion, upToVersion).limit(limit).toList();
+    }
+
+    // Archived events of the aggregate with afterVersion < version <= upToVersion, in version order. Only the
+    // range index is queried up front; each block is decompressed when the stream reaches it.
+    @Transactional
+    public Stream<EventEnvelope> stream(String aggregateId, int afterVersion, int upToVersion) {
+        List<ArchivedEventRange> ranges = entityManager.createQuery(
+                        "SELECT r FROM ArchivedEventRange r WHERE r.aggregateId = :aggregateId AND r.toVersion > :afterVersion "
+                                + "AND r.fromVersion <= :upToVersion ORDER BY r.fromVersion", ArchivedEventRange.class)
+                .setParameter("aggregateId", aggregateId)
+                .setParameter("afterVersion", afterVersion)
+                .setParameter("upToVersion", upToVersion)
+                .getResultList();
+        return ranges.stream()
+                .flatMap(range -> {
+                    Segment segment = segment(range.getSegmentFileName());
+                    return IntStream.rangeClosed(range.getFirstBlock(), range.getLastBlock())
+                            .boxed()
+                            .flatMap(block -> readBlocks(segment, block, block).stream());
+                })
+                .filter(record -> record.aggregateId.equals(aggregateId) && record.version > afterVersion && record.version <= upToVersion)
+                .map(this::toEnvelope);
+    }
+
+    // Version after the aggregate's last archived event at or before the timestamp, 0 when there is none
+    @Transactional
+    public int versionAt(String aggregateId, Instant timestamp) {
+        List<ArchivedEventRange> ranges = entityManager.createQuery(
+                        "SELECT r FROM ArchivedEventRange r WHERE r.aggregateId = :aggregateId AND r.firstTimestamp <= :timestamp "
+                                + "ORDER BY r.fromVersion DESC", ArchivedEventRange.class)
+                .setParameter("aggregateId", aggregateId)
+                .setParameter("timestamp", timestamp)
+                .setMaxResults(1)
+                .getResultList();
+        if (ranges.isEmpty()) {
+            return 0;
+        }
+        ArchivedEventRange range = ranges.get(0);
+        int version = 0;
+        for (ArchiveSegmentFile.Record record : readBlocks(segment(range.getSegmentFileName()), range.getFirstBlock(), range.getLastBlock())) {
+            if (record.aggregateId.equals(aggregateId) && record.version >= range.getFromVersion()
+                    && record.version <= range.getToVersion() && !record.timestamp.isAfter(timestamp)) {
+                version = Math.max(version, record.version);
+            }
+        }
+        return version;
+    }
+
+    // Archived events of all aggregates with afterPosition < position <= upToPosition, in position order
+    public List<EventEnvelope> readAll(long afterPosition, long upToPosition, int limit) {
+        List<ArchiveSegmentFile.Record> matches = new ArrayList<>();
+        for (Map.Entry<String, Segment> entry : segments.entrySet()) {
+            Segment segment = entry.getValue();
+            if (segment.maxPosition <= afterPosition || segment.minPosition > upToPosition) {
+                continue;
+            }
+            ArchiveSegmentFile.Record[] byPosition = decodedByPosition(entry.getKey(), segment);
+            int from = firstAfter(byPosition, afterPosition);
+            for (int i = from; i < byPosition.length && i < from + limit && byPosition[i].position <= upToPosition; i++) {
+                matches.add(byPosition[i]);
+            }
+        }
+        matches.sort(Comparator.comparingLong(record -> record.position));
+        return matches.stream().limit(limit).map(this::toEnvelope).toList();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("es0.archive.segments", segments, Map::size)
+                .description("Archive segment files holding cold events")
+                .register(registry);
+        FunctionCounter.builder("es0.archive.block-reads", blockReads, AtomicLong::get)
+                .description("Compressed archive blocks read and decompressed")
+                .register(registry);
+    }
+
+    private ArchiveSegmentFile.Record[] decodedByPosition(String fileName, Segment segment) {
+        synchronized (decoded) {
+            ArchiveSegmentFile.Record[] records = decoded.get(fileName);
+            if (records != null) {
+                return records;
+            }
+        }
+        ArchiveSegmentFile.Record[] records = readBlocks(segment, 0, segment.index.length - 1).toArray(new ArchiveSegmentFile.Record[0]);
+        Arrays.sort(records, Comparator.comparingLong(record -> record.position));
+        synchronized (decoded) {
+            decoded.put(fileName, records);
+        }
+        return records;
+    }
+
+    private static int firstAfter(ArchiveSegmentFile.Record[] byPosition, long afterPosition) {
+        int low = 0;
+        int high = byPosition.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (byPosition[mid].position <= afterPosition) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private Segment segment(String fileName) {
+        Segment segment = segments.get(fileName);
+        if (segment == null) {
+            throw new IllegalStateException("Archive segment " + fileName + " is missing");
+        }
+        return segment;
+    }
+
+    private List<ArchiveSegmentFile.Record> readBlocks(Segment segment, int first, int last) {
+        try {
+            blockReads.addAndGet(last - first + 1);
+            return ArchiveSegmentFile.readBlocks(segment.path, segment.index, first, last);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private EventEnvelope toEnvelope(ArchiveSegmentFile.Record record) {
+        return new EventEnvelope(record.position, record.aggregateId, record.version,
+                eventSerializer.deserialize(record.aggregateId, record.codec, record.payload));
+    }
+
+    private static final class Segment {
+        private final Path path;
+        private final long minPosition;
+        private final long maxPosition;
+        private final long[][] index;
+
+        Segment(Path path, long minPosition, long maxPosition, long[][] index) {
+            this.path = path;
+            this.minPosition = minPosition;
+            this.maxPosition = maxPosition;
+            this.index = index;
+        }
+    }
+}
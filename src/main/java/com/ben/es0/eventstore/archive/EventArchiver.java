@@ -0,0 +1,244 @@
+package com.ben.es0.eventstore.archive;
+
+import com.ben.es0.eventstore.EventSerializer;
+import com.ben.es0.eventstore.StoredEvent;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Profile;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+// 背景封存：把超過 max-hot-age 的事件，以及已被快照涵蓋 (快照之前) 的事件，從 stored_event 搬到 EventArchive 的壓縮 segment。
+// 每個聚合只封存版本的前段，而且最新一筆事件永遠留在熱資料表，所以追加時的版本檢查與 MAX(version) 不受影響。
+// 快照涵蓋的事件要等快照超過 snapshot-grace 才封存：版本檢查靠 (aggregateId, version) 唯一索引，
+// 被搬走的舊版本不再擋得住一個拿著極舊 expectedVersion 的寫入者，寬限期讓進行中的命令早已結束。
+// 流程：讀出事件寫成 segment 檔並 fsync，先讓讀取端看得到，再在一個交易中寫入範圍索引並刪除熱資料表的列。
+@Component
+@Profile("!segment-log & !sharded")
+@ConditionalOnProperty(name = "es0.archive.enabled", havingValue = "true")
+public class EventArchiver implements MeterBinder {
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    private final EventArchive archive;
+    private final EventSerializer eventSerializer;
+    private final TransactionTemplate transactionTemplate;
+    private final Duration maxHotAge;
+    private final boolean snapshotCovered;
+    private final Duration snapshotGrace;
+    private final int maxEventsPerSegment;
+    private final int blockSize;
+    private final AtomicLong archivedEvents = new AtomicLong();
+
+    @Autowired
+    public EventArchiver(EventArchive archive, EventSerializer eventSerializer, PlatformTransactionManager transactionManager,
+                         @Value("${es0.archive.max-hot-age:365d}") Duration maxHotAge,
+                         @Value("${es0.archive.snapshot-covered:true}") boolean snapshotCovered,
+                         @Value("${es0.archive.snapshot-grace:1h}") Duration snapshotGrace,
+                         @Value("${es0.archive.max-events-per-segment:100000}") int maxEventsPerSegment,
+                         @Value("${es0.archive.block-size:64KB}") DataSize blockSize) {
+        this.archive = archive;
+        this.eventSerializer = eventSerializer;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.maxHotAge = maxHotAge;
+        this.snapshotCovered = snapshotCovered;
+        this.snapshotGrace = snapshotGrace;
+        this.maxEventsPerSegment = maxEventsPerSegment;
+        this.blockSize = Math.toIntExact(blockSize.toBytes());
+    }
+
+    @Scheduled(fixedDelayString = "${es0.archive.interval:1h}", initialDelayString = "${es0.archive.interval:1h}")
+    public void run() {
+        try {
+            // Keep going while segments come out full
+            while (archiveOnce() == maxEventsPerSegment) {
+                Thread.yield();
+            }
+        } catch (RuntimeException e) {
+            System.err.println("Event archiving failed: " + e.getMessage());
+        }
+    }
+
+    // Writes at most one segment, returns the number of events moved out of the hot table
+    public int archiveOnce() {
+        List<ArchiveSegmentFile.Record> records = transactionTemplate.execute(status -> loadRecords(findCandidates()));
+        if (records == null || records.isEmpty()) {
+            return 0;
+        }
+        long minPosition = records.stream().mapToLong(r -> r.position).min().orElse(0);
+        long maxPosition = records.stream().mapToLong(r -> r.position).max().orElse(0);
+        String fileName = String.format("%019d-%d.archive", minPosition, System.currentTimeMillis());
+        Path path = archive.directory().resolve(fileName);
+
+        int[] blockOf;
+        long fileSize;
+        try {
+            Files.createDirectories(archive.directory());
+            Path temporary = archive.directory().resolve(fileName + ".tmp");
+            blockOf = ArchiveSegmentFile.write(temporary, records, blockSize);
+            fileSize = Files.size(temporary);
+            Files.move(temporary, path, StandardCopyOption.ATOMIC_MOVE);
+            archive.register(fileName, minPosition, maxPosition);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        try {
+            transactionTemplate.executeWithoutResult(status -> commit(fileName, records, blockOf, minPosition, maxPosition));
+        } catch (RuntimeException e) {
+            archive.unregister(fileName);
+            try {
+                Files.deleteIfExists(path);
+            } catch (IOException ignored) {
+                // Left behind unreferenced, it is reported and ignored at startup
+            }
+            throw e;
+        }
+        archivedEvents.addAndGet(records.size());
+        long rawSize = records.stream().mapToLong(r -> r.payload.length + r.aggregateId.length() + 32).sum();
+        System.err.println("Archived " + records.size() + " events into " + fileName + " (" + fileSize / 1024 + " KB, "
+                + String.format("%.1f", (double) rawSize / Math.max(1, fileSize)) + "x compression)");
+        return records.size();
+    }
+
+    // Per aggregate the hot version range [first, upTo] to archive, sorted by aggregate id and capped at
+    // maxEventsPerSegment events. The newest event of every aggregate stays hot.
+    private TreeMap<String, int[]> findCandidates() {
+        Map<String, Integer> archiveUpTo = new HashMap<>();
+        Instant ageCutoff = Instant.now().minus(maxHotAge);
+        for (Object[] row : entityManager.createQuery(
+                        "SELECT se.aggregateId, MAX(se.version) FROM StoredEvent se WHERE se.timestamp < :cutoff GROUP BY se.aggregateId", Object[].class)
+                .setParameter("cutoff", ageCutoff)
+                .getResultList()) {
+            archiveUpTo.merge((String) row[0], (Integer) row[1], Math::max);
+        }
+        if (snapshotCovered) {
+            Instant snapshotCutoff = Instant.now().minus(snapshotGrace);
+            for (Object[] row : entityManager.createQuery(
+                            "SELECT s.aggregateId, MAX(s.version) FROM AccountSnapshot s WHERE s.takenAt < :cutoff GROUP BY s.aggregateId", Object[].class)
+                    .setParameter("cutoff", snapshotCutoff)
+                    .getResultList()) {
+                archiveUpTo.merge((String) row[0], (Integer) row[1], Math::max);
+            }
+        }
+
+        TreeMap<String, int[]> candidates = new TreeMap<>();
+        if (archiveUpTo.isEmpty()) {
+            return candidates;
+        }
+        for (Object[] row : entityManager.createQuery(
+                        "SELECT se.aggregateId, MIN(se.version), MAX(se.version) FROM StoredEvent se GROUP BY se.aggregateId", Object[].class)
+                .getResultList()) {
+            Integer upTo = archiveUpTo.get((String) row[0]);
+            if (upTo == null) {
+                continue;
+            }
+            int first = (Integer) row[1];
+            int last = Math.min(upTo, (Integer) row[2] - 1);
+            if (last >= first) {
+                candidates.put((String) row[0], new int[]{first, last});
+            }
+        }
+
+        // Cut the plan down to one segment; whatever is left is picked up by the next round
+        int budget = maxEventsPerSegment;
+        TreeMap<String, int[]> plan = new TreeMap<>();
+        for (Map.Entry<String, int[]> candidate : candidates.entrySet()) {
+            if (budget == 0) {
+                break;
+            }
+            int first = candidate.getValue()[0];
+            int last = Math.min(candidate.getValue()[1], first + budget - 1);
+            plan.put(candidate.getKey(), new int[]{first, last});
+            budget -= last - first + 1;
+        }
+        return plan;
+    }
+
+    private List<ArchiveSegmentFile.Record> loadRecords(TreeMap<String, int[]> plan) {
+        List<ArchiveSegmentFile.Record> records = new ArrayList<>();
+        for (Map.Entry<String, int[]> entry : plan.entrySet()) {
+            List<StoredEvent> storedEvents = entityManager.createQuery(
+                            "SELECT se FROM StoredEvent se WHERE se.aggregateId = :aggregateId AND se.version BETWEEN :first AND :last ORDER BY se.version", StoredEvent.class)
+                    .setParameter("aggregateId", entry.getKey())
+                    .setParameter("first", entry.getValue()[0])
+                    .setParameter("last", entry.getValue()[1])
+                    .getResultList();
+            for (StoredEvent storedEvent : storedEvents) {
+                records.add(toRecord(storedEvent));
+            }
+            entityManager.clear();
+        }
+        return records;
+    }
+
+    private ArchiveSegmentFile.Record toRecord(StoredEvent storedEvent) {
+        long position = storedEvent.getGlobalPosition() == null ? 0 : storedEvent.getGlobalPosition();
+        if (storedEvent.getCodec() == null) {
+            // Legacy JSON rows are re-encoded with the current codec on the way out
+            byte[] payload = eventSerializer.serialize(eventSerializer.deserialize(storedEvent));
+            return new ArchiveSegmentFile.Record(position, storedEvent.getAggregateId(), storedEvent.getVersion(),
+                    storedEvent.getTimestamp(), eventSerializer.codecId(), payload);
+        }
+        return new ArchiveSegmentFile.Record(position, storedEvent.getAggregateId(), storedEvent.getVersion(),
+                storedEvent.getTimestamp(), storedEvent.getCodec(), storedEvent.getPayload());
+    }
+
+    private void commit(String fileName, List<ArchiveSegmentFile.Record> records, int[] blockOf, long minPosition, long maxPosition) {
+        int blockCount = blockOf[blockOf.length - 1] + 1;
+        entityManager.persist(new ArchiveSegment(fileName, minPosition, maxPosition, records.size(), blockCount, Instant.now()));
+        int start = 0;
+        for (int i = 1; i <= records.size(); i++) {
+            if (i < records.size() && records.get(i).aggregateId.equals(records.get(start).aggregateId)) {
+                continue;
+            }
+            ArchiveSegmentFile.Record first = records.get(start);
+            ArchiveSegmentFile.Record last = records.get(i - 1);
+            entityManager.persist(new ArchivedEventRange(first.aggregateId, first.version, last.version, first.timestamp,
+                    fileName, blockOf[start], blockOf[i - 1]));
+            int deleted = entityManager.createQuery(
+                            "DELETE FROM StoredEvent se WHERE se.aggregateId = :aggregateId AND se.version BETWEEN :first AND :last")
+                    .setParameter("aggregateId", first.aggregateId)
+                    .setParameter("first", first.version)
+                    .setParameter("last", last.version)
+                    .executeUpdate();
+            if (deleted != i - start) {
+                // Another archiver got to these rows first
+                throw new IllegalStateException("Expected to archive " + (i - start) + " events of " + first.aggregateId
+                        + " but found " + deleted);
+            }
+            start = i;
+        }
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("es0.archive.events.archived", archivedEvents, AtomicLong::get)
+                .description("Events moved from the hot table into archive segments")
+                .register(registry);
+    }
+}
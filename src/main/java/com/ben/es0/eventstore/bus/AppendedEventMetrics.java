@@ -0,0 +1,40 @@
+package com.ben.es0.eventstore.bus;
+
+import com.ben.es0.eventstore.EventEnvelope;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// EventBus 訂閱者：依事件類型統計提交的事件數 (es0.events.appended{type})
+@Component
+public class AppendedEventMetrics implements EventBusSubscriber {
+
+    private final MeterRegistry meterRegistry;
+    private final Map<Class<?>, Counter> counters = new ConcurrentHashMap<>();
+
+    @Autowired
+    public AppendedEventMetrics(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    @Override
+    public String name() {
+        return "metrics";
+    }
+
+    @Override
+    public void onEvents(List<EventEnvelope> events) {
+        for (EventEnvelope envelope : events) {
+            counters.computeIfAbsent(envelope.getEvent().getClass(), type -> Counter.builder("es0.events.appended")
+                            .tag("type", type.getSimpleName())
+                            .description("Committed events, counted from the event bus")
+                            .register(meterRegistry))
+                    .increment();
+        }
+    }
+}
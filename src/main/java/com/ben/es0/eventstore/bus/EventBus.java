@@ -0,0 +1,236 @@
+package com.ben.es0.eventstore.bus;
+
+import com.ben.es0.eventstore.EventEnvelope;
+import com.ben.es0.eventstore.EventStore;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+// 行程內事件匯流排：提交後的事件經 EventRingBuffer 直接交給訂閱者 (投影、快取、指標)，不必再從事件儲存讀回來。
+// 每個訂閱者有自己的執行緒與游標 (下一個要處理的全域位置)，一次取走緩衝區中所有連續可用的事件。
+// 這個程序中回滾的追加留下的空洞由事件儲存標記在緩衝區中，訂閱者立刻跳過，不必等待。
+// 訂閱者太慢而被寫入端覆蓋，或某個位置遲遲沒出現 (其他執行個體寫入、交易結果不明) 時，改從事件儲存讀取追上，
+// 所以慢的訂閱者只會拖慢自己，不會擋住寫入。
+// 訂閱者拋出例外時游標不前進：同一批事件在逐次加倍 (最多 max-retry-backoff) 的等待後從同一位置重送，不會被跳過。
+@Component
+@ConditionalOnProperty(name = "es0.eventbus.enabled", havingValue = "true", matchIfMissing = true)
+public class EventBus implements MeterBinder {
+
+    private final EventRingBuffer ringBuffer;
+    private final EventStore eventStore;
+    private final int batchSize;
+    private final WaitStrategy waitStrategy;
+    private final long gapTimeoutNanos;
+    private final long maxRetryBackoffNanos;
+    private final List<Consumer> consumers = new ArrayList<>();
+    private volatile boolean running = true;
+
+    @Autowired
+    public EventBus(EventRingBuffer ringBuffer, EventStore eventStore, ObjectProvider<EventBusSubscriber> subscribers,
+                    @Value("${es0.eventbus.batch-size:500}") int batchSize,
+                    @Value("${es0.eventbus.wait-strategy:blocking}") WaitStrategy waitStrategy,
+                    @Value("${es0.eventbus.gap-timeout:50ms}") Duration gapTimeout,
+                    @Value("${es0.eventbus.max-retry-backoff:5s}") Duration maxRetryBackoff) {
+        this(ringBuffer, eventStore, subscribers.orderedStream().toList(), batchSize, waitStrategy, gapTimeout, maxRetryBackoff);
+    }
+
+    public EventBus(EventRingBuffer ringBuffer, EventStore eventStore, List<EventBusSubscriber> subscribers,
+                    int batchSize, WaitStrategy waitStrategy, Duration gapTimeout) {
+        this(ringBuffer, eventStore, subscribers, batchSize, waitStrategy, gapTimeout, Duration.ofSeconds(5));
+    }
+
+    public EventBus(EventRingBuffer ringBuffer, EventStore eventStore, List<EventBusSubscriber> subscribers,
+                    int batchSize, WaitStrategy waitStrategy, Duration gapTimeout, Duration maxRetryBackoff) {
+        this.ringBuffer = ringBuffer;
+        this.eventStore = eventStore;
+        this.batchSize = batchSize;
+        this.waitStrategy = waitStrategy;
+        this.gapTimeoutNanos = gapTimeout.toNanos();
+        this.maxRetryBackoffNanos = maxRetryBackoff.toNanos();
+        for (EventBusSubscriber subscriber : subscribers) {
+            Consumer consumer = new Consumer(subscriber);
+            consumers.add(consumer);
+            consumer.thread.start();
+        }
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        for (Consumer consumer : consumers) {
+            String name = consumer.subscriber.name();
+            Gauge.builder("es0.eventbus.lag", consumer, Consumer::lag)
+                    .tag("subscriber", name)
+                    .description("Events published to the bus but not yet delivered to the subscriber")
+                    .baseUnit("events")
+                    .register(registry);
+            FunctionCounter.builder("es0.eventbus.store-reads", consumer.storeReads, AtomicLong::get)
+                    .tag("subscriber", name)
+                    .description("Batches the subscriber had to read from the event store after falling behind the ring buffer")
+                    .register(registry);
+            FunctionCounter.builder("es0.eventbus.delivery-failures", consumer.deliveryFailures, AtomicLong::get)
+                    .tag("subscriber", name)
+                    .description("Batches the subscriber threw on; each one is retried from the same position")
+                    .register(registry);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        running = false;
+        for (Consumer consumer : consumers) {
+            LockSupport.unpark(consumer.thread);
+        }
+        for (Consumer consumer : consumers) {
+            consumer.thread.join(1000);
+        }
+    }
+
+    private final class Consumer implements Runnable {
+
+        private final EventBusSubscriber subscriber;
+        private final Thread thread;
+        private final AtomicLong storeReads = new AtomicLong();
+        private final AtomicLong deliveryFailures = new AtomicLong();
+        // Next global position to deliver, only moved past a batch once the subscriber took it; only written by the consumer thread
+        private volatile long next;
+        private long gapSince;
+        private int failedAttempts; // Consecutive failed deliveries of the batch at the cursor
+
+        Consumer(EventBusSubscriber subscriber) {
+            this.subscriber = subscriber;
+            this.thread = new Thread(this, "event-bus-" + subscriber.name());
+            this.thread.setDaemon(true);
+            // Deliver what is committed from now on; earlier events are the business of checkpointed projections
+            this.next = startPosition();
+        }
+
+        @Override
+        public void run() {
+            int idleRounds = 0;
+            while (running) {
+                try {
+                    List<EventEnvelope> batch = drainRingBuffer();
+                    if (!batch.isEmpty()) {
+                        deliver(batch);
+                        idleRounds = 0;
+                        gapSince = 0;
+                    } else if (fellBehind()) {
+                        readFromStore();
+                        idleRounds = 0;
+                    } else {
+                        waitStrategy.idle(idleRounds++, ringBuffer, this::nextAvailable, Math.max(gapTimeoutNanos, 1));
+                    }
+                } catch (RuntimeException e) {
+                    // E.g. the store is unreachable during a fallback read; try again shortly
+                    System.err.println("Event bus subscriber " + subscriber.name() + " failed: " + e.getMessage());
+                    LockSupport.parkNanos(Math.max(gapTimeoutNanos, 1_000_000));
+                }
+            }
+        }
+
+        private long startPosition() {
+            try {
+                return eventStore.headPosition() + 1;
+            } catch (RuntimeException e) {
+                return ringBuffer.highestPublished() + 1;
+            }
+        }
+
+        // Takes the consecutive events from the cursor on, up to one batch. Known gaps are stepped over;
+        // ones in front of the batch move the cursor at once, there is nothing to deliver for them.
+        private List<EventEnvelope> drainRingBuffer() {
+            List<EventEnvelope> batch = new ArrayList<>();
+            long position = next;
+            while (batch.size() < batchSize) {
+                EventEnvelope event = ringBuffer.peek(position);
+                if (event == null || event.getGlobalPosition() != position) {
+                    break;
+                }
+                if (EventRingBuffer.isGap(event)) {
+                    if (batch.isEmpty()) {
+                        next = position + 1;
+                    }
+                } else {
+                    batch.add(event);
+                }
+                position++;
+            }
+            return batch;
+        }
+
+        private boolean nextAvailable() {
+            EventEnvelope event = ringBuffer.peek(next);
+            return event != null && event.getGlobalPosition() >= next;
+        }
+
+        // The slot of the next position already holds a later event (we were lapped), or later
+        // positions are published while the next one has been missing for longer than the gap timeout
+        private boolean fellBehind() {
+            EventEnvelope event = ringBuffer.peek(next);
+            if (event != null && event.getGlobalPosition() > next) {
+                return true;
+            }
+            if (ringBuffer.highestPublished() < next) {
+                gapSince = 0;
+                return false;
+            }
+            long now = System.nanoTime();
+            if (gapSince == 0) {
+                gapSince = now;
+                return false;
+            }
+            return now - gapSince >= gapTimeoutNanos;
+        }
+
+        private void readFromStore() {
+            storeReads.incrementAndGet();
+            gapSince = 0;
+            List<EventEnvelope> batch = eventStore.readAll(next - 1, batchSize);
+            if (!batch.isEmpty()) {
+                deliver(batch);
+            }
+        }
+
+        // Advances the cursor only if the subscriber took the batch. Otherwise it waits and the next round hands over
+        // the same events again, from the ring buffer or, if they were overwritten in the meantime, from the store.
+        private void deliver(List<EventEnvelope> batch) {
+            try {
+                subscriber.onEvents(batch);
+            } catch (RuntimeException e) {
+                failedAttempts++;
+                deliveryFailures.incrementAndGet();
+                long backoffNanos = retryBackoffNanos();
+                System.err.println("Event bus subscriber " + subscriber.name() + " failed on events "
+                        + batch.get(0).getGlobalPosition() + ".." + batch.get(batch.size() - 1).getGlobalPosition()
+                        + " (attempt " + failedAttempts + "), retrying in " + backoffNanos / 1_000_000 + "ms: " + e.getMessage());
+                LockSupport.parkNanos(backoffNanos);
+                return;
+            }
+            failedAttempts = 0;
+            next = batch.get(batch.size() - 1).getGlobalPosition() + 1;
+        }
+
+        // Doubles from the gap timeout (at least 1ms) up to the maximum
+        private long retryBackoffNanos() {
+            long base = Math.max(gapTimeoutNanos, 1_000_000);
+            return Math.min(maxRetryBackoffNanos, base << Math.min(failedAttempts - 1, 20));
+        }
+
+        long lag() {
+            return Math.max(0, ringBuffer.highestPublished() - (next - 1));
+        }
+    }
+}
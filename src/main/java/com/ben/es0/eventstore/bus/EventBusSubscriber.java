@@ -0,0 +1,18 @@
+package com.ben.es0.eventstore.bus;
+
+import com.ben.es0.eventstore.EventEnvelope;
+
+import java.util.List;
+
+// EventBus 的訂閱者。每個訂閱者由自己的執行緒呼叫，收到啟動之後提交的所有事件，依全域位置遞增 (回滾的追加會留下空洞)。
+// 事件不會漏掉，但拋出例外的批次會整批重送，所以一個批次要嘛整批生效，要嘛重複處理也無妨 (例如依檢查點略過已處理的事件)。
+// 需要從頭處理或跨重啟接續的消費者請用有檢查點的 ProjectionEngine。
+public interface EventBusSubscriber {
+
+    // Names the consumer thread and the metrics
+    String name();
+
+    // A batch of events, in global position order. On an exception the same batch is delivered again after a backoff,
+    // and nothing after it is delivered until it goes through.
+    void onEvents(List<EventEnvelope> events);
+}
@@ -0,0 +1,105 @@
+package com.ben.es0.eventstore.bus;
+
+import com.ben.es0.eventstore.EventEnvelope;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BooleanSupplier;
+
+// 有界、預先配置的事件環形緩衝區。提交後的事件依全域位置放進第 (position & mask) 個槽位，
+// 全域位置就是序號，訂閱者依序號往前讀。寫入端從不等待：緩衝區繞一圈後直接覆蓋最舊的槽位，
+// 被覆蓋而落後的訂閱者由 EventBus 改從事件儲存追趕。回滾的追加用掉的位置以空洞標記放進槽位，訂閱者直接跳過。
+@Component
+public class EventRingBuffer {
+
+    private final AtomicReferenceArray<EventEnvelope> slots;
+    private final int mask;
+    private final AtomicLong highestPublished = new AtomicLong();
+    // Subscribers parked by the blocking wait strategy, woken on publish
+    private final Set<Thread> parked = ConcurrentHashMap.newKeySet();
+
+    @Autowired
+    public EventRingBuffer(@Value("${es0.eventbus.capacity:65536}") int capacity) {
+        if (capacity < 2 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("Event bus capacity must be a power of two, got " + capacity);
+        }
+        this.slots = new AtomicReferenceArray<>(capacity);
+        this.mask = capacity - 1;
+    }
+
+    public int capacity() {
+        return mask + 1;
+    }
+
+    // Called once the events are committed. Appends to different aggregates may commit out of position
+    // order; a subscriber simply waits for the position it needs next.
+    public void publish(List<EventEnvelope> events) {
+        long highest = 0;
+        for (EventEnvelope event : events) {
+            slots.set((int) (event.getGlobalPosition() & mask), event);
+            highest = Math.max(highest, event.getGlobalPosition());
+        }
+        highestPublished.accumulateAndGet(highest, Math::max);
+        if (!parked.isEmpty()) {
+            parked.forEach(LockSupport::unpark);
+        }
+    }
+
+    // Positions of an append that rolled back: nothing will ever be published there, so subscribers move past them
+    // right away instead of waiting out the gap timeout. A slot already holding a newer event keeps it.
+    public void publishGap(long first, int count) {
+        long end = first + count;
+        for (long position = Math.max(first, end - capacity()); position < end; position++) {
+            long gapPosition = position;
+            Gap gap = new Gap(gapPosition);
+            slots.getAndUpdate((int) (gapPosition & mask),
+                    current -> current == null || current.getGlobalPosition() < gapPosition ? gap : current);
+        }
+        highestPublished.accumulateAndGet(end - 1, Math::max);
+        if (!parked.isEmpty()) {
+            parked.forEach(LockSupport::unpark);
+        }
+    }
+
+    // Whatever occupies the slot of the position: the event itself, an older one (not published yet)
+    // or a newer one (the position was overwritten)
+    public EventEnvelope peek(long position) {
+        return slots.get((int) (position & mask));
+    }
+
+    public long highestPublished() {
+        return highestPublished.get();
+    }
+
+    // A position known to stay empty, see publishGap
+    static boolean isGap(EventEnvelope event) {
+        return event instanceof Gap;
+    }
+
+    // Parks the calling thread until the next publish, the timeout, or ready() holding already.
+    // Registering before the check means a publish in between leaves an unpark permit, so it isn't lost.
+    void parkUntilPublished(BooleanSupplier ready, long timeoutNanos) {
+        Thread current = Thread.currentThread();
+        parked.add(current);
+        try {
+            if (!ready.getAsBoolean()) {
+                LockSupport.parkNanos(this, timeoutNanos);
+            }
+        } finally {
+            parked.remove(current);
+        }
+    }
+
+    private static final class Gap extends EventEnvelope {
+        Gap(long position) {
+            super(position, null, 0, null);
+        }
+    }
+}
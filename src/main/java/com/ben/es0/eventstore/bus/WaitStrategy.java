@@ -0,0 +1,53 @@
+package com.ben.es0.eventstore.bus;
+
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BooleanSupplier;
+
+// 訂閱者沒有新事件時怎麼等：越積極延遲越低，但越耗 CPU
+public enum WaitStrategy {
+
+    // Lowest latency, keeps one core busy per subscriber
+    BUSY_SPIN {
+        @Override
+        void idle(int attempt, EventRingBuffer ringBuffer, BooleanSupplier ready, long maxParkNanos) {
+            Thread.onSpinWait();
+        }
+    },
+    // Spins briefly, then gives the CPU to other runnable threads
+    YIELDING {
+        @Override
+        void idle(int attempt, EventRingBuffer ringBuffer, BooleanSupplier ready, long maxParkNanos) {
+            if (attempt < SPIN_TRIES) {
+                Thread.onSpinWait();
+            } else {
+                Thread.yield();
+            }
+        }
+    },
+    // Spins, yields, then sleeps in short steps: little CPU, adds up to one step of latency
+    SLEEPING {
+        @Override
+        void idle(int attempt, EventRingBuffer ringBuffer, BooleanSupplier ready, long maxParkNanos) {
+            if (attempt < SPIN_TRIES) {
+                Thread.onSpinWait();
+            } else if (attempt < 2 * SPIN_TRIES) {
+                Thread.yield();
+            } else {
+                LockSupport.parkNanos(Math.min(SLEEP_NANOS, maxParkNanos));
+            }
+        }
+    },
+    // Parks until a publisher wakes it: no CPU while idle, a few microseconds to wake up
+    BLOCKING {
+        @Override
+        void idle(int attempt, EventRingBuffer ringBuffer, BooleanSupplier ready, long maxParkNanos) {
+            ringBuffer.parkUntilPublished(ready, maxParkNanos);
+        }
+    };
+
+    private static final int SPIN_TRIES = 100;
+    private static final long SLEEP_NANOS = 100_000;
+
+    // attempt counts the idle rounds since the last event; never wait longer than maxParkNanos
+    abstract void idle(int attempt, EventRingBuffer ringBuffer, BooleanSupplier ready, long maxParkNanos);
+}
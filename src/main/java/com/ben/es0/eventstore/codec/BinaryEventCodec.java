@@ -0,0 +1,77 @@
+package com.ben.es0.eventstore.codec;
+
+import com.ben.es0.domain.events.AccountCreatedEvent;
+import com.ben.es0.domain.events.AccountEvent;
+import com.ben.es0.domain.events.MoneyDepositedEvent;
+import com.ben.es0.domain.events.MoneyWithdrawnEvent;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.time.Instant;
+
+// 精簡的二進位格式，每個事件固定 22 bytes：
+// [schema 版本 1][type id 1][epoch 秒 8][奈秒 4][金額 8]
+// schema 版本讓之後的格式變更可以和舊資料共存。
+public class BinaryEventCodec implements EventCodec {
+
+    public static final byte ID = 2;
+
+    static final byte SCHEMA_V1 = 1;
+    static final int SIZE_V1 = 1 + 1 + 8 + 4 + 8;
+    private static final int TYPE_OFFSET_V1 = 1;
+    private static final int AMOUNT_OFFSET_V1 = 1 + 1 + 8 + 4;
+
+    // Reads a big-endian double out of the payload array in place, no ByteBuffer wrapper
+    private static final VarHandle DOUBLE_AT = MethodHandles.byteArrayViewVarHandle(double[].class, ByteOrder.BIG_ENDIAN);
+
+    @Override
+    public byte id() {
+        return ID;
+    }
+
+    @Override
+    public String name() {
+        return "binary";
+    }
+
+    @Override
+    public byte[] encode(AccountEvent event) {
+        byte typeId = EventTypes.idOf(event);
+        ByteBuffer buffer = ByteBuffer.allocate(SIZE_V1);
+        buffer.put(SCHEMA_V1);
+        buffer.put(typeId);
+        buffer.putLong(event.getTimestamp().getEpochSecond());
+        buffer.putInt(event.getTimestamp().getNano());
+        buffer.putDouble(EventTypes.amountOf(event));
+        return buffer.array();
+    }
+
+    @Override
+    public AccountEvent decode(String aggregateId, byte[] payload) {
+        ByteBuffer buffer = ByteBuffer.wrap(payload);
+        byte schema = buffer.get();
+        if (schema != SCHEMA_V1) {
+            throw new IllegalArgumentException("Unsupported binary event schema version " + schema);
+        }
+        byte typeId = buffer.get();
+        Instant timestamp = Instant.ofEpochSecond(buffer.getLong(), buffer.getInt());
+        double amount = buffer.getDouble();
+        return switch (typeId) {
+            case EventTypes.ACCOUNT_CREATED -> new AccountCreatedEvent(aggregateId, amount, timestamp);
+            case EventTypes.MONEY_DEPOSITED -> new MoneyDepositedEvent(aggregateId, amount, timestamp);
+            case EventTypes.MONEY_WITHDRAWN -> new MoneyWithdrawnEvent(aggregateId, amount, timestamp);
+            default -> throw new IllegalArgumentException("Unknown event type id " + typeId);
+        };
+    }
+
+    // Fixed layout: type id and amount are read at their offsets, the timestamp is skipped
+    @Override
+    public void fold(String aggregateId, byte[] payload, EventFold fold) {
+        if (payload[0] != SCHEMA_V1) {
+            throw new IllegalArgumentException("Unsupported binary event schema version " + payload[0]);
+        }
+        fold.apply(payload[TYPE_OFFSET_V1], (double) DOUBLE_AT.get(payload, AMOUNT_OFFSET_V1));
+    }
+}
@@ -0,0 +1,24 @@
+package com.ben.es0.eventstore.codec;
+
+import com.ben.es0.domain.events.AccountEvent;
+
+// 事件的序列化格式。每個 codec 有固定的 id，與 payload 一起儲存，讀取時依 id 選擇 codec。
+public interface EventCodec {
+
+    // Stored next to the payload, must never change once data was written with it
+    byte id();
+
+    String name();
+
+    byte[] encode(AccountEvent event);
+
+    // The aggregate id is stored in its own column/field, codecs don't need to repeat it
+    AccountEvent decode(String aggregateId, byte[] payload);
+
+    // Hands the event's type id and amount to fold. Codecs that can read them straight from the payload
+    // override this to skip building the event.
+    default void fold(String aggregateId, byte[] payload, EventFold fold) {
+        AccountEvent event = decode(aggregateId, payload);
+        fold.apply(event.typeId(), EventTypes.amountOf(event));
+    }
+}
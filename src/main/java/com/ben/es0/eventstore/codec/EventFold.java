@@ -0,0 +1,8 @@
+package com.ben.es0.eventstore.codec;
+
+// 重播時的接收端：codec 把每筆事件的 type id 與金額直接交出來，不必先建立事件物件 (例如 Account::apply)
+@FunctionalInterface
+public interface EventFold {
+
+    void apply(byte typeId, double amount);
+}
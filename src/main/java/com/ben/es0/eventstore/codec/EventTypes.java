@@ -0,0 +1,48 @@
+package com.ben.es0.eventstore.codec;
+
+import com.ben.es0.domain.events.AccountCreatedEvent;
+import com.ben.es0.domain.events.AccountEvent;
+import com.ben.es0.domain.events.MoneyDepositedEvent;
+import com.ben.es0.domain.events.MoneyWithdrawnEvent;
+
+import java.util.Map;
+
+// 事件類型與固定小整數 id 的對照表。id 會被寫進資料，只能新增、不能修改或重複使用。
+public final class EventTypes {
+
+    // Each event class declares its own id, so Account can dispatch on it without depending on this package
+    public static final byte ACCOUNT_CREATED = AccountCreatedEvent.TYPE_ID;
+    public static final byte MONEY_DEPOSITED = MoneyDepositedEvent.TYPE_ID;
+    public static final byte MONEY_WITHDRAWN = MoneyWithdrawnEvent.TYPE_ID;
+
+    // Legacy rows store the fully-qualified class name, resolve it without Class.forName
+    private static final Map<String, Class<? extends AccountEvent>> BY_CLASS_NAME = Map.of(
+            AccountCreatedEvent.class.getName(), AccountCreatedEvent.class,
+            MoneyDepositedEvent.class.getName(), MoneyDepositedEvent.class,
+            MoneyWithdrawnEvent.class.getName(), MoneyWithdrawnEvent.class);
+
+    private EventTypes() {
+    }
+
+    public static byte idOf(AccountEvent event) {
+        return event.typeId();
+    }
+
+    // The one amount every account event carries
+    public static double amountOf(AccountEvent event) {
+        return switch (event.typeId()) {
+            case ACCOUNT_CREATED -> ((AccountCreatedEvent) event).getInitialBalance();
+            case MONEY_DEPOSITED -> ((MoneyDepositedEvent) event).getAmount();
+            case MONEY_WITHDRAWN -> ((MoneyWithdrawnEvent) event).getAmount();
+            default -> throw new IllegalArgumentException("Unknown event type id " + event.typeId());
+        };
+    }
+
+    public static Class<? extends AccountEvent> classOf(String className) {
+        Class<? extends AccountEvent> eventClass = BY_CLASS_NAME.get(className);
+        if (eventClass == null) {
+            throw new IllegalArgumentException("Unknown event type " + className);
+        }
+        return eventClass;
+    }
+}
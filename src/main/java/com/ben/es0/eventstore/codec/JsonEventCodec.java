@@ -0,0 +1,66 @@
+package com.ben.es0.eventstore.codec;
+
+import com.ben.es0.domain.events.AccountEvent;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.jsontype.BasicPolymorphicTypeValidator;
+import com.fasterxml.jackson.databind.jsontype.PolymorphicTypeValidator;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+
+import java.io.IOException;
+
+// 原本的 JSON 格式 (Jackson polymorphic typing)，舊資料都是這個格式，所以一定要能讀
+public class JsonEventCodec implements EventCodec {
+
+    public static final byte ID = 1;
+
+    private final ObjectMapper objectMapper;
+
+    public JsonEventCodec() {
+        this.objectMapper = new ObjectMapper();
+        // Configure ObjectMapper to handle polymorphism (deserialize correct event type)
+        PolymorphicTypeValidator ptv = BasicPolymorphicTypeValidator.builder()
+                .allowIfSubType("com.ben.es0.domain.events") // Allow specific package
+                .build();
+        objectMapper.activateDefaultTyping(ptv, ObjectMapper.DefaultTyping.NON_FINAL);
+        objectMapper.registerModule(new JavaTimeModule()); // Support Java 8 Date/Time
+    }
+
+    @Override
+    public byte id() {
+        return ID;
+    }
+
+    @Override
+    public String name() {
+        return "json";
+    }
+
+    @Override
+    public byte[] encode(AccountEvent event) {
+        try {
+            return objectMapper.writeValueAsBytes(event);
+        } catch (JsonProcessingException e) {
+            throw new RuntimeException("Error serializing event", e);
+        }
+    }
+
+    // The JSON carries its own type id, the aggregate id is part of the document as well
+    @Override
+    public AccountEvent decode(String aggregateId, byte[] payload) {
+        try {
+            return objectMapper.readValue(payload, AccountEvent.class);
+        } catch (IOException e) {
+            throw new RuntimeException("Error deserializing event", e);
+        }
+    }
+
+    // Rows written before codecs existed: class name and JSON text in separate columns
+    public AccountEvent decodeLegacy(String eventType, String eventData) {
+        try {
+            return objectMapper.readValue(eventData, EventTypes.classOf(eventType));
+        } catch (IOException e) {
+            throw new RuntimeException("Error deserializing event", e);
+        }
+    }
+}
@@ -0,0 +1,11 @@
+package com.ben.es0.eventstore.segment;
+
+// 何時把寫入 mmap 的資料強制刷到磁碟
+public enum FsyncPolicy {
+    // force() after every append, an acknowledged append survives a power loss
+    PER_WRITE,
+    // force() on a fixed interval, at most that interval of appends can be lost
+    BATCHED,
+    // Never force() explicitly, leave write-back to the OS page cache
+    OS_MANAGED
+}
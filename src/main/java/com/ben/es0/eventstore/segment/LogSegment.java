@@ -0,0 +1,167 @@
+package com.ben.es0.eventstore.segment;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+// 一個預先配置好大小、以 mmap 映射的 segment 檔案。
+// 每筆記錄為 [int 長度][int CRC32][內容]，長度為 0 代表之後沒有資料。
+final class LogSegment implements Closeable {
+
+    static final int HEADER_SIZE = 8;
+    private static final byte[] ZERO_CHUNK = new byte[64 * 1024];
+
+    private final int id;
+    private final Path path;
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final int capacity;
+
+    private int writePosition;
+    private int flushedPosition;
+
+    private LogSegment(int id, Path path, FileChannel channel, MappedByteBuffer buffer, int capacity) {
+        this.id = id;
+        this.path = path;
+        this.channel = channel;
+        this.buffer = buffer;
+        this.capacity = capacity;
+    }
+
+    static LogSegment open(Path directory, int id, int capacity) throws IOException {
+        Path path = directory.resolve(fileName(id));
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        // Mapping past the end of the file grows it, new space reads as zeros
+        int size = (int) Math.max(capacity, channel.size());
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        return new LogSegment(id, path, channel, buffer, size);
+    }
+
+    static String fileName(int id) {
+        return String.format("%010d.segment", id);
+    }
+
+    static boolean isSegmentFile(Path path) {
+        return path.getFileName().toString().matches("\\d{10}\\.segment");
+    }
+
+    static int idOf(Path path) {
+        String name = path.getFileName().toString();
+        return Integer.parseInt(name.substring(0, name.indexOf('.')));
+    }
+
+    int id() {
+        return id;
+    }
+
+    int writePosition() {
+        return writePosition;
+    }
+
+    boolean fits(int bodiesLength, int recordCount) {
+        return writePosition + bodiesLength + (long) recordCount * HEADER_SIZE <= capacity;
+    }
+
+    // Returns the offset of the record; the caller must have checked fits()
+    int append(byte[] body) {
+        int offset = writePosition;
+        CRC32 crc = new CRC32();
+        crc.update(body);
+        buffer.putInt(offset + 4, (int) crc.getValue());
+        buffer.put(offset + HEADER_SIZE, body);
+        // Length goes last: a record only becomes visible to recovery once its length is written
+        buffer.putInt(offset, body.length);
+        writePosition = offset + HEADER_SIZE + body.length;
+        return offset;
+    }
+
+    byte[] read(int offset) {
+        int length = buffer.getInt(offset);
+        byte[] body = new byte[length];
+        buffer.get(offset + HEADER_SIZE, body);
+        return body;
+    }
+
+    // Walks the records from the start and stops at the first empty, torn or corrupt one.
+    // Returns the offset just past the last intact record, without changing anything.
+    int scan(RecordVisitor visitor) {
+        int offset = 0;
+        CRC32 crc = new CRC32();
+        while (offset + HEADER_SIZE <= capacity) {
+            int length = buffer.getInt(offset);
+            if (length <= 0 || length > capacity - offset - HEADER_SIZE) {
+                break;
+            }
+            byte[] body = new byte[length];
+            buffer.get(offset + HEADER_SIZE, body);
+            crc.reset();
+            crc.update(body);
+            if ((int) crc.getValue() != buffer.getInt(offset + 4)) {
+                break;
+            }
+            visitor.visit(offset, body);
+            offset += HEADER_SIZE + length;
+        }
+        return offset;
+    }
+
+    // Drops everything from the given offset on (torn tail or an unfinished batch) and appends continue there.
+    // Works a chunk at a time: chunks that already read as zeros, usually the never written part of the file,
+    // are compared in bulk and left untouched, so they stay unallocated on disk.
+    void truncate(int offset) {
+        for (int from = offset; from < capacity; from += ZERO_CHUNK.length) {
+            int length = Math.min(ZERO_CHUNK.length, capacity - from);
+            if (buffer.slice(from, length).mismatch(ByteBuffer.wrap(ZERO_CHUNK, 0, length)) != -1) {
+                buffer.put(from, ZERO_CHUNK, 0, length);
+            }
+        }
+        buffer.force();
+        writePosition = offset;
+        flushedPosition = offset;
+    }
+
+    void flush() {
+        if (writePosition > flushedPosition) {
+            buffer.force(flushedPosition, writePosition - flushedPosition);
+            flushedPosition = writePosition;
+        }
+    }
+
+    // For flushing outside the store's lock: claims the records written since the last flush and returns the offset
+    // they start at, they end at writePosition(). Written records never change, so force() can run concurrently with appends.
+    int claimUnflushed() {
+        int from = flushedPosition;
+        flushedPosition = writePosition;
+        return from;
+    }
+
+    void force(int from, int to) {
+        if (to > from) {
+            buffer.force(from, to - from);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    @Override
+    public String toString() {
+        return path.toString();
+    }
+
+    static void ensureDirectory(Path directory) throws IOException {
+        Files.createDirectories(directory);
+    }
+
+    interface RecordVisitor {
+        void visit(int offset, byte[] body);
+    }
+}
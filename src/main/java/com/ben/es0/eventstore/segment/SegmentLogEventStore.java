@@ -0,0 +1,495 @@
+package com.ben.es0.eventstore.segment;
+
+import com.ben.es0.domain.events.AccountEvent;
+import com.ben.es0.eventstore.AppendRequest;
+import com.ben.es0.eventstore.ConcurrencyException;
+import com.ben.es0.eventstore.EventAppendNotifier;
+import com.ben.es0.eventstore.EventEnvelope;
+import com.ben.es0.eventstore.EventSerializer;
+import com.ben.es0.eventstore.EventStore;
+import com.ben.es0.eventstore.StoredEvent;
+import com.ben.es0.eventstore.bus.EventRingBuffer;
+import com.ben.es0.eventstore.codec.EventFold;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Stream;
+
+// 以 append-only、mmap 映射的 segment 檔案儲存事件的 EventStore 實作 (Spring profile: segment-log)。
+// 每個聚合在記憶體中維護「版本 -> 檔案位置」的索引，啟動時掃描所有 segment 重建索引，
+// 並截掉當機時寫到一半的記錄。同一次 save/saveAll 的事件一定寫在同一個 segment，
+// 最後一筆帶有 batch 結束旗標，所以重啟後一個批次要嘛全部存在、要嘛全部不存在。
+@Component
+@Profile("segment-log")
+public class SegmentLogEventStore implements EventStore, Closeable {
+
+    private static final byte FLAG_END_OF_BATCH = 1;
+    // The payload length is stored as an unsigned short
+    private static final int MAX_PAYLOAD_LENGTH = 0xFFFF;
+
+    private final Path directory;
+    private final int segmentSize;
+    private final FsyncPolicy fsyncPolicy;
+    private final EventSerializer eventSerializer;
+    private final EventAppendNotifier appendNotifier;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    // By segment id, readers look segments up without taking the lock. Ids need not be contiguous,
+    // a segment deleted or missing in the middle must not shift the ones after it.
+    private final ConcurrentSkipListMap<Integer, LogSegment> segments = new ConcurrentSkipListMap<>();
+    private final Map<String, AggregateIndex> index = new HashMap<>();
+    // File position of every committed record in append order, global position n is at n - 1
+    private final AggregateIndex globalIndex = new AggregateIndex();
+    private final ScheduledExecutorService flusher;
+    private LogSegment active;
+
+    @Autowired
+    public SegmentLogEventStore(@Value("${es0.segment-log.directory:data/event-log}") String directory,
+                                @Value("${es0.segment-log.segment-size:64MB}") DataSize segmentSize,
+                                @Value("${es0.segment-log.fsync:batched}") FsyncPolicy fsyncPolicy,
+                                @Value("${es0.segment-log.fsync-interval:50ms}") Duration fsyncInterval,
+                                EventSerializer eventSerializer, EventAppendNotifier appendNotifier) throws IOException {
+        this(Paths.get(directory), Math.toIntExact(segmentSize.toBytes()), fsyncPolicy, fsyncInterval, eventSerializer, appendNotifier);
+    }
+
+    public SegmentLogEventStore(Path directory, int segmentSize, FsyncPolicy fsyncPolicy, Duration fsyncInterval,
+                                EventSerializer eventSerializer) throws IOException {
+        this(directory, segmentSize, fsyncPolicy, fsyncInterval, eventSerializer, new EventAppendNotifier(new EventRingBuffer(1024)));
+    }
+
+    public SegmentLogEventStore(Path directory, int segmentSize, FsyncPolicy fsyncPolicy, Duration fsyncInterval,
+                                EventSerializer eventSerializer, EventAppendNotifier appendNotifier) throws IOException {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.fsyncPolicy = fsyncPolicy;
+        this.eventSerializer = eventSerializer;
+        this.appendNotifier = appendNotifier;
+        recover();
+
+        if (fsyncPolicy == FsyncPolicy.BATCHED) {
+            flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "segment-log-fsync");
+                thread.setDaemon(true);
+                return thread;
+            });
+            long intervalNanos = fsyncInterval.toNanos();
+            flusher.scheduleWithFixedDelay(this::flushActive, intervalNanos, intervalNanos, TimeUnit.NANOSECONDS);
+        } else {
+            flusher = null;
+        }
+    }
+
+    @Override
+    public void save(String aggregateId, List<AccountEvent> events, int expectedVersion) {
+        saveAll(List.of(new AppendRequest(aggregateId, events, expectedVersion)));
+    }
+
+    @Override
+    public int saveAtNextVersion(String aggregateId, List<AccountEvent> events) {
+        lock.writeLock().lock(); // Reentrant, saveAll takes it again
+        try {
+            int current = currentVersion(aggregateId);
+            saveAll(List.of(new AppendRequest(aggregateId, events, current)));
+            return current + events.size();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void saveAll(List<AppendRequest> appends) {
+        List<EventEnvelope> appended;
+        lock.writeLock().lock();
+        try {
+            // Validate every version first, so a conflict leaves nothing half written
+            Map<String, Integer> versions = new HashMap<>();
+            for (AppendRequest append : appends) {
+                int current = versions.computeIfAbsent(append.getAggregateId(), this::currentVersion);
+                if (current != append.getExpectedVersion()) {
+                    throw new ConcurrencyException(append.getAggregateId(), append.getExpectedVersion(), null);
+                }
+                versions.put(append.getAggregateId(), append.getResultingVersion());
+            }
+
+            List<byte[]> bodies = new ArrayList<>();
+            List<String> owners = new ArrayList<>();
+            List<AccountEvent> events = new ArrayList<>();
+            int totalEvents = appends.stream().mapToInt(a -> a.getEvents().size()).sum();
+            for (AppendRequest append : appends) {
+                int version = append.getExpectedVersion();
+                for (AccountEvent event : append.getEvents()) {
+                    boolean last = bodies.size() == totalEvents - 1;
+                    bodies.add(encode(append.getAggregateId(), ++version, event, last));
+                    owners.add(append.getAggregateId());
+                    events.add(event);
+                }
+            }
+            if (bodies.isEmpty()) {
+                return;
+            }
+
+            int bodiesLength = bodies.stream().mapToInt(b -> b.length).sum();
+            if (!active.fits(bodiesLength, bodies.size())) {
+                roll();
+                if (!active.fits(bodiesLength, bodies.size())) {
+                    throw new IllegalArgumentException("Append of " + bodiesLength + " bytes does not fit in a segment of " + segmentSize + " bytes");
+                }
+            }
+
+            appended = new ArrayList<>(bodies.size());
+            for (int i = 0; i < bodies.size(); i++) {
+                long position = position(active.id(), active.append(bodies.get(i)));
+                AggregateIndex aggregateIndex = index.computeIfAbsent(owners.get(i), id -> new AggregateIndex());
+                aggregateIndex.add(position);
+                globalIndex.add(position);
+                appended.add(new EventEnvelope(globalIndex.size, owners.get(i), aggregateIndex.size, events.get(i)));
+            }
+            if (fsyncPolicy == FsyncPolicy.PER_WRITE) {
+                active.flush();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        // Readers see the records as soon as the lock is released
+        appendNotifier.appended(appended);
+    }
+
+    @Override
+    public List<AccountEvent> getEventsForAggregate(String aggregateId) {
+        return getEventsForAggregate(aggregateId, 0);
+    }
+
+    @Override
+    public List<AccountEvent> getEventsForAggregate(String aggregateId, int afterVersion) {
+        return getEventsForAggregate(aggregateId, afterVersion, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public List<AccountEvent> getEventsForAggregate(String aggregateId, int afterVersion, int limit) {
+        return Arrays.stream(positionsAfter(aggregateId, afterVersion, limit))
+                .mapToObj(position -> decode(readRecord(position), true).event)
+                .toList();
+    }
+
+    @Override
+    public Stream<AccountEvent> streamEventsForAggregate(String aggregateId, int afterVersion) {
+        // Records are decoded lazily as the stream is consumed
+        return Arrays.stream(positionsAfter(aggregateId, afterVersion, Integer.MAX_VALUE))
+                .mapToObj(position -> decode(readRecord(position), true).event);
+    }
+
+    @Override
+    public void foldEventsForAggregate(String aggregateId, int afterVersion, EventFold fold) {
+        for (long position : positionsAfter(aggregateId, afterVersion, Integer.MAX_VALUE)) {
+            Record record = decode(readRecord(position), false);
+            eventSerializer.fold(aggregateId, record.codec, record.payload, fold);
+        }
+    }
+
+    @Override
+    public int versionAt(String aggregateId, Instant timestamp) {
+        lock.readLock().lock();
+        try {
+            AggregateIndex aggregate = index.get(aggregateId);
+            if (aggregate == null) {
+                return 0;
+            }
+            // Timestamps grow with the version: binary search, decoding only log2(n) record headers
+            int low = 1;
+            int high = aggregate.size;
+            int found = 0;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                if (decode(readRecord(aggregate.positionOf(mid)), false).timestamp.isAfter(timestamp)) {
+                    high = mid - 1;
+                } else {
+                    found = mid;
+                    low = mid + 1;
+                }
+            }
+            return found;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<EventEnvelope> readAll(long afterPosition, int limit) {
+        long[] positions;
+        lock.readLock().lock();
+        try {
+            if (globalIndex.size <= afterPosition) {
+                return List.of();
+            }
+            int to = (int) Math.min(globalIndex.size, afterPosition + limit);
+            positions = Arrays.copyOfRange(globalIndex.positions, (int) afterPosition, to);
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        List<EventEnvelope> envelopes = new ArrayList<>(positions.length);
+        for (int i = 0; i < positions.length; i++) {
+            Record record = decode(readRecord(positions[i]), true);
+            envelopes.add(new EventEnvelope(afterPosition + i + 1, record.aggregateId, record.version, record.event));
+        }
+        return envelopes;
+    }
+
+    @Override
+    public long headPosition() {
+        lock.readLock().lock();
+        try {
+            return globalIndex.size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public Optional<AccountEvent> getLastEventForAggregate(String aggregateId) {
+        return getLastStoredEventForAggregate(aggregateId).map(eventSerializer::deserialize);
+    }
+
+    @Override
+    public Optional<StoredEvent> getLastStoredEventForAggregate(String aggregateId) {
+        lock.readLock().lock();
+        try {
+            AggregateIndex aggregate = index.get(aggregateId);
+            if (aggregate == null || aggregate.size == 0) {
+                return Optional.empty();
+            }
+            Record record = decode(readRecord(aggregate.positionOf(aggregate.size)), false);
+            return Optional.of(new StoredEvent(globalPositionOf(aggregate.positionOf(aggregate.size)), record.aggregateId,
+                    record.timestamp, record.codec, record.payload, record.version));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @PreDestroy
+    @Override
+    public void close() throws IOException {
+        if (flusher != null) {
+            flusher.shutdownNow();
+            // A flush in progress has already claimed its range, let it finish forcing it
+            try {
+                flusher.awaitTermination(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        lock.writeLock().lock();
+        try {
+            if (fsyncPolicy != FsyncPolicy.OS_MANAGED) {
+                active.flush();
+            }
+            for (LogSegment segment : segments.values()) {
+                segment.close();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // --- Recovery ---
+
+    private void recover() throws IOException {
+        LogSegment.ensureDirectory(directory);
+        List<Path> files;
+        try (Stream<Path> listing = Files.list(directory)) {
+            files = listing.filter(LogSegment::isSegmentFile).sorted().toList();
+        }
+
+        for (Path file : files) {
+            LogSegment segment = LogSegment.open(directory, LogSegment.idOf(file), segmentSize);
+            segments.put(segment.id(), segment);
+
+            // Records are only indexed once the record carrying the end-of-batch flag is seen
+            List<Record> pending = new ArrayList<>();
+            int[] committedEnd = {0};
+            segment.scan((offset, body) -> {
+                Record record = decode(body, false);
+                record.position = position(segment.id(), offset);
+                pending.add(record);
+                if (record.endOfBatch) {
+                    for (Record r : pending) {
+                        index.computeIfAbsent(r.aggregateId, id -> new AggregateIndex()).add(r.position);
+                        globalIndex.add(r.position);
+                    }
+                    pending.clear();
+                    committedEnd[0] = offset + LogSegment.HEADER_SIZE + body.length;
+                }
+            });
+            // Torn record or unfinished batch at the tail: cut it off so appends continue from a clean point
+            segment.truncate(committedEnd[0]);
+        }
+
+        if (segments.isEmpty()) {
+            segments.put(0, LogSegment.open(directory, 0, segmentSize));
+        }
+        active = segments.lastEntry().getValue();
+    }
+
+    private void roll() {
+        try {
+            if (fsyncPolicy != FsyncPolicy.OS_MANAGED) {
+                active.flush();
+            }
+            active = LogSegment.open(directory, active.id() + 1, segmentSize);
+            segments.put(active.id(), active);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not roll to a new segment", e);
+        }
+    }
+
+    // Only the range is taken under the lock; the msync itself runs outside it, so appends and readers are not held up
+    private void flushActive() {
+        LogSegment segment;
+        int from;
+        int to;
+        lock.writeLock().lock();
+        try {
+            segment = active;
+            to = segment.writePosition();
+            from = segment.claimUnflushed();
+        } finally {
+            lock.writeLock().unlock();
+        }
+        segment.force(from, to);
+    }
+
+    // Copies the positions under the lock. Written records never move or change, so reading them needs no lock.
+    private long[] positionsAfter(String aggregateId, int afterVersion, int limit) {
+        lock.readLock().lock();
+        try {
+            AggregateIndex aggregate = index.get(aggregateId);
+            if (aggregate == null || aggregate.size <= afterVersion) {
+                return new long[0];
+            }
+            int to = (int) Math.min(aggregate.size, (long) afterVersion + limit);
+            return Arrays.copyOfRange(aggregate.positions, afterVersion, to);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Only used for the rare last-event lookup, a binary search over the append-ordered file positions
+    private long globalPositionOf(long position) {
+        return Arrays.binarySearch(globalIndex.positions, 0, globalIndex.size, position) + 1;
+    }
+
+    private int currentVersion(String aggregateId) {
+        AggregateIndex aggregate = index.get(aggregateId);
+        return aggregate == null ? 0 : aggregate.size;
+    }
+
+    private byte[] readRecord(long position) {
+        return segments.get((int) (position >>> 32)).read((int) position);
+    }
+
+    private static long position(int segmentId, int offset) {
+        return ((long) segmentId << 32) | (offset & 0xFFFFFFFFL);
+    }
+
+    // --- Record encoding ---
+
+    private byte[] encode(String aggregateId, int version, AccountEvent event, boolean endOfBatch) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeByte(endOfBatch ? FLAG_END_OF_BATCH : 0);
+            out.writeInt(version);
+            out.writeLong(event.getTimestamp().getEpochSecond());
+            out.writeInt(event.getTimestamp().getNano());
+            out.writeUTF(aggregateId);
+            out.writeByte(eventSerializer.codecId());
+            byte[] payload = eventSerializer.serialize(event);
+            if (payload.length > MAX_PAYLOAD_LENGTH) {
+                // writeShort would silently keep the low 16 bits and the record could not be read back
+                throw new IllegalArgumentException("Event " + version + " of aggregate " + aggregateId + " serializes to "
+                        + payload.length + " bytes, a segment log record holds at most " + MAX_PAYLOAD_LENGTH);
+            }
+            out.writeShort(payload.length);
+            out.write(payload);
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Recovery and version lookups only need the header fields, skip decoding the event there
+    private Record decode(byte[] body, boolean withEvent) {
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(body));
+            Record record = new Record();
+            record.endOfBatch = (in.readByte() & FLAG_END_OF_BATCH) != 0;
+            record.version = in.readInt();
+            record.timestamp = Instant.ofEpochSecond(in.readLong(), in.readInt());
+            record.aggregateId = in.readUTF();
+            record.codec = in.readByte();
+            record.payload = new byte[in.readUnsignedShort()];
+            in.readFully(record.payload);
+            if (withEvent) {
+                record.event = eventSerializer.deserialize(record.aggregateId, record.codec, record.payload);
+            }
+            return record;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static final class Record {
+        private boolean endOfBatch;
+        private int version;
+        private Instant timestamp;
+        private String aggregateId;
+        private byte codec;
+        private byte[] payload;
+        private AccountEvent event;
+        private long position;
+    }
+
+    // Growable list of file positions, e.g. version n of one aggregate is at positions[n - 1]
+    private static final class AggregateIndex {
+        private long[] positions = new long[4];
+        private int size;
+
+        void add(long position) {
+            if (size == positions.length) {
+                positions = Arrays.copyOf(positions, size * 2);
+            }
+            positions[size++] = position;
+        }
+
+        long positionOf(int version) {
+            return positions[version - 1];
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package com.ben.es0.eventstore.shard;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+// 一致性雜湊環：每個分片在環上放 virtualNodes 個點，聚合 id 落在順時針方向第一個點所屬的分片。
+// 新增一個分片只會從每個既有分片各搬走一小部分聚合 (平均 1/(N+1))，其餘聚合的位置不變。
+// 雜湊只依分片名稱與聚合 id 計算，不依賴 String.hashCode 或 JVM，所以每個執行個體、每次重啟的路由都一樣。
+public final class ConsistentHashRing {
+
+    private final NavigableMap<Long, String> ring = new TreeMap<>();
+    private final List<String> shardNames;
+
+    public ConsistentHashRing(List<String> shardNames, int virtualNodes) {
+        if (shardNames.isEmpty()) {
+            throw new IllegalArgumentException("At least one shard is required");
+        }
+        if (virtualNodes < 1) {
+            throw new IllegalArgumentException("virtualNodes must be >= 1");
+        }
+        this.shardNames = List.copyOf(shardNames);
+        for (String shard : this.shardNames) {
+            for (int i = 0; i < virtualNodes; i++) {
+                // A colliding point simply stays with the shard that claimed it first
+                ring.putIfAbsent(hash(shard + "#" + i), shard);
+            }
+        }
+    }
+
+    public String shardFor(String key) {
+        Map.Entry<Long, String> entry = ring.ceilingEntry(hash(key));
+        return entry != null ? entry.getValue() : ring.firstEntry().getValue();
+    }
+
+    public List<String> shardNames() {
+        return shardNames;
+    }
+
+    // FNV-1a over the UTF-8 bytes, then the murmur3 finalizer so that similar keys ("acc-1", "acc-2")
+    // spread over the whole ring instead of clustering
+    static long hash(String key) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+            h ^= b & 0xff;
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
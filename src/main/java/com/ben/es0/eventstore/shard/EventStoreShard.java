@@ -0,0 +1,228 @@
+package com.ben.es0.eventstore.shard;
+
+import com.ben.es0.domain.events.AccountEvent;
+import com.ben.es0.eventstore.AppendRequest;
+import com.ben.es0.eventstore.ConcurrencyException;
+import com.ben.es0.eventstore.EventEnvelope;
+import com.ben.es0.eventstore.EventSerializer;
+import com.ben.es0.eventstore.StoredEvent;
+import com.ben.es0.eventstore.codec.EventFold;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+// 一個分片：自己的 DataSource、自己的 stored_event 表與位置計數器，以及共置的讀取模型與投影檢查點。
+// 位置只在分片內連續遞增 (依提交順序、沒有空洞)，版本檢查靠分片內 (aggregate_id, version) 唯一索引，
+// 所以同一個聚合的寫入永遠只鎖自己所在的分片，不同分片的寫入互不等待。
+public class EventStoreShard {
+
+    private static final String EVENT_COLUMNS = "position, aggregate_id, version, timestamp, codec, payload";
+
+    private final String name;
+    private final DataSource dataSource;
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final EventSerializer eventSerializer;
+
+    public EventStoreShard(String name, DataSource dataSource, EventSerializer eventSerializer, int fetchSize) {
+        this.name = name;
+        this.dataSource = dataSource;
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+        this.jdbcTemplate.setFetchSize(fetchSize);
+        this.transactionTemplate = new TransactionTemplate(new DataSourceTransactionManager(dataSource));
+        this.eventSerializer = eventSerializer;
+        createSchema();
+    }
+
+    public String name() {
+        return name;
+    }
+
+    public DataSource dataSource() {
+        return dataSource;
+    }
+
+    public JdbcTemplate jdbcTemplate() {
+        return jdbcTemplate;
+    }
+
+    // Runs the work in a transaction on this shard's DataSource; joins one that is already open on it
+    public <T> T inTransaction(Supplier<T> work) {
+        return transactionTemplate.execute(status -> work.get());
+    }
+
+    private void createSchema() {
+        jdbcTemplate.execute("CREATE TABLE IF NOT EXISTS stored_event ("
+                + "position BIGINT PRIMARY KEY, "
+                + "aggregate_id VARCHAR(255) NOT NULL, "
+                + "version INT NOT NULL, "
+                + "timestamp TIMESTAMP WITH TIME ZONE NOT NULL, "
+                + "codec TINYINT NOT NULL, "
+                + "payload VARBINARY(1024) NOT NULL, "
+                + "CONSTRAINT uk_stored_event_aggregate_version UNIQUE (aggregate_id, version))");
+        jdbcTemplate.execute("CREATE INDEX IF NOT EXISTS idx_stored_event_aggregate_timestamp "
+                + "ON stored_event (aggregate_id, timestamp DESC, version DESC)");
+        jdbcTemplate.execute("CREATE TABLE IF NOT EXISTS shard_position (id INT PRIMARY KEY, last_position BIGINT NOT NULL)");
+        jdbcTemplate.update("INSERT INTO shard_position (id, last_position) "
+                + "SELECT 1, 0 WHERE NOT EXISTS (SELECT 1 FROM shard_position WHERE id = 1)");
+        // The read model of the shard's accounts lives next to their events, so projecting never leaves the shard
+        jdbcTemplate.execute("CREATE TABLE IF NOT EXISTS account_read_model ("
+                + "account_id VARCHAR(255) PRIMARY KEY, balance DOUBLE PRECISION NOT NULL, version INT NOT NULL)");
+        jdbcTemplate.execute("CREATE INDEX IF NOT EXISTS idx_account_read_model_balance "
+                + "ON account_read_model (balance DESC, account_id)");
+        jdbcTemplate.execute("CREATE TABLE IF NOT EXISTS projection_checkpoint ("
+                + "name VARCHAR(255) PRIMARY KEY, position BIGINT NOT NULL)");
+    }
+
+    // Must run inside inTransaction. Throws ConcurrencyException when one of the appends lost its version race.
+    public List<EventEnvelope> append(List<AppendRequest> appends) {
+        int count = appends.stream().mapToInt(a -> a.getEvents().size()).sum();
+        long position = reservePositions(count);
+        List<EventEnvelope> appended = new ArrayList<>(count);
+        List<Object[]> rows = new ArrayList<>(count);
+        for (AppendRequest append : appends) {
+            int version = append.getExpectedVersion();
+            for (AccountEvent event : append.getEvents()) {
+                version++;
+                rows.add(new Object[]{position, append.getAggregateId(), version,
+                        OffsetDateTime.ofInstant(event.getTimestamp(), ZoneOffset.UTC),
+                        eventSerializer.codecId(), eventSerializer.serialize(event)});
+                appended.add(new EventEnvelope(position++, append.getAggregateId(), version, event));
+            }
+        }
+        try {
+            jdbcTemplate.batchUpdate("INSERT INTO stored_event (" + EVENT_COLUMNS + ") VALUES (?, ?, ?, ?, ?, ?)", rows);
+        } catch (DuplicateKeyException e) {
+            if (appends.size() == 1) {
+                throw new ConcurrencyException(appends.get(0).getAggregateId(), appends.get(0).getExpectedVersion(), e);
+            }
+            throw new ConcurrencyException("Concurrency conflict in a batch of " + appends.size()
+                    + " appends on shard " + name, e);
+        }
+        return appended;
+    }
+
+    // Must run inside inTransaction. Returns the version of the aggregate after the events.
+    public int appendAtNextVersion(String aggregateId, List<AccountEvent> events) {
+        // Same trick as the JPA store: take the position counter lock first, then nobody else
+        // on this shard can claim the next version before we commit
+        lockAppends();
+        Integer current = jdbcTemplate.queryForObject(
+                "SELECT MAX(version) FROM stored_event WHERE aggregate_id = ?", Integer.class, aggregateId);
+        int expectedVersion = current == null ? 0 : current;
+        append(List.of(new AppendRequest(aggregateId, events, expectedVersion)));
+        return expectedVersion + events.size();
+    }
+
+    // Blocks every other append on this shard until the current transaction ends
+    public void lockAppends() {
+        reservePositions(0);
+    }
+
+    // Returns the first of count consecutive shard positions; the counter row stays locked until commit
+    private long reservePositions(int count) {
+        jdbcTemplate.update("UPDATE shard_position SET last_position = last_position + ? WHERE id = 1", count);
+        Long last = jdbcTemplate.queryForObject("SELECT last_position FROM shard_position WHERE id = 1", Long.class);
+        return last - count + 1;
+    }
+
+    // limit <= 0 means the whole rest of the history
+    public List<AccountEvent> readEvents(String aggregateId, int afterVersion, int limit) {
+        String sql = "SELECT codec, payload FROM stored_event WHERE aggregate_id = ? AND version > ? ORDER BY version";
+        if (limit > 0) {
+            return jdbcTemplate.query(sql + " LIMIT ?", eventMapper(aggregateId), aggregateId, afterVersion, limit);
+        }
+        return jdbcTemplate.query(sql, eventMapper(aggregateId), aggregateId, afterVersion);
+    }
+
+    // Holds a connection until the stream is closed
+    public Stream<AccountEvent> streamEvents(String aggregateId, int afterVersion) {
+        return jdbcTemplate.queryForStream(
+                "SELECT codec, payload FROM stored_event WHERE aggregate_id = ? AND version > ? ORDER BY version",
+                eventMapper(aggregateId), aggregateId, afterVersion);
+    }
+
+    // Rows go straight into fold, no event objects are built
+    public void foldEvents(String aggregateId, int afterVersion, EventFold fold) {
+        jdbcTemplate.query(
+                "SELECT codec, payload FROM stored_event WHERE aggregate_id = ? AND version > ? ORDER BY version",
+                (RowCallbackHandler) rs -> eventSerializer.fold(aggregateId, rs.getByte(1), rs.getBytes(2), fold),
+                aggregateId, afterVersion);
+    }
+
+    public int versionAt(String aggregateId, Instant timestamp) {
+        List<Integer> versions = jdbcTemplate.queryForList(
+                "SELECT version FROM stored_event WHERE aggregate_id = ? AND timestamp <= ? "
+                        + "ORDER BY aggregate_id, timestamp DESC, version DESC LIMIT 1",
+                Integer.class, aggregateId, OffsetDateTime.ofInstant(timestamp, ZoneOffset.UTC));
+        return versions.isEmpty() ? 0 : versions.get(0);
+    }
+
+    // The globalPosition of the returned event is its position in this shard
+    public Optional<StoredEvent> lastStoredEvent(String aggregateId) {
+        List<StoredEvent> last = jdbcTemplate.query(
+                "SELECT " + EVENT_COLUMNS + " FROM stored_event WHERE aggregate_id = ? ORDER BY version DESC LIMIT 1",
+                (rs, rowNum) -> new StoredEvent(rs.getLong("position"), rs.getString("aggregate_id"),
+                        rs.getObject("timestamp", OffsetDateTime.class).toInstant(),
+                        rs.getByte("codec"), rs.getBytes("payload"), rs.getInt("version")),
+                aggregateId);
+        return last.stream().findFirst();
+    }
+
+    public Optional<AccountEvent> lastEvent(String aggregateId) {
+        return lastStoredEvent(aggregateId).map(eventSerializer::deserialize);
+    }
+
+    // This shard's events after the position, in commit order; positions are local to the shard
+    public List<EventEnvelope> readLog(long afterPosition, int limit) {
+        return jdbcTemplate.query(
+                "SELECT position, aggregate_id, version, codec, payload FROM stored_event "
+                        + "WHERE position > ? ORDER BY position LIMIT ?",
+                (rs, rowNum) -> {
+                    String aggregateId = rs.getString("aggregate_id");
+                    return new EventEnvelope(rs.getLong("position"), aggregateId, rs.getInt("version"),
+                            eventSerializer.deserialize(aggregateId, rs.getByte("codec"), rs.getBytes("payload")));
+                },
+                afterPosition, limit);
+    }
+
+    public long headPosition() {
+        Long last = jdbcTemplate.queryForObject("SELECT last_position FROM shard_position WHERE id = 1", Long.class);
+        return last == null ? 0 : last;
+    }
+
+    // Keyset page over the distinct aggregate ids of the shard, read from the (aggregate_id, version) index
+    public List<String> aggregateIds(String afterId, int limit) {
+        return jdbcTemplate.queryForList(
+                "SELECT DISTINCT aggregate_id FROM stored_event WHERE aggregate_id > ? ORDER BY aggregate_id LIMIT ?",
+                String.class, afterId, limit);
+    }
+
+    // Removes the aggregate's events and read model row; for moving it to another shard, inside inTransaction
+    public int deleteAggregate(String aggregateId) {
+        jdbcTemplate.update("DELETE FROM account_read_model WHERE account_id = ?", aggregateId);
+        return jdbcTemplate.update("DELETE FROM stored_event WHERE aggregate_id = ?", aggregateId);
+    }
+
+    private RowMapper<AccountEvent> eventMapper(String aggregateId) {
+        return (rs, rowNum) -> eventSerializer.deserialize(aggregateId, rs.getByte("codec"), rs.getBytes("payload"));
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
@@ -0,0 +1,95 @@
+package com.ben.es0.eventstore.shard;
+
+import com.ben.es0.domain.events.AccountEvent;
+import com.ben.es0.eventstore.AppendRequest;
+import com.ben.es0.eventstore.ConcurrencyException;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// 新增分片後的重新平衡：逐一檢查每個分片上的聚合，雜湊環已經把它分給別的分片的，
+// 就把它的全部事件搬過去 (保留版本與時間戳記，在目標分片取得新的位置)，再從原分片刪除事件與讀取模型。
+// 每個聚合在兩個分片各開一個交易一起提交，並先鎖住原分片的寫入，所以搬移中不會有事件遺失。
+// 目標分片的投影器會把搬來的事件當成新事件重新投影出讀取模型。
+// 設定 es0.sharding.rebalance-on-startup=true 時在啟動過程中、開始接受請求與投影之前執行。
+@Component
+@Profile("sharded")
+public class ShardRebalancer implements SmartInitializingSingleton {
+
+    private final ShardedEventStore eventStore;
+    private final boolean rebalanceOnStartup;
+    private final int pageSize;
+
+    @Autowired
+    public ShardRebalancer(ShardedEventStore eventStore,
+                           @Value("${es0.sharding.rebalance-on-startup:false}") boolean rebalanceOnStartup,
+                           @Value("${es0.sharding.rebalance-page-size:1000}") int pageSize) {
+        this.eventStore = eventStore;
+        this.rebalanceOnStartup = rebalanceOnStartup;
+        this.pageSize = pageSize;
+    }
+
+    @Override
+    public void afterSingletonsInstantiated() {
+        if (rebalanceOnStartup) {
+            rebalance();
+        }
+    }
+
+    // Returns the number of aggregates moved
+    public int rebalance() {
+        long start = System.nanoTime();
+        Map<String, Integer> movedFrom = new LinkedHashMap<>();
+        int moved = 0;
+        for (EventStoreShard source : eventStore.shards()) {
+            int movedHere = 0;
+            String after = "";
+            List<String> page;
+            do {
+                page = source.aggregateIds(after, pageSize);
+                for (String aggregateId : page) {
+                    EventStoreShard target = eventStore.shardFor(aggregateId);
+                    if (target != source && move(aggregateId, source, target)) {
+                        movedHere++;
+                    }
+                }
+                if (!page.isEmpty()) {
+                    after = page.get(page.size() - 1);
+                }
+            } while (page.size() == pageSize);
+            movedFrom.put(source.name(), movedHere);
+            moved += movedHere;
+        }
+        System.err.println("Shard rebalance moved " + moved + " aggregates " + movedFrom + " in "
+                + (System.nanoTime() - start) / 1_000_000 + " ms");
+        return moved;
+    }
+
+    private boolean move(String aggregateId, EventStoreShard source, EventStoreShard target) {
+        List<EventStoreShard> involved = List.of(source, target).stream()
+                .sorted(Comparator.comparingInt(eventStore.shards()::indexOf))
+                .toList();
+        try {
+            ShardedEventStore.inTransactions(involved, 0, () -> {
+                source.lockAppends();
+                List<AccountEvent> events = source.readEvents(aggregateId, 0, 0);
+                target.append(List.of(new AppendRequest(aggregateId, events, 0)));
+                source.deleteAggregate(aggregateId);
+            });
+            return true;
+        } catch (ConcurrencyException e) {
+            // The target already has events of this aggregate, e.g. written there after the shard was added
+            // but before the rebalance. Needs a manual merge; both copies are left untouched.
+            System.err.println("Shard rebalance skipped aggregate " + aggregateId + ": it exists on both "
+                    + source.name() + " and " + target.name());
+            return false;
+        }
+    }
+}
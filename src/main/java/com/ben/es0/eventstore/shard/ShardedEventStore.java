@@ -0,0 +1,187 @@
+package com.ben.es0.eventstore.shard;
+
+import com.ben.es0.domain.events.AccountEvent;
+import com.ben.es0.eventstore.AppendRequest;
+import com.ben.es0.eventstore.EventEnvelope;
+import com.ben.es0.eventstore.EventSerializer;
+import com.ben.es0.eventstore.EventStore;
+import com.ben.es0.eventstore.StoredEvent;
+import com.ben.es0.eventstore.codec.EventFold;
+import com.zaxxer.hikari.HikariDataSource;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+
+import java.io.Closeable;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+// 水平分片的 EventStore (Spring profile: sharded)：每個聚合 id 經一致性雜湊固定落在 N 個 DataSource 之一，
+// 每個分片有自己的 stored_event 表。單一聚合的順序、版本檢查與交易都只在它的分片內完成，
+// 所以寫入吞吐量隨分片數增加，不再受單一全域位置計數器鎖的限制。
+// 代價是沒有跨分片的全域順序：readAll/headPosition 不支援，全域 feed 與事件匯流排在這個模式下關閉，
+// 讀取模型改由各分片自己的投影器維護 (ShardedReadModelProjector)。
+@Component
+@Profile("sharded")
+public class ShardedEventStore implements EventStore, Closeable {
+
+    private final List<EventStoreShard> shards;
+    private final Map<String, EventStoreShard> shardsByName = new LinkedHashMap<>();
+    private final ConsistentHashRing ring;
+    private final List<HikariDataSource> ownedDataSources;
+
+    @Autowired
+    public ShardedEventStore(@Value("${es0.sharding.urls}") List<String> urls,
+                             @Value("${es0.sharding.username:sa}") String username,
+                             @Value("${es0.sharding.password:}") String password,
+                             @Value("${es0.sharding.pool-size:10}") int poolSize,
+                             @Value("${es0.sharding.virtual-nodes:128}") int virtualNodes,
+                             @Value("${es0.eventstore.fetch-size:500}") int fetchSize,
+                             EventSerializer eventSerializer) {
+        this(openShards(urls, username, password, poolSize, fetchSize, eventSerializer), virtualNodes);
+    }
+
+    // Shards are named by their index in the configured list, so new shards must be appended at the end
+    private static List<EventStoreShard> openShards(List<String> urls, String username, String password, int poolSize,
+                                                    int fetchSize, EventSerializer eventSerializer) {
+        List<EventStoreShard> shards = new ArrayList<>(urls.size());
+        for (int i = 0; i < urls.size(); i++) {
+            HikariDataSource dataSource = new HikariDataSource();
+            dataSource.setJdbcUrl(urls.get(i).trim());
+            dataSource.setUsername(username);
+            dataSource.setPassword(password);
+            dataSource.setMaximumPoolSize(poolSize);
+            dataSource.setPoolName("shard-" + i);
+            shards.add(new EventStoreShard("shard-" + i, dataSource, eventSerializer, fetchSize));
+        }
+        return shards;
+    }
+
+    public ShardedEventStore(List<EventStoreShard> shards, int virtualNodes) {
+        this.shards = List.copyOf(shards);
+        for (EventStoreShard shard : this.shards) {
+            if (shardsByName.put(shard.name(), shard) != null) {
+                throw new IllegalArgumentException("Duplicate shard name " + shard.name());
+            }
+        }
+        this.ring = new ConsistentHashRing(new ArrayList<>(shardsByName.keySet()), virtualNodes);
+        this.ownedDataSources = this.shards.stream()
+                .map(EventStoreShard::dataSource)
+                .filter(HikariDataSource.class::isInstance)
+                .map(HikariDataSource.class::cast)
+                .toList();
+    }
+
+    public EventStoreShard shardFor(String aggregateId) {
+        return shardsByName.get(ring.shardFor(aggregateId));
+    }
+
+    public List<EventStoreShard> shards() {
+        return shards;
+    }
+
+    @Override
+    public void save(String aggregateId, List<AccountEvent> events, int expectedVersion) {
+        EventStoreShard shard = shardFor(aggregateId);
+        shard.inTransaction(() -> shard.append(List.of(new AppendRequest(aggregateId, events, expectedVersion))));
+    }
+
+    @Override
+    public int saveAtNextVersion(String aggregateId, List<AccountEvent> events) {
+        EventStoreShard shard = shardFor(aggregateId);
+        return shard.inTransaction(() -> shard.appendAtNextVersion(aggregateId, events));
+    }
+
+    // Appends of one shard go in one local transaction. A batch spanning shards keeps a transaction open
+    // on each of them and commits them one after another only when every shard accepted its part, so a
+    // version conflict anywhere rolls back the whole batch. A crash between two of those commits can still
+    // leave a partial batch; there is no two-phase commit across shards.
+    @Override
+    public void saveAll(List<AppendRequest> appends) {
+        Map<EventStoreShard, List<AppendRequest>> byShard = new LinkedHashMap<>();
+        for (AppendRequest append : appends) {
+            byShard.computeIfAbsent(shardFor(append.getAggregateId()), shard -> new ArrayList<>()).add(append);
+        }
+        // Always lock the shards in the same order, so two batches over the same shards can't deadlock
+        List<EventStoreShard> involved = byShard.keySet().stream()
+                .sorted(Comparator.comparingInt(shards::indexOf))
+                .toList();
+        inTransactions(involved, 0, () -> involved.forEach(shard -> shard.append(byShard.get(shard))));
+    }
+
+    // Nested transactions, one per shard: the innermost commits first, an exception rolls back all of them
+    static void inTransactions(List<EventStoreShard> shards, int from, Runnable work) {
+        if (from == shards.size()) {
+            work.run();
+            return;
+        }
+        shards.get(from).inTransaction(() -> {
+            inTransactions(shards, from + 1, work);
+            return null;
+        });
+    }
+
+    @Override
+    public List<AccountEvent> getEventsForAggregate(String aggregateId) {
+        return shardFor(aggregateId).readEvents(aggregateId, 0, 0);
+    }
+
+    @Override
+    public List<AccountEvent> getEventsForAggregate(String aggregateId, int afterVersion) {
+        return shardFor(aggregateId).readEvents(aggregateId, afterVersion, 0);
+    }
+
+    @Override
+    public List<AccountEvent> getEventsForAggregate(String aggregateId, int afterVersion, int limit) {
+        return shardFor(aggregateId).readEvents(aggregateId, afterVersion, limit);
+    }
+
+    @Override
+    public Stream<AccountEvent> streamEventsForAggregate(String aggregateId, int afterVersion) {
+        return shardFor(aggregateId).streamEvents(aggregateId, afterVersion);
+    }
+
+    @Override
+    public void foldEventsForAggregate(String aggregateId, int afterVersion, EventFold fold) {
+        shardFor(aggregateId).foldEvents(aggregateId, afterVersion, fold);
+    }
+
+    @Override
+    public int versionAt(String aggregateId, Instant timestamp) {
+        return shardFor(aggregateId).versionAt(aggregateId, timestamp);
+    }
+
+    @Override
+    public List<EventEnvelope> readAll(long afterPosition, int limit) {
+        throw new UnsupportedOperationException("A sharded event store has no global order; read each shard's log instead");
+    }
+
+    @Override
+    public long headPosition() {
+        throw new UnsupportedOperationException("A sharded event store has no global position");
+    }
+
+    @Override
+    public Optional<AccountEvent> getLastEventForAggregate(String aggregateId) {
+        return shardFor(aggregateId).lastEvent(aggregateId);
+    }
+
+    @Override
+    public Optional<StoredEvent> getLastStoredEventForAggregate(String aggregateId) {
+        return shardFor(aggregateId).lastStoredEvent(aggregateId);
+    }
+
+    @Override
+    @PreDestroy
+    public void close() {
+        ownedDataSources.forEach(HikariDataSource::close);
+    }
+}
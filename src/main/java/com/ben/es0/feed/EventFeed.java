@@ -0,0 +1,246 @@
+package com.ben.es0.feed;
+
+import com.ben.es0.eventstore.EventAppendNotifier;
+import com.ben.es0.eventstore.EventEnvelope;
+import com.ben.es0.eventstore.EventStore;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongConsumer;
+
+// 全域事件 feed：依全域位置分批讀出所有帳戶的事件，給下游服務 (風控、帳務匯出) 增量消費。
+// 只讀到事件儲存的提交水位為止，晚提交的較小位置不會被跳過；位置遞增但可能有空洞 (回滾的追加)，
+// 消費者只要記住最後處理的位置就能接續，不會漏也不會重複。
+// 追上最新事件後，長輪詢與 SSE 訂閱都等 EventAppendNotifier 的通知再讀，不反覆查詢資料庫。
+@Component
+@ConditionalOnProperty(name = "es0.feed.enabled", havingValue = "true", matchIfMissing = true)
+public class EventFeed implements MeterBinder {
+
+    private final EventStore eventStore;
+    private final EventAppendNotifier appendNotifier;
+    private final int defaultBatchSize;
+    private final int maxBatchSize;
+    private final int maxSubscribers;
+    private final long sseTimeoutMillis;
+
+    // Reads and SSE writes run here, never on the appending thread that delivers the notification
+    private final ExecutorService readers;
+    private final ScheduledExecutorService heartbeats = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "event-feed-heartbeat");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final Set<Subscription> subscriptions = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger waitingPolls = new AtomicInteger();
+
+    @Autowired
+    public EventFeed(EventStore eventStore, EventAppendNotifier appendNotifier,
+                     @Value("${es0.feed.batch-size:500}") int defaultBatchSize,
+                     @Value("${es0.feed.max-batch-size:10000}") int maxBatchSize,
+                     @Value("${es0.feed.threads:2}") int threads,
+                     @Value("${es0.feed.sse.max-subscribers:256}") int maxSubscribers,
+                     @Value("${es0.feed.sse.timeout:30m}") Duration sseTimeout,
+                     @Value("${es0.feed.sse.heartbeat:15s}") Duration heartbeat) {
+        this.eventStore = eventStore;
+        this.appendNotifier = appendNotifier;
+        this.defaultBatchSize = defaultBatchSize;
+        this.maxBatchSize = maxBatchSize;
+        this.maxSubscribers = maxSubscribers;
+        this.sseTimeoutMillis = sseTimeout.toMillis();
+        this.readers = Executors.newFixedThreadPool(threads, r -> {
+            Thread thread = new Thread(r, "event-feed");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // Idle connections get a comment now and then, so proxies keep them open and dead clients are noticed
+        long heartbeatMillis = heartbeat.toMillis();
+        heartbeats.scheduleWithFixedDelay(() -> subscriptions.forEach(Subscription::heartbeat),
+                heartbeatMillis, heartbeatMillis, TimeUnit.MILLISECONDS);
+    }
+
+    // Requested batch size, or the configured default; null when it is out of range
+    public Integer batchSize(Integer requested) {
+        if (requested == null) {
+            return defaultBatchSize;
+        }
+        return requested < 1 || requested > maxBatchSize ? null : requested;
+    }
+
+    public int maxBatchSize() {
+        return maxBatchSize;
+    }
+
+    public FeedBatch read(long after, int limit) {
+        return FeedBatch.of(after, eventStore.readAll(after, limit));
+    }
+
+    // Long poll: completes with the next non-empty batch after the position, or with an empty batch after wait
+    public CompletableFuture<FeedBatch> poll(long after, int limit, Duration wait) {
+        CompletableFuture<FeedBatch> result = new CompletableFuture<>();
+        AtomicBoolean reading = new AtomicBoolean();
+        LongConsumer wakeUp = lastPosition -> {
+            // One read is enough: it starts after the commit that woke us, so it can't come back empty
+            if (lastPosition > after && !result.isDone() && reading.compareAndSet(false, true)) {
+                readers.execute(() -> {
+                    try {
+                        result.complete(read(after, limit));
+                    } catch (RuntimeException e) {
+                        result.completeExceptionally(e);
+                    }
+                });
+            }
+        };
+        // Listen before the first read, so an append committing right after that read still wakes us up
+        appendNotifier.addListener(wakeUp);
+        waitingPolls.incrementAndGet();
+        result.whenComplete((batch, error) -> {
+            appendNotifier.removeListener(wakeUp);
+            waitingPolls.decrementAndGet();
+        });
+
+        try {
+            FeedBatch batch = read(after, limit);
+            if (!batch.getEvents().isEmpty() || wait.isZero()) {
+                result.complete(batch);
+                return result;
+            }
+        } catch (RuntimeException e) {
+            result.completeExceptionally(e);
+            return result;
+        }
+        return result.completeOnTimeout(FeedBatch.empty(after), wait.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    // Streams every event after the position to the emitter, first the backlog and then new events as they
+    // are appended. Returns null when the subscriber limit is reached.
+    public SseEmitter subscribe(long after, int limit) {
+        if (subscriptions.size() >= maxSubscribers) {
+            return null;
+        }
+        SseEmitter emitter = new SseEmitter(sseTimeoutMillis);
+        Subscription subscription = new Subscription(emitter, after, limit);
+        subscriptions.add(subscription);
+        appendNotifier.addListener(subscription);
+        emitter.onCompletion(subscription::close);
+        emitter.onTimeout(subscription::close);
+        emitter.onError(error -> subscription.close());
+        subscription.wake(); // Send the backlog
+        return emitter;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("es0.feed.subscribers", subscriptions, Set::size)
+                .description("Open SSE subscriptions of the event feed")
+                .register(registry);
+        Gauge.builder("es0.feed.waiting-polls", waitingPolls, AtomicInteger::get)
+                .description("Long polls waiting for new events")
+                .register(registry);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        heartbeats.shutdownNow();
+        subscriptions.forEach(subscription -> subscription.emitter.complete());
+        readers.shutdownNow();
+    }
+
+    private final class Subscription implements LongConsumer {
+
+        private final SseEmitter emitter;
+        private final int limit;
+        private volatile long position;
+        // Wake-ups not yet handled; only the one that raises it from 0 schedules a drain,
+        // so at most one drain per subscription runs and events go out in order
+        private final AtomicInteger pending = new AtomicInteger();
+        private final AtomicBoolean heartbeatDue = new AtomicBoolean();
+
+        Subscription(SseEmitter emitter, long after, int limit) {
+            this.emitter = emitter;
+            this.position = after;
+            this.limit = limit;
+        }
+
+        @Override
+        public void accept(long lastPosition) {
+            if (lastPosition > position) {
+                wake();
+            }
+        }
+
+        void heartbeat() {
+            heartbeatDue.set(true);
+            wake();
+        }
+
+        void wake() {
+            if (pending.getAndIncrement() == 0) {
+                readers.execute(this::drain);
+            }
+        }
+
+        private void drain() {
+            int seen = pending.get();
+            boolean fullBatch;
+            try {
+                fullBatch = sendBatch();
+            } catch (IOException | RuntimeException e) {
+                // Client went away or the read failed; the client reconnects with Last-Event-ID
+                close();
+                emitter.completeWithError(e);
+                return;
+            }
+            if (fullBatch) {
+                // More backlog: requeue instead of looping, so one far-behind subscriber can't hog a reader
+                readers.execute(this::drain);
+            } else if (pending.addAndGet(-seen) != 0) {
+                readers.execute(this::drain);
+            }
+        }
+
+        private boolean sendBatch() throws IOException {
+            List<EventEnvelope> events = eventStore.readAll(position, limit);
+            if (events.isEmpty()) {
+                if (heartbeatDue.getAndSet(false)) {
+                    emitter.send(SseEmitter.event().comment("heartbeat"));
+                }
+                return false;
+            }
+            heartbeatDue.set(false);
+            for (EventEnvelope envelope : events) {
+                FeedEvent event = FeedEvent.of(envelope);
+                emitter.send(SseEmitter.event()
+                        .id(String.valueOf(event.getPosition()))
+                        .name(event.getType())
+                        .data(event, MediaType.APPLICATION_JSON));
+            }
+            position = events.get(events.size() - 1).getGlobalPosition();
+            return events.size() == limit;
+        }
+
+        void close() {
+            subscriptions.remove(this);
+            appendNotifier.removeListener(this);
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package com.ben.es0.feed;
+
+import com.ben.es0.eventstore.EventEnvelope;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.List;
+
+// 一批 feed 事件。lastPosition 是下一次請求要帶的 after，沒有新事件時等於這次的 after。
+@Getter
+@AllArgsConstructor
+public class FeedBatch {
+
+    private final List<FeedEvent> events;
+    private final long lastPosition;
+
+    static FeedBatch of(long after, List<EventEnvelope> envelopes) {
+        long last = envelopes.isEmpty() ? after : envelopes.get(envelopes.size() - 1).getGlobalPosition();
+        return new FeedBatch(envelopes.stream().map(FeedEvent::of).toList(), last);
+    }
+
+    public static FeedBatch empty(long after) {
+        return new FeedBatch(List.of(), after);
+    }
+}
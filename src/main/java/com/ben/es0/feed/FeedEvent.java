@@ -0,0 +1,23 @@
+package com.ben.es0.feed;
+
+import com.ben.es0.domain.events.AccountEvent;
+import com.ben.es0.eventstore.EventEnvelope;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+// feed 中的一筆事件：全域位置、所屬帳戶與版本，加上事件類型名稱方便下游分派
+@Getter
+@AllArgsConstructor
+public class FeedEvent {
+
+    private final long position;
+    private final String aggregateId;
+    private final int version;
+    private final String type;
+    private final AccountEvent event;
+
+    static FeedEvent of(EventEnvelope envelope) {
+        return new FeedEvent(envelope.getGlobalPosition(), envelope.getAggregateId(), envelope.getVersion(),
+                envelope.getEvent().getClass().getSimpleName(), envelope.getEvent());
+    }
+}
@@ -0,0 +1,86 @@
+package com.ben.es0.projection;
+
+import com.ben.es0.domain.events.AccountCreatedEvent;
+import com.ben.es0.domain.events.AccountEvent;
+import com.ben.es0.domain.events.MoneyDepositedEvent;
+import com.ben.es0.domain.events.MoneyWithdrawnEvent;
+import com.ben.es0.eventstore.EventEnvelope;
+import com.ben.es0.query.AccountReadModel;
+import com.ben.es0.query.AccountReadModelCache;
+import com.ben.es0.query.AccountReadModelRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// 把帳戶事件投影到 AccountReadModel。整批事件只讀一次、寫一次讀取模型。
+@Component
+public class AccountReadModelProjector implements Projector {
+
+    public static final String NAME = "account-read-model";
+
+    private final AccountReadModelRepository readModelRepository;
+    private final AccountReadModelCache readModelCache;
+
+    @Autowired
+    public AccountReadModelProjector(AccountReadModelRepository readModelRepository, AccountReadModelCache readModelCache) {
+        this.readModelRepository = readModelRepository;
+        this.readModelCache = readModelCache;
+    }
+
+    @Override
+    public String name() {
+        return NAME;
+    }
+
+    @Override
+    public void project(List<EventEnvelope> batch) {
+        Map<String, AccountReadModel> models = new HashMap<>();
+        readModelRepository.findAllById(batch.stream().map(EventEnvelope::getAggregateId).distinct().toList())
+                .forEach(model -> models.put(model.getAccountId(), model));
+
+        for (EventEnvelope envelope : batch) {
+            AccountReadModel updated = apply(models.get(envelope.getAggregateId()), envelope);
+            if (updated != null) {
+                models.put(envelope.getAggregateId(), updated);
+            }
+        }
+        readModelRepository.saveAll(models.values());
+
+        // Only publish to the query cache once the batch and its checkpoint are committed
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                readModelCache.refresh(models.values());
+            }
+        });
+    }
+
+    // Also used by projection rebuilds, so both paths compute exactly the same state
+    public static AccountReadModel apply(AccountReadModel model, EventEnvelope envelope) {
+        // Already applied (e.g. replayed after a crash between write and checkpoint)
+        if (model != null && envelope.getVersion() <= model.getVersion()) {
+            return model;
+        }
+        AccountEvent event = envelope.getEvent();
+        if (event instanceof AccountCreatedEvent created) {
+            return new AccountReadModel(envelope.getAggregateId(), created.getInitialBalance(), envelope.getVersion());
+        }
+        if (model == null) {
+            System.err.println("Warning: Read model not found for account " + envelope.getAggregateId()
+                    + " at version " + envelope.getVersion() + ".");
+            return null;
+        }
+        if (event instanceof MoneyDepositedEvent deposited) {
+            model.setBalance(model.getBalance() + deposited.getAmount());
+        } else if (event instanceof MoneyWithdrawnEvent withdrawn) {
+            model.setBalance(model.getBalance() - withdrawn.getAmount());
+        }
+        model.setVersion(envelope.getVersion());
+        return model;
+    }
+}
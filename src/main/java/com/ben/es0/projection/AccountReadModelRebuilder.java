@@ -0,0 +1,268 @@
+package com.ben.es0.projection;
+
+import com.ben.es0.eventstore.EventEnvelope;
+import com.ben.es0.eventstore.EventStore;
+import com.ben.es0.query.AccountReadModel;
+import com.ben.es0.query.AccountReadModelCache;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+// 從事件日誌完整重建 AccountReadModel。
+// 依全域位置分大塊讀取事件，再依 aggregateId 的雜湊分到固定的工作執行緒，同一個帳戶永遠由同一個執行緒依序處理。
+// 讀取下一塊與處理目前這一塊同時進行。每一塊的結果直接批次寫進影子表，記憶體只跟一塊的大小有關；全部完成後在一個交易中換上線，
+// 查詢端不會看到做到一半的讀取模型；重建期間一般的投影照常更新舊表。
+// 需要全域位置，所以 sharded profile 下沒有這個元件 (各分片的讀取模型由 ShardedReadModelProjector 維護)。
+@Component
+@Profile("!sharded")
+public class AccountReadModelRebuilder {
+
+    static final String LIVE_TABLE = "account_read_model";
+    static final String SHADOW_TABLE = "account_read_model_shadow";
+    private static final int INSERT_BATCH_SIZE = 1000;
+
+    private final EventStore eventStore;
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final ProjectionCheckpointRepository checkpointRepository;
+    private final AccountReadModelCache readModelCache;
+    private final ObjectProvider<ProjectionEngine> projectionEngine;
+    private final int chunkSize;
+    private final int workers;
+
+    private final ExecutorService coordinator = Executors.newSingleThreadExecutor(r -> new Thread(r, "projection-rebuild"));
+    private final ExecutorService partitionPool;
+
+    private final AtomicReference<RebuildStatus> status = new AtomicReference<>(RebuildStatus.idle());
+    private final AtomicLong eventsProcessed = new AtomicLong();
+
+    @Autowired
+    public AccountReadModelRebuilder(EventStore eventStore, JdbcTemplate jdbcTemplate,
+                                     PlatformTransactionManager transactionManager,
+                                     ProjectionCheckpointRepository checkpointRepository,
+                                     AccountReadModelCache readModelCache,
+                                     ObjectProvider<ProjectionEngine> projectionEngine,
+                                     @Value("${es0.projection.rebuild.chunk-size:10000}") int chunkSize,
+                                     @Value("${es0.projection.rebuild.workers:0}") int workers) {
+        this.eventStore = eventStore;
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.checkpointRepository = checkpointRepository;
+        this.readModelCache = readModelCache;
+        this.projectionEngine = projectionEngine;
+        this.chunkSize = chunkSize;
+        this.workers = workers > 0 ? workers : Runtime.getRuntime().availableProcessors();
+        this.partitionPool = Executors.newFixedThreadPool(this.workers, r -> {
+            Thread thread = new Thread(r, "projection-rebuild-worker");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    // Starts a rebuild in the background, returns the current status if one is already running
+    public synchronized RebuildStatus start() {
+        RebuildStatus current = status.get();
+        if (current.getState() == RebuildStatus.State.RUNNING || current.getState() == RebuildStatus.State.SWAPPING) {
+            return current;
+        }
+        Instant startedAt = Instant.now();
+        long targetPosition = eventStore.headPosition();
+        eventsProcessed.set(0);
+        status.set(new RebuildStatus(RebuildStatus.State.RUNNING, targetPosition, 0, 0, 0, startedAt, null, null));
+        coordinator.submit(() -> run(targetPosition, startedAt));
+        return status.get();
+    }
+
+    public RebuildStatus status() {
+        RebuildStatus current = status.get();
+        if (current.getState() != RebuildStatus.State.RUNNING) {
+            return current;
+        }
+        long processed = eventsProcessed.get();
+        return new RebuildStatus(current.getState(), current.getTargetPosition(), processed, current.getAggregates(),
+                throughput(processed, current.getStartedAt()), current.getStartedAt(), null, null);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        coordinator.shutdownNow();
+        partitionPool.shutdownNow();
+    }
+
+    private void run(long targetPosition, Instant startedAt) {
+        try {
+            createShadowTable();
+            replay(targetPosition);
+            Long counted = jdbcTemplate.queryForObject("SELECT COUNT(*) FROM " + SHADOW_TABLE, Long.class);
+            long aggregates = counted == null ? 0 : counted;
+            long processed = eventsProcessed.get();
+            status.set(new RebuildStatus(RebuildStatus.State.SWAPPING, targetPosition, processed, aggregates,
+                    throughput(processed, startedAt), startedAt, null, null));
+
+            swap(targetPosition);
+
+            status.set(new RebuildStatus(RebuildStatus.State.COMPLETED, targetPosition, processed, aggregates,
+                    throughput(processed, startedAt), startedAt, Instant.now(), null));
+            System.err.println("Rebuilt " + LIVE_TABLE + ": " + aggregates + " accounts from " + processed + " events in "
+                    + Duration.between(startedAt, Instant.now()).toMillis() + " ms.");
+        } catch (Exception e) {
+            status.set(new RebuildStatus(RebuildStatus.State.FAILED, targetPosition, eventsProcessed.get(), 0,
+                    throughput(eventsProcessed.get(), startedAt), startedAt, Instant.now(), e.toString()));
+            System.err.println("Rebuild of " + LIVE_TABLE + " failed: " + e);
+        }
+    }
+
+    private void createShadowTable() {
+        jdbcTemplate.execute("DROP TABLE IF EXISTS " + SHADOW_TABLE);
+        // Copy the live table's shape so a changed AccountReadModel mapping is picked up automatically
+        jdbcTemplate.execute("CREATE TABLE " + SHADOW_TABLE + " AS SELECT * FROM " + LIVE_TABLE + " WITH NO DATA");
+        // The copied columns are nullable, so no primary key; the index serves the per-chunk lookups
+        jdbcTemplate.execute("CREATE UNIQUE INDEX " + SHADOW_TABLE + "_account_id ON " + SHADOW_TABLE + " (account_id)");
+    }
+
+    // Replays [1, targetPosition] straight into the shadow table, one chunk at a time: every worker loads the shadow
+    // rows of the accounts in its slice of the chunk, applies the slice and writes them back. Memory is bounded by
+    // the chunk size, not by the number of accounts.
+    private void replay(long targetPosition) throws InterruptedException, ExecutionException {
+        long position = 0;
+        List<EventEnvelope> chunk = readChunk(position, targetPosition);
+        while (!chunk.isEmpty()) {
+            List<Future<?>> inFlight = dispatch(chunk);
+            position = chunk.get(chunk.size() - 1).getGlobalPosition();
+
+            // Read the next chunk while the workers apply this one
+            List<EventEnvelope> next = readChunk(position, targetPosition);
+            for (Future<?> future : inFlight) {
+                future.get();
+            }
+            eventsProcessed.addAndGet(chunk.size());
+            chunk = next;
+        }
+    }
+
+    // Positions may have gaps (rolled back appends), so the chunk is cut at the target rather than sized to reach it
+    private List<EventEnvelope> readChunk(long afterPosition, long targetPosition) {
+        if (afterPosition >= targetPosition) {
+            return List.of();
+        }
+        return eventStore.readAll(afterPosition, chunkSize).stream()
+                .filter(envelope -> envelope.getGlobalPosition() <= targetPosition)
+                .toList();
+    }
+
+    private List<Future<?>> dispatch(List<EventEnvelope> chunk) {
+        List<List<EventEnvelope>> slices = new ArrayList<>(workers);
+        for (int i = 0; i < workers; i++) {
+            slices.add(new ArrayList<>());
+        }
+        // Stable partition per aggregate keeps its events in order on a single worker,
+        // and no two workers ever touch the same shadow row
+        for (EventEnvelope envelope : chunk) {
+            slices.get(Math.floorMod(envelope.getAggregateId().hashCode(), workers)).add(envelope);
+        }
+
+        List<Future<?>> futures = new ArrayList<>(workers);
+        for (List<EventEnvelope> slice : slices) {
+            if (!slice.isEmpty()) {
+                futures.add(partitionPool.submit(() -> applySlice(slice)));
+            }
+        }
+        return futures;
+    }
+
+    private void applySlice(List<EventEnvelope> slice) {
+        Map<String, AccountReadModel> models = loadShadowRows(slice.stream().map(EventEnvelope::getAggregateId).distinct().toList());
+        Set<String> existing = new HashSet<>(models.keySet());
+        for (EventEnvelope envelope : slice) {
+            AccountReadModel updated = AccountReadModelProjector.apply(models.get(envelope.getAggregateId()), envelope);
+            if (updated != null) {
+                models.put(envelope.getAggregateId(), updated);
+            }
+        }
+
+        List<Object[]> updates = new ArrayList<>();
+        List<Object[]> inserts = new ArrayList<>();
+        for (AccountReadModel model : models.values()) {
+            if (existing.contains(model.getAccountId())) {
+                updates.add(new Object[]{model.getBalance(), model.getVersion(), model.getAccountId()});
+            } else {
+                inserts.add(new Object[]{model.getAccountId(), model.getBalance(), model.getVersion()});
+            }
+        }
+        batchUpdate("UPDATE " + SHADOW_TABLE + " SET balance = ?, version = ? WHERE account_id = ?", updates);
+        batchUpdate("INSERT INTO " + SHADOW_TABLE + " (account_id, balance, version) VALUES (?, ?, ?)", inserts);
+    }
+
+    private Map<String, AccountReadModel> loadShadowRows(List<String> accountIds) {
+        Map<String, AccountReadModel> models = new HashMap<>();
+        for (int from = 0; from < accountIds.size(); from += INSERT_BATCH_SIZE) {
+            List<String> ids = accountIds.subList(from, Math.min(accountIds.size(), from + INSERT_BATCH_SIZE));
+            String placeholders = String.join(", ", Collections.nCopies(ids.size(), "?"));
+            jdbcTemplate.query("SELECT account_id, balance, version FROM " + SHADOW_TABLE + " WHERE account_id IN (" + placeholders + ")",
+                            (rs, rowNum) -> new AccountReadModel(rs.getString(1), rs.getDouble(2), rs.getInt(3)), ids.toArray())
+                    .forEach(model -> models.put(model.getAccountId(), model));
+        }
+        return models;
+    }
+
+    private void batchUpdate(String sql, List<Object[]> rows) {
+        for (int from = 0; from < rows.size(); from += INSERT_BATCH_SIZE) {
+            jdbcTemplate.batchUpdate(sql, rows.subList(from, Math.min(rows.size(), from + INSERT_BATCH_SIZE)));
+        }
+    }
+
+    // Replaces the live rows and resets the checkpoint in one transaction, with the live projector paused.
+    // Events after targetPosition are then applied to the new table by the projector as usual.
+    private void swap(long targetPosition) {
+        Runnable replace = () -> transactionTemplate.executeWithoutResult(tx -> {
+            jdbcTemplate.update("DELETE FROM " + LIVE_TABLE);
+            jdbcTemplate.update("INSERT INTO " + LIVE_TABLE + " (account_id, balance, version) "
+                    + "SELECT account_id, balance, version FROM " + SHADOW_TABLE);
+            ProjectionCheckpoint checkpoint = checkpointRepository.findById(AccountReadModelProjector.NAME)
+                    .orElseGet(() -> new ProjectionCheckpoint(AccountReadModelProjector.NAME, 0, Instant.now()));
+            checkpoint.setPosition(targetPosition);
+            checkpoint.setUpdatedAt(Instant.now());
+            checkpointRepository.save(checkpoint);
+        });
+        // Still under the projector lock, so no batch can refresh the cache with pre-rebuild rows in between
+        Runnable swapAndClear = () -> {
+            replace.run();
+            readModelCache.clear();
+        };
+
+        ProjectionEngine engine = projectionEngine.getIfAvailable();
+        if (engine != null) {
+            engine.runExclusively(AccountReadModelProjector.NAME, swapAndClear);
+        } else {
+            swapAndClear.run();
+        }
+        jdbcTemplate.execute("DROP TABLE IF EXISTS " + SHADOW_TABLE);
+    }
+
+    private static double throughput(long events, Instant startedAt) {
+        long millis = Math.max(1, Duration.between(startedAt, Instant.now()).toMillis());
+        return events * 1000.0 / millis;
+    }
+}
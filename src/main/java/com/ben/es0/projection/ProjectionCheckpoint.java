@@ -0,0 +1,25 @@
+package com.ben.es0.projection;
+
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.Instant;
+
+// 每個投影器已處理到的全域位置，重啟後從這裡繼續
+@Entity
+@Data
+@NoArgsConstructor
+public class ProjectionCheckpoint {
+    @Id
+    private String projectorName;
+    private long position;
+    private Instant updatedAt;
+
+    public ProjectionCheckpoint(String projectorName, long position, Instant updatedAt) {
+        this.projectorName = projectorName;
+        this.position = position;
+        this.updatedAt = updatedAt;
+    }
+}
@@ -0,0 +1,6 @@
+package com.ben.es0.projection;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+
+public interface ProjectionCheckpointRepository extends JpaRepository<ProjectionCheckpoint, String> {
+}
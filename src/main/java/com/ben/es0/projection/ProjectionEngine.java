@@ -0,0 +1,172 @@
+package com.ben.es0.projection;
+
+import com.ben.es0.eventstore.EventEnvelope;
+import com.ben.es0.eventstore.EventStore;
+import com.ben.es0.eventstore.bus.EventBusSubscriber;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+// 非同步投影引擎：依全域位置追蹤事件儲存，分批把事件交給各個 Projector。
+// 每一批的讀取模型變更與檢查點在同一個交易中提交，所以重啟後從檢查點繼續，不會漏掉也不會重複套用。
+// 命令處理因此只需要負責追加事件，投影再慢也不會拖慢寫入。
+// 剛提交的事件由 EventBus 直接送來，接得上檢查點就不必再從事件儲存讀；定時輪詢只負責補上其餘的部分。
+@Component
+@ConditionalOnProperty(name = "es0.projection.enabled", havingValue = "true", matchIfMissing = true)
+public class ProjectionEngine implements MeterBinder, EventBusSubscriber {
+
+    private final EventStore eventStore;
+    private final List<Projector> projectors;
+    private final ProjectionCheckpointRepository checkpointRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final int batchSize;
+    private final MeterRegistry meterRegistry;
+
+    // Last committed checkpoint per projector, for the lag gauge
+    private final Map<String, Long> positions = new ConcurrentHashMap<>();
+    private final Map<String, ReentrantLock> locks = new ConcurrentHashMap<>();
+
+    @Autowired
+    public ProjectionEngine(EventStore eventStore, List<Projector> projectors,
+                            ProjectionCheckpointRepository checkpointRepository,
+                            PlatformTransactionManager transactionManager,
+                            @Value("${es0.projection.batch-size:500}") int batchSize,
+                            MeterRegistry meterRegistry) {
+        this.eventStore = eventStore;
+        this.projectors = projectors;
+        this.checkpointRepository = checkpointRepository;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.batchSize = batchSize;
+        this.meterRegistry = meterRegistry;
+    }
+
+    @Scheduled(fixedDelayString = "${es0.projection.poll-interval:100ms}")
+    public void poll() {
+        for (Projector projector : projectors) {
+            catchUp(projector);
+        }
+    }
+
+    @Override
+    public String name() {
+        return "projection";
+    }
+
+    // Events pushed by the bus right after their commit
+    @Override
+    public void onEvents(List<EventEnvelope> events) {
+        for (Projector projector : projectors) {
+            catchUp(projector, events);
+        }
+    }
+
+    // Processes batches until the projector has reached the head of the store
+    public void catchUp(Projector projector) {
+        catchUp(projector, List.of());
+    }
+
+    private void catchUp(Projector projector, List<EventEnvelope> delivered) {
+        ReentrantLock lock = lockFor(projector.name());
+        if (!lock.tryLock()) {
+            return; // Another thread (e.g. a rebuild) is working on this projector
+        }
+        try {
+            int processed = processBatch(projector, delivered);
+            while (processed == batchSize) {
+                // keep going while batches are full
+                processed = processBatch(projector, List.of());
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Runs an action while no batch of this projector is in flight, e.g. swapping in a rebuilt read model.
+    // The checkpoint may have been moved by the action, so the cached position is reloaded afterwards.
+    public void runExclusively(String projectorName, Runnable action) {
+        ReentrantLock lock = lockFor(projectorName);
+        lock.lock();
+        try {
+            action.run();
+            // In a read-write transaction, so it is read from the primary and not from the query pool
+            transactionTemplate.executeWithoutResult(status -> checkpointRepository.findById(projectorName)
+                    .ifPresent(checkpoint -> positions.put(projectorName, checkpoint.getPosition())));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long lag(String projectorName) {
+        return Math.max(0, eventStore.headPosition() - positions.getOrDefault(projectorName, 0L));
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        for (Projector projector : projectors) {
+            Gauge.builder("es0.projection.lag", this, engine -> engine.lag(projector.name()))
+                    .tag("projector", projector.name())
+                    .description("Events appended but not yet applied by the projector")
+                    .baseUnit("events")
+                    .register(registry);
+        }
+    }
+
+    private int processBatch(Projector projector, List<EventEnvelope> delivered) {
+        long[] committedPosition = new long[1];
+        Timer.Sample sample = Timer.start(meterRegistry);
+        Integer processed = transactionTemplate.execute(status -> {
+            ProjectionCheckpoint checkpoint = checkpointRepository.findById(projector.name())
+                    .orElseGet(() -> new ProjectionCheckpoint(projector.name(), 0, Instant.now()));
+            List<EventEnvelope> batch = deliveredAfter(delivered, checkpoint.getPosition());
+            if (batch == null) {
+                batch = eventStore.readAll(checkpoint.getPosition(), batchSize);
+            }
+            if (!batch.isEmpty()) {
+                projector.project(batch);
+                checkpoint.setPosition(batch.get(batch.size() - 1).getGlobalPosition());
+                checkpoint.setUpdatedAt(Instant.now());
+                checkpointRepository.save(checkpoint);
+            }
+            committedPosition[0] = checkpoint.getPosition();
+            return batch.size();
+        });
+        positions.put(projector.name(), committedPosition[0]);
+        if (processed != null && processed > 0) {
+            // Read, read model writes and checkpoint of one batch, empty polls are not recorded
+            sample.stop(Timer.builder("es0.projection.batch").tag("projector", projector.name()).register(meterRegistry));
+        }
+        return processed == null ? 0 : processed;
+    }
+
+    // Delivered events are in position order; they can be used when they continue right after the checkpoint.
+    // A batch read from the store may skip the position of a rolled-back append, so positions are not indexes.
+    // Null means read from the store instead, an empty list that they were all projected already.
+    private List<EventEnvelope> deliveredAfter(List<EventEnvelope> delivered, long checkpoint) {
+        if (delivered.isEmpty() || delivered.get(0).getGlobalPosition() > checkpoint + 1) {
+            return null;
+        }
+        int from = 0;
+        while (from < delivered.size() && delivered.get(from).getGlobalPosition() <= checkpoint) {
+            from++;
+        }
+        return delivered.subList(from, Math.min(delivered.size(), from + batchSize));
+    }
+
+    private ReentrantLock lockFor(String projectorName) {
+        return locks.computeIfAbsent(projectorName, name -> new ReentrantLock());
+    }
+}
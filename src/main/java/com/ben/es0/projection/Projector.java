@@ -0,0 +1,15 @@
+package com.ben.es0.projection;
+
+import com.ben.es0.eventstore.EventEnvelope;
+
+import java.util.List;
+
+// 投影器：把事件套用到某個讀取模型。ProjectionEngine 會在同一個交易中呼叫 project 並更新檢查點。
+public interface Projector {
+
+    // Unique name, the checkpoint is stored under it
+    String name();
+
+    // Apply one batch of events in global position order
+    void project(List<EventEnvelope> batch);
+}
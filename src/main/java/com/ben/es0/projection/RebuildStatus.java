@@ -0,0 +1,27 @@
+package com.ben.es0.projection;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.time.Instant;
+
+// 投影重建進度的快照，給管理端點回報用
+@Getter
+@AllArgsConstructor
+public class RebuildStatus {
+
+    public enum State { IDLE, RUNNING, SWAPPING, COMPLETED, FAILED }
+
+    private final State state;
+    private final long targetPosition;   // Head of the log when the rebuild started
+    private final long eventsProcessed;
+    private final long aggregates;
+    private final double eventsPerSecond;
+    private final Instant startedAt;
+    private final Instant finishedAt;
+    private final String error;
+
+    public static RebuildStatus idle() {
+        return new RebuildStatus(State.IDLE, 0, 0, 0, 0, null, null, null);
+    }
+}
@@ -0,0 +1,146 @@
+package com.ben.es0.projection;
+
+import com.ben.es0.eventstore.EventEnvelope;
+import com.ben.es0.eventstore.shard.EventStoreShard;
+import com.ben.es0.eventstore.shard.ShardedEventStore;
+import com.ben.es0.query.AccountReadModel;
+import com.ben.es0.query.AccountReadModelCache;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+// sharded profile 的讀取模型投影：分片之間沒有全域順序，所以每個分片各自依分片位置追蹤自己的事件，
+// 投影到同一個分片上的 account_read_model 表。讀取模型、檢查點與事件都在同一個 DataSource，
+// 一批的變更與檢查點在同一個本地交易中提交，重啟後從檢查點繼續，和 ProjectionEngine 的保證相同。
+@Component
+@Profile("sharded")
+public class ShardedReadModelProjector implements MeterBinder {
+
+    private final ShardedEventStore eventStore;
+    private final AccountReadModelCache readModelCache;
+    private final int batchSize;
+
+    // Last committed checkpoint per shard, for the lag gauge
+    private final Map<String, Long> positions = new ConcurrentHashMap<>();
+
+    @Autowired
+    public ShardedReadModelProjector(ShardedEventStore eventStore, AccountReadModelCache readModelCache,
+                                     @Value("${es0.projection.batch-size:500}") int batchSize) {
+        this.eventStore = eventStore;
+        this.readModelCache = readModelCache;
+        this.batchSize = batchSize;
+    }
+
+    @Scheduled(fixedDelayString = "${es0.projection.poll-interval:100ms}")
+    public void poll() {
+        for (EventStoreShard shard : eventStore.shards()) {
+            try {
+                catchUp(shard);
+            } catch (RuntimeException e) {
+                // One unreachable shard must not hold back the read models of the others
+                System.err.println("Projection of " + shard.name() + " failed: " + e.getMessage());
+            }
+        }
+    }
+
+    public void catchUp(EventStoreShard shard) {
+        int processed;
+        do {
+            processed = processBatch(shard);
+        } while (processed == batchSize);
+    }
+
+    public long lag(EventStoreShard shard) {
+        return Math.max(0, shard.headPosition() - positions.getOrDefault(shard.name(), 0L));
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        for (EventStoreShard shard : eventStore.shards()) {
+            Gauge.builder("es0.projection.lag", this, projector -> projector.lag(shard))
+                    .tag("projector", AccountReadModelProjector.NAME)
+                    .tag("shard", shard.name())
+                    .description("Events appended but not yet applied by the projector")
+                    .baseUnit("events")
+                    .register(registry);
+        }
+    }
+
+    private int processBatch(EventStoreShard shard) {
+        JdbcTemplate jdbc = shard.jdbcTemplate();
+        List<AccountReadModel> updated = new ArrayList<>();
+        long[] committedPosition = new long[1];
+        int processed = shard.inTransaction(() -> {
+            List<Long> stored = jdbc.queryForList(
+                    "SELECT position FROM projection_checkpoint WHERE name = ?", Long.class, AccountReadModelProjector.NAME);
+            long checkpoint = stored.isEmpty() ? 0 : stored.get(0);
+            List<EventEnvelope> batch = shard.readLog(checkpoint, batchSize);
+            committedPosition[0] = checkpoint;
+            if (batch.isEmpty()) {
+                return 0;
+            }
+
+            Map<String, AccountReadModel> models = load(jdbc, batch);
+            Set<String> existing = new HashSet<>(models.keySet());
+            for (EventEnvelope envelope : batch) {
+                AccountReadModel model = AccountReadModelProjector.apply(models.get(envelope.getAggregateId()), envelope);
+                if (model != null) {
+                    models.put(envelope.getAggregateId(), model);
+                }
+            }
+            List<Object[]> updates = new ArrayList<>();
+            List<Object[]> inserts = new ArrayList<>();
+            for (AccountReadModel model : models.values()) {
+                if (existing.contains(model.getAccountId())) {
+                    updates.add(new Object[]{model.getBalance(), model.getVersion(), model.getAccountId()});
+                } else {
+                    inserts.add(new Object[]{model.getAccountId(), model.getBalance(), model.getVersion()});
+                }
+            }
+            jdbc.batchUpdate("UPDATE account_read_model SET balance = ?, version = ? WHERE account_id = ?", updates);
+            jdbc.batchUpdate("INSERT INTO account_read_model (account_id, balance, version) VALUES (?, ?, ?)", inserts);
+
+            long position = batch.get(batch.size() - 1).getGlobalPosition();
+            if (stored.isEmpty()) {
+                jdbc.update("INSERT INTO projection_checkpoint (name, position) VALUES (?, ?)", AccountReadModelProjector.NAME, position);
+            } else {
+                jdbc.update("UPDATE projection_checkpoint SET position = ? WHERE name = ?", position, AccountReadModelProjector.NAME);
+            }
+            committedPosition[0] = position;
+            updated.addAll(models.values());
+            return batch.size();
+        });
+        // Committed by now, the query cache may see it
+        positions.put(shard.name(), committedPosition[0]);
+        readModelCache.refresh(updated);
+        return processed;
+    }
+
+    private static Map<String, AccountReadModel> load(JdbcTemplate jdbc, List<EventEnvelope> batch) {
+        List<String> ids = batch.stream().map(EventEnvelope::getAggregateId).distinct().toList();
+        Map<String, AccountReadModel> models = new HashMap<>();
+        jdbc.query("SELECT account_id, balance, version FROM account_read_model WHERE account_id IN ("
+                        + String.join(", ", Collections.nCopies(ids.size(), "?")) + ")",
+                rs -> {
+                    AccountReadModel model = new AccountReadModel(rs.getString("account_id"), rs.getDouble("balance"), rs.getInt("version"));
+                    models.put(model.getAccountId(), model);
+                },
+                ids.toArray());
+        return models;
+    }
+}
@@ -2,48 +2,117 @@ package com.ben.es0.query;
 
 import com.ben.es0.domain.Account;
 import com.ben.es0.domain.events.AccountEvent;
+import com.ben.es0.eventstore.AccountLoader;
 import com.ben.es0.eventstore.EventStore;
-import jakarta.transaction.Transactional;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.time.Instant;
+import java.time.LocalDate;
 import java.util.List;
 import java.util.Optional;
 
 @Service
+@Transactional(readOnly = true)
 public class AccountQueryService {
     // 查詢服務主要從 AccountReadModel 獲取數據，因為它針對查詢進行了優化。
     // 重建聚合狀態的方法 (reconstructAccountFromEvents) 更多是用於內部驗證或特定情況。
+    // 所有查詢都是唯讀交易，走查詢端的連線池 (見 DataSourceConfiguration)，也省掉 Hibernate 的髒檢查與 flush。
 
     private final EventStore eventStore;
-    private final AccountReadModelRepository readModelRepository; // Query from read model
+    private final AccountLoader accountLoader;
+    private final AccountReadModelLookup readModelLookup; // Query from read model
+    private final AccountReadModelCache readModelCache;
+    private final AccountSummaryRepository summaryRepository;
+    private final DailyAccountSummaryRepository dailySummaryRepository;
 
     @Autowired
-    public AccountQueryService(EventStore eventStore, AccountReadModelRepository readModelRepository) {
+    public AccountQueryService(EventStore eventStore, AccountLoader accountLoader,
+                               AccountReadModelLookup readModelLookup, AccountReadModelCache readModelCache,
+                               AccountSummaryRepository summaryRepository, DailyAccountSummaryRepository dailySummaryRepository) {
         this.eventStore = eventStore;
-        this.readModelRepository = readModelRepository;
+        this.accountLoader = accountLoader;
+        this.readModelLookup = readModelLookup;
+        this.readModelCache = readModelCache;
+        this.summaryRepository = summaryRepository;
+        this.dailySummaryRepository = dailySummaryRepository;
     }
 
     // Method to get current state from the Read Model (optimized for queries)
-    @Transactional
     public Optional<AccountReadModel> getAccountState(String accountId) {
-        return readModelRepository.findById(accountId);
+        return getAccountState(accountId, 0);
+    }
+
+    // One page of all accounts in id order, from the read model
+    public List<AccountReadModel> listAccounts(String afterAccountId, int limit) {
+        return readModelLookup.findPage(afterAccountId, limit);
+    }
+
+    // One page of all accounts, highest balance first; afterBalance and afterAccountId are the last row of the
+    // previous page, null for the first page
+    public List<AccountReadModel> listAccountsByBalance(Double afterBalance, String afterAccountId, int limit) {
+        if (afterBalance == null) {
+            return readModelLookup.findPageByBalance(Double.MAX_VALUE, "", limit);
+        }
+        return readModelLookup.findPageByBalance(afterBalance, afterAccountId, limit);
+    }
+
+    // Totals over all accounts, one row maintained by AccountSummaryProjector; all zero before the first event
+    public AccountStatistics getStatistics() {
+        return AccountStatistics.of(summaryRepository.findById(AccountSummary.SINGLETON_ID)
+                .orElseGet(() -> new AccountSummary(AccountSummary.SINGLETON_ID)));
+    }
+
+    // Per-day figures between from and to (inclusive, UTC); days without events are left out
+    public List<DailyAccountStatistics> getDailyStatistics(LocalDate from, LocalDate to) {
+        return dailySummaryRepository.findBySummaryDateBetweenOrderBySummaryDate(from, to).stream()
+                .map(DailyAccountStatistics::of)
+                .toList();
+    }
+
+    // Read-your-writes: when the read model has not caught up with minVersion yet (the projection is
+    // asynchronous), the state is rebuilt from the event store instead of returning an older version.
+    // No surrounding transaction: the read model is read on the query pool, the fallback in its own transaction
+    // on the command pool, since a replica behind the query pool may not have the version the client just wrote.
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    public Optional<AccountReadModel> getAccountState(String accountId, int minVersion) {
+        Optional<AccountReadModel> state = readModelCache.get(accountId);
+        if (state.isEmpty()) {
+            long loadStamp = readModelCache.loadStamp(accountId);
+            state = readModelLookup.findById(accountId);
+            state.ifPresent(model -> readModelCache.put(model, loadStamp));
+        }
+        if (minVersion > 0 && state.map(AccountReadModel::getVersion).orElse(0) < minVersion) {
+            return accountLoader.load(accountId)
+                    .map(account -> new AccountReadModel(account.getAccountId(), account.getBalance(), account.getVersion()));
+        }
+        return state;
+    }
+
+    // Point-in-time state for audits, as of an aggregate version.
+    // Replays from the nearest snapshot at or before the version, not from the start of the history.
+    public Optional<AccountReadModel> getAccountStateAtVersion(String accountId, int version) {
+        return accountLoader.loadAt(accountId, version)
+                .map(account -> new AccountReadModel(account.getAccountId(), account.getBalance(), account.getVersion()));
+    }
+
+    // Point-in-time state as of a moment: the state after the last event recorded at or before it.
+    // Empty when the account did not exist yet.
+    public Optional<AccountReadModel> getAccountStateAsOf(String accountId, Instant timestamp) {
+        int version = eventStore.versionAt(accountId, timestamp);
+        return version == 0 ? Optional.empty() : getAccountStateAtVersion(accountId, version);
     }
 
     // Method to reconstruct state from events (for debugging or specific needs)
-    @Transactional
+    // Starts from the newest snapshot, so only the events after it are replayed
     public Optional<Account> reconstructAccountFromEvents(String accountId) {
-        List<AccountEvent> history = eventStore.getEventsForAggregate(accountId);
-        if (history.isEmpty()) {
-            return Optional.empty();
-        }
-        Account account = new Account(accountId, history);
-        return Optional.of(account);
+        return accountLoader.load(accountId);
     }
 
-    // Method to get all events for an aggregate
-    @Transactional
-    public List<AccountEvent> getEventsForAccount(String accountId) {
-        return eventStore.getEventsForAggregate(accountId);
+    // Method to get one page of the events of an aggregate, starting at fromVersion (inclusive)
+    public List<AccountEvent> getEventsForAccount(String accountId, int fromVersion, int limit) {
+        return eventStore.getEventsForAggregate(accountId, fromVersion - 1, limit);
     }
 }
\ No newline at end of file
@@ -2,10 +2,16 @@ package com.ben.es0.query;
 
 import jakarta.persistence.Entity;
 import jakarta.persistence.Id;
+import jakarta.persistence.Index;
+import jakarta.persistence.Table;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 
 @Entity
+@Table(indexes = {
+        // Balance listings walk this index from the top, each page continues after the last (balance, accountId)
+        @Index(name = "idx_account_read_model_balance", columnList = "balance DESC, accountId")
+})
 @Data
 @NoArgsConstructor
 public class AccountReadModel {
@@ -19,4 +25,4 @@ public class AccountReadModel {
         this.balance = balance;
         this.version = version;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,141 @@
+package com.ben.es0.query;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+
+// 查詢端 AccountReadModel 的記憶體快取 (LRU)。沒有 TTL：投影器提交新的一批事件後直接更新已快取的項目，
+// 重建讀取模型後整個清空，所以快取內容永遠和它回報的 version 一致。
+@Component
+public class AccountReadModelCache implements MeterBinder {
+
+    private static final int STRIPES = 64;
+
+    private final int maxSize;
+
+    // Bumped whenever a projection for an account in the stripe commits. A miss that read the database
+    // before a newer projection committed must not put its older copy in afterwards.
+    private final long[] stripeStamps = new long[STRIPES];
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    // Access-ordered, the eldest entry is the least recently used one
+    private final LinkedHashMap<String, AccountReadModel> entries = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, AccountReadModel> eldest) {
+            if (size() > AccountReadModelCache.this.maxSize) {
+                evictions.incrementAndGet();
+                return true;
+            }
+            return false;
+        }
+    };
+
+    public AccountReadModelCache(@Value("${es0.read-model-cache.max-size:100000}") int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    // Returns a private copy, the cached instance is never handed out
+    public Optional<AccountReadModel> get(String accountId) {
+        synchronized (entries) {
+            AccountReadModel model = entries.get(accountId);
+            if (model == null) {
+                misses.incrementAndGet();
+                return Optional.empty();
+            }
+            hits.incrementAndGet();
+            return Optional.of(copyOf(model));
+        }
+    }
+
+    // Take before reading the database on a miss, and hand it to put afterwards
+    public long loadStamp(String accountId) {
+        synchronized (entries) {
+            return stripeStamps[stripeOf(accountId)];
+        }
+    }
+
+    // Fills the cache after a miss, unless a newer projection committed in the meantime
+    public void put(AccountReadModel model, long loadStamp) {
+        if (maxSize <= 0) {
+            return;
+        }
+        synchronized (entries) {
+            if (stripeStamps[stripeOf(model.getAccountId())] != loadStamp) {
+                return;
+            }
+            AccountReadModel existing = entries.get(model.getAccountId());
+            if (existing == null || existing.getVersion() < model.getVersion()) {
+                entries.put(model.getAccountId(), copyOf(model));
+            }
+        }
+    }
+
+    // Called with freshly committed projections: only accounts that are already cached are updated,
+    // so write-only accounts do not push the ones that are actually read out of the cache
+    public void refresh(Collection<AccountReadModel> models) {
+        synchronized (entries) {
+            for (AccountReadModel model : models) {
+                stripeStamps[stripeOf(model.getAccountId())]++;
+                AccountReadModel existing = entries.get(model.getAccountId());
+                if (existing != null && existing.getVersion() < model.getVersion()) {
+                    entries.put(model.getAccountId(), copyOf(model));
+                }
+            }
+        }
+    }
+
+    public void clear() {
+        synchronized (entries) {
+            for (int i = 0; i < STRIPES; i++) {
+                stripeStamps[i]++;
+            }
+            entries.clear();
+        }
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    public double hitRatio() {
+        long h = hits.get();
+        long total = h + misses.get();
+        return total == 0 ? 0 : (double) h / total;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("es0.read-model.cache.requests", hits, AtomicLong::get)
+                .tag("result", "hit").register(registry);
+        FunctionCounter.builder("es0.read-model.cache.requests", misses, AtomicLong::get)
+                .tag("result", "miss").register(registry);
+        FunctionCounter.builder("es0.read-model.cache.evictions", evictions, AtomicLong::get)
+                .register(registry);
+        Gauge.builder("es0.read-model.cache.size", this, AccountReadModelCache::size)
+                .register(registry);
+        Gauge.builder("es0.read-model.cache.hit-ratio", this, AccountReadModelCache::hitRatio)
+                .register(registry);
+    }
+
+    private static int stripeOf(String accountId) {
+        return Math.floorMod(accountId.hashCode(), STRIPES);
+    }
+
+    private static AccountReadModel copyOf(AccountReadModel model) {
+        return new AccountReadModel(model.getAccountId(), model.getBalance(), model.getVersion());
+    }
+}
@@ -0,0 +1,18 @@
+package com.ben.es0.query;
+
+import java.util.List;
+import java.util.Optional;
+
+// 查詢端讀取 AccountReadModel 的來源：預設是 JPA 的 account_read_model 表，
+// sharded profile 下則是帳戶所在分片上的讀取模型表。
+public interface AccountReadModelLookup {
+
+    Optional<AccountReadModel> findById(String accountId);
+
+    // Accounts ordered by id, starting after afterAccountId ("" for the first page)
+    List<AccountReadModel> findPage(String afterAccountId, int limit);
+
+    // Accounts by descending balance, then id, starting after the row (balance, afterAccountId) of the previous page.
+    // The first page passes Double.MAX_VALUE and "".
+    List<AccountReadModel> findPageByBalance(double balance, String afterAccountId, int limit);
+}
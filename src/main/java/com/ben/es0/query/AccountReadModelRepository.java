@@ -1,6 +1,20 @@
 package com.ben.es0.query;
 
+import org.springframework.data.domain.Limit;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+
+import java.util.List;
 
 public interface AccountReadModelRepository extends JpaRepository<AccountReadModel, String> {
-}
\ No newline at end of file
+
+    // Keyset page on the primary key: one index range scan, however deep the page
+    @Query("SELECT m FROM AccountReadModel m WHERE m.accountId > :afterAccountId ORDER BY m.accountId")
+    List<AccountReadModel> findPage(String afterAccountId, Limit limit);
+
+    // Keyset page in descending balance order, after the row (balance, afterAccountId) of the previous page.
+    // The first condition is the index range start, the second skips the ties already returned.
+    @Query("SELECT m FROM AccountReadModel m WHERE m.balance <= :balance "
+            + "AND (m.balance < :balance OR m.accountId > :afterAccountId) ORDER BY m.balance DESC, m.accountId")
+    List<AccountReadModel> findPageByBalance(double balance, String afterAccountId, Limit limit);
+}
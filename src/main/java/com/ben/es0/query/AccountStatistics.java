@@ -0,0 +1,29 @@
+package com.ben.es0.query;
+
+import com.ben.es0.domain.Money;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.time.Instant;
+
+// 給儀表板的彙總數字；position 是已計入的最後一個全域位置，投影是非同步的，可以拿來判斷落後多少
+@Getter
+@AllArgsConstructor
+public class AccountStatistics {
+
+    private final long accounts;
+    private final double totalBalance;
+    private final long deposits;
+    private final double depositTotal;
+    private final long withdrawals;
+    private final double withdrawalTotal;
+    private final long position;
+    private final Instant updatedAt;
+
+    static AccountStatistics of(AccountSummary summary) {
+        return new AccountStatistics(summary.getAccounts(), Money.toMajor(summary.getTotalBalanceMinor()),
+                summary.getDeposits(), Money.toMajor(summary.getDepositTotalMinor()),
+                summary.getWithdrawals(), Money.toMajor(summary.getWithdrawalTotalMinor()),
+                summary.getPosition(), summary.getUpdatedAt());
+    }
+}
@@ -0,0 +1,32 @@
+package com.ben.es0.query;
+
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.Instant;
+
+// 所有帳戶的彙總 (單列)：帳戶數、總餘額、存提款次數與金額。由 AccountSummaryProjector 隨每個事件增量更新，
+// 儀表板讀一列就好，不必掃過整個讀取模型。金額以最小貨幣單位保存，累加不會有誤差。
+@Entity
+@Data
+@NoArgsConstructor
+public class AccountSummary {
+    public static final int SINGLETON_ID = 1;
+
+    @Id
+    private int id;
+    private long accounts;
+    private long totalBalanceMinor;
+    private long deposits;
+    private long depositTotalMinor;
+    private long withdrawals;
+    private long withdrawalTotalMinor;
+    private long position; // Global position of the last event counted
+    private Instant updatedAt;
+
+    public AccountSummary(int id) {
+        this.id = id;
+    }
+}
@@ -0,0 +1,6 @@
+package com.ben.es0.query;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+
+public interface AccountSummaryRepository extends JpaRepository<AccountSummary, Integer> {
+}
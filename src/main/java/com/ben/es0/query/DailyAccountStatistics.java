@@ -0,0 +1,26 @@
+package com.ben.es0.query;
+
+import com.ben.es0.domain.Money;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.time.LocalDate;
+
+// 某一天 (UTC) 的開戶數與存提款
+@Getter
+@AllArgsConstructor
+public class DailyAccountStatistics {
+
+    private final LocalDate date;
+    private final long accountsOpened;
+    private final long deposits;
+    private final double depositTotal;
+    private final long withdrawals;
+    private final double withdrawalTotal;
+
+    static DailyAccountStatistics of(DailyAccountSummary day) {
+        return new DailyAccountStatistics(day.getSummaryDate(), day.getAccountsOpened(),
+                day.getDeposits(), Money.toMajor(day.getDepositTotalMinor()),
+                day.getWithdrawals(), Money.toMajor(day.getWithdrawalTotalMinor()));
+    }
+}
@@ -0,0 +1,27 @@
+package com.ben.es0.query;
+
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDate;
+
+// 每天 (UTC，依事件時間) 的開戶數與存提款次數、金額，由 AccountSummaryProjector 增量更新。
+// 以日期為主鍵，查一段期間是一次主鍵範圍掃描。
+@Entity
+@Data
+@NoArgsConstructor
+public class DailyAccountSummary {
+    @Id
+    private LocalDate summaryDate;
+    private long accountsOpened;
+    private long deposits;
+    private long depositTotalMinor;
+    private long withdrawals;
+    private long withdrawalTotalMinor;
+
+    public DailyAccountSummary(LocalDate summaryDate) {
+        this.summaryDate = summaryDate;
+    }
+}
@@ -0,0 +1,11 @@
+package com.ben.es0.query;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+
+import java.time.LocalDate;
+import java.util.List;
+
+public interface DailyAccountSummaryRepository extends JpaRepository<DailyAccountSummary, LocalDate> {
+
+    List<DailyAccountSummary> findBySummaryDateBetweenOrderBySummaryDate(LocalDate from, LocalDate to);
+}
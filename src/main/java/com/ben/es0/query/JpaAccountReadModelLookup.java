@@ -0,0 +1,36 @@
+package com.ben.es0.query;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Profile;
+import org.springframework.data.domain.Limit;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.Optional;
+
+@Component
+@Profile("!sharded")
+public class JpaAccountReadModelLookup implements AccountReadModelLookup {
+
+    private final AccountReadModelRepository readModelRepository;
+
+    @Autowired
+    public JpaAccountReadModelLookup(AccountReadModelRepository readModelRepository) {
+        this.readModelRepository = readModelRepository;
+    }
+
+    @Override
+    public Optional<AccountReadModel> findById(String accountId) {
+        return readModelRepository.findById(accountId);
+    }
+
+    @Override
+    public List<AccountReadModel> findPage(String afterAccountId, int limit) {
+        return readModelRepository.findPage(afterAccountId, Limit.of(limit));
+    }
+
+    @Override
+    public List<AccountReadModel> findPageByBalance(double balance, String afterAccountId, int limit) {
+        return readModelRepository.findPageByBalance(balance, afterAccountId, Limit.of(limit));
+    }
+}
@@ -0,0 +1,65 @@
+package com.ben.es0.query;
+
+import com.ben.es0.eventstore.shard.EventStoreShard;
+import com.ben.es0.eventstore.shard.ShardedEventStore;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Profile;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+
+// 讀取模型和事件放在同一個分片，所以查詢和寫入用同一個雜湊環找分片，一次查詢只碰一個 DataSource。
+// 列表查詢則在每個分片各取一頁 (同樣的 keyset 條件)，合併排序後取前 limit 筆，成本是分片數 × 一頁。
+@Component
+@Profile("sharded")
+public class ShardedAccountReadModelLookup implements AccountReadModelLookup {
+
+    private static final RowMapper<AccountReadModel> ROW_MAPPER = (rs, rowNum) ->
+            new AccountReadModel(rs.getString("account_id"), rs.getDouble("balance"), rs.getInt("version"));
+
+    private final ShardedEventStore eventStore;
+
+    @Autowired
+    public ShardedAccountReadModelLookup(ShardedEventStore eventStore) {
+        this.eventStore = eventStore;
+    }
+
+    @Override
+    public Optional<AccountReadModel> findById(String accountId) {
+        return eventStore.shardFor(accountId).jdbcTemplate().query(
+                        "SELECT account_id, balance, version FROM account_read_model WHERE account_id = ?",
+                        ROW_MAPPER, accountId)
+                .stream().findFirst();
+    }
+
+    @Override
+    public List<AccountReadModel> findPage(String afterAccountId, int limit) {
+        List<AccountReadModel> merged = new ArrayList<>();
+        for (EventStoreShard shard : eventStore.shards()) {
+            merged.addAll(shard.jdbcTemplate().query(
+                    "SELECT account_id, balance, version FROM account_read_model WHERE account_id > ? "
+                            + "ORDER BY account_id LIMIT ?",
+                    ROW_MAPPER, afterAccountId, limit));
+        }
+        merged.sort(Comparator.comparing(AccountReadModel::getAccountId));
+        return merged.size() > limit ? merged.subList(0, limit) : merged;
+    }
+
+    @Override
+    public List<AccountReadModel> findPageByBalance(double balance, String afterAccountId, int limit) {
+        List<AccountReadModel> merged = new ArrayList<>();
+        for (EventStoreShard shard : eventStore.shards()) {
+            merged.addAll(shard.jdbcTemplate().query(
+                    "SELECT account_id, balance, version FROM account_read_model WHERE balance <= ? "
+                            + "AND (balance < ? OR account_id > ?) ORDER BY balance DESC, account_id LIMIT ?",
+                    ROW_MAPPER, balance, balance, afterAccountId, limit));
+        }
+        merged.sort(Comparator.comparingDouble(AccountReadModel::getBalance).reversed()
+                .thenComparing(AccountReadModel::getAccountId));
+        return merged.size() > limit ? merged.subList(0, limit) : merged;
+    }
+}
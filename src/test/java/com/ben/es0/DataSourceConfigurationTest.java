@@ -0,0 +1,119 @@
+package com.ben.es0;
+
+import com.ben.es0.domain.events.AccountCreatedEvent;
+import com.ben.es0.domain.events.MoneyDepositedEvent;
+import com.ben.es0.eventstore.AccountSnapshot;
+import com.ben.es0.eventstore.EventEnvelope;
+import com.ben.es0.eventstore.JpaEventStore;
+import com.ben.es0.eventstore.SnapshotStore;
+import com.ben.es0.projection.ProjectionCheckpoint;
+import com.ben.es0.projection.ProjectionCheckpointRepository;
+import com.ben.es0.projection.ProjectionEngine;
+import com.ben.es0.projection.Projector;
+import com.ben.es0.query.AccountQueryService;
+import com.ben.es0.query.AccountReadModelRepository;
+import com.zaxxer.hikari.HikariDataSource;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Which Hikari pool the routing DataSource borrows from, told apart by the pools' acquire counters. Only queries
+// use the query pool, so nothing in the background moves its counter; the command pool is busy with the
+// application's projection engine, so there only an increase is checked.
+@SpringBootTest
+class DataSourceConfigurationTest {
+
+    @Autowired
+    @Qualifier("commandDataSource")
+    private HikariDataSource commandPool;
+    @Autowired
+    @Qualifier("queryDataSource")
+    private HikariDataSource queryPool;
+    @Autowired
+    private JpaEventStore eventStore;
+    @Autowired
+    private SnapshotStore snapshotStore;
+    @Autowired
+    private AccountQueryService queryService;
+    @Autowired
+    private AccountReadModelRepository readModelRepository;
+    @Autowired
+    private ProjectionCheckpointRepository checkpointRepository;
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Test
+    void readOnlyTransactionsBorrowFromTheQueryPool() {
+        long queryAcquired = acquired("query");
+        TransactionTemplate readOnly = new TransactionTemplate(transactionManager);
+        readOnly.setReadOnly(true);
+        readOnly.executeWithoutResult(status -> {
+            queryService.listAccounts("", 1);
+            // Held until the transaction ends
+            assertTrue(queryPool.getHikariPoolMXBean().getActiveConnections() >= 1);
+        });
+        assertTrue(acquired("query") > queryAcquired);
+
+        // Spring Data query methods outside a transaction run in a read-only one of their own
+        queryAcquired = acquired("query");
+        readModelRepository.findById("missing-" + UUID.randomUUID());
+        assertTrue(acquired("query") > queryAcquired);
+    }
+
+    @Test
+    void appendsProjectionsAndSnapshotsBorrowFromTheCommandPool() {
+        String accountId = "routing-" + UUID.randomUUID();
+        assertCommandPoolOnly(() -> eventStore.save(accountId, List.of(new AccountCreatedEvent(accountId, 100)), 0));
+        assertCommandPoolOnly(() -> snapshotStore.save(new AccountSnapshot(accountId, 1, 10000, Instant.now())));
+
+        // A projector of its own, starting right before the append, so its engine has a batch to apply
+        String projectorName = "routing-" + UUID.randomUUID();
+        checkpointRepository.save(new ProjectionCheckpoint(projectorName, eventStore.headPosition(), Instant.now()));
+        eventStore.save(accountId, List.of(new MoneyDepositedEvent(accountId, 1)), 1);
+        AtomicInteger commandActive = new AtomicInteger();
+        Projector projector = new Projector() {
+            @Override
+            public String name() {
+                return projectorName;
+            }
+
+            @Override
+            public void project(List<EventEnvelope> batch) {
+                commandActive.set(commandPool.getHikariPoolMXBean().getActiveConnections());
+            }
+        };
+        ProjectionEngine engine = new ProjectionEngine(eventStore, List.of(projector), checkpointRepository, transactionManager, 10, meterRegistry);
+        assertCommandPoolOnly(() -> engine.catchUp(projector));
+        assertTrue(commandActive.get() >= 1, "active command connections during the batch: " + commandActive.get());
+        assertEquals(eventStore.headPosition(), checkpointRepository.findById(projectorName).orElseThrow().getPosition());
+    }
+
+    private void assertCommandPoolOnly(Runnable action) {
+        long commandAcquired = acquired("command");
+        long queryAcquired = acquired("query");
+        action.run();
+        assertTrue(acquired("command") > commandAcquired);
+        assertEquals(queryAcquired, acquired("query"));
+    }
+
+    // Registered once the pool has started
+    private long acquired(String pool) {
+        Timer timer = meterRegistry.find("hikaricp.connections.acquire").tag("pool", pool).timer();
+        return timer == null ? 0 : timer.count();
+    }
+}
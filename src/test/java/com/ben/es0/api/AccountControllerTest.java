@@ -0,0 +1,301 @@
+package com.ben.es0.api;
+
+import com.ben.es0.commandhandling.CommandDispatcher;
+import com.ben.es0.commandhandling.ContentionTracker;
+import com.ben.es0.query.AccountReadModelRepository;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.observation.ObservationRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.ResultActions;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.web.context.WebApplicationContext;
+import org.springframework.web.util.UriUtils;
+
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.containsString;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+// Same context configuration as the other @SpringBootTest classes, so they all share one application and database
+@SpringBootTest
+class AccountControllerTest {
+
+    @Autowired
+    private WebApplicationContext context;
+
+    @Autowired
+    private ContentionTracker contentionTracker;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    private AccountReadModelRepository readModelRepository;
+
+    private MockMvc mvc;
+
+    @BeforeEach
+    void setUp() {
+        mvc = MockMvcBuilders.webAppContextSetup(context).build();
+    }
+
+    @Test
+    void invalidAmountsAreBadRequestsAndUnknownAccountsNotFound() throws Exception {
+        String accountId = createAccount(100);
+
+        command(accountId, "deposit", "10.001").andExpect(status().isBadRequest());
+        command(accountId, "withdraw", "0.005").andExpect(status().isBadRequest());
+        command(accountId, "deposit", "-5").andExpect(status().isBadRequest());
+        command(accountId, "withdraw", "500").andExpect(status().isBadRequest()); // Insufficient funds
+        command(accountId, "withdraw", "40.25").andExpect(status().isOk()).andExpect(header().string("X-Account-Version", "2"));
+
+        String unknown = "missing-" + UUID.randomUUID();
+        command(unknown, "deposit", "10").andExpect(status().isNotFound());
+        command(unknown, "withdraw", "10").andExpect(status().isNotFound());
+    }
+
+    @Test
+    void concurrentCommandsOnOneAccountAllSucceedWithoutConflicts() throws Exception {
+        String accountId = createAccount(1000);
+        int threads = 8;
+        int withdrawalsPerThread = 25;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<?>> clients = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            clients.add(executor.submit(() -> {
+                for (int i = 0; i < withdrawalsPerThread; i++) {
+                    // Withdrawals append at an expected version; unserialized they would conflict and retry
+                    command(accountId, "withdraw", "1").andExpect(status().isOk());
+                }
+                return null;
+            }));
+        }
+        for (Future<?> client : clients) {
+            client.get(60, TimeUnit.SECONDS);
+        }
+        executor.shutdown();
+
+        int commands = threads * withdrawalsPerThread;
+        command(accountId, "withdraw", "1").andExpect(header().string("X-Account-Version", String.valueOf(commands + 2)));
+        assertTrue(contentionTracker.top(Integer.MAX_VALUE).stream().noneMatch(c -> c.getAccountId().equals(accountId)));
+    }
+
+    @Test
+    void fullDispatcherQueueAnswers429() throws Exception {
+        CommandDispatcher dispatcher = new CommandDispatcher(true, 1, 1, false, ObservationRegistry.NOOP);
+        // The stripe is busy and its queue is full, so the handler is never reached
+        AccountController controller = new AccountController(null, null, dispatcher, null, new ObjectMapper(), 10);
+        MockMvc standalone = MockMvcBuilders.standaloneSetup(controller).build();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        dispatcher.submit("busy", () -> {
+            started.countDown();
+            try {
+                return release.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        });
+        started.await(5, TimeUnit.SECONDS);
+        dispatcher.submit("queued", () -> true);
+        try {
+            standalone.perform(post("/accounts/acc-1/deposit").contentType(MediaType.APPLICATION_JSON)
+                            .content("{\"accountId\":\"acc-1\",\"amount\":10}"))
+                    .andExpect(status().isTooManyRequests())
+                    .andExpect(header().string("Retry-After", "1"));
+        } finally {
+            release.countDown();
+            dispatcher.shutdown();
+        }
+    }
+
+    @Test
+    void batchTakesAJsonArrayAndAnswersEachCommand() throws Exception {
+        String x = createAccount(100);
+        String y = createAccount(10);
+        double insufficientBefore = commandCount("withdraw", "insufficient-funds");
+        String body = "["
+                + batchCommand("DEPOSIT", x, "50") + ","
+                + batchCommand("WITHDRAW", x, "120") + ","
+                + batchCommand("WITHDRAW", y, "15") + ","    // Only 10 on y
+                + batchCommand("WITHDRAW", x, "100") + ","   // 30 left on x after the first two
+                + batchCommand("DEPOSIT", "missing-" + UUID.randomUUID(), "1") + ","
+                + batchCommand("DEPOSIT", x, "0.001") + ","
+                + "{\"type\":\"DEPOSIT\",\"amount\":1}" + ","
+                + batchCommand("WITHDRAW", y, "10")
+                + "]";
+        mvc.perform(post("/accounts/commands:batch").contentType(MediaType.APPLICATION_JSON).content(body))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.length()").value(8))
+                .andExpect(jsonPath("$[0].status").value("OK")).andExpect(jsonPath("$[0].version").value(2))
+                .andExpect(jsonPath("$[1].status").value("OK")).andExpect(jsonPath("$[1].version").value(3))
+                .andExpect(jsonPath("$[2].status").value("INSUFFICIENT_FUNDS"))
+                .andExpect(jsonPath("$[3].status").value("INSUFFICIENT_FUNDS"))
+                .andExpect(jsonPath("$[4].status").value("NOT_FOUND"))
+                .andExpect(jsonPath("$[5].status").value("INVALID"))
+                .andExpect(jsonPath("$[6].status").value("INVALID"))
+                .andExpect(jsonPath("$[7].status").value("OK")).andExpect(jsonPath("$[7].version").value(2));
+
+        // Batched commands are counted like single ones
+        assertEquals(insufficientBefore + 2, commandCount("withdraw", "insufficient-funds"));
+        // The batch went through the accounts' stripes; single commands continue at the next version
+        command(x, "withdraw", "30").andExpect(status().isOk()).andExpect(header().string("X-Account-Version", "4"));
+        command(y, "withdraw", "0.01").andExpect(status().isBadRequest());
+    }
+
+    @Test
+    void batchTakesNdjsonOneCommandPerLine() throws Exception {
+        String x = createAccount(20);
+        String body = batchCommand("WITHDRAW", x, "15") + "\n"
+                + batchCommand("WITHDRAW", x, "15") + "\n"
+                + batchCommand("DEPOSIT", x, "5") + "\n"
+                + batchCommand("WITHDRAW", x, "10") + "\n";
+        mvc.perform(post("/accounts/commands:batch").contentType("application/x-ndjson").content(body))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[*].status").value(contains("OK", "INSUFFICIENT_FUNDS", "OK", "OK")))
+                .andExpect(jsonPath("$[3].version").value(4));
+
+        mvc.perform(post("/accounts/commands:batch").contentType("application/x-ndjson").content(body + "{not json\n"))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    void eventPageLinkEncodesTheAccountId() throws Exception {
+        String accountId = "controller-" + UUID.randomUUID() + "?a&b#c d";
+        mvc.perform(post("/accounts").contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"accountId\":\"" + accountId + "\",\"initialBalance\":10}"))
+                .andExpect(status().isCreated());
+
+        mvc.perform(get("/accounts/{accountId}/events", accountId).param("limit", "1"))
+                .andExpect(status().isOk())
+                .andExpect(header().string("Link", "</accounts/"
+                        + UriUtils.encodePathSegment(accountId, StandardCharsets.UTF_8)
+                        + "/events?fromVersion=2&limit=1>; rel=\"next\""))
+                .andExpect(header().string("Link", containsString("%3Fa&b%23c%20d/events")));
+    }
+
+    @Test
+    void accountsArePagedByIdFollowingTheLinkHeader() throws Exception {
+        // Started after the prefix, the pages begin with these accounts whatever else the shared database holds
+        String prefix = "list-" + UUID.randomUUID() + "-";
+        List<String> accounts = List.of(prefix + "a", prefix + "b", prefix + "c", prefix + "d", prefix + "e");
+        for (String accountId : accounts) {
+            createAccount(accountId, 10);
+        }
+        awaitReadModel(accounts);
+
+        MvcResult first = mvc.perform(get("/accounts").param("after", prefix).param("limit", "2"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[*].accountId").value(contains(prefix + "a", prefix + "b")))
+                .andExpect(header().string("Link", "</accounts?after=" + prefix + "b&limit=2>; rel=\"next\""))
+                .andReturn();
+        MvcResult second = mvc.perform(get(next(first)))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[*].accountId").value(contains(prefix + "c", prefix + "d")))
+                .andReturn();
+        mvc.perform(get(next(second)))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].accountId").value(prefix + "e"));
+
+        mvc.perform(get("/accounts").param("limit", "0")).andExpect(status().isBadRequest());
+        mvc.perform(get("/accounts").param("orderBy", "version")).andExpect(status().isBadRequest());
+    }
+
+    @Test
+    void accountsArePagedByBalanceWithTiesSplitAcrossPages() throws Exception {
+        // Balances far above anything the other tests create, so these accounts are the top of the ranking
+        String prefix = "rich-" + UUID.randomUUID() + "-";
+        createAccount(prefix + "a", 5000003);
+        createAccount(prefix + "d", 5000002);
+        createAccount(prefix + "b", 5000002);
+        createAccount(prefix + "c", 5000002);
+        createAccount(prefix + "e", 5000001);
+        awaitReadModel(List.of(prefix + "a", prefix + "b", prefix + "c", prefix + "d", prefix + "e"));
+
+        MvcResult first = mvc.perform(get("/accounts").param("orderBy", "balance").param("afterBalance", "5000004").param("limit", "2"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[*].accountId").value(contains(prefix + "a", prefix + "b")))
+                .andExpect(header().string("Link", "</accounts?orderBy=balance&afterBalance=5000002.0&after=" + prefix
+                        + "b&limit=2>; rel=\"next\""))
+                .andReturn();
+        // Same balance as the last row of the previous page: the rest of the tie comes next, in id order
+        MvcResult second = mvc.perform(get(next(first)))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[*].accountId").value(contains(prefix + "c", prefix + "d")))
+                .andExpect(jsonPath("$[*].balance").value(contains(5000002.0, 5000002.0)))
+                .andReturn();
+        mvc.perform(get(next(second)))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].accountId").value(prefix + "e"));
+
+        mvc.perform(get("/accounts").param("orderBy", "balance").param("after", prefix + "b")).andExpect(status().isBadRequest());
+    }
+
+    private static URI next(MvcResult page) {
+        String link = page.getResponse().getHeader("Link");
+        assertTrue(link != null && link.endsWith(">; rel=\"next\""), link);
+        return URI.create(link.substring(1, link.indexOf('>')));
+    }
+
+    private void awaitReadModel(List<String> accounts) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (System.nanoTime() < deadline) {
+            if (readModelRepository.findAllById(accounts).size() == accounts.size()) {
+                return;
+            }
+            TimeUnit.MILLISECONDS.sleep(20);
+        }
+        fail("Read model rows of " + accounts + " did not appear");
+    }
+
+    private static String batchCommand(String type, String accountId, String amount) {
+        return "{\"type\":\"" + type + "\",\"accountId\":\"" + accountId + "\",\"amount\":" + amount + "}";
+    }
+
+    private double commandCount(String command, String outcome) {
+        return meterRegistry.find("es0.command").tags("command", command, "outcome", outcome).timers().stream()
+                .mapToDouble(Timer::count).sum();
+    }
+
+    private String createAccount(double initialBalance) throws Exception {
+        return createAccount("controller-" + UUID.randomUUID(), initialBalance);
+    }
+
+    private String createAccount(String accountId, double initialBalance) throws Exception {
+        mvc.perform(post("/accounts").contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"accountId\":\"" + accountId + "\",\"initialBalance\":" + initialBalance + "}"))
+                .andExpect(status().isCreated());
+        return accountId;
+    }
+
+    private ResultActions command(String accountId, String command, String amount) throws Exception {
+        return mvc.perform(post("/accounts/" + accountId + "/" + command).contentType(MediaType.APPLICATION_JSON)
+                .content("{\"accountId\":\"" + accountId + "\",\"amount\":" + amount + "}"));
+    }
+}
@@ -0,0 +1,129 @@
+package com.ben.es0.api;
+
+import com.ben.es0.domain.events.AccountCreatedEvent;
+import com.ben.es0.domain.events.MoneyDepositedEvent;
+import com.ben.es0.eventstore.EventEnvelope;
+import com.ben.es0.eventstore.EventStore;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.web.context.WebApplicationContext;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@SpringBootTest
+class FeedControllerTest {
+
+    @Autowired
+    private WebApplicationContext context;
+
+    @Autowired
+    private EventStore eventStore;
+
+    private MockMvc mvc;
+
+    @BeforeEach
+    void setUp() {
+        mvc = MockMvcBuilders.webAppContextSetup(context).build();
+    }
+
+    @Test
+    void longPollWaitsForTheNextAppend() throws Exception {
+        long head = eventStore.headPosition();
+        MvcResult waiting = mvc.perform(get("/feed").param("after", String.valueOf(head)).param("waitMs", "10000"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        TimeUnit.MILLISECONDS.sleep(100);
+        // Nothing appended yet, so no answer either
+        assertThrows(IllegalStateException.class, () -> waiting.getAsyncResult(0));
+
+        String accountId = "feed-" + UUID.randomUUID();
+        eventStore.save(accountId, List.of(new AccountCreatedEvent(accountId, 10)), 0);
+        long position = eventStore.headPosition();
+
+        mvc.perform(asyncDispatch(waiting))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.events[0].aggregateId").value(accountId))
+                .andExpect(jsonPath("$.events[0].position").value(position))
+                .andExpect(jsonPath("$.lastPosition").value(position));
+    }
+
+    @Test
+    void longPollWithoutNewEventsAnswersAnEmptyBatchAtTheSamePosition() throws Exception {
+        long head = eventStore.headPosition();
+        MvcResult waiting = mvc.perform(get("/feed").param("after", String.valueOf(head)).param("waitMs", "50"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        mvc.perform(asyncDispatch(waiting))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.events").isEmpty())
+                .andExpect(jsonPath("$.lastPosition").value(head));
+    }
+
+    @Test
+    void outOfRangeBatchSizeOrPositionIsRejected() throws Exception {
+        // The long poll answers through its deferred result even when the request is invalid
+        mvc.perform(asyncDispatch(mvc.perform(get("/feed").param("limit", "0")).andReturn())).andExpect(status().isBadRequest());
+        mvc.perform(asyncDispatch(mvc.perform(get("/feed").param("limit", "10001")).andReturn())).andExpect(status().isBadRequest());
+        mvc.perform(asyncDispatch(mvc.perform(get("/feed").param("after", "-1")).andReturn())).andExpect(status().isBadRequest());
+        mvc.perform(get("/feed/stream").param("limit", "0")).andExpect(status().isBadRequest());
+        mvc.perform(get("/feed/stream").param("limit", "10001")).andExpect(status().isBadRequest());
+    }
+
+    @Test
+    void streamSendsTheBacklogThenLiveEventsAndResumesFromLastEventId() throws Exception {
+        long head = eventStore.headPosition();
+        String accountId = "feed-" + UUID.randomUUID();
+        eventStore.save(accountId, List.of(new AccountCreatedEvent(accountId, 10)), 0);
+        eventStore.save(accountId, List.of(new MoneyDepositedEvent(accountId, 1)), 1);
+        List<EventEnvelope> backlog = eventStore.readAll(head, 10);
+
+        MvcResult stream = mvc.perform(get("/feed/stream").param("after", String.valueOf(head)).param("limit", "1"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        awaitEvent(stream, backlog.get(0).getGlobalPosition());
+        awaitEvent(stream, backlog.get(1).getGlobalPosition());
+
+        eventStore.save(accountId, List.of(new MoneyDepositedEvent(accountId, 2)), 2);
+        long live = eventStore.headPosition();
+        awaitEvent(stream, live);
+
+        // A reconnecting client only gets what came after the last event it saw
+        MvcResult resumed = mvc.perform(get("/feed/stream").header("Last-Event-ID", String.valueOf(backlog.get(1).getGlobalPosition())))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        awaitEvent(resumed, live);
+        String content = resumed.getResponse().getContentAsString();
+        assertFalse(content.contains("id:" + backlog.get(0).getGlobalPosition() + "\n"), content);
+        assertFalse(content.contains("id:" + backlog.get(1).getGlobalPosition() + "\n"), content);
+    }
+
+    private static void awaitEvent(MvcResult stream, long position) throws Exception {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (System.nanoTime() < deadline) {
+            String content = stream.getResponse().getContentAsString();
+            if (content.contains("id:" + position + "\n")) {
+                assertTrue(content.contains("event:"), content);
+                return;
+            }
+            TimeUnit.MILLISECONDS.sleep(20);
+        }
+        fail("No event with id " + position + " in " + stream.getResponse().getContentAsString());
+    }
+}
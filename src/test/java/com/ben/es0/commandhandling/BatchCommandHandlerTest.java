@@ -0,0 +1,121 @@
+package com.ben.es0.commandhandling;
+
+import com.ben.es0.command.BatchCommand;
+import com.ben.es0.command.CreateAccountCommand;
+import com.ben.es0.domain.events.AccountEvent;
+import com.ben.es0.domain.events.MoneyDepositedEvent;
+import com.ben.es0.domain.events.MoneyWithdrawnEvent;
+import com.ben.es0.eventstore.AccountLoader;
+import com.ben.es0.eventstore.AppendRequest;
+import com.ben.es0.eventstore.EventStore;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@SpringBootTest
+class BatchCommandHandlerTest {
+
+    @Autowired
+    private EventStore eventStore;
+    @Autowired
+    private AccountLoader accountLoader;
+    @Autowired
+    private AccountCommandHandler commandHandler;
+    @Autowired
+    private CommandDispatcher commandDispatcher;
+    @Autowired
+    private RetryPolicy retryPolicy;
+    @Autowired
+    private ContentionTracker contentionTracker;
+    @Autowired
+    private CommandMetrics commandMetrics;
+
+    @Test
+    void conflictWithAnotherWriterFallsBackPerAccount() {
+        String depositsOnly = createAccount(100);
+        String withWithdrawals = createAccount(100);
+        // Loads both accounts into the cache, as a previous command would have
+        accountLoader.load(depositsOnly);
+        accountLoader.load(withWithdrawals);
+
+        // Another process appends to each account after the batch decided its commands, right before the write
+        // (the two accounts may be on different stripes, each with its own saveAll)
+        Set<String> interfered = ConcurrentHashMap.newKeySet();
+        EventStore store = (EventStore) Proxy.newProxyInstance(EventStore.class.getClassLoader(), new Class<?>[]{EventStore.class},
+                (proxy, method, args) -> {
+                    if (method.getName().equals("saveAll")) {
+                        for (Object append : (List<?>) args[0]) {
+                            String accountId = ((AppendRequest) append).getAggregateId();
+                            if (interfered.add(accountId)) {
+                                AccountEvent other = accountId.equals(depositsOnly)
+                                        ? new MoneyDepositedEvent(accountId, 1)
+                                        : new MoneyWithdrawnEvent(accountId, 60);
+                                eventStore.saveAtNextVersion(accountId, List.of(other));
+                            }
+                        }
+                    }
+                    try {
+                        return method.invoke(eventStore, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+                });
+        BatchCommandHandler handler = new BatchCommandHandler(store, accountLoader, commandDispatcher, retryPolicy,
+                contentionTracker, commandMetrics, 1000);
+
+        List<BatchCommandResult> results = handler.handle(List.of(
+                command(BatchCommand.Type.DEPOSIT, depositsOnly, 10),
+                command(BatchCommand.Type.WITHDRAW, withWithdrawals, 30),
+                command(BatchCommand.Type.DEPOSIT, depositsOnly, 20),
+                command(BatchCommand.Type.WITHDRAW, withWithdrawals, 30)));
+
+        assertEquals(Set.of(depositsOnly, withWithdrawals), interfered);
+        // The deposits land after the other writer's event instead of failing
+        assertResult(results.get(0), BatchCommandResult.Status.OK, 3);
+        assertResult(results.get(2), BatchCommandResult.Status.OK, 4);
+        // The withdrawals were decided again on top of the other writer's 60: only one of them is still covered
+        assertResult(results.get(1), BatchCommandResult.Status.OK, 3);
+        assertResult(results.get(3), BatchCommandResult.Status.INSUFFICIENT_FUNDS, null);
+        assertTrue(contentionTracker.top(Integer.MAX_VALUE).stream()
+                .anyMatch(c -> c.getAccountId().equals(withWithdrawals) && c.getRetries() == 1 && c.getGiveUps() == 0));
+
+        assertEquals(131.0, accountLoader.load(depositsOnly).orElseThrow().getBalance());
+        assertEquals(10.0, accountLoader.load(withWithdrawals).orElseThrow().getBalance());
+        assertEquals(3, accountLoader.load(withWithdrawals).orElseThrow().getVersion());
+    }
+
+    private static void assertResult(BatchCommandResult result, BatchCommandResult.Status status, Integer version) {
+        assertEquals(status, result.getStatus(), result.getMessage());
+        assertEquals(version, result.getVersion());
+        if (status == BatchCommandResult.Status.OK) {
+            assertNull(result.getMessage());
+        }
+    }
+
+    private String createAccount(double initialBalance) {
+        CreateAccountCommand command = new CreateAccountCommand();
+        command.setAccountId("batch-" + UUID.randomUUID());
+        command.setInitialBalance(initialBalance);
+        commandHandler.handle(command);
+        return command.getAccountId();
+    }
+
+    private static BatchCommand command(BatchCommand.Type type, String accountId, double amount) {
+        BatchCommand command = new BatchCommand();
+        command.setType(type);
+        command.setAccountId(accountId);
+        command.setAmount(amount);
+        return command;
+    }
+}
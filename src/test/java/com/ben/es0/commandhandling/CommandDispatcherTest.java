@@ -0,0 +1,102 @@
+package com.ben.es0.commandhandling;
+
+import io.micrometer.observation.Observation;
+import io.micrometer.observation.ObservationRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CommandDispatcherTest {
+
+    private static CommandDispatcher dispatcher(int stripes, int queueCapacity, ObservationRegistry registry) {
+        return new CommandDispatcher(true, stripes, queueCapacity, false, registry);
+    }
+
+    @Test
+    void commandsOfOneAccountRunOneAtATimeInSubmissionOrder() throws Exception {
+        CommandDispatcher dispatcher = dispatcher(4, 1000, ObservationRegistry.NOOP);
+        List<Integer> order = new ArrayList<>(); // Deliberately not thread safe, only the stripe touches it
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        List<CompletableFuture<Integer>> futures = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            int command = i;
+            futures.add(dispatcher.submit("acc-1", () -> {
+                maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                order.add(command);
+                Thread.yield();
+                running.decrementAndGet();
+                return command;
+            }));
+        }
+        for (int i = 0; i < futures.size(); i++) {
+            assertEquals(i, futures.get(i).get(10, TimeUnit.SECONDS));
+        }
+        assertEquals(1, maxRunning.get());
+        for (int i = 0; i < order.size(); i++) {
+            assertEquals(i, order.get(i));
+        }
+        dispatcher.shutdown();
+    }
+
+    @Test
+    void fullQueueIsRejectedInsteadOfWaiting() throws Exception {
+        CommandDispatcher dispatcher = dispatcher(1, 1, ObservationRegistry.NOOP);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<Integer> busy = dispatcher.submit("a", () -> {
+            started.countDown();
+            await(release);
+            return 1;
+        });
+        started.await(5, TimeUnit.SECONDS);
+        CompletableFuture<Integer> queued = dispatcher.submit("b", () -> 2); // Fills the only queue slot
+
+        assertThrows(CommandRejectedException.class, () -> dispatcher.dispatch("c", () -> 3));
+
+        release.countDown();
+        assertEquals(1, busy.get(5, TimeUnit.SECONDS));
+        assertEquals(2, queued.get(5, TimeUnit.SECONDS));
+        assertEquals(4, dispatcher.dispatch("c", () -> 4));
+        dispatcher.shutdown();
+    }
+
+    @Test
+    void commandRunsOnTheStripeUnderTheCallersObservation() throws Exception {
+        ObservationRegistry registry = ObservationRegistry.create();
+        registry.observationConfig().observationHandler(context -> true);
+        CommandDispatcher dispatcher = dispatcher(2, 10, registry);
+
+        assertFalse(CommandDispatcher.onStripe());
+        Observation request = Observation.start("http.server.requests", registry);
+        try (Observation.Scope scope = request.openScope()) {
+            assertSame(request, dispatcher.dispatch("a", registry::getCurrentObservation));
+            assertTrue(dispatcher.dispatch("a", CommandDispatcher::onStripe));
+        } finally {
+            request.stop();
+        }
+        // The scope is closed again after the command, the next one on the stripe starts without it
+        assertNull(dispatcher.dispatch("a", registry::getCurrentObservation));
+        dispatcher.shutdown();
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,182 @@
+package com.ben.es0.commandhandling;
+
+import com.ben.es0.command.CreateAccountCommand;
+import com.ben.es0.command.DepositCommand;
+import com.ben.es0.command.WithdrawCommand;
+import com.ben.es0.domain.InsufficientFundsException;
+import com.ben.es0.domain.events.MoneyDepositedEvent;
+import com.ben.es0.eventstore.AccountCache;
+import com.ben.es0.eventstore.AccountLoader;
+import com.ben.es0.eventstore.AccountSnapshot;
+import com.ben.es0.eventstore.EventSerializer;
+import com.ben.es0.eventstore.SnapshotPolicy;
+import com.ben.es0.eventstore.SnapshotStore;
+import com.ben.es0.eventstore.segment.FsyncPolicy;
+import com.ben.es0.eventstore.segment.SegmentLogEventStore;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.Tag;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.observation.DefaultMeterObservationHandler;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.micrometer.observation.Observation;
+import io.micrometer.observation.ObservationHandler;
+import io.micrometer.observation.ObservationRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// The command path wired by hand against a segment log, with the registries the application would hand it,
+// so the meters and observations of real commands can be inspected tag by tag
+class CommandInstrumentationTest {
+
+    @TempDir
+    Path directory;
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final List<Observation.Context> stopped = new CopyOnWriteArrayList<>();
+    private SegmentLogEventStore eventStore;
+    private AccountCommandHandler handler;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        ObservationRegistry observationRegistry = ObservationRegistry.create();
+        observationRegistry.observationConfig()
+                .observationHandler(new DefaultMeterObservationHandler(meterRegistry))
+                .observationHandler(new ObservationHandler<>() {
+                    @Override
+                    public void onStop(Observation.Context context) {
+                        stopped.add(context);
+                    }
+
+                    @Override
+                    public boolean supportsContext(Observation.Context context) {
+                        return true;
+                    }
+                });
+        eventStore = new SegmentLogEventStore(directory, 1024 * 1024, FsyncPolicy.OS_MANAGED, Duration.ofMillis(50), new EventSerializer());
+        SnapshotStore noSnapshots = new SnapshotStore() {
+            @Override
+            public void save(AccountSnapshot snapshot) {
+            }
+
+            @Override
+            public Optional<AccountSnapshot> findLatest(String aggregateId) {
+                return Optional.empty();
+            }
+
+            @Override
+            public Optional<AccountSnapshot> findLatestAtOrBefore(String aggregateId, int version) {
+                return Optional.empty();
+            }
+        };
+        AccountLoader accountLoader = new AccountLoader(eventStore, noSnapshots, new SnapshotPolicy(0),
+                new AccountCache(100, Duration.ofMinutes(10)), meterRegistry);
+        handler = new AccountCommandHandler(eventStore, accountLoader, new RetryPolicy(5, Duration.ofMillis(1), Duration.ofMillis(10)),
+                new ContentionTracker(100), new CommandMetrics(observationRegistry, meterRegistry), observationRegistry);
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        eventStore.close();
+    }
+
+    @Test
+    void commandsAreTimedByCommandAndOutcomeOnly() {
+        handler.handle(create("a", 100));
+        handler.handle(deposit("a", 10));
+        assertThrows(InsufficientFundsException.class, () -> handler.handle(withdraw("a", 500)));
+        assertThrows(AccountNotFoundException.class, () -> handler.handle(deposit("missing", 1)));
+
+        assertEquals(Set.of(
+                        Map.of("command", "create", "outcome", "ok", "error", "none"),
+                        Map.of("command", "deposit", "outcome", "ok", "error", "none"),
+                        Map.of("command", "withdraw", "outcome", "insufficient-funds", "error", "none"),
+                        Map.of("command", "deposit", "outcome", "rejected", "error", "none")),
+                tagsOf("es0.command"));
+        assertEquals(1.0, meterRegistry.get("es0.commands.insufficient-funds").counter().count());
+    }
+
+    @Test
+    void rehydrationIsTaggedWithItsSourceAndABucketOfReplayedEvents() {
+        handler.handle(create("a", 100));
+        for (int i = 0; i < 12; i++) {
+            handler.handle(deposit("a", 1)); // The first load replays the history, the others find it cached
+        }
+        handler.handle(create("b", 100));
+        for (int i = 0; i < 11; i++) {
+            eventStore.saveAtNextVersion("b", List.of(new MoneyDepositedEvent("b", 1)));
+        }
+        handler.handle(withdraw("b", 1));
+        // Written behind the cache's back, the cached copy catches up with it
+        eventStore.saveAtNextVersion("b", List.of(new MoneyDepositedEvent("b", 1)));
+        handler.handle(withdraw("b", 1));
+
+        assertEquals(Set.of(
+                        Map.of("source", "events", "replayed", "1-10"),
+                        Map.of("source", "cache", "replayed", "0"),
+                        Map.of("source", "events", "replayed", "11-100"),
+                        Map.of("source", "cache", "replayed", "1-10")),
+                tagsOf("es0.account.rehydration"));
+        assertEquals(14, meterRegistry.get("es0.account.rehydration").timers().stream().mapToLong(Timer::count).sum());
+    }
+
+    @Test
+    void loadAndAppendAreChildObservationsOfTheCommand() {
+        handler.handle(create("a", 100));
+        stopped.clear();
+        handler.handle(withdraw("a", 10));
+
+        Observation.Context command = stopped.stream().filter(c -> c.getName().equals("es0.command")).findFirst().orElseThrow();
+        List<String> phases = stopped.stream().filter(c -> c.getName().equals("es0.command.phase"))
+                .peek(c -> assertSame(command, c.getParentObservation().getContextView()))
+                .map(c -> c.getLowCardinalityKeyValue("phase").getValue())
+                .toList();
+        assertEquals(List.of("load", "append"), phases);
+        assertTrue(command.getHighCardinalityKeyValues().stream().findAny().isEmpty(), "no per-account tags");
+    }
+
+    private Set<Map<String, String>> tagsOf(String meterName) {
+        return meterRegistry.find(meterName).meters().stream()
+                .map(Meter::getId)
+                .map(id -> id.getTags().stream().collect(Collectors.toMap(Tag::getKey, Tag::getValue, (a, b) -> a, TreeMap::new)))
+                .collect(Collectors.toSet());
+    }
+
+    private static CreateAccountCommand create(String accountId, double initialBalance) {
+        CreateAccountCommand command = new CreateAccountCommand();
+        command.setAccountId(accountId);
+        command.setInitialBalance(initialBalance);
+        return command;
+    }
+
+    private static DepositCommand deposit(String accountId, double amount) {
+        DepositCommand command = new DepositCommand();
+        command.setAccountId(accountId);
+        command.setAmount(amount);
+        return command;
+    }
+
+    private static WithdrawCommand withdraw(String accountId, double amount) {
+        WithdrawCommand command = new WithdrawCommand();
+        command.setAccountId(accountId);
+        command.setAmount(amount);
+        return command;
+    }
+}
@@ -0,0 +1,48 @@
+package com.ben.es0.commandhandling;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+
+class ContentionTrackerTest {
+
+    @Test
+    void topListsTheMostContendedAccountsFirst() {
+        ContentionTracker tracker = new ContentionTracker(10);
+        tracker.recordRetry("a");
+        tracker.recordRetry("b");
+        tracker.recordRetry("b");
+        tracker.recordGiveUp("b");
+        tracker.recordRetry("c");
+        tracker.recordRetry("c");
+
+        List<AccountContention> top = tracker.top(2);
+        assertEquals(2, top.size());
+        assertEquals("b", top.get(0).getAccountId());
+        assertEquals(2, top.get(0).getRetries());
+        assertEquals(1, top.get(0).getGiveUps());
+        assertNotNull(top.get(0).getLastConflictAt());
+        assertEquals("c", top.get(1).getAccountId());
+    }
+
+    @Test
+    void onlyTheMostRecentlyContendedAccountsAreTrackedButTotalsCountEverything() {
+        ContentionTracker tracker = new ContentionTracker(2);
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        tracker.bindTo(registry);
+
+        tracker.recordRetry("a");
+        tracker.recordRetry("b");
+        tracker.recordRetry("a"); // a is now more recent than b
+        tracker.recordGiveUp("c"); // evicts b
+
+        List<String> tracked = tracker.top(10).stream().map(AccountContention::getAccountId).toList();
+        assertEquals(List.of("a", "c"), tracked);
+        assertEquals(3, registry.get("es0.commands.conflicts").tag("outcome", "retried").functionCounter().count());
+        assertEquals(1, registry.get("es0.commands.conflicts").tag("outcome", "gave-up").functionCounter().count());
+    }
+}
@@ -0,0 +1,43 @@
+package com.ben.es0.commandhandling;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RetryPolicyTest {
+
+    @Test
+    void backoffCeilingDoublesPerRetryUpToTheMaximum() {
+        RetryPolicy policy = new RetryPolicy(5, Duration.ofMillis(2), Duration.ofMillis(10));
+        assertEquals(Duration.ofMillis(2).toNanos(), policy.ceilingNanos(1));
+        assertEquals(Duration.ofMillis(4).toNanos(), policy.ceilingNanos(2));
+        assertEquals(Duration.ofMillis(8).toNanos(), policy.ceilingNanos(3));
+        assertEquals(Duration.ofMillis(10).toNanos(), policy.ceilingNanos(4));
+        // The shift is capped, a huge retry number neither overflows nor goes negative
+        assertEquals(Duration.ofMillis(10).toNanos(), policy.ceilingNanos(1000));
+    }
+
+    @Test
+    void backoffNeverWaitsLongerThanTheCeiling() {
+        RetryPolicy policy = new RetryPolicy(5, Duration.ofMillis(1), Duration.ofMillis(5));
+        for (int retry = 1; retry <= 20; retry++) {
+            long start = System.nanoTime();
+            policy.backoff(retry);
+            // Generous slack for the scheduler, still far below an unbounded exponential wait
+            assertTrue(System.nanoTime() - start < Duration.ofMillis(200).toNanos(), "retry " + retry);
+        }
+    }
+
+    @Test
+    void zeroBackoffDoesNotWaitAndAtLeastOneAttemptIsMade() {
+        RetryPolicy policy = new RetryPolicy(0, Duration.ZERO, Duration.ofMillis(100));
+        assertEquals(1, policy.getMaxAttempts());
+        assertEquals(0, policy.ceilingNanos(3));
+        long start = System.nanoTime();
+        policy.backoff(3);
+        assertTrue(System.nanoTime() - start < Duration.ofMillis(50).toNanos());
+    }
+}
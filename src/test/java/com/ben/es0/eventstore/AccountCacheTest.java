@@ -0,0 +1,69 @@
+package com.ben.es0.eventstore;
+
+import com.ben.es0.domain.Account;
+import com.ben.es0.domain.events.MoneyDepositedEvent;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AccountCacheTest {
+
+    @Test
+    void leastRecentlyUsedAccountIsEvictedWhenFull() {
+        AccountCache cache = new AccountCache(2, Duration.ofMinutes(10));
+        cache.put(account("a", 0));
+        cache.put(account("b", 0));
+        cache.get("a");
+        cache.put(account("c", 0));
+
+        assertEquals(2, cache.size());
+        assertTrue(cache.get("a").isPresent());
+        assertTrue(cache.get("b").isEmpty());
+        assertTrue(cache.get("c").isPresent());
+        assertEquals(1, cache.getEvictions());
+    }
+
+    @Test
+    void idleAccountIsEvicted() throws InterruptedException {
+        AccountCache cache = new AccountCache(10, Duration.ofMillis(50));
+        cache.put(account("idle", 0));
+        TimeUnit.MILLISECONDS.sleep(100);
+
+        assertTrue(cache.get("idle").isEmpty());
+        assertEquals(0, cache.size());
+        assertEquals(1, cache.getEvictions());
+
+        // Idle entries are also swept out when others are added
+        cache.put(account("a", 0));
+        TimeUnit.MILLISECONDS.sleep(100);
+        cache.put(account("b", 0));
+        assertEquals(1, cache.size());
+        assertEquals(2, cache.getEvictions());
+    }
+
+    @Test
+    void hitsAndMissesAreCountedAndOlderVersionsNeverReplaceNewerOnes() {
+        AccountCache cache = new AccountCache(10, Duration.ofMinutes(10));
+        assertTrue(cache.get("a").isEmpty());
+        cache.put(account("a", 3));
+        cache.put(account("a", 2));
+
+        Account cached = cache.get("a").orElseThrow();
+        assertEquals(3, cached.getVersion());
+        // The caller's copy can move on without touching the cached one
+        cached.apply(new MoneyDepositedEvent("a", 1));
+        assertEquals(3, cache.get("a").orElseThrow().getVersion());
+
+        assertEquals(2, cache.getHits());
+        assertEquals(1, cache.getMisses());
+    }
+
+    private static Account account(String accountId, int version) {
+        return new Account(accountId, 10_000, version, List.of());
+    }
+}
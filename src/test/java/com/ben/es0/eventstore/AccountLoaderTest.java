@@ -0,0 +1,77 @@
+package com.ben.es0.eventstore;
+
+import com.ben.es0.domain.Account;
+import com.ben.es0.domain.Money;
+import com.ben.es0.domain.events.AccountCreatedEvent;
+import com.ben.es0.domain.events.AccountEvent;
+import com.ben.es0.domain.events.MoneyDepositedEvent;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Snapshots are given a balance the events could never produce, so the assertions tell which path a load took
+@SpringBootTest
+class AccountLoaderTest {
+
+    private static final long SNAPSHOT_BALANCE = Money.toMinor(1_000_000);
+
+    @Autowired
+    private EventStore eventStore;
+    @Autowired
+    private SnapshotStore snapshotStore;
+    @Autowired
+    private AccountLoader accountLoader;
+    @Autowired
+    private AccountCache accountCache;
+
+    @Test
+    void loadStartsFromTheLatestSnapshotAndReplaysOnlyTheEventsAfterIt() {
+        String accountId = "snapshot-" + UUID.randomUUID();
+        append(accountId, 230);
+        snapshotStore.save(new AccountSnapshot(accountId, 100, SNAPSHOT_BALANCE, Instant.now()));
+        snapshotStore.save(new AccountSnapshot(accountId, 200, 2 * SNAPSHOT_BALANCE, Instant.now()));
+        accountCache.invalidate(accountId);
+
+        Account account = accountLoader.load(accountId).orElseThrow();
+        assertEquals(230, account.getVersion());
+        assertEquals(2 * SNAPSHOT_BALANCE + 30 * Money.toMinor(1), account.getBalanceMinor());
+
+        // A historical state starts from the nearest snapshot at or before it, or from the beginning
+        assertEquals(SNAPSHOT_BALANCE + 50 * Money.toMinor(1), accountLoader.loadAt(accountId, 150).orElseThrow().getBalanceMinor());
+        assertEquals(49 * Money.toMinor(1), accountLoader.loadAt(accountId, 50).orElseThrow().getBalanceMinor());
+        assertTrue(accountLoader.loadAt(accountId, 231).isEmpty());
+    }
+
+    @Test
+    void appendsCrossingTheIntervalTakeASnapshotAtTheResultingVersion() {
+        String accountId = "snapshot-" + UUID.randomUUID();
+        append(accountId, 98);
+        accountCache.invalidate(accountId);
+        Account account = accountLoader.load(accountId).orElseThrow();
+        assertTrue(snapshotStore.findLatest(accountId).isEmpty());
+
+        List<AccountEvent> deposits = List.of(new MoneyDepositedEvent(accountId, 1), new MoneyDepositedEvent(accountId, 1),
+                new MoneyDepositedEvent(accountId, 1));
+        eventStore.save(accountId, deposits, account.getVersion());
+        accountLoader.onEventsAppended(account, deposits);
+
+        AccountSnapshot snapshot = snapshotStore.findLatest(accountId).orElseThrow();
+        assertEquals(101, snapshot.getVersion());
+        assertEquals(100 * Money.toMinor(1), snapshot.getBalanceMinor());
+    }
+
+    // An account opened with nothing and a deposit of 1 per further version
+    private void append(String accountId, int events) {
+        eventStore.save(accountId, List.of(new AccountCreatedEvent(accountId, 0)), 0);
+        for (int version = 1; version < events; version++) {
+            eventStore.save(accountId, List.of(new MoneyDepositedEvent(accountId, 1)), version);
+        }
+    }
+}
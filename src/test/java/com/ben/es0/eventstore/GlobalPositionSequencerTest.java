@@ -0,0 +1,27 @@
+package com.ben.es0.eventstore;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class GlobalPositionSequencerTest {
+
+    @Test
+    void watermarkStopsBeforeTheOldestReservationInFlight() {
+        GlobalPositionSequencer sequencer = new GlobalPositionSequencer(10);
+        long first = sequencer.reserve(2);
+        long second = sequencer.reserve(3);
+        long third = sequencer.reserve(1);
+        assertEquals(11, first);
+        assertEquals(13, second);
+        assertEquals(16, third);
+        assertEquals(10, sequencer.watermark());
+
+        // Later appends committing first don't make their positions readable past the one still in flight
+        assertEquals(10, sequencer.release(second));
+        assertEquals(10, sequencer.release(third));
+        // A rollback releases its positions like a commit; they stay a gap
+        assertEquals(16, sequencer.release(first));
+        assertEquals(17, sequencer.reserve(1));
+    }
+}
@@ -0,0 +1,228 @@
+package com.ben.es0.eventstore;
+
+import com.ben.es0.domain.events.AccountCreatedEvent;
+import com.ben.es0.domain.events.AccountEvent;
+import com.ben.es0.domain.events.MoneyDepositedEvent;
+import com.ben.es0.eventstore.segment.FsyncPolicy;
+import com.ben.es0.eventstore.segment.SegmentLogEventStore;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// The segment log stands in for the database: its saveAll is all or nothing and it checks versions the same way
+class GroupCommitEventStoreTest {
+
+    @TempDir
+    Path directory;
+
+    private SegmentLogEventStore log;
+    private final AtomicInteger saveAllCalls = new AtomicInteger();
+    private final AtomicInteger saveCalls = new AtomicInteger();
+    private volatile CountDownLatch saveAllGate = new CountDownLatch(0);
+    private EventStore delegate;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        log = new SegmentLogEventStore(directory, 1024 * 1024, FsyncPolicy.OS_MANAGED, Duration.ofMillis(50), new EventSerializer());
+        // Counts the transactions the group commit store opens, and can hold the writer inside one
+        delegate = (EventStore) Proxy.newProxyInstance(EventStore.class.getClassLoader(), new Class<?>[]{EventStore.class},
+                (proxy, method, args) -> {
+                    if (method.getName().equals("saveAll")) {
+                        saveAllCalls.incrementAndGet();
+                        saveAllGate.await(10, TimeUnit.SECONDS);
+                    } else if (method.getName().equals("save")) {
+                        saveCalls.incrementAndGet();
+                    }
+                    try {
+                        return method.invoke(log, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+                });
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        log.close();
+    }
+
+    @Test
+    void concurrentAppendsToDifferentAggregatesAreCommittedTogether() throws Exception {
+        GroupCommitEventStore store = new GroupCommitEventStore(delegate, 64, Duration.ofMillis(5), 1000);
+        int writers = 8;
+        int appendsPerWriter = 50;
+        ExecutorService executor = Executors.newFixedThreadPool(writers);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int w = 0; w < writers; w++) {
+            String aggregateId = "agg-" + w;
+            futures.add(executor.submit(() -> {
+                store.save(aggregateId, List.of(new AccountCreatedEvent(aggregateId, 0)), 0);
+                for (int version = 1; version < appendsPerWriter; version++) {
+                    store.save(aggregateId, List.of(new MoneyDepositedEvent(aggregateId, version)), version);
+                }
+                return null;
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get(30, TimeUnit.SECONDS);
+        }
+        executor.shutdown();
+        store.shutdown();
+
+        for (int w = 0; w < writers; w++) {
+            List<AccountEvent> events = log.getEventsForAggregate("agg-" + w);
+            assertEquals(appendsPerWriter, events.size());
+            for (int version = 1; version < appendsPerWriter; version++) {
+                assertEquals(version, ((MoneyDepositedEvent) events.get(version)).getAmount());
+            }
+        }
+        // Appends of different writers shared transactions, and none needed the per-append fallback
+        assertTrue(saveAllCalls.get() < writers * appendsPerWriter, saveAllCalls + " transactions");
+        assertEquals(0, saveCalls.get());
+    }
+
+    @Test
+    void laterAppendsClaimingOverlappingVersionsInOneBatchAreRejectedUpFront() throws Exception {
+        // A long flush latency puts everything queued below into one batch
+        GroupCommitEventStore store = new GroupCommitEventStore(delegate, 64, Duration.ofMillis(200), 1000);
+        CompletableFuture<Void> first = store.saveAsync("a", List.of(new AccountCreatedEvent("a", 100)), 0);
+        CompletableFuture<Void> sameVersion = store.saveAsync("a", List.of(new AccountCreatedEvent("a", 200)), 0);
+        CompletableFuture<Void> chained = store.saveAsync("a", List.of(new MoneyDepositedEvent("a", 1)), 1);
+        CompletableFuture<Void> other = store.saveAsync("b", List.of(new AccountCreatedEvent("b", 1)), 0);
+
+        first.get(5, TimeUnit.SECONDS);
+        chained.get(5, TimeUnit.SECONDS);
+        other.get(5, TimeUnit.SECONDS);
+        assertConflict(sameVersion);
+        store.shutdown();
+
+        // The rejected append never reached the store, so the rest went in with a single transaction
+        assertEquals(1, saveAllCalls.get());
+        assertEquals(0, saveCalls.get());
+        assertEquals(2, log.getEventsForAggregate("a").size());
+        assertEquals(100.0, ((AccountCreatedEvent) log.getEventsForAggregate("a").get(0)).getInitialBalance());
+    }
+
+    @Test
+    void conflictWithAWriteOutsideTheBatchFallsBackToOneTransactionPerAppend() throws Exception {
+        log.save("c", List.of(new AccountCreatedEvent("c", 1)), 0); // Written behind the group commit store's back
+        GroupCommitEventStore store = new GroupCommitEventStore(delegate, 64, Duration.ofMillis(200), 1000);
+        CompletableFuture<Void> stale = store.saveAsync("c", List.of(new AccountCreatedEvent("c", 2)), 0);
+        CompletableFuture<Void> d = store.saveAsync("d", List.of(new AccountCreatedEvent("d", 1)), 0);
+        CompletableFuture<Void> e = store.saveAsync("e", List.of(new AccountCreatedEvent("e", 1)), 0);
+
+        d.get(5, TimeUnit.SECONDS);
+        e.get(5, TimeUnit.SECONDS);
+        assertConflict(stale);
+        store.shutdown();
+
+        assertEquals(1, saveAllCalls.get());
+        assertEquals(3, saveCalls.get());
+        assertEquals(1, log.getEventsForAggregate("c").size());
+        assertEquals(1.0, ((AccountCreatedEvent) log.getEventsForAggregate("c").get(0)).getInitialBalance());
+        assertEquals(1, log.getEventsForAggregate("d").size());
+        assertEquals(1, log.getEventsForAggregate("e").size());
+    }
+
+    @Test
+    void concurrentAppendsToOneAggregateEachGetAVersionOrAConflict() throws Exception {
+        GroupCommitEventStore store = new GroupCommitEventStore(delegate, 64, Duration.ofMillis(2), 1000);
+        store.save("hot", List.of(new AccountCreatedEvent("hot", 0)), 0);
+        int writers = 8;
+        int appendsPerWriter = 25;
+        AtomicInteger conflicts = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(writers);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int w = 0; w < writers; w++) {
+            int writer = w;
+            futures.add(executor.submit(() -> {
+                for (int i = 0; i < appendsPerWriter; i++) {
+                    // Read the version, append after it, and start over on a conflict like a command handler
+                    while (true) {
+                        int version = log.getEventsForAggregate("hot").size();
+                        try {
+                            store.save("hot", List.of(new MoneyDepositedEvent("hot", writer * 1000 + i)), version);
+                            break;
+                        } catch (ConcurrencyException e) {
+                            conflicts.incrementAndGet();
+                        }
+                    }
+                }
+                return null;
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get(60, TimeUnit.SECONDS);
+        }
+        executor.shutdown();
+        store.shutdown();
+
+        // Every successful caller has exactly its event stored once, at consecutive versions
+        List<AccountEvent> events = log.getEventsForAggregate("hot");
+        assertEquals(1 + writers * appendsPerWriter, events.size());
+        assertEquals(writers * appendsPerWriter, events.stream().skip(1)
+                .map(event -> ((MoneyDepositedEvent) event).getAmount()).distinct().count());
+        assertTrue(conflicts.get() > 0, "writers raced on the same version");
+    }
+
+    @Test
+    void shutdownCommitsWhatIsAlreadyQueuedAndRefusesNewAppends() throws Exception {
+        GroupCommitEventStore store = new GroupCommitEventStore(delegate, 4, Duration.ofMillis(1), 1000);
+        saveAllGate = new CountDownLatch(1);
+        // The writer is held inside the first transaction while more appends queue up behind it
+        List<CompletableFuture<Void>> queued = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            queued.add(store.saveAsync("q" + i, List.of(new AccountCreatedEvent("q" + i, i)), 0));
+        }
+        CompletableFuture<Void> shutdown = CompletableFuture.runAsync(() -> {
+            try {
+                store.shutdown();
+            } catch (InterruptedException e) {
+                throw new CompletionException(e);
+            }
+        });
+        TimeUnit.MILLISECONDS.sleep(200); // Shutdown has begun and waits for the writer
+        CompletableFuture<Void> late = store.saveAsync("late", List.of(new AccountCreatedEvent("late", 0)), 0);
+        CompletionException refused = assertThrows(CompletionException.class, late::join);
+        assertInstanceOf(IllegalStateException.class, refused.getCause());
+        assertFalse(shutdown.isDone());
+        saveAllGate.countDown();
+        shutdown.get(10, TimeUnit.SECONDS);
+
+        for (CompletableFuture<Void> future : queued) {
+            future.get(1, TimeUnit.SECONDS);
+        }
+        for (int i = 0; i < 20; i++) {
+            assertEquals(1, log.getEventsForAggregate("q" + i).size());
+        }
+        assertEquals(0, log.getEventsForAggregate("late").size());
+    }
+
+    private static void assertConflict(CompletableFuture<Void> future) {
+        CompletionException e = assertThrows(CompletionException.class, future::join);
+        assertInstanceOf(ConcurrencyException.class, e.getCause());
+    }
+}
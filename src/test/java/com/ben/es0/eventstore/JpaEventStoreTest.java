@@ -0,0 +1,140 @@
+package com.ben.es0.eventstore;
+
+import com.ben.es0.domain.events.AccountCreatedEvent;
+import com.ben.es0.domain.events.AccountEvent;
+import com.ben.es0.domain.events.MoneyDepositedEvent;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@SpringBootTest
+class JpaEventStoreTest {
+
+    @Autowired
+    private JpaEventStore eventStore;
+
+    @Test
+    void concurrentAppendsGetIncreasingPositionsThatReadersNeverSeeOutOfOrder() throws Exception {
+        int writers = 8;
+        int appendsPerWriter = 50;
+        String prefix = "positions-" + UUID.randomUUID() + "-";
+        long start = eventStore.headPosition();
+
+        // Tails the store the way the feed and projections do, checking that no position shows up after a later one
+        AtomicBoolean writing = new AtomicBoolean(true);
+        List<Long> tailed = new ArrayList<>();
+        ExecutorService executor = Executors.newFixedThreadPool(writers + 1);
+        Future<?> reader = executor.submit(() -> {
+            long cursor = start;
+            while (writing.get() || cursor < eventStore.headPosition()) {
+                for (EventEnvelope event : eventStore.readAll(cursor, 100)) {
+                    assertTrue(event.getGlobalPosition() > cursor, event.getGlobalPosition() + " after " + cursor);
+                    cursor = event.getGlobalPosition();
+                    if (event.getAggregateId().startsWith(prefix)) {
+                        tailed.add(cursor);
+                    }
+                }
+            }
+            return null;
+        });
+
+        CountDownLatch go = new CountDownLatch(1);
+        List<Future<?>> appends = new ArrayList<>();
+        for (int w = 0; w < writers; w++) {
+            String accountId = prefix + w;
+            appends.add(executor.submit(() -> {
+                go.await();
+                eventStore.save(accountId, List.of(new AccountCreatedEvent(accountId, 100)), 0);
+                for (int version = 1; version < appendsPerWriter; version++) {
+                    eventStore.save(accountId, List.of(new MoneyDepositedEvent(accountId, 1)), version);
+                }
+                return null;
+            }));
+        }
+        go.countDown();
+        for (Future<?> append : appends) {
+            append.get(60, TimeUnit.SECONDS);
+        }
+        writing.set(false);
+        reader.get(60, TimeUnit.SECONDS);
+        executor.shutdown();
+
+        List<EventEnvelope> all = eventStore.readAll(start, writers * appendsPerWriter * 2).stream()
+                .filter(event -> event.getAggregateId().startsWith(prefix))
+                .toList();
+        assertEquals(writers * appendsPerWriter, all.size());
+        assertEquals(all.stream().map(EventEnvelope::getGlobalPosition).toList(), tailed);
+        // Increasing, not necessarily consecutive: a rolled back append leaves its positions unused
+        for (int i = 1; i < all.size(); i++) {
+            assertTrue(all.get(i).getGlobalPosition() > all.get(i - 1).getGlobalPosition());
+        }
+    }
+
+    @Test
+    void rolledBackAppendDoesNotHoldBackReaders() {
+        String accountId = "rollback-" + UUID.randomUUID();
+        eventStore.save(accountId, List.of(new AccountCreatedEvent(accountId, 100)), 0);
+        assertThrows(ConcurrencyException.class,
+                () -> eventStore.save(accountId, List.of(new AccountCreatedEvent(accountId, 100)), 0));
+        eventStore.save(accountId, List.of(new MoneyDepositedEvent(accountId, 5)), 1);
+
+        long head = eventStore.headPosition();
+        List<EventEnvelope> tail = eventStore.readAll(head - 1, 10);
+        assertEquals(1, tail.size());
+        assertEquals(accountId, tail.get(0).getAggregateId());
+        assertEquals(2, tail.get(0).getVersion());
+    }
+
+    @Test
+    void concurrentSaveAtNextVersionKeepsEveryDepositAtContiguousVersions() throws Exception {
+        String accountId = "next-version-" + UUID.randomUUID();
+        eventStore.save(accountId, List.of(new AccountCreatedEvent(accountId, 0)), 0);
+        int deposits = 200;
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        CountDownLatch go = new CountDownLatch(1);
+        List<Future<Integer>> versions = new ArrayList<>();
+        for (int i = 1; i <= deposits; i++) {
+            int amount = i;
+            versions.add(executor.submit(() -> {
+                go.await();
+                return eventStore.saveAtNextVersion(accountId, List.of(new MoneyDepositedEvent(accountId, amount)));
+            }));
+        }
+        go.countDown();
+        Set<Integer> returned = new HashSet<>();
+        for (Future<Integer> version : versions) {
+            returned.add(version.get(60, TimeUnit.SECONDS));
+        }
+        executor.shutdown();
+
+        // Every caller got its own version and no deposit was lost or overwritten
+        assertEquals(deposits, returned.size());
+        assertEquals(IntStream.rangeClosed(2, deposits + 1).boxed().collect(Collectors.toSet()), returned);
+        List<AccountEvent> events = eventStore.getEventsForAggregate(accountId, 0);
+        assertEquals(deposits + 1, events.size());
+        assertEquals(IntStream.rangeClosed(1, deposits).sum(), events.stream()
+                .filter(MoneyDepositedEvent.class::isInstance)
+                .mapToDouble(event -> ((MoneyDepositedEvent) event).getAmount())
+                .sum());
+        assertEquals(deposits + 1, eventStore.getLastStoredEventForAggregate(accountId).orElseThrow().getVersion());
+    }
+}
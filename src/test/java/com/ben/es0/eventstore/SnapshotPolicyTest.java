@@ -0,0 +1,26 @@
+package com.ben.es0.eventstore;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SnapshotPolicyTest {
+
+    @Test
+    void snapshotIsDueWheneverAnAppendCrossesAMultipleOfTheInterval() {
+        SnapshotPolicy policy = new SnapshotPolicy(100);
+        assertFalse(policy.shouldSnapshot(0, 99));
+        assertTrue(policy.shouldSnapshot(99, 100));
+        assertFalse(policy.shouldSnapshot(100, 199));
+        // A batch jumping over the multiple still counts
+        assertTrue(policy.shouldSnapshot(150, 250));
+    }
+
+    @Test
+    void zeroDisablesSnapshots() {
+        SnapshotPolicy policy = new SnapshotPolicy(0);
+        assertFalse(policy.shouldSnapshot(99, 100));
+        assertFalse(policy.shouldSnapshot(0, 1000));
+    }
+}
@@ -0,0 +1,78 @@
+package com.ben.es0.eventstore.archive;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ArchiveSegmentFileTest {
+
+    @TempDir
+    Path directory;
+
+    private static List<ArchiveSegmentFile.Record> records(int aggregates, int versions) {
+        List<ArchiveSegmentFile.Record> records = new ArrayList<>();
+        long position = 1;
+        for (int a = 0; a < aggregates; a++) {
+            for (int v = 1; v <= versions; v++) {
+                records.add(new ArchiveSegmentFile.Record(position++, "acc-" + a, v, Instant.ofEpochSecond(1_700_000_000L + v, v),
+                        (byte) 2, ("{\"amount\":" + v + "}").getBytes()));
+            }
+        }
+        return records;
+    }
+
+    @Test
+    void readsBackOnlyTheBlocksOfOneAggregate() throws IOException {
+        List<ArchiveSegmentFile.Record> records = records(50, 40);
+        Path path = directory.resolve("segment.archive");
+        int[] blockOf = ArchiveSegmentFile.write(path, records, 1024);
+
+        long[][] index = ArchiveSegmentFile.readIndex(path);
+        assertEquals(blockOf[blockOf.length - 1] + 1, index.length);
+        assertTrue(index.length > 10, "expected many small blocks, got " + index.length);
+        long rawSize = 0;
+        for (long[] block : index) {
+            rawSize += block[2];
+        }
+        assertTrue(Files.size(path) < rawSize / 2, "compressed " + Files.size(path) + " of " + rawSize);
+
+        // acc-7 occupies records 280..319
+        List<ArchiveSegmentFile.Record> read = ArchiveSegmentFile.readBlocks(path, index, blockOf[280], blockOf[319]);
+        List<ArchiveSegmentFile.Record> aggregate = read.stream().filter(r -> r.aggregateId.equals("acc-7")).toList();
+        assertEquals(40, aggregate.size());
+        assertTrue(read.size() < records.size() / 4);
+        ArchiveSegmentFile.Record last = aggregate.get(39);
+        assertEquals(320, last.position);
+        assertEquals(40, last.version);
+        assertEquals(Instant.ofEpochSecond(1_700_000_040L, 40), last.timestamp);
+        assertArrayEquals("{\"amount\":40}".getBytes(), last.payload);
+    }
+
+    @Test
+    void detectsACorruptBlock() throws IOException {
+        Path path = directory.resolve("segment.archive");
+        ArchiveSegmentFile.write(path, records(5, 10), 256);
+        long[][] index = ArchiveSegmentFile.readIndex(path);
+        try (RandomAccessFile file = new RandomAccessFile(path.toFile(), "rw")) {
+            file.seek(index[1][0] + 3);
+            int original = file.read();
+            file.seek(index[1][0] + 3);
+            file.write(original ^ 0xff);
+        }
+
+        assertTrue(!ArchiveSegmentFile.readBlocks(path, index, 0, 0).isEmpty());
+        assertThrows(IOException.class, () -> ArchiveSegmentFile.readBlocks(path, index, 1, 1));
+    }
+}
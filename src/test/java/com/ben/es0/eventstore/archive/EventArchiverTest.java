@@ -0,0 +1,200 @@
+package com.ben.es0.eventstore.archive;
+
+import com.ben.es0.domain.events.AccountCreatedEvent;
+import com.ben.es0.domain.events.AccountEvent;
+import com.ben.es0.domain.events.MoneyDepositedEvent;
+import com.ben.es0.eventstore.EventEnvelope;
+import com.ben.es0.eventstore.EventSerializer;
+import com.ben.es0.eventstore.JpaEventStore;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.ApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.TransactionSystemException;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Archives into the application's archive; only events stamped before 2000 are old enough. Other tests may
+// leave such events too, so only this test's accounts are looked at
+@SpringBootTest
+class EventArchiverTest {
+
+    private static final Instant LONG_AGO = Instant.parse("1990-01-01T00:00:00Z");
+
+    @Autowired
+    private ApplicationContext context;
+    @Autowired
+    private JpaEventStore eventStore;
+    @Autowired
+    private EventArchive archive;
+    @Autowired
+    private EventSerializer eventSerializer;
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Test
+    void archivedEventsAreReadThroughEveryTierAsIfTheyWereStillHot() {
+        long start = eventStore.headPosition();
+        String accountId = seed(10);
+        long head = eventStore.headPosition();
+        List<EventEnvelope> logBefore = ownEvents(eventStore.readAll(start, 100), accountId);
+        List<AccountEvent> historyBefore = eventStore.getEventsForAggregate(accountId);
+
+        assertTrue(archiver(transactionManager).archiveOnce() >= 10);
+        assertEquals(1, hotRows(accountId));
+        Integer blocks = jdbcTemplate.queryForObject(
+                "SELECT SUM(last_block - first_block + 1) FROM archived_event_range WHERE aggregate_id = ?", Integer.class, accountId);
+        assertTrue(blocks > 3, "blocks: " + blocks);
+
+        assertEquals(describe(historyBefore), describe(eventStore.getEventsForAggregate(accountId)));
+        // Around the boundary: the archive ends at version 10, the hot table starts at 11
+        assertEquals(List.of(10, 11), versions(eventStore.getEventsForAggregate(accountId, 9)));
+        assertEquals(List.of(11), versions(eventStore.getEventsForAggregate(accountId, 10)));
+        assertEquals(List.of(9, 10, 11), versions(eventStore.getEventsForAggregate(accountId, 8, 5)));
+        assertEquals(List.of(6, 7, 8, 9, 10, 11), new TransactionTemplate(transactionManager).execute(status -> {
+            try (Stream<AccountEvent> events = eventStore.streamEventsForAggregate(accountId, 5)) {
+                return versions(events.toList());
+            }
+        }));
+
+        // A page the archive fills on its own stops decompressing at the limit
+        double blockReads = blockReads();
+        assertEquals(List.of(1, 2), versions(eventStore.getEventsForAggregate(accountId, 0, 2)));
+        assertTrue(blockReads() - blockReads <= 2, "blocks read: " + (blockReads() - blockReads));
+
+        assertEquals(0, eventStore.versionAt(accountId, LONG_AGO.minusSeconds(1)));
+        assertEquals(5, eventStore.versionAt(accountId, LONG_AGO.plus(Duration.ofDays(4)).plusSeconds(1)));
+        assertEquals(10, eventStore.versionAt(accountId, LONG_AGO.plus(Duration.ofDays(3650))));
+        assertEquals(11, eventStore.versionAt(accountId, Instant.now()));
+
+        // By position the archived and hot events merge back into one log, also when a read starts inside the archive
+        List<EventEnvelope> logAfter = ownEvents(eventStore.readAll(start, 100), accountId);
+        assertEquals(describeEnvelopes(logBefore), describeEnvelopes(logAfter));
+        long ninth = logBefore.get(8).getGlobalPosition();
+        assertEquals(List.of(logBefore.get(9).getGlobalPosition(), logBefore.get(10).getGlobalPosition()),
+                eventStore.readAll(ninth, 2).stream().map(EventEnvelope::getGlobalPosition).toList());
+        assertTrue(archive.maxArchivedPosition() >= logBefore.get(9).getGlobalPosition());
+        assertTrue(archive.maxArchivedPosition() < head);
+    }
+
+    @Test
+    void failedCommitKeepsTheEventsHotAndTakesTheSegmentBackOut() throws IOException {
+        String accountId = seed(5);
+        long maxArchivedPosition = archive.maxArchivedPosition();
+        Set<Path> files = archiveFiles();
+
+        // The first transaction loads the events, the second one commits the range index and the deletes
+        AtomicInteger commits = new AtomicInteger();
+        PlatformTransactionManager failingCommit = (PlatformTransactionManager) Proxy.newProxyInstance(
+                getClass().getClassLoader(), new Class<?>[]{PlatformTransactionManager.class}, (proxy, method, args) -> {
+                    if (method.getName().equals("commit") && commits.incrementAndGet() == 2) {
+                        transactionManager.rollback((TransactionStatus) args[0]);
+                        throw new TransactionSystemException("Commit failed");
+                    }
+                    try {
+                        return method.invoke(transactionManager, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+                });
+        assertThrows(TransactionSystemException.class, () -> archiver(failingCommit).archiveOnce());
+
+        assertEquals(maxArchivedPosition, archive.maxArchivedPosition());
+        assertEquals(files, archiveFiles());
+        assertEquals(6, hotRows(accountId));
+        assertEquals(0, jdbcTemplate.queryForObject("SELECT COUNT(*) FROM archived_event_range WHERE aggregate_id = ?",
+                Integer.class, accountId));
+        assertEquals(List.of(1, 2, 3, 4, 5, 6), versions(eventStore.getEventsForAggregate(accountId)));
+
+        // Nothing is left half done, the next round archives the same events
+        assertTrue(archiver(transactionManager).archiveOnce() >= 5);
+        assertEquals(1, hotRows(accountId));
+        assertEquals(List.of(1, 2, 3, 4, 5, 6), versions(eventStore.getEventsForAggregate(accountId)));
+    }
+
+    // An account with oldEvents events from 1990, one day apart, and a recent one that stays hot.
+    // Every deposit carries its own version as the amount.
+    private String seed(int oldEvents) {
+        String accountId = "archive-" + UUID.randomUUID();
+        eventStore.save(accountId, List.of(new AccountCreatedEvent(accountId, 100, LONG_AGO)), 0);
+        for (int version = 1; version < oldEvents; version++) {
+            eventStore.save(accountId, List.of(new MoneyDepositedEvent(accountId, version + 1, LONG_AGO.plus(Duration.ofDays(version)))), version);
+        }
+        eventStore.save(accountId, List.of(new MoneyDepositedEvent(accountId, oldEvents + 1)), oldEvents);
+        return accountId;
+    }
+
+    // Not a bean unless es0.archive.enabled; small blocks so an aggregate spans several of them
+    private EventArchiver archiver(PlatformTransactionManager transactionManager) {
+        Duration maxHotAge = Duration.between(Instant.parse("2000-01-01T00:00:00Z"), Instant.now());
+        EventArchiver archiver = new EventArchiver(archive, eventSerializer, transactionManager, maxHotAge, false,
+                Duration.ofHours(1), 1000, DataSize.ofBytes(64));
+        context.getAutowireCapableBeanFactory().autowireBean(archiver);
+        return archiver;
+    }
+
+    private int hotRows(String accountId) {
+        return jdbcTemplate.queryForObject("SELECT COUNT(*) FROM stored_event WHERE aggregate_id = ?", Integer.class, accountId);
+    }
+
+    private double blockReads() {
+        return meterRegistry.get("es0.archive.block-reads").functionCounter().count();
+    }
+
+    private Set<Path> archiveFiles() throws IOException {
+        if (!Files.isDirectory(archive.directory())) {
+            return Set.of();
+        }
+        try (Stream<Path> files = Files.list(archive.directory())) {
+            return files.collect(Collectors.toSet());
+        }
+    }
+
+    private static List<EventEnvelope> ownEvents(List<EventEnvelope> events, String accountId) {
+        return events.stream().filter(event -> event.getAggregateId().equals(accountId)).toList();
+    }
+
+    private static List<Integer> versions(List<AccountEvent> events) {
+        return events.stream()
+                .map(event -> event instanceof MoneyDepositedEvent deposit ? (int) deposit.getAmount() : 1)
+                .toList();
+    }
+
+    private static List<String> describe(List<AccountEvent> events) {
+        return events.stream()
+                .map(event -> event.getClass().getSimpleName() + " " + event.getTimestamp())
+                .toList();
+    }
+
+    private static List<String> describeEnvelopes(List<EventEnvelope> events) {
+        return events.stream()
+                .map(event -> event.getGlobalPosition() + " " + event.getVersion() + " " + event.getEvent().getClass().getSimpleName())
+                .toList();
+    }
+}
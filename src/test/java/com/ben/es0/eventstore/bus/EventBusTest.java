@@ -0,0 +1,164 @@
+package com.ben.es0.eventstore.bus;
+
+import com.ben.es0.domain.events.AccountCreatedEvent;
+import com.ben.es0.domain.events.MoneyDepositedEvent;
+import com.ben.es0.eventstore.EventAppendNotifier;
+import com.ben.es0.eventstore.EventEnvelope;
+import com.ben.es0.eventstore.EventSerializer;
+import com.ben.es0.eventstore.EventStore;
+import com.ben.es0.eventstore.segment.FsyncPolicy;
+import com.ben.es0.eventstore.segment.SegmentLogEventStore;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.LongStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class EventBusTest {
+
+    @TempDir
+    Path directory;
+
+    private static class Recorder implements EventBusSubscriber {
+        final List<Long> positions = new CopyOnWriteArrayList<>();
+        final Duration delayPerBatch;
+
+        Recorder(Duration delayPerBatch) {
+            this.delayPerBatch = delayPerBatch;
+        }
+
+        @Override
+        public String name() {
+            return "recorder";
+        }
+
+        @Override
+        public void onEvents(List<EventEnvelope> events) {
+            LockSupport.parkNanos(delayPerBatch.toNanos());
+            events.forEach(event -> positions.add(event.getGlobalPosition()));
+        }
+    }
+
+    private void append(SegmentLogEventStore store, int deposits) {
+        store.save("a1", List.of(new AccountCreatedEvent("a1", 100)), 0);
+        for (int version = 1; version <= deposits; version++) {
+            store.save("a1", List.of(new MoneyDepositedEvent("a1", 1)), version);
+        }
+    }
+
+    private static void awaitSize(List<Long> positions, int size) {
+        long deadline = System.nanoTime() + Duration.ofSeconds(10).toNanos();
+        while (positions.size() < size && System.nanoTime() < deadline) {
+            LockSupport.parkNanos(1_000_000);
+        }
+    }
+
+    @Test
+    void deliversCommittedEventsInOrder() throws Exception {
+        EventRingBuffer ringBuffer = new EventRingBuffer(1024);
+        Recorder recorder = new Recorder(Duration.ZERO);
+        try (SegmentLogEventStore store = new SegmentLogEventStore(directory, 1024 * 1024, FsyncPolicy.OS_MANAGED,
+                Duration.ofMillis(50), new EventSerializer(), new EventAppendNotifier(ringBuffer))) {
+            EventBus bus = new EventBus(ringBuffer, store, List.of(recorder), 16, WaitStrategy.BLOCKING, Duration.ofMillis(50));
+            append(store, 99);
+            awaitSize(recorder.positions, 100);
+            bus.shutdown();
+        }
+        assertEquals(LongStream.rangeClosed(1, 100).boxed().toList(), recorder.positions);
+    }
+
+    @Test
+    void lappedSubscriberCatchesUpFromTheStore() throws Exception {
+        // Four slots and a slow subscriber: the writer overwrites events the subscriber hasn't seen yet
+        EventRingBuffer ringBuffer = new EventRingBuffer(4);
+        Recorder recorder = new Recorder(Duration.ofMillis(2));
+        try (SegmentLogEventStore store = new SegmentLogEventStore(directory, 1024 * 1024, FsyncPolicy.OS_MANAGED,
+                Duration.ofMillis(50), new EventSerializer(), new EventAppendNotifier(ringBuffer))) {
+            EventBus bus = new EventBus(ringBuffer, store, List.of(recorder), 3, WaitStrategy.SLEEPING, Duration.ofMillis(50));
+            append(store, 199);
+            awaitSize(recorder.positions, 200);
+            bus.shutdown();
+        }
+        assertEquals(LongStream.rangeClosed(1, 200).boxed().toList(), recorder.positions);
+    }
+
+    @Test
+    void batchTheSubscriberThrowsOnIsDeliveredAgainFromTheSamePosition() throws Exception {
+        EventRingBuffer ringBuffer = new EventRingBuffer(1024);
+        // Fails twice on the batch holding position 50, then takes it; nothing is recorded from a failed batch
+        AtomicInteger failures = new AtomicInteger();
+        Recorder recorder = new Recorder(Duration.ZERO) {
+            @Override
+            public void onEvents(List<EventEnvelope> events) {
+                boolean poisoned = events.stream().anyMatch(event -> event.getGlobalPosition() == 50);
+                if (poisoned && failures.getAndIncrement() < 2) {
+                    throw new IllegalStateException("read model unavailable");
+                }
+                super.onEvents(events);
+            }
+        };
+        try (SegmentLogEventStore store = new SegmentLogEventStore(directory, 1024 * 1024, FsyncPolicy.OS_MANAGED,
+                Duration.ofMillis(50), new EventSerializer(), new EventAppendNotifier(ringBuffer))) {
+            EventBus bus = new EventBus(ringBuffer, store, List.of(recorder), 16, WaitStrategy.BLOCKING,
+                    Duration.ofMillis(5), Duration.ofMillis(20));
+            append(store, 99);
+            awaitSize(recorder.positions, 100);
+            bus.shutdown();
+        }
+        assertEquals(3, failures.get());
+        assertEquals(LongStream.rangeClosed(1, 100).boxed().toList(), recorder.positions);
+    }
+
+    @Test
+    void positionsOfARolledBackAppendAreSkippedWithoutWaitingForTheGapTimeout() throws Exception {
+        EventRingBuffer ringBuffer = new EventRingBuffer(1024);
+        EventAppendNotifier notifier = new EventAppendNotifier(ringBuffer);
+        Recorder recorder = new Recorder(Duration.ZERO);
+        // Any store read would mean the subscriber gave up waiting for the gap
+        AtomicInteger storeCalls = new AtomicInteger();
+        EventStore store = (EventStore) Proxy.newProxyInstance(EventStore.class.getClassLoader(), new Class<?>[]{EventStore.class},
+                (proxy, method, args) -> {
+                    storeCalls.incrementAndGet();
+                    throw new UnsupportedOperationException(method.getName());
+                });
+        EventBus bus = new EventBus(ringBuffer, store, List.of(recorder), 16, WaitStrategy.BLOCKING, Duration.ofSeconds(30));
+        int callsAtStart = storeCalls.get(); // The start position is looked up once
+
+        long start = System.nanoTime();
+        notifier.appended(List.of(envelope(1), envelope(2)), 2);
+        notifier.rolledBack(3, 3, 5);
+        notifier.appended(List.of(envelope(6)), 6);
+        notifier.rolledBack(7, 1, 7);
+        notifier.appended(List.of(envelope(8)), 8);
+        awaitSize(recorder.positions, 4);
+        bus.shutdown();
+
+        assertEquals(List.of(1L, 2L, 6L, 8L), recorder.positions);
+        assertTrue(System.nanoTime() - start < Duration.ofSeconds(5).toNanos());
+        assertEquals(callsAtStart, storeCalls.get());
+    }
+
+    @Test
+    void lateGapNeverReplacesANewerEventInItsSlot() {
+        EventRingBuffer ringBuffer = new EventRingBuffer(4);
+        ringBuffer.publish(List.of(envelope(5)));
+        ringBuffer.publishGap(1, 1); // Same slot as 5
+        assertEquals(5, ringBuffer.peek(1).getGlobalPosition());
+        assertFalse(EventRingBuffer.isGap(ringBuffer.peek(5)));
+    }
+
+    private static EventEnvelope envelope(long position) {
+        return new EventEnvelope(position, "a" + position, 1, new AccountCreatedEvent("a" + position, 1));
+    }
+}
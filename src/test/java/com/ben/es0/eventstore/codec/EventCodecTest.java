@@ -0,0 +1,68 @@
+package com.ben.es0.eventstore.codec;
+
+import com.ben.es0.domain.Account;
+import com.ben.es0.domain.events.AccountCreatedEvent;
+import com.ben.es0.domain.events.AccountEvent;
+import com.ben.es0.domain.events.MoneyDepositedEvent;
+import com.ben.es0.domain.events.MoneyWithdrawnEvent;
+import com.ben.es0.eventstore.EventSerializer;
+import com.ben.es0.eventstore.StoredEvent;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+
+class EventCodecTest {
+
+    @Test
+    void binaryCodecRoundTripsWithFixedSize() {
+        BinaryEventCodec codec = new BinaryEventCodec();
+        Instant timestamp = Instant.parse("2024-05-01T10:15:30.123456789Z");
+
+        byte[] payload = codec.encode(new MoneyWithdrawnEvent("a1", 12.5, timestamp));
+        AccountEvent decoded = codec.decode("a1", payload);
+
+        assertEquals(BinaryEventCodec.SIZE_V1, payload.length);
+        MoneyWithdrawnEvent withdrawn = assertInstanceOf(MoneyWithdrawnEvent.class, decoded);
+        assertEquals("a1", withdrawn.getAccountId());
+        assertEquals(12.5, withdrawn.getAmount());
+        assertEquals(timestamp, withdrawn.getTimestamp());
+    }
+
+    @Test
+    void legacyJsonRowsStayReadable() {
+        // Same layout JpaEventStore used to write: class name + Jackson JSON text
+        String json = new String(new JsonEventCodec().encode(new AccountCreatedEvent("a1", 100)), StandardCharsets.UTF_8);
+        StoredEvent legacy = new StoredEvent("a1", Instant.now(), AccountCreatedEvent.class.getName(), json, 1);
+
+        AccountEvent decoded = new EventSerializer("binary").deserialize(legacy);
+
+        assertEquals(100.0, assertInstanceOf(AccountCreatedEvent.class, decoded).getInitialBalance());
+    }
+
+    @Test
+    void foldingStoredPayloadsMatchesReplayingEventsWithoutDrift() {
+        EventSerializer serializer = new EventSerializer("binary");
+        List<AccountEvent> history = new ArrayList<>(List.of(new AccountCreatedEvent("a1", 0.3)));
+        for (int i = 0; i < 10_000; i++) {
+            history.add(i % 4 == 3 ? new MoneyWithdrawnEvent("a1", 0.1) : new MoneyDepositedEvent("a1", 0.1));
+        }
+
+        Account folded = new Account("a1", List.of());
+        for (AccountEvent event : history) {
+            serializer.fold("a1", BinaryEventCodec.ID, serializer.serialize(event), folded::apply);
+        }
+        Account replayed = new Account("a1", history);
+
+        // 7500 deposits and 2500 withdrawals of 0.1 on top of 0.3, exact in minor units
+        assertEquals(50_030, folded.getBalanceMinor());
+        assertEquals(500.3, folded.getBalance());
+        assertEquals(replayed.getBalanceMinor(), folded.getBalanceMinor());
+        assertEquals(10_001, folded.getVersion());
+    }
+}
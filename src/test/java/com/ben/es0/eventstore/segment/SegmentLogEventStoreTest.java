@@ -0,0 +1,223 @@
+package com.ben.es0.eventstore.segment;
+
+import com.ben.es0.domain.events.AccountCreatedEvent;
+import com.ben.es0.domain.events.AccountEvent;
+import com.ben.es0.domain.events.MoneyDepositedEvent;
+import com.ben.es0.eventstore.ConcurrencyException;
+import com.ben.es0.eventstore.EventSerializer;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SegmentLogEventStoreTest {
+
+    @TempDir
+    Path directory;
+
+    private SegmentLogEventStore open(int segmentSize) throws IOException {
+        return new SegmentLogEventStore(directory, segmentSize, FsyncPolicy.PER_WRITE, Duration.ofMillis(50), new EventSerializer());
+    }
+
+    @Test
+    void eventsSurviveReopenAndRollAcrossSegments() throws IOException {
+        try (SegmentLogEventStore store = open(1024)) {
+            store.save("a1", List.of(new AccountCreatedEvent("a1", 100)), 0);
+            for (int version = 1; version <= 20; version++) {
+                store.save("a1", List.of(new MoneyDepositedEvent("a1", 1)), version);
+            }
+        }
+
+        try (SegmentLogEventStore store = open(1024)) {
+            List<AccountEvent> events = store.getEventsForAggregate("a1");
+            assertEquals(21, events.size());
+            assertEquals(2, store.getEventsForAggregate("a1", 19).size());
+            assertEquals(21, store.getLastStoredEventForAggregate("a1").orElseThrow().getVersion());
+        }
+    }
+
+    @Test
+    void batchedFsyncRunningAlongsideAppendsAndRollsKeepsEveryRecord() throws IOException {
+        // A 1ms interval makes the background flush overlap the appends and the segment rolls
+        try (SegmentLogEventStore store = new SegmentLogEventStore(directory, 1024, FsyncPolicy.BATCHED, Duration.ofMillis(1),
+                new EventSerializer())) {
+            store.save("a1", List.of(new AccountCreatedEvent("a1", 100)), 0);
+            for (int version = 1; version <= 200; version++) {
+                store.save("a1", List.of(new MoneyDepositedEvent("a1", 1)), version);
+            }
+        }
+
+        try (SegmentLogEventStore store = open(1024)) {
+            assertEquals(201, store.getEventsForAggregate("a1").size());
+        }
+    }
+
+    @Test
+    void rejectsStaleExpectedVersion() throws IOException {
+        try (SegmentLogEventStore store = open(1024 * 1024)) {
+            store.save("a1", List.of(new AccountCreatedEvent("a1", 100)), 0);
+            assertThrows(ConcurrencyException.class,
+                    () -> store.save("a1", List.of(new AccountCreatedEvent("a1", 100)), 0));
+        }
+    }
+
+    @Test
+    void saveAtNextVersionIgnoresConcurrentAppends() throws IOException {
+        try (SegmentLogEventStore store = open(1024 * 1024)) {
+            store.save("a1", List.of(new AccountCreatedEvent("a1", 100)), 0);
+            store.save("a1", List.of(new MoneyDepositedEvent("a1", 1)), 1);
+            // Decided against version 1, but still lands after the deposit above
+            assertEquals(3, store.saveAtNextVersion("a1", List.of(new MoneyDepositedEvent("a1", 2))));
+            assertEquals(3, store.getEventsForAggregate("a1").size());
+        }
+    }
+
+    @Test
+    void versionAtFindsLastEventAtOrBeforeTimestamp() throws IOException {
+        Instant start = Instant.parse("2024-01-01T00:00:00Z");
+        try (SegmentLogEventStore store = open(1024 * 1024)) {
+            store.save("a1", List.of(new AccountCreatedEvent("a1", 100, start)), 0);
+            for (int version = 1; version <= 9; version++) {
+                store.save("a1", List.of(new MoneyDepositedEvent("a1", 1, start.plusSeconds(10L * version))), version);
+            }
+            assertEquals(0, store.versionAt("a1", start.minusMillis(1)));
+            assertEquals(1, store.versionAt("a1", start));
+            assertEquals(4, store.versionAt("a1", start.plusSeconds(35)));
+            assertEquals(10, store.versionAt("a1", start.plusSeconds(3600)));
+            assertEquals(0, store.versionAt("unknown", start.plusSeconds(3600)));
+        }
+    }
+
+    @Test
+    void recoveryTruncatesTornTailRecord() throws IOException {
+        int tornOffset;
+        try (SegmentLogEventStore store = open(1024 * 1024)) {
+            store.save("a1", List.of(new AccountCreatedEvent("a1", 100)), 0);
+            store.save("a1", List.of(new MoneyDepositedEvent("a1", 5)), 1);
+        }
+
+        // Simulate a crash in the middle of writing the third record: a length but garbage content
+        Path segment = directory.resolve(LogSegment.fileName(0));
+        try (RandomAccessFile file = new RandomAccessFile(segment.toFile(), "rw")) {
+            tornOffset = findEndOfRecords(file);
+            file.seek(tornOffset);
+            file.writeInt(40);
+            file.writeInt(12345);
+            file.write(new byte[]{1, 2, 3});
+        }
+
+        try (SegmentLogEventStore store = open(1024 * 1024)) {
+            assertEquals(2, store.getEventsForAggregate("a1").size());
+            // Appends continue where the intact records end
+            store.save("a1", List.of(new MoneyDepositedEvent("a1", 7)), 2);
+        }
+        try (SegmentLogEventStore store = open(1024 * 1024)) {
+            assertEquals(3, store.getEventsForAggregate("a1").size());
+        }
+    }
+
+    @Test
+    void segmentsAreFoundByIdWhenEarlierOnesAreGone() throws IOException {
+        try (SegmentLogEventStore store = open(1024)) {
+            store.save("old", List.of(new AccountCreatedEvent("old", 1)), 0);
+            // Enough to fill the first segment
+            for (int version = 1; version <= 30; version++) {
+                store.save("old", List.of(new MoneyDepositedEvent("old", 1)), version);
+            }
+            store.save("a1", List.of(new AccountCreatedEvent("a1", 100)), 0);
+            for (int version = 1; version <= 20; version++) {
+                store.save("a1", List.of(new MoneyDepositedEvent("a1", version)), version);
+            }
+        }
+        // The first segment only held "old"; without it the remaining ids start above 0
+        assertTrue(Files.exists(directory.resolve(LogSegment.fileName(2))));
+        Files.delete(directory.resolve(LogSegment.fileName(0)));
+
+        try (SegmentLogEventStore store = open(1024)) {
+            List<AccountEvent> events = store.getEventsForAggregate("a1");
+            assertEquals(21, events.size());
+            for (int version = 1; version <= 20; version++) {
+                assertEquals(version, ((MoneyDepositedEvent) events.get(version)).getAmount());
+            }
+        }
+    }
+
+    @Test
+    void payloadTooLargeForARecordIsRejectedWithoutWritingAnything() throws IOException {
+        EventSerializer oversized = new EventSerializer() {
+            @Override
+            public byte[] serialize(AccountEvent event) {
+                return event instanceof MoneyDepositedEvent ? new byte[70_000] : super.serialize(event);
+            }
+        };
+        try (SegmentLogEventStore store = new SegmentLogEventStore(directory, 1024 * 1024, FsyncPolicy.PER_WRITE,
+                Duration.ofMillis(50), oversized)) {
+            store.save("a1", List.of(new AccountCreatedEvent("a1", 100)), 0);
+            IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+                    () -> store.save("a1", List.of(new MoneyDepositedEvent("a1", 1)), 1));
+            assertTrue(e.getMessage().contains("70000 bytes"), e.getMessage());
+            assertEquals(1, store.getEventsForAggregate("a1").size());
+        }
+    }
+
+    @Test
+    void recoveryClearsAnUnfinishedBatchSoItCannotReappearLater() throws IOException {
+        try (SegmentLogEventStore store = open(1024 * 1024)) {
+            store.save("a1", List.of(new AccountCreatedEvent("a1", 100)), 0);
+        }
+        // Simulate a crash after two intact records of a batch whose end-of-batch record never made it
+        Path segment = directory.resolve(LogSegment.fileName(0));
+        int end;
+        byte[] orphan;
+        try (RandomAccessFile file = new RandomAccessFile(segment.toFile(), "rw")) {
+            end = findEndOfRecords(file);
+            file.seek(0);
+            int length = file.readInt();
+            orphan = new byte[LogSegment.HEADER_SIZE + length];
+            file.seek(0);
+            file.readFully(orphan);
+            orphan[LogSegment.HEADER_SIZE] = 0; // Clear the end-of-batch flag of the copied record
+            CRC32 crc = new CRC32();
+            crc.update(orphan, LogSegment.HEADER_SIZE, length);
+            ByteBuffer.wrap(orphan).putInt(4, (int) crc.getValue());
+            file.seek(end);
+            file.write(orphan);
+            file.write(orphan);
+        }
+
+        try (SegmentLogEventStore store = open(1024 * 1024)) {
+            assertEquals(1, store.getEventsForAggregate("a1").size());
+        }
+        try (RandomAccessFile file = new RandomAccessFile(segment.toFile(), "r")) {
+            byte[] tail = new byte[2 * orphan.length];
+            file.seek(end);
+            file.readFully(tail);
+            assertArrayEquals(new byte[tail.length], tail);
+        }
+    }
+
+    private static int findEndOfRecords(RandomAccessFile file) throws IOException {
+        int offset = 0;
+        while (true) {
+            file.seek(offset);
+            int length = file.readInt();
+            if (length == 0) {
+                return offset;
+            }
+            offset += LogSegment.HEADER_SIZE + length;
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package com.ben.es0.eventstore.shard;
+
+import com.ben.es0.domain.events.AccountCreatedEvent;
+import com.ben.es0.domain.events.MoneyDepositedEvent;
+import com.ben.es0.eventstore.AppendRequest;
+import com.ben.es0.eventstore.ConcurrencyException;
+import com.ben.es0.eventstore.EventSerializer;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ShardedEventStoreTest {
+
+    private final String database = "shards-" + UUID.randomUUID();
+    private final EventSerializer serializer = new EventSerializer();
+
+    // Separate in-memory H2 databases; reopening a shard index reconnects to the same data
+    private ShardedEventStore open(int shardCount) {
+        List<EventStoreShard> shards = new ArrayList<>();
+        for (int i = 0; i < shardCount; i++) {
+            DriverManagerDataSource dataSource = new DriverManagerDataSource(
+                    "jdbc:h2:mem:" + database + "-" + i + ";DB_CLOSE_DELAY=-1;LOCK_TIMEOUT=10000", "sa", "");
+            shards.add(new EventStoreShard("shard-" + i, dataSource, serializer, 100));
+        }
+        return new ShardedEventStore(shards, 64);
+    }
+
+    private static void create(ShardedEventStore store, String accountId) {
+        store.save(accountId, List.of(new AccountCreatedEvent(accountId, 100)), 0);
+        store.save(accountId, List.of(new MoneyDepositedEvent(accountId, 5)), 1);
+    }
+
+    @Test
+    void aggregatesAreSpreadOverShardsAndVersionChecksStayLocal() {
+        ShardedEventStore store = open(3);
+        for (int i = 0; i < 300; i++) {
+            create(store, "acc-" + i);
+        }
+
+        for (EventStoreShard shard : store.shards()) {
+            // Roughly a third each; every account's two events sit on one shard
+            long events = shard.headPosition();
+            assertTrue(events > 100 && events < 300, shard.name() + " holds " + events + " events");
+        }
+        assertEquals(2, store.getEventsForAggregate("acc-7").size());
+        assertEquals(2, store.getLastStoredEventForAggregate("acc-7").orElseThrow().getVersion());
+        assertThrows(ConcurrencyException.class,
+                () -> store.save("acc-7", List.of(new MoneyDepositedEvent("acc-7", 1)), 1));
+        assertEquals(3, store.saveAtNextVersion("acc-7", List.of(new MoneyDepositedEvent("acc-7", 1))));
+    }
+
+    @Test
+    void batchSpanningShardsRollsBackEverywhereOnConflict() {
+        ShardedEventStore store = open(2);
+        String first = "acc-1";
+        String other = "acc-2";
+        for (int i = 2; store.shardFor(other) == store.shardFor(first); i++) {
+            other = "acc-" + i;
+        }
+        create(store, first);
+        create(store, other);
+
+        // The append to the other shard is fine, the stale one on the first shard must undo it
+        String target = other;
+        assertThrows(ConcurrencyException.class, () -> store.saveAll(List.of(
+                new AppendRequest(target, List.of(new MoneyDepositedEvent(target, 1)), 2),
+                new AppendRequest(first, List.of(new MoneyDepositedEvent(first, 1)), 1))));
+        assertEquals(2, store.getEventsForAggregate(other).size());
+
+        store.saveAll(List.of(
+                new AppendRequest(other, List.of(new MoneyDepositedEvent(other, 1)), 2),
+                new AppendRequest(first, List.of(new MoneyDepositedEvent(first, 1)), 2)));
+        assertEquals(3, store.getEventsForAggregate(other).size());
+        assertEquals(3, store.getEventsForAggregate(first).size());
+    }
+
+    @Test
+    void rebalanceMovesOnlyTheAggregatesOfTheNewShard() {
+        ShardedEventStore before = open(2);
+        for (int i = 0; i < 200; i++) {
+            create(before, "acc-" + i);
+        }
+
+        ShardedEventStore after = open(3);
+        EventStoreShard added = after.shards().get(2);
+        int expected = 0;
+        for (int i = 0; i < 200; i++) {
+            String accountId = "acc-" + i;
+            if (after.shardFor(accountId) == added) {
+                expected++;
+            } else {
+                // Consistent hashing: accounts not claimed by the new shard keep their shard
+                assertEquals(before.shardFor(accountId).name(), after.shardFor(accountId).name());
+            }
+        }
+        assertNotEquals(0, expected);
+
+        assertEquals(expected, new ShardRebalancer(after, false, 50).rebalance());
+        assertEquals(2L * expected, added.headPosition());
+        for (int i = 0; i < 200; i++) {
+            String accountId = "acc-" + i;
+            assertEquals(2, after.getEventsForAggregate(accountId).size());
+            for (EventStoreShard shard : after.shards()) {
+                if (shard != after.shardFor(accountId)) {
+                    assertTrue(shard.readEvents(accountId, 0, 0).isEmpty());
+                }
+            }
+        }
+        assertSame(added, after.shardFor(added.aggregateIds("", 1).get(0)));
+        assertEquals(0, new ShardRebalancer(after, false, 50).rebalance());
+    }
+}
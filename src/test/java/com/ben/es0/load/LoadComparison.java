@@ -0,0 +1,77 @@
+package com.ben.es0.load;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// 簡單的負載產生器，用來比較平台執行緒與虛擬執行緒模式 (見 readme)。不是單元測試，對著已啟動的應用程式執行：
+//   java src/test/java/com/ben/es0/load/LoadComparison.java http://localhost:8080 <requests> <concurrency> <accounts> <deposit-percent>
+// 預設 80% 查詢餘額、20% 存款，帳戶隨機挑選；輸出吞吐量、延遲百分位數與各狀態碼的數量。
+public class LoadComparison {
+
+    public static void main(String[] args) throws Exception {
+        String baseUrl = args.length > 0 ? args[0] : "http://localhost:8080";
+        int requests = args.length > 1 ? Integer.parseInt(args[1]) : 50_000;
+        int concurrency = args.length > 2 ? Integer.parseInt(args[2]) : 1_000;
+        int accounts = args.length > 3 ? Integer.parseInt(args[3]) : 1_000;
+        int depositPercent = args.length > 4 ? Integer.parseInt(args[4]) : 20;
+
+        HttpClient client = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(10)).build();
+        String run = Long.toString(System.nanoTime(), 36);
+        for (int i = 0; i < accounts; i++) {
+            client.send(post(baseUrl + "/accounts", "{\"accountId\":\"" + run + "-" + i + "\",\"initialBalance\":100}"),
+                    HttpResponse.BodyHandlers.discarding());
+        }
+
+        Semaphore inFlight = new Semaphore(concurrency);
+        CountDownLatch done = new CountDownLatch(requests);
+        AtomicLongArray latencies = new AtomicLongArray(requests);
+        AtomicInteger next = new AtomicInteger();
+        Map<Integer, AtomicInteger> statuses = new ConcurrentHashMap<>();
+
+        long start = System.nanoTime();
+        for (int i = 0; i < requests; i++) {
+            inFlight.acquire();
+            String accountId = run + "-" + ThreadLocalRandom.current().nextInt(accounts);
+            HttpRequest request = ThreadLocalRandom.current().nextInt(100) < depositPercent
+                    ? post(baseUrl + "/accounts/" + accountId + "/deposit", "{\"accountId\":\"" + accountId + "\",\"amount\":1}")
+                    : HttpRequest.newBuilder(URI.create(baseUrl + "/accounts/" + accountId)).timeout(Duration.ofSeconds(30)).build();
+            long sent = System.nanoTime();
+            client.sendAsync(request, HttpResponse.BodyHandlers.discarding()).whenComplete((response, error) -> {
+                latencies.set(next.getAndIncrement(), System.nanoTime() - sent);
+                int status = error != null ? -1 : response.statusCode();
+                statuses.computeIfAbsent(status, s -> new AtomicInteger()).incrementAndGet();
+                inFlight.release();
+                done.countDown();
+            });
+        }
+        done.await();
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        long[] sorted = new long[requests];
+        for (int i = 0; i < requests; i++) {
+            sorted[i] = latencies.get(i);
+        }
+        java.util.Arrays.sort(sorted);
+        System.out.printf("requests=%d concurrency=%d throughput=%.0f req/s p50=%.1f ms p99=%.1f ms max=%.1f ms statuses=%s%n",
+                requests, concurrency, requests / seconds,
+                sorted[requests / 2] / 1e6, sorted[(int) (requests * 0.99)] / 1e6, sorted[requests - 1] / 1e6, statuses);
+    }
+
+    private static HttpRequest post(String url, String json) {
+        return HttpRequest.newBuilder(URI.create(url))
+                .timeout(Duration.ofSeconds(30))
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(json))
+                .build();
+    }
+}
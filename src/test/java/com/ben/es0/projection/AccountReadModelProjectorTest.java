@@ -0,0 +1,49 @@
+package com.ben.es0.projection;
+
+import com.ben.es0.domain.events.AccountCreatedEvent;
+import com.ben.es0.domain.events.AccountEvent;
+import com.ben.es0.domain.events.MoneyDepositedEvent;
+import com.ben.es0.domain.events.MoneyWithdrawnEvent;
+import com.ben.es0.eventstore.EventEnvelope;
+import com.ben.es0.query.AccountReadModel;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class AccountReadModelProjectorTest {
+
+    @Test
+    void eventsAreAppliedInVersionOrder() {
+        AccountReadModel model = AccountReadModelProjector.apply(null, envelope(0, new AccountCreatedEvent("a", 100)));
+        model = AccountReadModelProjector.apply(model, envelope(1, new MoneyDepositedEvent("a", 50)));
+        model = AccountReadModelProjector.apply(model, envelope(2, new MoneyWithdrawnEvent("a", 30)));
+
+        assertEquals(120.0, model.getBalance());
+        assertEquals(2, model.getVersion());
+    }
+
+    @Test
+    void eventsUpToTheModelsVersionAreNotAppliedAgain() {
+        // As after a crash between writing the read model and storing the checkpoint
+        AccountReadModel model = AccountReadModelProjector.apply(null, envelope(0, new AccountCreatedEvent("a", 100)));
+        model = AccountReadModelProjector.apply(model, envelope(1, new MoneyDepositedEvent("a", 50)));
+
+        model = AccountReadModelProjector.apply(model, envelope(0, new AccountCreatedEvent("a", 100)));
+        model = AccountReadModelProjector.apply(model, envelope(1, new MoneyDepositedEvent("a", 50)));
+        assertEquals(150.0, model.getBalance());
+        assertEquals(1, model.getVersion());
+
+        model = AccountReadModelProjector.apply(model, envelope(2, new MoneyDepositedEvent("a", 5)));
+        assertEquals(155.0, model.getBalance());
+    }
+
+    @Test
+    void eventForAnAccountWithoutReadModelIsSkipped() {
+        assertNull(AccountReadModelProjector.apply(null, envelope(3, new MoneyDepositedEvent("a", 50))));
+    }
+
+    private static EventEnvelope envelope(int version, AccountEvent event) {
+        return new EventEnvelope(version + 1, "a", version, event);
+    }
+}
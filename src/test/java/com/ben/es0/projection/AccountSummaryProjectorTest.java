@@ -0,0 +1,105 @@
+package com.ben.es0.projection;
+
+import com.ben.es0.domain.events.AccountCreatedEvent;
+import com.ben.es0.domain.events.MoneyDepositedEvent;
+import com.ben.es0.domain.events.MoneyWithdrawnEvent;
+import com.ben.es0.eventstore.EventStore;
+import com.ben.es0.query.AccountSummary;
+import com.ben.es0.query.AccountSummaryRepository;
+import com.ben.es0.query.DailyAccountSummary;
+import com.ben.es0.query.DailyAccountSummaryRepository;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.fail;
+
+// Works against the application's engine and its one summary row, so totals are compared as differences;
+// the events are stamped in March 2001 so the daily rows of those days are this test's alone
+@SpringBootTest
+class AccountSummaryProjectorTest {
+
+    @Autowired
+    private EventStore eventStore;
+    @Autowired
+    private ProjectionEngine projectionEngine;
+    @Autowired
+    private AccountSummaryProjector projector;
+    @Autowired
+    private ProjectionCheckpointRepository checkpointRepository;
+    @Autowired
+    private AccountSummaryRepository summaryRepository;
+    @Autowired
+    private DailyAccountSummaryRepository dailyRepository;
+
+    @Test
+    void totalsAndDailyRowsCountEachEventOnceEvenWhenReplayedAfterACheckpointReset() throws InterruptedException {
+        awaitProjection();
+        long start = eventStore.headPosition();
+        AccountSummary before = summary();
+
+        String a = "summary-" + UUID.randomUUID();
+        String b = "summary-" + UUID.randomUUID();
+        eventStore.save(a, List.of(new AccountCreatedEvent(a, 100, Instant.parse("2001-03-01T10:00:00Z"))), 0);
+        eventStore.save(a, List.of(new MoneyDepositedEvent(a, 50.25, Instant.parse("2001-03-01T23:59:59Z"))), 1);
+        eventStore.save(a, List.of(new MoneyWithdrawnEvent(a, 30.10, Instant.parse("2001-03-02T00:00:00Z"))), 2);
+        eventStore.save(b, List.of(new AccountCreatedEvent(b, 20, Instant.parse("2001-03-02T12:00:00Z"))), 0);
+        awaitProjection();
+
+        AccountSummary after = summary();
+        assertEquals(before.getAccounts() + 2, after.getAccounts());
+        assertEquals(before.getTotalBalanceMinor() + 10000 + 5025 - 3010 + 2000, after.getTotalBalanceMinor());
+        assertEquals(before.getDeposits() + 1, after.getDeposits());
+        assertEquals(before.getDepositTotalMinor() + 5025, after.getDepositTotalMinor());
+        assertEquals(before.getWithdrawals() + 1, after.getWithdrawals());
+        assertEquals(before.getWithdrawalTotalMinor() + 3010, after.getWithdrawalTotalMinor());
+        assertEquals(eventStore.headPosition(), after.getPosition());
+
+        // Days by event time in UTC: the deposit a second before midnight and the withdrawal at midnight fall apart
+        DailyAccountSummary first = dailyRepository.findById(LocalDate.of(2001, 3, 1)).orElseThrow();
+        DailyAccountSummary second = dailyRepository.findById(LocalDate.of(2001, 3, 2)).orElseThrow();
+        assertEquals(List.of(1L, 1L, 5025L, 0L, 0L), figures(first));
+        assertEquals(List.of(1L, 0L, 0L, 1L, 3010L), figures(second));
+
+        // Moved back to before these events, the engine hands them to the projector again
+        projectionEngine.runExclusively(AccountSummaryProjector.NAME, () -> {
+            checkpointRepository.save(new ProjectionCheckpoint(AccountSummaryProjector.NAME, start, Instant.now()));
+            projectionEngine.catchUp(projector);
+        });
+        assertEquals(eventStore.headPosition(), checkpointRepository.findById(AccountSummaryProjector.NAME).orElseThrow().getPosition());
+
+        AccountSummary replayed = summary();
+        replayed.setUpdatedAt(after.getUpdatedAt());
+        assertEquals(after, replayed);
+        assertEquals(first, dailyRepository.findById(LocalDate.of(2001, 3, 1)).orElseThrow());
+        assertEquals(second, dailyRepository.findById(LocalDate.of(2001, 3, 2)).orElseThrow());
+    }
+
+    private AccountSummary summary() {
+        return summaryRepository.findById(AccountSummary.SINGLETON_ID).orElseGet(() -> new AccountSummary(AccountSummary.SINGLETON_ID));
+    }
+
+    private static List<Long> figures(DailyAccountSummary day) {
+        return List.of(day.getAccountsOpened(), day.getDeposits(), day.getDepositTotalMinor(),
+                day.getWithdrawals(), day.getWithdrawalTotalMinor());
+    }
+
+    private void awaitProjection() throws InterruptedException {
+        long head = eventStore.headPosition();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (System.nanoTime() < deadline) {
+            if (checkpointRepository.findById(AccountSummaryProjector.NAME).map(ProjectionCheckpoint::getPosition).orElse(0L) >= head) {
+                return;
+            }
+            TimeUnit.MILLISECONDS.sleep(20);
+        }
+        fail("Summary projection did not reach position " + head);
+    }
+}
@@ -0,0 +1,146 @@
+package com.ben.es0.projection;
+
+import com.ben.es0.domain.events.AccountCreatedEvent;
+import com.ben.es0.domain.events.MoneyDepositedEvent;
+import com.ben.es0.eventstore.EventEnvelope;
+import com.ben.es0.eventstore.EventStore;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+// Runs its own engine next to the application's, with a projector whose "read model" is a counter row:
+// it counts the events of this test's accounts in the same transaction as the checkpoint
+@SpringBootTest
+class ProjectionEngineTest {
+
+    @Autowired
+    private EventStore eventStore;
+    @Autowired
+    private ProjectionCheckpointRepository checkpointRepository;
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private String prefix;
+    private String projectorName;
+
+    @BeforeEach
+    void setUp() {
+        prefix = "projection-" + UUID.randomUUID() + "-";
+        projectorName = "test-" + UUID.randomUUID();
+        // Start at the head, the events of earlier tests are not this projector's business
+        checkpointRepository.save(new ProjectionCheckpoint(projectorName, eventStore.headPosition(), Instant.now()));
+    }
+
+    @Test
+    void checkpointIsPersistedAndARestartedEngineResumesWithoutApplyingAnythingTwice() {
+        append(prefix + "a", 5);
+        CountingProjector projector = new CountingProjector();
+        engine(projector).catchUp(projector);
+        assertEquals(5, applied());
+        assertEquals(eventStore.headPosition(), checkpoint());
+
+        // A new engine, as after a restart, only has the stored checkpoint to go by
+        append(prefix + "b", 4);
+        CountingProjector afterRestart = new CountingProjector();
+        ProjectionEngine restarted = engine(afterRestart);
+        restarted.catchUp(afterRestart);
+        assertEquals(9, applied());
+        assertEquals(eventStore.headPosition(), checkpoint());
+
+        // Nothing new: catching up again changes nothing
+        restarted.catchUp(afterRestart);
+        assertEquals(9, applied());
+    }
+
+    @Test
+    void eventsDeliveredByTheBusAreOnlyAppliedAfterTheCheckpoint() {
+        append(prefix + "a", 3);
+        CountingProjector projector = new CountingProjector();
+        ProjectionEngine engine = engine(projector);
+        engine.catchUp(projector);
+        long checkpoint = checkpoint();
+
+        // The bus hands over the last two already projected events together with two new ones
+        List<EventEnvelope> projected = eventStore.readAll(checkpoint - 2, 10);
+        append(prefix + "b", 2);
+        List<EventEnvelope> delivered = new ArrayList<>(projected);
+        delivered.addAll(eventStore.readAll(checkpoint, 10));
+        engine.onEvents(delivered);
+
+        assertEquals(5, applied());
+        assertEquals(eventStore.headPosition(), checkpoint());
+    }
+
+    @Test
+    void failedBatchRollsBackItsReadModelChangesTogetherWithTheCheckpoint() {
+        append(prefix + "a", 4);
+        long before = checkpoint();
+        CountingProjector projector = new CountingProjector();
+        projector.failing = true; // Writes its counter, then fails
+        ProjectionEngine engine = engine(projector);
+
+        assertThrows(IllegalStateException.class, () -> engine.catchUp(projector));
+        assertEquals(0, applied());
+        assertEquals(before, checkpoint());
+
+        // Once the projector works again the same events are applied exactly once
+        projector.failing = false;
+        engine.catchUp(projector);
+        assertEquals(4, applied());
+        assertEquals(eventStore.headPosition(), checkpoint());
+    }
+
+    private ProjectionEngine engine(Projector projector) {
+        // Small batches, so catching up takes several transactions
+        return new ProjectionEngine(eventStore, List.of(projector), checkpointRepository, transactionManager, 3, meterRegistry);
+    }
+
+    private void append(String accountId, int events) {
+        eventStore.save(accountId, List.of(new AccountCreatedEvent(accountId, 0)), 0);
+        for (int version = 1; version < events; version++) {
+            eventStore.save(accountId, List.of(new MoneyDepositedEvent(accountId, 1)), version);
+        }
+    }
+
+    private long applied() {
+        return checkpointRepository.findById(projectorName + "-applied").map(ProjectionCheckpoint::getPosition).orElse(0L);
+    }
+
+    private long checkpoint() {
+        return checkpointRepository.findById(projectorName).orElseThrow().getPosition();
+    }
+
+    private final class CountingProjector implements Projector {
+        private volatile boolean failing;
+
+        @Override
+        public String name() {
+            return projectorName;
+        }
+
+        @Override
+        public void project(List<EventEnvelope> batch) {
+            long mine = batch.stream().filter(event -> event.getAggregateId().startsWith(prefix)).count();
+            ProjectionCheckpoint counter = checkpointRepository.findById(projectorName + "-applied")
+                    .orElseGet(() -> new ProjectionCheckpoint(projectorName + "-applied", 0, Instant.now()));
+            counter.setPosition(counter.getPosition() + mine);
+            checkpointRepository.save(counter);
+            if (failing) {
+                throw new IllegalStateException("Read model unavailable");
+            }
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package com.ben.es0.query;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AccountReadModelCacheTest {
+
+    @Test
+    void missThatReadTheDatabaseBeforeANewerProjectionCommittedIsNotCached() {
+        AccountReadModelCache cache = new AccountReadModelCache(10);
+
+        // The reader misses and reads version 3 from the database ...
+        assertTrue(cache.get("a").isEmpty());
+        long stamp = cache.loadStamp("a");
+        AccountReadModel read = new AccountReadModel("a", 30, 3);
+        // ... while the projection of version 4 commits
+        cache.refresh(List.of(new AccountReadModel("a", 40, 4)));
+        cache.put(read, stamp);
+        assertTrue(cache.get("a").isEmpty());
+
+        // The next miss loads the committed version and keeps it
+        cache.put(new AccountReadModel("a", 40, 4), cache.loadStamp("a"));
+        assertEquals(4, cache.get("a").orElseThrow().getVersion());
+    }
+
+    @Test
+    void cachedEntriesFollowCommittedProjectionsAndNeverGoBack() {
+        AccountReadModelCache cache = new AccountReadModelCache(10);
+        cache.put(new AccountReadModel("a", 30, 3), cache.loadStamp("a"));
+
+        cache.refresh(List.of(new AccountReadModel("a", 50, 5), new AccountReadModel("b", 10, 1)));
+        AccountReadModel cached = cache.get("a").orElseThrow();
+        assertEquals(5, cached.getVersion());
+        assertEquals(50.0, cached.getBalance());
+        // Accounts nobody read are not pulled into the cache by writes
+        assertEquals(1, cache.size());
+
+        cache.refresh(List.of(new AccountReadModel("a", 40, 4)));
+        cache.put(new AccountReadModel("a", 40, 4), cache.loadStamp("a"));
+        assertEquals(5, cache.get("a").orElseThrow().getVersion());
+
+        // Callers get copies, changing one does not touch the cache
+        cached.setVersion(99);
+        assertEquals(5, cache.get("a").orElseThrow().getVersion());
+    }
+
+    @Test
+    void leastRecentlyReadEntryIsEvictedFirst() {
+        AccountReadModelCache cache = new AccountReadModelCache(2);
+        cache.put(new AccountReadModel("a", 1, 0), cache.loadStamp("a"));
+        cache.put(new AccountReadModel("b", 1, 0), cache.loadStamp("b"));
+        cache.get("a");
+        cache.put(new AccountReadModel("c", 1, 0), cache.loadStamp("c"));
+
+        assertTrue(cache.get("a").isPresent());
+        assertTrue(cache.get("b").isEmpty());
+        assertTrue(cache.get("c").isPresent());
+        assertEquals(0.75, cache.hitRatio());
+    }
+}